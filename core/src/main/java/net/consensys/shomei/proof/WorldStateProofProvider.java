@@ -17,8 +17,7 @@ import net.consensys.shomei.ZkAccount;
 import net.consensys.shomei.trie.ZKTrie;
 import net.consensys.shomei.trie.proof.MerkleInclusionProof;
 import net.consensys.shomei.trie.proof.MerkleProof;
-import net.consensys.shomei.trie.storage.AccountTrieRepositoryWrapper;
-import net.consensys.shomei.trie.storage.StorageTrieRepositoryWrapper;
+import net.consensys.shomei.trie.storage.ReadOnlyTrieRepositoryWrapper;
 import net.consensys.shomei.trielog.AccountKey;
 import net.consensys.shomei.trielog.StorageSlotKey;
 import net.consensys.shomei.worldview.ZkEvmWorldState;
@@ -41,14 +40,15 @@ public class WorldStateProofProvider {
     final ZKTrie accountTrie =
         ZKTrie.loadTrie(
             zkEvmWorldState.getStateRootHash(),
-            new AccountTrieRepositoryWrapper(zkEvmWorldState.getZkEvmWorldStateStorage()));
+            ReadOnlyTrieRepositoryWrapper.forAccountTrie(
+                zkEvmWorldState.getZkEvmWorldStateStorage()));
     final MerkleProof accountProof =
         accountTrie.getProof(accountKey.accountHash(), accountKey.address());
     if (accountProof instanceof MerkleInclusionProof merkleInclusionProof) {
       ZkAccount zkAccount =
           ZkAccount.fromEncodedBytes(
               accountKey, merkleInclusionProof.getProof().getValue().orElseThrow());
-      if (!zkAccount.getStorageRoot().equals(ZKTrie.DEFAULT_TRIE_ROOT)) {
+      if (!zkAccount.getStorageRoot().equals(ZKTrie.getDefaultTrieRoot())) {
         final List<MerkleProof> storageProofs =
             getStorageProofs(zkAccount, merkleInclusionProof.getLeafIndex(), accountStorageKeys);
         return new MerkleAccountProof(accountProof, storageProofs);
@@ -67,7 +67,7 @@ public class WorldStateProofProvider {
     final ZKTrie storageTrie =
         ZKTrie.loadTrie(
             account.getStorageRoot(),
-            new StorageTrieRepositoryWrapper(
+            ReadOnlyTrieRepositoryWrapper.forStorageTrie(
                 accountIndex, zkEvmWorldState.getZkEvmWorldStateStorage()));
     return accountStorageKeys.stream()
         .map(key -> storageTrie.getProof(key.slotHash(), key.slotKey()))
@@ -73,7 +73,7 @@ public class InMemoryStorageProvider implements StorageProvider {
 
       @Override
       public Optional<Hash> getZkStateRootHash(final long blockNumber) {
-        return Optional.of(zkStateRootStorage.get(blockNumber));
+        return Optional.ofNullable(zkStateRootStorage.get(blockNumber));
       }
     };
   }
@@ -26,6 +26,7 @@ import net.consensys.shomei.storage.TrieLogManager.TrieLogManagerImpl;
 import net.consensys.shomei.storage.worldstate.PersistedWorldStateStorage;
 import net.consensys.shomei.storage.worldstate.WorldStateStorage;
 
+import java.util.OptionalLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
@@ -61,6 +62,11 @@ public class RocksDBStorageProvider implements StorageProvider {
     return initializeAndGet(trieLogManager, () -> new TrieLogManagerImpl(getTrieLogStorage()));
   }
 
+  @Override
+  public OptionalLong getSnapshotPinnedBytes() {
+    return OptionalLong.of(segmentedStorage.getPinnedBytes());
+  }
+
   @VisibleForTesting
   SnappableKeyValueStorage getTrieNodeStorage() {
     return segmentedStorage.getKeyValueStorageForSegment(ZK_TRIE_NODE.getSegmentIdentifier());
@@ -0,0 +1,105 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage;
+
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides how long the cached world states are kept, trading the coverage of the proof queries
+ * against the memory and the disk space pinned by the snapshots. The blocks getting a cached world
+ * state are chosen by the sync rules.
+ *
+ * <p>The cached world states are evicted, lowest block numbers first, once there are more than
+ * {@code maxCount}, once cached for longer than {@code maxAge}, and while the storage estimates
+ * more than {@code maxPinnedBytes} pinned by the snapshots.
+ */
+public class SnapshotRetentionPolicy {
+
+  public static final int DEFAULT_MAX_COUNT = 128;
+
+  public static final SnapshotRetentionPolicy DEFAULT =
+      new SnapshotRetentionPolicy(DEFAULT_MAX_COUNT, Duration.ZERO, 0L);
+
+  private static final Logger LOG = LoggerFactory.getLogger(SnapshotRetentionPolicy.class);
+
+  private final int maxCount;
+  private final Duration maxAge;
+  private final long maxPinnedBytes;
+
+  /**
+   * Creates the policy.
+   *
+   * @param maxCount the maximum number of cached world states
+   * @param maxAge the maximum time a world state stays cached, zero for no limit
+   * @param maxPinnedBytes the maximum number of bytes pinned by the snapshots, 0 for no limit
+   */
+  public SnapshotRetentionPolicy(
+      final int maxCount, final Duration maxAge, final long maxPinnedBytes) {
+    if (maxCount <= 0) {
+      throw new IllegalArgumentException("invalid maximum snapshot count " + maxCount);
+    }
+    if (maxAge.isNegative()) {
+      throw new IllegalArgumentException("invalid maximum snapshot age " + maxAge);
+    }
+    this.maxCount = maxCount;
+    this.maxAge = maxAge;
+    this.maxPinnedBytes = maxPinnedBytes;
+  }
+
+  /**
+   * Evicts the cached world states beyond the limits, called after each new cached world state.
+   *
+   * @param cachedWorldStates the cached world states
+   * @param pinnedBytes measures the bytes pinned by the snapshots, empty if not measurable
+   */
+  void apply(final WorldStateRegistry cachedWorldStates, final Supplier<OptionalLong> pinnedBytes) {
+    cachedWorldStates.trim(maxCount);
+    if (!maxAge.isZero()) {
+      cachedWorldStates.trimOlderThan(maxAge);
+    }
+    if (maxPinnedBytes > 0 && cachedWorldStates.size() > 1) {
+      // the data of an evicted snapshot is only unpinned once released and compacted, evicting one
+      // snapshot per call does not drop the whole cache before the measure catches up
+      pinnedBytes
+          .get()
+          .ifPresent(
+              bytes -> {
+                if (bytes > maxPinnedBytes && cachedWorldStates.evictLowest()) {
+                  LOG.atDebug()
+                      .setMessage("Evicted the lowest snapshot, {} bytes pinned above {}")
+                      .addArgument(bytes)
+                      .addArgument(maxPinnedBytes)
+                      .log();
+                }
+              });
+    }
+  }
+
+  public int getMaxCount() {
+    return maxCount;
+  }
+
+  public Duration getMaxAge() {
+    return maxAge;
+  }
+
+  public long getMaxPinnedBytes() {
+    return maxPinnedBytes;
+  }
+}
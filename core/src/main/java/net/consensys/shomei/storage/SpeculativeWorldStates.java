@@ -0,0 +1,277 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage;
+
+import net.consensys.shomei.exception.MissingTrieLogException;
+import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+import net.consensys.shomei.storage.worldstate.OverlayWorldStateStorage;
+import net.consensys.shomei.storage.worldstate.WorldStateStorage;
+import net.consensys.shomei.trie.trace.Trace;
+import net.consensys.shomei.trielog.TrieLogLayer;
+import net.consensys.shomei.trielog.TrieLogLayerConverter;
+import net.consensys.shomei.worldview.ZkEvmWorldState;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.hyperledger.besu.datatypes.Hash;
+import org.hyperledger.besu.ethereum.rlp.RLP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports the blocks not confirmed yet ahead of the head world state, each block into an in-memory
+ * overlay on top of the one of its parent. Their state roots and traces are kept in memory too.
+ *
+ * <p>Once the block following the head is confirmed, its overlay is persisted into the head world
+ * state without applying its trie log again. If the hash of a block changes, its overlay and the
+ * ones of its descendants are dropped, nothing was persisted for them.
+ *
+ * <p>Only used by the thread importing the blocks.
+ */
+final class SpeculativeWorldStates {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SpeculativeWorldStates.class);
+
+  private final TrieLogManager trieLogManager;
+  private final SpeculativeTraces speculativeTraces;
+  // the speculative blocks, the child of the head first
+  private final Deque<SpeculativeBlock> blocks = new ArrayDeque<>();
+
+  SpeculativeWorldStates(final TrieLogManager trieLogManager, final TraceManager traceManager) {
+    this.trieLogManager = trieLogManager;
+    this.speculativeTraces = new SpeculativeTraces(traceManager);
+  }
+
+  /** Returns the last block imported speculatively, empty if none is. */
+  Optional<TrieLogIdentifier> getHead() {
+    return Optional.ofNullable(blocks.peekLast()).map(SpeculativeBlock::trieLogIdentifier);
+  }
+
+  /**
+   * Imports the block on top of the last speculative one, or of the head world state if none. The
+   * speculative blocks at the same height or above are dropped first.
+   *
+   * @param head the head world state
+   * @param trieLogIdentifier the block to import
+   * @param generateTrace whether to generate the trace of the block
+   * @throws MissingTrieLogException if the trie log of the block is not available
+   */
+  void importBlock(
+      final ZkEvmWorldState head,
+      final TrieLogIdentifier trieLogIdentifier,
+      final boolean generateTrace)
+      throws MissingTrieLogException {
+    discardFrom(trieLogIdentifier.blockNumber());
+    if (!blocks.isEmpty()
+        && blocks.getFirst().trieLogIdentifier().blockNumber() != head.getBlockNumber() + 1) {
+      // the head moved without the speculative blocks
+      clear();
+    }
+    final long parentBlockNumber =
+        getHead().map(TrieLogIdentifier::blockNumber).orElse(head.getBlockNumber());
+    if (trieLogIdentifier.blockNumber() != parentBlockNumber + 1) {
+      throw new IllegalStateException(
+          "cannot import block %d speculatively on top of block %d"
+              .formatted(trieLogIdentifier.blockNumber(), parentBlockNumber));
+    }
+    final WorldStateStorage parent =
+        blocks.isEmpty() ? head.getZkEvmWorldStateStorage() : blocks.getLast().overlay();
+    final OverlayWorldStateStorage overlay =
+        new OverlayWorldStateStorage(parent, () -> {}) {
+          @Override
+          public Optional<Hash> getZkStateRootHash(final long blockNumber) {
+            return speculativeTraces.getZkStateRootHash(blockNumber);
+          }
+        };
+    final TrieLogLayer trieLog = loadTrieLog(trieLogIdentifier, overlay);
+    if (!trieLog.getBlockHash().equals(trieLogIdentifier.blockHash())) {
+      throw new IllegalStateException(
+          "trie log of block %d is for block hash %s"
+              .formatted(trieLogIdentifier.blockNumber(), trieLog.getBlockHash()));
+    }
+    final ZkEvmWorldState worldState = new ZkEvmWorldState(overlay, speculativeTraces);
+    worldState.getAccumulator().rollForward(trieLog);
+    worldState.commit(trieLogIdentifier.blockNumber(), trieLog.getBlockHash(), generateTrace);
+    blocks.addLast(new SpeculativeBlock(trieLogIdentifier, overlay, generateTrace));
+    LOG.atDebug()
+        .setMessage("Imported block {} speculatively, {} blocks ahead of the head")
+        .addArgument(trieLogIdentifier::toLogString)
+        .addArgument(blocks::size)
+        .log();
+  }
+
+  /**
+   * Persists the speculative block following the head into the head world state, if it is the
+   * given block. Otherwise the speculative blocks are dropped, they are not on the chain of the
+   * block.
+   *
+   * @param head the head world state
+   * @param trieLogIdentifier the confirmed block following the head
+   * @param generateTrace whether the trace of the block is needed
+   * @return whether the block was persisted
+   */
+  boolean promote(
+      final ZkEvmWorldState head,
+      final TrieLogIdentifier trieLogIdentifier,
+      final boolean generateTrace) {
+    final SpeculativeBlock block = blocks.peekFirst();
+    if (block == null) {
+      return false;
+    }
+    if (!block.trieLogIdentifier().blockNumber().equals(trieLogIdentifier.blockNumber())
+        || !block.trieLogIdentifier().blockHash().equals(trieLogIdentifier.blockHash())
+        || block.trieLogIdentifier().blockNumber() != head.getBlockNumber() + 1
+        || (generateTrace && !block.hasTrace())) {
+      LOG.atInfo()
+          .setMessage("Discarding {} speculative blocks, block {} was confirmed instead of {}")
+          .addArgument(blocks::size)
+          .addArgument(trieLogIdentifier::toLogString)
+          .addArgument(block.trieLogIdentifier()::toLogString)
+          .log();
+      clear();
+      return false;
+    }
+    final long blockNumber = trieLogIdentifier.blockNumber();
+    head.commitOverlay(
+        block.overlay(),
+        speculativeTraces.getZkStateRootHash(blockNumber).orElseThrow(),
+        speculativeTraces.getTraces(blockNumber));
+    blocks.removeFirst();
+    speculativeTraces.remove(blockNumber);
+    // the changes of the promoted block are now read from the head
+    Optional.ofNullable(blocks.peekFirst())
+        .ifPresent(child -> child.overlay().rebase(head.getZkEvmWorldStateStorage()));
+    return true;
+  }
+
+  /**
+   * Drops the speculative blocks from the given block, if its hash is not the speculative one.
+   *
+   * @param trieLogIdentifier a block of the chain followed by Besu
+   */
+  void discardIfReorged(final TrieLogIdentifier trieLogIdentifier) {
+    final boolean reorged =
+        blocks.stream()
+            .map(SpeculativeBlock::trieLogIdentifier)
+            .anyMatch(
+                speculative ->
+                    speculative.blockNumber().equals(trieLogIdentifier.blockNumber())
+                        && !speculative.blockHash().equals(trieLogIdentifier.blockHash()));
+    if (reorged) {
+      LOG.atInfo()
+          .setMessage("Block {} replaces the speculative one, discarding it and its descendants")
+          .addArgument(trieLogIdentifier::toLogString)
+          .log();
+      discardFrom(trieLogIdentifier.blockNumber());
+    }
+  }
+
+  /** Drops the speculative blocks at the given height and above. */
+  private void discardFrom(final long blockNumber) {
+    while (!blocks.isEmpty() && blocks.getLast().trieLogIdentifier().blockNumber() >= blockNumber) {
+      speculativeTraces.remove(blocks.removeLast().trieLogIdentifier().blockNumber());
+    }
+  }
+
+  void clear() {
+    blocks.clear();
+    speculativeTraces.clear();
+  }
+
+  private TrieLogLayer loadTrieLog(
+      final TrieLogIdentifier trieLogIdentifier, final WorldStateStorage worldStateStorage)
+      throws MissingTrieLogException {
+    return trieLogManager
+        .getTrieLog(trieLogIdentifier.blockNumber())
+        .map(RLP::input)
+        .map(new TrieLogLayerConverter(worldStateStorage)::decodeTrieLog)
+        .orElseThrow(() -> new MissingTrieLogException(trieLogIdentifier.blockNumber()));
+  }
+
+  private record SpeculativeBlock(
+      TrieLogIdentifier trieLogIdentifier, OverlayWorldStateStorage overlay, boolean hasTrace) {}
+
+  /** Keeps the state roots and traces of the speculative blocks in memory. */
+  private static final class SpeculativeTraces implements TraceManager {
+    private final TraceManager traceManager;
+    private final Map<Long, Hash> stateRootsByBlock = new HashMap<>();
+    private final Map<Long, List<Trace>> tracesByBlock = new HashMap<>();
+
+    private SpeculativeTraces(final TraceManager traceManager) {
+      this.traceManager = traceManager;
+    }
+
+    @Override
+    public TraceManagerUpdater updater() {
+      return new TraceManagerUpdater(null) {
+        @Override
+        public TraceManagerUpdater saveTrace(final long blockNumber, final List<Trace> traces) {
+          tracesByBlock.put(blockNumber, traces);
+          return this;
+        }
+
+        @Override
+        public TraceManagerUpdater removeTrace(final long blockNumber) {
+          tracesByBlock.remove(blockNumber);
+          return this;
+        }
+
+        @Override
+        public TraceManagerUpdater saveZkStateRootHash(
+            final long blockNumber, final Hash stateRoot) {
+          stateRootsByBlock.put(blockNumber, stateRoot);
+          return this;
+        }
+
+        @Override
+        public void commit() {
+          // the writes are already visible
+        }
+      };
+    }
+
+    @Override
+    public Optional<Bytes> getTrace(final long blockNumber) {
+      return getTraces(blockNumber)
+          .map(Trace::serialize)
+          .or(() -> traceManager.getTrace(blockNumber));
+    }
+
+    @Override
+    public Optional<Hash> getZkStateRootHash(final long blockNumber) {
+      return Optional.ofNullable(stateRootsByBlock.get(blockNumber))
+          .or(() -> traceManager.getZkStateRootHash(blockNumber));
+    }
+
+    private Optional<List<Trace>> getTraces(final long blockNumber) {
+      return Optional.ofNullable(tracesByBlock.get(blockNumber));
+    }
+
+    private void remove(final long blockNumber) {
+      stateRootsByBlock.remove(blockNumber);
+      tracesByBlock.remove(blockNumber);
+    }
+
+    private void clear() {
+      stateRootsByBlock.clear();
+      tracesByBlock.clear();
+    }
+  }
+}
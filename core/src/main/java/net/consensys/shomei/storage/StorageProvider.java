@@ -15,6 +15,8 @@ package net.consensys.shomei.storage;
 
 import net.consensys.shomei.storage.worldstate.WorldStateStorage;
 
+import java.util.OptionalLong;
+
 public interface StorageProvider {
 
   WorldStateStorage getWorldStateStorage();
@@ -22,4 +24,13 @@ public interface StorageProvider {
   TraceManager getTraceManager();
 
   TrieLogManager getTrieLogManager();
+
+  /**
+   * Estimates the bytes kept alive by the open snapshots of the world state storage.
+   *
+   * @return the estimated pinned bytes, empty if the storage does not measure them
+   */
+  default OptionalLong getSnapshotPinnedBytes() {
+    return OptionalLong.empty();
+  }
 }
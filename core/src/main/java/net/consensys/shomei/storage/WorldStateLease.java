@@ -0,0 +1,32 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage;
+
+import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+import net.consensys.shomei.worldview.ZkEvmWorldState;
+
+/**
+ * A cached world state in use. Its storage is not closed before the lease is, even if the world
+ * state is evicted from the cache in the meantime.
+ */
+public interface WorldStateLease extends AutoCloseable {
+
+  TrieLogIdentifier getTrieLogIdentifier();
+
+  ZkEvmWorldState getWorldState();
+
+  /** Releases the world state, closing its storage if it was evicted and no longer leased. */
+  @Override
+  void close();
+}
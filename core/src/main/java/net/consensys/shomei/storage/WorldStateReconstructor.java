@@ -0,0 +1,264 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage;
+
+import net.consensys.shomei.exception.MissingTrieLogException;
+import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+import net.consensys.shomei.storage.worldstate.OverlayWorldStateStorage;
+import net.consensys.shomei.storage.worldstate.WorldStateStorage;
+import net.consensys.shomei.trie.trace.Trace;
+import net.consensys.shomei.trielog.TrieLogLayerConverter;
+import net.consensys.shomei.worldview.ZkEvmWorldState;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.hyperledger.besu.datatypes.Hash;
+import org.hyperledger.besu.ethereum.rlp.RLP;
+import org.hyperledger.besu.ethereum.rlp.RLPInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reconstructs the world states of blocks older than the cached ones, by rolling back their trie
+ * logs on top of the closest cached world state into an in-memory overlay. The cached world state
+ * is leased until the overlay is dropped.
+ *
+ * <p>The reconstructed world states are cached too, the least recently used one being dropped
+ * first. A reconstruction is refused beyond the maximum number of blocks to roll back.
+ */
+final class WorldStateReconstructor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(WorldStateReconstructor.class);
+
+  private final TrieLogManager trieLogManager;
+  private final TraceManager traceManager;
+  private final WorldStateRegistry cachedWorldStates;
+  private final WorldStateRegistry reconstructedWorldStates;
+  private final int maxRollbackBlocks;
+  private final int maxReconstructedWorldStates;
+  // the reconstructed blocks by block number, the least recently used first, guarded by this
+  private final LinkedHashMap<Long, Reconstructed> recentlyUsed =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  WorldStateReconstructor(
+      final TrieLogManager trieLogManager,
+      final TraceManager traceManager,
+      final WorldStateRegistry cachedWorldStates,
+      final Function<WorldStateStorage, ZkEvmWorldState> worldStateFactory,
+      final int maxRollbackBlocks,
+      final int maxReconstructedWorldStates) {
+    this.trieLogManager = trieLogManager;
+    this.traceManager = traceManager;
+    this.cachedWorldStates = cachedWorldStates;
+    this.reconstructedWorldStates = new WorldStateRegistry(worldStateFactory);
+    this.maxRollbackBlocks = maxRollbackBlocks;
+    this.maxReconstructedWorldStates = maxReconstructedWorldStates;
+  }
+
+  boolean isEnabled() {
+    return maxRollbackBlocks > 0 && maxReconstructedWorldStates > 0;
+  }
+
+  /** Leases the reconstructed world state of the given block, if still cached. */
+  synchronized Optional<WorldStateLease> leaseReconstructed(final Hash blockHash) {
+    final Optional<WorldStateLease> lease = reconstructedWorldStates.lease(blockHash);
+    lease.ifPresent(l -> touch(l.getTrieLogIdentifier().blockNumber()));
+    return lease;
+  }
+
+  /**
+   * Leases the world state of the given block, reconstructing it if not cached yet.
+   *
+   * @param blockNumber the number of the block
+   * @return the lease of the world state, empty if it cannot be reconstructed
+   */
+  Optional<WorldStateLease> lease(final long blockNumber) {
+    if (!isEnabled()) {
+      return Optional.empty();
+    }
+    synchronized (this) {
+      final Optional<WorldStateLease> lease = reconstructedWorldStates.lease(blockNumber);
+      if (lease.isPresent()) {
+        touch(blockNumber);
+        return lease;
+      }
+    }
+    return reconstruct(blockNumber);
+  }
+
+  /** Drops the world states reconstructed on top of the given cached block, no longer readable. */
+  synchronized void onCachedWorldStateDropped(final TrieLogIdentifier trieLogIdentifier) {
+    final Iterator<Reconstructed> iterator = recentlyUsed.values().iterator();
+    while (iterator.hasNext()) {
+      final Reconstructed reconstructed = iterator.next();
+      if (reconstructed.base().blockNumber().equals(trieLogIdentifier.blockNumber())
+          && reconstructed.base().blockHash().equals(trieLogIdentifier.blockHash())) {
+        iterator.remove();
+        reconstructedWorldStates.evict(reconstructed.trieLogIdentifier());
+      }
+    }
+  }
+
+  /** Marks the reconstructed block as the most recently used one. */
+  private void touch(final long blockNumber) {
+    recentlyUsed.computeIfPresent(blockNumber, (key, reconstructed) -> reconstructed);
+  }
+
+  synchronized void clear() {
+    recentlyUsed.clear();
+    reconstructedWorldStates.clear();
+  }
+
+  private Optional<WorldStateLease> reconstruct(final long blockNumber) {
+    final Optional<WorldStateLease> maybeBase = cachedWorldStates.leaseFirstAfter(blockNumber);
+    if (maybeBase.isEmpty()) {
+      return Optional.empty();
+    }
+    final WorldStateLease base = maybeBase.get();
+    final TrieLogIdentifier baseIdentifier = base.getTrieLogIdentifier();
+    if (baseIdentifier.blockNumber() - blockNumber > maxRollbackBlocks) {
+      LOG.atDebug()
+          .setMessage("Not reconstructing block {}, more than {} blocks behind cached block {}")
+          .addArgument(blockNumber)
+          .addArgument(maxRollbackBlocks)
+          .addArgument(baseIdentifier.blockNumber())
+          .log();
+      base.close();
+      return Optional.empty();
+    }
+    final long start = System.currentTimeMillis();
+    final OverlayWorldStateStorage overlay =
+        new OverlayWorldStateStorage(
+            base.getWorldState().getZkEvmWorldStateStorage(), base::close);
+    final TrieLogIdentifier trieLogIdentifier;
+    try {
+      trieLogIdentifier = rollBack(overlay, baseIdentifier.blockNumber(), blockNumber);
+    } catch (MissingTrieLogException | RuntimeException e) {
+      overlay.close();
+      LOG.atWarn()
+          .setMessage("Failed to reconstruct the world state of block {} from block {}: {}")
+          .addArgument(blockNumber)
+          .addArgument(baseIdentifier::toLogString)
+          .addArgument(e.getMessage())
+          .log();
+      LOG.atDebug().setCause(e).log();
+      return Optional.empty();
+    }
+    LOG.atInfo()
+        .setMessage("Reconstructed the world state of block {} from block {} in {} ms")
+        .addArgument(trieLogIdentifier::toLogString)
+        .addArgument(baseIdentifier::toLogString)
+        .addArgument(System.currentTimeMillis() - start)
+        .log();
+
+    synchronized (this) {
+      reconstructedWorldStates.register(trieLogIdentifier, overlay);
+      recentlyUsed.put(blockNumber, new Reconstructed(trieLogIdentifier, baseIdentifier));
+      final Iterator<Reconstructed> eldest = recentlyUsed.values().iterator();
+      while (recentlyUsed.size() > maxReconstructedWorldStates) {
+        reconstructedWorldStates.evict(eldest.next().trieLogIdentifier());
+        eldest.remove();
+      }
+      return reconstructedWorldStates.lease(blockNumber);
+    }
+  }
+
+  /**
+   * Rolls the overlay back from the given block to the target one, one block at a time, and checks
+   * that the state root of the target block is the persisted one.
+   */
+  private TrieLogIdentifier rollBack(
+      final OverlayWorldStateStorage overlay, final long fromBlockNumber, final long toBlockNumber)
+      throws MissingTrieLogException {
+    final ZkEvmWorldState worldState = new ZkEvmWorldState(overlay, readOnly(traceManager));
+    final TrieLogLayerConverter trieLogLayerConverter = new TrieLogLayerConverter(overlay);
+    Bytes trieLog = loadTrieLog(fromBlockNumber);
+    for (long blockNumber = fromBlockNumber; blockNumber > toBlockNumber; blockNumber--) {
+      final Bytes parentTrieLog = loadTrieLog(blockNumber - 1);
+      worldState
+          .getAccumulator()
+          .rollBack(trieLogLayerConverter.decodeTrieLogForRollback(RLP.input(trieLog)));
+      worldState.commit(blockNumber - 1, readBlockHash(parentTrieLog), false);
+      trieLog = parentTrieLog;
+    }
+    final Optional<Hash> expectedStateRoot = traceManager.getZkStateRootHash(toBlockNumber);
+    if (expectedStateRoot.isEmpty()
+        || !expectedStateRoot.get().equals(worldState.getStateRootHash())) {
+      throw new IllegalStateException(
+          "reconstructed state root %s differs from the persisted one %s"
+              .formatted(worldState.getStateRootHash(), expectedStateRoot));
+    }
+    return new TrieLogIdentifier(toBlockNumber, worldState.getBlockHash());
+  }
+
+  private Bytes loadTrieLog(final long blockNumber) throws MissingTrieLogException {
+    return trieLogManager
+        .getTrieLog(blockNumber)
+        .orElseThrow(() -> new MissingTrieLogException(blockNumber));
+  }
+
+  private static Hash readBlockHash(final Bytes trieLog) {
+    final RLPInput input = RLP.input(trieLog);
+    input.enterList();
+    return Hash.wrap(input.readBytes32());
+  }
+
+  /** Reads the persisted traces and state roots, the ones saved by a reconstruction are dropped. */
+  private static TraceManager readOnly(final TraceManager traceManager) {
+    return new TraceManager() {
+      @Override
+      public TraceManagerUpdater updater() {
+        return new TraceManagerUpdater(null) {
+          @Override
+          public TraceManagerUpdater saveTrace(final long blockNumber, final List<Trace> traces) {
+            return this;
+          }
+
+          @Override
+          public TraceManagerUpdater removeTrace(final long blockNumber) {
+            return this;
+          }
+
+          @Override
+          public TraceManagerUpdater saveZkStateRootHash(
+              final long blockNumber, final Hash stateRoot) {
+            return this;
+          }
+
+          @Override
+          public void commit() {
+            // no-op
+          }
+        };
+      }
+
+      @Override
+      public Optional<Bytes> getTrace(final long blockNumber) {
+        return traceManager.getTrace(blockNumber);
+      }
+
+      @Override
+      public Optional<Hash> getZkStateRootHash(final long blockNumber) {
+        return traceManager.getZkStateRootHash(blockNumber);
+      }
+    };
+  }
+
+  private record Reconstructed(TrieLogIdentifier trieLogIdentifier, TrieLogIdentifier base) {}
+}
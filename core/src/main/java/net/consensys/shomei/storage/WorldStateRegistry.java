@@ -0,0 +1,279 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage;
+
+import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+import net.consensys.shomei.storage.worldstate.WorldStateStorage;
+import net.consensys.shomei.worldview.ZkEvmWorldState;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.hyperledger.besu.datatypes.Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The cached world states, indexed by block hash and block number.
+ *
+ * <p>The storage of a world state is reference counted: the registry holds one reference until
+ * the world state is evicted and each {@link WorldStateLease} holds one until closed. The storage
+ * is closed when the last reference is released, so an eviction never closes a storage that is
+ * still read.
+ *
+ * <p>The lookups only read concurrent maps. The registrations and evictions are done by the
+ * import thread and are synchronized.
+ */
+public class WorldStateRegistry {
+
+  private static final Logger LOG = LoggerFactory.getLogger(WorldStateRegistry.class);
+
+  private final Function<WorldStateStorage, ZkEvmWorldState> worldStateFactory;
+  private final Clock clock;
+  private final Map<Hash, Entry> byBlockHash = new ConcurrentHashMap<>();
+  private final Map<Long, Entry> byBlockNumber = new ConcurrentHashMap<>();
+  // the lowest block numbers are evicted first, guarded by this
+  private final TreeMap<Long, Entry> evictionOrder = new TreeMap<>();
+
+  public WorldStateRegistry(final Function<WorldStateStorage, ZkEvmWorldState> worldStateFactory) {
+    this(worldStateFactory, Clock.systemUTC());
+  }
+
+  public WorldStateRegistry(
+      final Function<WorldStateStorage, ZkEvmWorldState> worldStateFactory, final Clock clock) {
+    this.worldStateFactory = worldStateFactory;
+    this.clock = clock;
+  }
+
+  /**
+   * Registers the world state of a block, replacing the one registered for the same block number.
+   *
+   * @param trieLogIdentifier the block
+   * @param storage the storage of the world state, closed once evicted and no longer leased
+   */
+  public synchronized void register(
+      final TrieLogIdentifier trieLogIdentifier, final WorldStateStorage storage) {
+    final Entry replaced = evictionOrder.get(trieLogIdentifier.blockNumber());
+    if (replaced != null) {
+      drop(replaced);
+    }
+    final Entry entry = new Entry(trieLogIdentifier, storage, clock.instant());
+    evictionOrder.put(trieLogIdentifier.blockNumber(), entry);
+    byBlockNumber.put(trieLogIdentifier.blockNumber(), entry);
+    byBlockHash.put(trieLogIdentifier.blockHash(), entry);
+  }
+
+  /**
+   * Evicts the world state of the given block, if still registered.
+   *
+   * @param trieLogIdentifier the block
+   */
+  public synchronized void evict(final TrieLogIdentifier trieLogIdentifier) {
+    final Entry entry = evictionOrder.get(trieLogIdentifier.blockNumber());
+    if (entry != null
+        && entry.trieLogIdentifier.blockHash().equals(trieLogIdentifier.blockHash())) {
+      drop(entry);
+    }
+  }
+
+  /** Evicts the world states of the lowest block numbers until at most {@code maxSize} remain. */
+  public synchronized void trim(final int maxSize) {
+    while (evictionOrder.size() > maxSize) {
+      drop(evictionOrder.firstEntry().getValue());
+    }
+  }
+
+  /**
+   * Evicts the world states registered for longer than the given age.
+   *
+   * @param maxAge the maximum age of the world states
+   */
+  public synchronized void trimOlderThan(final Duration maxAge) {
+    final Instant oldestAllowed = clock.instant().minus(maxAge);
+    // the registration times do not follow the block numbers after a reorg
+    final List<Entry> expired = new ArrayList<>();
+    for (Entry entry : evictionOrder.values()) {
+      if (entry.registeredAt.isBefore(oldestAllowed)) {
+        expired.add(entry);
+      }
+    }
+    expired.forEach(this::drop);
+  }
+
+  /**
+   * Evicts the world state of the lowest block number.
+   *
+   * @return true if a world state was evicted, false if none is registered
+   */
+  public synchronized boolean evictLowest() {
+    if (evictionOrder.isEmpty()) {
+      return false;
+    }
+    drop(evictionOrder.firstEntry().getValue());
+    return true;
+  }
+
+  /**
+   * Returns the age of the world state registered for the longest time.
+   *
+   * @return the age, empty if no world state is registered
+   */
+  public synchronized Optional<Duration> getOldestAge() {
+    return evictionOrder.values().stream()
+        .map(entry -> entry.registeredAt)
+        .min(Instant::compareTo)
+        .map(registeredAt -> Duration.between(registeredAt, clock.instant()));
+  }
+
+  /** Evicts all the world states, the leased ones are closed once released. */
+  public synchronized void clear() {
+    while (!evictionOrder.isEmpty()) {
+      drop(evictionOrder.firstEntry().getValue());
+    }
+  }
+
+  private void drop(final Entry entry) {
+    evictionOrder.remove(entry.trieLogIdentifier.blockNumber(), entry);
+    byBlockNumber.remove(entry.trieLogIdentifier.blockNumber(), entry);
+    byBlockHash.remove(entry.trieLogIdentifier.blockHash(), entry);
+    LOG.atTrace()
+        .setMessage("Dropping {}")
+        .addArgument(entry.trieLogIdentifier::toLogString)
+        .log();
+    entry.release();
+  }
+
+  public Optional<WorldStateLease> lease(final Hash blockHash) {
+    return lease(byBlockHash.get(blockHash));
+  }
+
+  public Optional<WorldStateLease> lease(final long blockNumber) {
+    return lease(byBlockNumber.get(blockNumber));
+  }
+
+  /**
+   * Leases the world state of the lowest registered block number greater than the given one.
+   *
+   * @param blockNumber the block number
+   * @return the lease of the world state, empty if no greater block number is registered
+   */
+  public synchronized Optional<WorldStateLease> leaseFirstAfter(final long blockNumber) {
+    final Map.Entry<Long, Entry> entry = evictionOrder.higherEntry(blockNumber);
+    return entry == null ? Optional.empty() : lease(entry.getValue());
+  }
+
+  private Optional<WorldStateLease> lease(final Entry entry) {
+    if (entry == null || !entry.retain()) {
+      // not cached or evicted and closed meanwhile
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(new Lease(entry, worldStateFactory.apply(entry.storage)));
+    } catch (RuntimeException e) {
+      entry.release();
+      throw e;
+    }
+  }
+
+  public int size() {
+    return byBlockNumber.size();
+  }
+
+  /** Returns the registered storages by block, for tests. */
+  synchronized Map<TrieLogIdentifier, WorldStateStorage> getStorages() {
+    final Map<TrieLogIdentifier, WorldStateStorage> storages = new TreeMap<>();
+    evictionOrder.values().forEach(entry -> storages.put(entry.trieLogIdentifier, entry.storage));
+    return storages;
+  }
+
+  private static final class Entry {
+    private final TrieLogIdentifier trieLogIdentifier;
+    private final WorldStateStorage storage;
+    private final Instant registeredAt;
+    // the reference of the registry, plus one per lease
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private Entry(
+        final TrieLogIdentifier trieLogIdentifier,
+        final WorldStateStorage storage,
+        final Instant registeredAt) {
+      this.trieLogIdentifier = trieLogIdentifier;
+      this.storage = storage;
+      this.registeredAt = registeredAt;
+    }
+
+    private boolean retain() {
+      int count;
+      do {
+        count = references.get();
+        if (count == 0) {
+          return false;
+        }
+      } while (!references.compareAndSet(count, count + 1));
+      return true;
+    }
+
+    private void release() {
+      if (references.decrementAndGet() == 0) {
+        try {
+          storage.close();
+        } catch (Exception e) {
+          LOG.atError()
+              .setMessage("Error closing storage for dropped worldstate {}")
+              .addArgument(trieLogIdentifier::toLogString)
+              .setCause(e)
+              .log();
+        }
+      }
+    }
+  }
+
+  private static final class Lease implements WorldStateLease {
+    private final Entry entry;
+    private final ZkEvmWorldState worldState;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private Lease(final Entry entry, final ZkEvmWorldState worldState) {
+      this.entry = entry;
+      this.worldState = worldState;
+    }
+
+    @Override
+    public TrieLogIdentifier getTrieLogIdentifier() {
+      return entry.trieLogIdentifier;
+    }
+
+    @Override
+    public ZkEvmWorldState getWorldState() {
+      return worldState;
+    }
+
+    @Override
+    public void close() {
+      if (closed.compareAndSet(false, true)) {
+        entry.release();
+      }
+    }
+  }
+}
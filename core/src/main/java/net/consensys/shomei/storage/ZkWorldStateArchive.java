@@ -15,6 +15,8 @@ package net.consensys.shomei.storage;
 
 import net.consensys.shomei.exception.MissingTrieLogException;
 import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+import net.consensys.shomei.storage.worldstate.PersistedWorldStateStorage;
+import net.consensys.shomei.storage.worldstate.WorldStateLayers;
 import net.consensys.shomei.storage.worldstate.WorldStateStorage;
 import net.consensys.shomei.trielog.TrieLogLayer;
 import net.consensys.shomei.trielog.TrieLogLayerConverter;
@@ -22,10 +24,11 @@ import net.consensys.shomei.worldview.ZkEvmWorldState;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.Comparator;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.OptionalLong;
+import java.util.function.Supplier;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.hyperledger.besu.datatypes.Hash;
@@ -35,7 +38,6 @@ import org.slf4j.LoggerFactory;
 
 public class ZkWorldStateArchive implements Closeable {
 
-  static final int MAX_CACHED_WORLDSTATES = 128;
   private static final Logger LOG = LoggerFactory.getLogger(ZkWorldStateArchive.class);
 
   private final TrieLogManager trieLogManager;
@@ -43,31 +45,132 @@ public class ZkWorldStateArchive implements Closeable {
   private final WorldStateStorage headWorldStateStorage;
   private final ZkEvmWorldState headWorldState;
   private final TrieLogLayerConverter trieLogLayerConverter;
-  private final ConcurrentSkipListMap<TrieLogIdentifier, WorldStateStorage> cachedWorldStates =
-      new ConcurrentSkipListMap<>(Comparator.comparing(TrieLogIdentifier::blockNumber));
+  private final WorldStateRegistry cachedWorldStates;
+  private final WorldStateReconstructor worldStateReconstructor;
+  private final SpeculativeWorldStates speculativeWorldStates;
+  private final SnapshotRetentionPolicy snapshotRetentionPolicy;
+  private final Supplier<OptionalLong> snapshotPinnedBytes;
+  // replaces the snapshots when set
+  private final WorldStateLayers worldStateLayers;
 
   public ZkWorldStateArchive(final StorageProvider storageProvider) {
+    this(storageProvider, 0L);
+  }
+
+  /**
+   * Creates the archive.
+   *
+   * @param storageProvider the storage provider
+   * @param maxLayersMemoryBytes the memory budget of the in-memory diff layers serving the cached
+   *     world states, 0 to cache storage snapshots instead
+   */
+  public ZkWorldStateArchive(
+      final StorageProvider storageProvider, final long maxLayersMemoryBytes) {
+    this(storageProvider, maxLayersMemoryBytes, 0, 0, SnapshotRetentionPolicy.DEFAULT);
+  }
+
+  /**
+   * Creates the archive.
+   *
+   * @param storageProvider the storage provider
+   * @param maxLayersMemoryBytes the memory budget of the in-memory diff layers serving the cached
+   *     world states, 0 to cache storage snapshots instead
+   * @param maxRollbackBlocks the maximum number of blocks rolled back from a cached world state to
+   *     reconstruct an older one, 0 to disable the reconstruction
+   * @param maxReconstructedWorldStates the maximum number of reconstructed world states cached
+   * @param snapshotRetentionPolicy the policy deciding how long the world states stay cached
+   */
+  public ZkWorldStateArchive(
+      final StorageProvider storageProvider,
+      final long maxLayersMemoryBytes,
+      final int maxRollbackBlocks,
+      final int maxReconstructedWorldStates,
+      final SnapshotRetentionPolicy snapshotRetentionPolicy) {
     this.trieLogManager = storageProvider.getTrieLogManager();
     this.traceManager = storageProvider.getTraceManager();
     this.headWorldStateStorage = storageProvider.getWorldStateStorage();
     this.headWorldState = fromWorldStateStorage(headWorldStateStorage);
     this.trieLogLayerConverter = new TrieLogLayerConverter(headWorldStateStorage);
+    this.cachedWorldStates = new WorldStateRegistry(this::fromWorldStateStorage);
+    this.snapshotRetentionPolicy = snapshotRetentionPolicy;
+    this.worldStateReconstructor =
+        new WorldStateReconstructor(
+            trieLogManager,
+            traceManager,
+            cachedWorldStates,
+            this::fromWorldStateStorage,
+            maxRollbackBlocks,
+            maxReconstructedWorldStates);
+    this.speculativeWorldStates = new SpeculativeWorldStates(trieLogManager, traceManager);
+    if (maxLayersMemoryBytes > 0
+        && headWorldStateStorage instanceof PersistedWorldStateStorage persistedStorage) {
+      this.worldStateLayers =
+          new WorldStateLayers(
+              persistedStorage,
+              snapshotRetentionPolicy.getMaxCount(),
+              maxLayersMemoryBytes,
+              this::onWorldStateLayerDropped);
+      persistedStorage.setWorldStateLayers(worldStateLayers);
+      // the layers pin no storage snapshot
+      this.snapshotPinnedBytes = OptionalLong::empty;
+    } else {
+      if (maxLayersMemoryBytes > 0) {
+        LOG.atWarn()
+            .setMessage("World state layers are not supported by {}, caching snapshots instead")
+            .addArgument(() -> headWorldStateStorage.getClass().getSimpleName())
+            .log();
+      }
+      this.worldStateLayers = null;
+      this.snapshotPinnedBytes = storageProvider::getSnapshotPinnedBytes;
+    }
+  }
+
+  /**
+   * Leases the cached world state of the given block. The lease must be closed once the world
+   * state is no longer read, its storage is not closed before even if the block is evicted from
+   * the cache meanwhile.
+   *
+   * @param blockHash the hash of the block
+   * @return the lease of the world state, empty if the block is not cached
+   */
+  public Optional<WorldStateLease> leaseWorldState(final Hash blockHash) {
+    return cachedWorldStates
+        .lease(blockHash)
+        .or(() -> worldStateReconstructor.leaseReconstructed(blockHash));
+  }
+
+  /**
+   * Leases the cached world state of the given block. The world state of an older block is
+   * reconstructed from the closest cached one when enabled.
+   *
+   * @param blockNumber the number of the block
+   * @return the lease of the world state, empty if the block is neither cached nor reconstructed
+   * @see #leaseWorldState(Hash)
+   */
+  public Optional<WorldStateLease> leaseWorldState(final long blockNumber) {
+    return cachedWorldStates
+        .lease(blockNumber)
+        .or(() -> worldStateReconstructor.lease(blockNumber));
   }
 
-  public Optional<ZkEvmWorldState> getCachedWorldState(Hash blockHash) {
-    return cachedWorldStates.entrySet().stream()
-        .filter(entry -> entry.getKey().blockHash().equals(blockHash))
-        .map(Map.Entry::getValue)
-        .map(this::fromWorldStateStorage)
-        .findFirst();
+  private void onWorldStateLayerDropped(final TrieLogIdentifier trieLogIdentifier) {
+    cachedWorldStates.evict(trieLogIdentifier);
+    worldStateReconstructor.onCachedWorldStateDropped(trieLogIdentifier);
   }
 
-  public Optional<ZkEvmWorldState> getCachedWorldState(Long blockNumber) {
-    return cachedWorldStates.entrySet().stream()
-        .filter(entry -> entry.getKey().blockNumber().equals(blockNumber))
-        .map(Map.Entry::getValue)
-        .map(this::fromWorldStateStorage)
-        .findFirst();
+  /** Returns the number of cached world states, reconstructed ones excluded. */
+  public int getCachedWorldStateCount() {
+    return cachedWorldStates.size();
+  }
+
+  /** Returns for how long the oldest cached world state has been cached, zero if none is. */
+  public Duration getOldestCachedWorldStateAge() {
+    return cachedWorldStates.getOldestAge().orElse(Duration.ZERO);
+  }
+
+  /** Returns the bytes pinned by the cached snapshots, empty if not measured. */
+  public OptionalLong getSnapshotPinnedBytes() {
+    return snapshotPinnedBytes.get();
   }
 
   @VisibleForTesting
@@ -77,7 +180,7 @@ public class ZkWorldStateArchive implements Closeable {
 
   @VisibleForTesting
   Map<TrieLogIdentifier, WorldStateStorage> getCachedWorldStates() {
-    return cachedWorldStates;
+    return cachedWorldStates.getStorages();
   }
 
   private ZkEvmWorldState fromWorldStateStorage(WorldStateStorage storage) {
@@ -90,43 +193,132 @@ public class ZkWorldStateArchive implements Closeable {
       final boolean isSnapshotGenerationNeeded)
       throws MissingTrieLogException {
     // import block, optionally cache a snapshot and generate trace if not too far behind head
-    Optional<TrieLogLayer> trieLog =
-        trieLogManager
-            .getTrieLog(trieLogIdentifier.blockNumber())
-            .map(RLP::input)
-            .map(trieLogLayerConverter::decodeTrieLog);
-    if (trieLog.isPresent()) {
-      applyTrieLog(trieLogIdentifier.blockNumber(), shouldGenerateTrace, trieLog.get());
-
-      // if we generate a trace, cache a snapshot also:
-      if (isSnapshotGenerationNeeded) {
-        cacheSnapshot(trieLogIdentifier, headWorldStateStorage);
-      }
+    final TrieLogLayer trieLog = loadTrieLog(trieLogIdentifier);
+    applyTrieLog(trieLogIdentifier.blockNumber(), shouldGenerateTrace, trieLog);
 
-    } else {
-      throw new MissingTrieLogException(trieLogIdentifier.blockNumber());
+    // if we generate a trace, cache a snapshot also:
+    if (isSnapshotGenerationNeeded) {
+      cacheSnapshot(trieLogIdentifier, headWorldStateStorage);
+    }
+  }
+
+  /**
+   * Imports the block without generating its trace, committing it together with the next blocks
+   * imported the same way. The pending blocks are persisted once {@code maxBatchSize} blocks are
+   * pending, on {@link #flushBatch()} or on the next {@link #importBlock} call.
+   *
+   * @param trieLogIdentifier the block to import
+   * @param maxBatchSize the maximum number of blocks committed together
+   * @throws MissingTrieLogException if the trie log of the block is not available
+   */
+  public void importBlockInBatch(final TrieLogIdentifier trieLogIdentifier, final int maxBatchSize)
+      throws MissingTrieLogException {
+    final TrieLogLayer trieLog = loadTrieLog(trieLogIdentifier);
+    headWorldState.getAccumulator().rollForward(trieLog);
+    headWorldState.commitToBatch(trieLogIdentifier.blockNumber(), trieLog.getBlockHash());
+    if (headWorldState.getBatchedBlockCount() >= maxBatchSize) {
+      headWorldState.flushBatch();
+    }
+  }
+
+  /** Persists the blocks imported in batch and not committed yet. */
+  public void flushBatch() {
+    headWorldState.flushBatch();
+  }
+
+  /**
+   * Imports the block into the flat leaves of the head world state only, its tries are built
+   * together with the ones of the next blocks imported the same way on {@link #buildTries()} or on
+   * the next {@link #importBlock} or {@link #importBlockInBatch} call.
+   *
+   * @param trieLogIdentifier the block to import
+   * @throws MissingTrieLogException if the trie log of the block is not available
+   */
+  public void importBlockFlatLeavesOnly(final TrieLogIdentifier trieLogIdentifier)
+      throws MissingTrieLogException {
+    final TrieLogLayer trieLog = loadTrieLog(trieLogIdentifier);
+    headWorldState.getAccumulator().rollForward(trieLog);
+    headWorldState.commitFlatLeaves(trieLogIdentifier.blockNumber(), trieLog.getBlockHash());
+  }
+
+  /** Builds the tries of the blocks imported into the flat leaves only. */
+  public void buildTries() {
+    headWorldState.buildTries();
+  }
+
+  /**
+   * Imports a block not confirmed yet into memory, on top of the last block imported this way or
+   * of the head if none. Nothing is persisted until {@link #promoteSpeculativeBlock}.
+   *
+   * @param trieLogIdentifier the block to import
+   * @param shouldGenerateTrace whether to generate the trace of the block
+   * @throws MissingTrieLogException if the trie log of the block is not available
+   */
+  public void importSpeculativeBlock(
+      final TrieLogIdentifier trieLogIdentifier, final boolean shouldGenerateTrace)
+      throws MissingTrieLogException {
+    // the speculative blocks are read on top of the persisted head
+    headWorldState.flushBatch();
+    headWorldState.buildTries();
+    speculativeWorldStates.importBlock(headWorldState, trieLogIdentifier, shouldGenerateTrace);
+  }
+
+  /**
+   * Persists the block following the head if it was imported speculatively, its changes, state
+   * root and trace being already computed. The speculative blocks are dropped otherwise, the block
+   * must then be imported.
+   *
+   * @param trieLogIdentifier the confirmed block following the head
+   * @param shouldGenerateTrace whether the trace of the block is needed
+   * @param isSnapshotGenerationNeeded whether to cache the world state of the block
+   * @return whether the block was persisted
+   */
+  public boolean promoteSpeculativeBlock(
+      final TrieLogIdentifier trieLogIdentifier,
+      final boolean shouldGenerateTrace,
+      final boolean isSnapshotGenerationNeeded) {
+    if (!speculativeWorldStates.promote(headWorldState, trieLogIdentifier, shouldGenerateTrace)) {
+      return false;
+    }
+    if (isSnapshotGenerationNeeded) {
+      cacheSnapshot(trieLogIdentifier, headWorldStateStorage);
     }
+    return true;
+  }
+
+  /**
+   * Drops the speculative blocks from the height of the given block if its hash differs.
+   *
+   * @param trieLogIdentifier a block of the chain followed by Besu
+   */
+  public void discardReorgedSpeculativeBlocks(final TrieLogIdentifier trieLogIdentifier) {
+    speculativeWorldStates.discardIfReorged(trieLogIdentifier);
+  }
+
+  /** Returns the last block imported speculatively, empty if none is. */
+  public Optional<TrieLogIdentifier> getSpeculativeHead() {
+    return speculativeWorldStates.getHead();
+  }
+
+  private TrieLogLayer loadTrieLog(final TrieLogIdentifier trieLogIdentifier)
+      throws MissingTrieLogException {
+    return trieLogManager
+        .getTrieLog(trieLogIdentifier.blockNumber())
+        .map(RLP::input)
+        .map(trieLogLayerConverter::decodeTrieLog)
+        .orElseThrow(() -> new MissingTrieLogException(trieLogIdentifier.blockNumber()));
   }
 
   void cacheSnapshot(TrieLogIdentifier trieLogIdentifier, WorldStateStorage storage) {
-    // create and cache the snapshot
-    this.cachedWorldStates.put(trieLogIdentifier, storage.snapshot());
-    // trim the cache if necessary
-    while (cachedWorldStates.size() > MAX_CACHED_WORLDSTATES) {
-      var keyToDrop = cachedWorldStates.firstKey();
-      var storageToDrop = cachedWorldStates.get(keyToDrop);
-      LOG.atTrace().setMessage("Dropping {}").addArgument(keyToDrop.toLogString()).log();
-      cachedWorldStates.remove(keyToDrop);
-      try {
-        storageToDrop.close();
-      } catch (Exception e) {
-        LOG.atError()
-            .setMessage("Error closing storage for dropped worldstate {}")
-            .addArgument(keyToDrop.toLogString())
-            .setCause(e)
-            .log();
-      }
+    if (worldStateLayers != null) {
+      // the head storage was just committed for this block
+      cachedWorldStates.register(trieLogIdentifier, worldStateLayers.addLayer(trieLogIdentifier));
+    } else {
+      // create and cache the snapshot
+      cachedWorldStates.register(trieLogIdentifier, storage.snapshot());
     }
+    // trim the cache if necessary, the leased snapshots are closed once released
+    snapshotRetentionPolicy.apply(cachedWorldStates, snapshotPinnedBytes);
   }
 
   @VisibleForTesting
@@ -158,18 +350,9 @@ public class ZkWorldStateArchive implements Closeable {
 
   @Override
   public void close() throws IOException {
-    // close all storages
-    cachedWorldStates.forEach(
-        (key, value) -> {
-          try {
-            value.close();
-          } catch (Exception e) {
-            LOG.atError()
-                .setMessage("Error closing storage for worldstate {}")
-                .addArgument(key.toLogString())
-                .log();
-            LOG.atTrace().setCause(e).log();
-          }
-        });
+    // close all storages, the leased ones once released
+    speculativeWorldStates.clear();
+    worldStateReconstructor.clear();
+    cachedWorldStates.clear();
   }
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage.worldstate;
+
+import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+import net.consensys.shomei.services.storage.api.BidirectionalIterator;
+import net.consensys.shomei.services.storage.api.KeyValueStorage.KeyValuePair;
+import net.consensys.shomei.trie.model.FlattenedLeaf;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.hyperledger.besu.datatypes.Hash;
+
+/**
+ * Read only world state of a block cached by {@link WorldStateLayers}, reading the layers added
+ * since the block before the committed data of the head storage. The layer of the block is kept
+ * until this storage is closed, even once dropped.
+ */
+public class LayeredWorldStateStorage implements WorldStateStorage {
+
+  private final WorldStateLayers layers;
+  private final PersistedWorldStateStorage headStorage;
+  private final WorldStateLayers.Layer layer;
+  private final TrieLogIdentifier trieLogIdentifier;
+
+  LayeredWorldStateStorage(
+      final WorldStateLayers layers,
+      final PersistedWorldStateStorage headStorage,
+      final WorldStateLayers.Layer layer) {
+    this.layers = layers;
+    this.headStorage = headStorage;
+    this.layer = layer;
+    this.trieLogIdentifier = layer.getTrieLogIdentifier();
+  }
+
+  @Override
+  public Optional<FlattenedLeaf> getFlatLeaf(final Bytes hkey) {
+    return layers.read(() -> getFlatLeaf(layers.getDiffs(layer), hkey));
+  }
+
+  private Optional<FlattenedLeaf> getFlatLeaf(final List<WorldStateDiff> diffs, final Bytes hkey) {
+    for (WorldStateDiff diff : diffs) {
+      if (diff.containsFlatLeaf(hkey)) {
+        return diff.getFlatLeaf(hkey);
+      }
+    }
+    return headStorage.getCommittedFlatLeaf(hkey);
+  }
+
+  @Override
+  public Range getNearestKeys(final Bytes hkey) {
+    return layers.read(
+        () -> {
+          final List<WorldStateDiff> diffs = layers.getDiffs(layer);
+          return new Range(
+              findNeighbour(diffs, hkey, true),
+              getFlatLeaf(diffs, hkey).map(leaf -> Map.entry(hkey, leaf)),
+              findNeighbour(diffs, hkey, false));
+        });
+  }
+
+  /** Returns the closest leaf strictly before (or after) the given key in the cached state. */
+  private Map.Entry<Bytes, FlattenedLeaf> findNeighbour(
+      final List<WorldStateDiff> diffs, final Bytes hkey, final boolean lower) {
+    Optional<Map.Entry<Bytes, FlattenedLeaf>> nearest = Optional.empty();
+    // the closest captured leaf, unless a layer closer to the block captured another value
+    for (int i = 0; i < diffs.size(); i++) {
+      final var candidates =
+          lower
+              ? diffs.get(i).getFlatLeaves().headMap(hkey, false).descendingMap()
+              : diffs.get(i).getFlatLeaves().tailMap(hkey, false);
+      for (Map.Entry<Bytes, Optional<FlattenedLeaf>> candidate : candidates.entrySet()) {
+        if (nearest.isPresent() && !isCloser(candidate.getKey(), nearest.get().getKey(), lower)) {
+          break;
+        }
+        if (candidate.getValue().isPresent() && !isCapturedBefore(diffs, i, candidate.getKey())) {
+          nearest = Optional.of(Map.entry(candidate.getKey(), candidate.getValue().get()));
+          break;
+        }
+      }
+    }
+    // the closest committed leaf not captured by a layer
+    final Optional<Map.Entry<Bytes, FlattenedLeaf>> committed =
+        findCommittedNeighbour(diffs, hkey, lower);
+    if (committed.isPresent()
+        && (nearest.isEmpty()
+            || isCloser(committed.get().getKey(), nearest.get().getKey(), lower))) {
+      nearest = committed;
+    }
+    return nearest.orElseThrow(() -> new RuntimeException("not found leaf index"));
+  }
+
+  private Optional<Map.Entry<Bytes, FlattenedLeaf>> findCommittedNeighbour(
+      final List<WorldStateDiff> diffs, final Bytes hkey, final boolean lower) {
+    final Optional<BidirectionalIterator<KeyValuePair>> nearestTo =
+        headStorage.flatLeafStorage.getNearestTo(hkey.toArrayUnsafe());
+    if (nearestTo.isEmpty()) {
+      // every committed key is greater than the given one
+      return lower ? Optional.empty() : findFirstCommittedLeaf(diffs);
+    }
+    try (var iterator = nearestTo.get()) {
+      while (lower ? iterator.hasPrevious() : iterator.hasNext()) {
+        final KeyValuePair next = lower ? iterator.previous() : iterator.next();
+        final Bytes key = Bytes.wrap(next.key());
+        final int compKeyResult = key.compareTo(hkey);
+        if ((lower ? compKeyResult < 0 : compKeyResult > 0)
+            && !isCapturedBefore(diffs, diffs.size(), key)) {
+          return Optional.of(Map.entry(key, FlattenedLeaf.readFrom(Bytes.wrap(next.value()))));
+        }
+      }
+    } catch (Exception ex) {
+      throw new IllegalStateException("failed to get nearest keys", ex);
+    }
+    return Optional.empty();
+  }
+
+  private Optional<Map.Entry<Bytes, FlattenedLeaf>> findFirstCommittedLeaf(
+      final List<WorldStateDiff> diffs) {
+    try (Stream<KeyValuePair> committed = headStorage.flatLeafStorage.stream()) {
+      return committed
+          .filter(pair -> !isCapturedBefore(diffs, diffs.size(), Bytes.wrap(pair.key())))
+          .findFirst()
+          .map(
+              pair ->
+                  Map.entry(
+                      Bytes.wrap(pair.key()), FlattenedLeaf.readFrom(Bytes.wrap(pair.value()))));
+    }
+  }
+
+  /** Whether one of the first {@code count} layers captured a value for the key. */
+  private static boolean isCapturedBefore(
+      final List<WorldStateDiff> diffs, final int count, final Bytes key) {
+    for (int i = 0; i < count; i++) {
+      if (diffs.get(i).containsFlatLeaf(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isCloser(final Bytes key, final Bytes nearest, final boolean lower) {
+    final int compKeyResult = key.compareTo(nearest);
+    return lower ? compKeyResult > 0 : compKeyResult < 0;
+  }
+
+  @Override
+  public Optional<Bytes> getTrieNode(final Bytes location, final Bytes nodeHash) {
+    return layers.read(
+        () -> {
+          for (WorldStateDiff diff : layers.getDiffs(layer)) {
+            if (diff.containsTrieNode(location)) {
+              return diff.getTrieNode(location);
+            }
+          }
+          return headStorage.getCommittedTrieNode(location);
+        });
+  }
+
+  @Override
+  public Optional<Long> getWorldStateBlockNumber() {
+    return Optional.of(trieLogIdentifier.blockNumber());
+  }
+
+  @Override
+  public Optional<Hash> getWorldStateBlockHash() {
+    return Optional.of(trieLogIdentifier.blockHash());
+  }
+
+  @Override
+  public Optional<Hash> getZkStateRootHash(final long blockNumber) {
+    return headStorage.getZkStateRootHash(blockNumber);
+  }
+
+  @Override
+  public Optional<Hash> getWorldStateRootHash() {
+    return getZkStateRootHash(trieLogIdentifier.blockNumber());
+  }
+
+  @Override
+  public WorldStateStorage snapshot() {
+    throw new UnsupportedOperationException("Snapshots of world state layers are not supported.");
+  }
+
+  @Override
+  public WorldStateUpdater updater() {
+    // the trie repository wrappers create their updater upfront, only writing is refused
+    return new WorldStateUpdater() {
+      @Override
+      public void setBlockHash(final Hash blockHash) {
+        throw readOnly();
+      }
+
+      @Override
+      public void setBlockNumber(final long blockNumber) {
+        throw readOnly();
+      }
+
+      @Override
+      public void putFlatLeaf(final Bytes key, final FlattenedLeaf value) {
+        throw readOnly();
+      }
+
+      @Override
+      public void putTrieNode(final Bytes location, final Bytes nodeHash, final Bytes value) {
+        throw readOnly();
+      }
+
+      @Override
+      public void removeFlatLeafValue(final Bytes key) {
+        throw readOnly();
+      }
+
+      @Override
+      public void removeKeysWithPrefix(final Bytes prefix) {
+        throw readOnly();
+      }
+
+      @Override
+      public void commit() {
+        throw readOnly();
+      }
+    };
+  }
+
+  @Override
+  public void close() {
+    layer.close();
+  }
+
+  private static UnsupportedOperationException readOnly() {
+    return new UnsupportedOperationException("cannot update the world state of a cached block");
+  }
+}
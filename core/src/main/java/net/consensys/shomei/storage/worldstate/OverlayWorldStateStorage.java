@@ -0,0 +1,256 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage.worldstate;
+
+import net.consensys.shomei.trie.model.FlattenedLeaf;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.hyperledger.besu.datatypes.Hash;
+
+/**
+ * Throwaway world state keeping its writes in memory on top of a base world state, which is only
+ * read. The updates are visible as soon as written, committing them does nothing.
+ *
+ * <p>Used to reconstruct the world state of an older block by rolling back trie logs on top of a
+ * cached world state. The overlay is not meant to be updated once its block is reached, it can
+ * then be read by several threads.
+ *
+ * <p>Also used to import unconfirmed blocks speculatively, each block in its own overlay on top of
+ * the one of its parent, see {@link #copyTo(WorldStateUpdater)} and {@link
+ * #rebase(WorldStateStorage)}.
+ */
+public class OverlayWorldStateStorage implements WorldStateStorage {
+
+  private volatile WorldStateStorage base;
+  private final Runnable onClose;
+
+  // the written flat leaves, an empty value for a removed leaf
+  private final ConcurrentSkipListMap<Bytes, Optional<FlattenedLeaf>> flatLeaves =
+      new ConcurrentSkipListMap<>();
+  private final Map<Bytes, Bytes> trieNodes = new ConcurrentHashMap<>();
+  // key prefixes removed, hiding every key of the base they cover
+  private final Set<Bytes> wipes = ConcurrentHashMap.newKeySet();
+
+  private volatile Optional<Long> blockNumber;
+  private volatile Optional<Hash> blockHash;
+
+  /**
+   * Creates an overlay on top of the given world state.
+   *
+   * @param base the world state to read the keys not written by the overlay from
+   * @param onClose called when the overlay is closed, to release the base
+   */
+  public OverlayWorldStateStorage(final WorldStateStorage base, final Runnable onClose) {
+    this.base = base;
+    this.onClose = onClose;
+    this.blockNumber = base.getWorldStateBlockNumber();
+    this.blockHash = base.getWorldStateBlockHash();
+  }
+
+  @Override
+  public Optional<FlattenedLeaf> getFlatLeaf(final Bytes hkey) {
+    final Optional<FlattenedLeaf> written = flatLeaves.get(hkey);
+    if (written != null) {
+      return written;
+    }
+    if (isWiped(hkey)) {
+      return Optional.empty();
+    }
+    return base.getFlatLeaf(hkey);
+  }
+
+  @Override
+  public Range getNearestKeys(final Bytes hkey) {
+    return new Range(
+        nearest(hkey, true),
+        getFlatLeaf(hkey).map(leaf -> Map.entry(hkey, leaf)),
+        nearest(hkey, false));
+  }
+
+  private Map.Entry<Bytes, FlattenedLeaf> nearest(final Bytes hkey, final boolean lower) {
+    final Optional<Map.Entry<Bytes, FlattenedLeaf>> written = findWrittenNeighbour(hkey, lower);
+    final Optional<Map.Entry<Bytes, FlattenedLeaf>> inBase = findBaseNeighbour(hkey, lower);
+    if (written.isEmpty() || inBase.isEmpty()) {
+      return written
+          .or(() -> inBase)
+          .orElseThrow(() -> new RuntimeException("not found leaf index"));
+    }
+    final int compKeyResult = written.get().getKey().compareTo(inBase.get().getKey());
+    return (lower ? compKeyResult > 0 : compKeyResult < 0) ? written.get() : inBase.get();
+  }
+
+  /** Returns the closest leaf written strictly before (or after) the key, skipping removed ones. */
+  private Optional<Map.Entry<Bytes, FlattenedLeaf>> findWrittenNeighbour(
+      final Bytes hkey, final boolean lower) {
+    final NavigableMap<Bytes, Optional<FlattenedLeaf>> candidates =
+        lower ? flatLeaves.headMap(hkey, false).descendingMap() : flatLeaves.tailMap(hkey, false);
+    return candidates.entrySet().stream()
+        .filter(entry -> entry.getValue().isPresent())
+        .findFirst()
+        .map(entry -> Map.entry(entry.getKey(), entry.getValue().get()));
+  }
+
+  /**
+   * Returns the closest leaf of the base strictly before (or after) the key which is not shadowed
+   * by the overlay. The keys of a trie are bounded by its head and tail leaves, the search thus
+   * stops at a wiped key, or at a key written by the overlay, as a closer leaf is then written.
+   */
+  private Optional<Map.Entry<Bytes, FlattenedLeaf>> findBaseNeighbour(
+      final Bytes hkey, final boolean lower) {
+    Bytes seekKey = hkey;
+    while (true) {
+      final Range range = base.getNearestKeys(seekKey);
+      final Bytes key = lower ? range.getLeftNodeKey() : range.getRightNodeKey();
+      if (isWiped(key)) {
+        return Optional.empty();
+      }
+      final Optional<FlattenedLeaf> written = flatLeaves.get(key);
+      if (written == null) {
+        return Optional.of(
+            Map.entry(key, lower ? range.getLeftNodeValue() : range.getRightNodeValue()));
+      }
+      if (written.isPresent()) {
+        return Optional.empty();
+      }
+      // removed by the overlay
+      seekKey = key;
+    }
+  }
+
+  private boolean isWiped(final Bytes key) {
+    if (wipes.isEmpty()) {
+      return false;
+    }
+    return wipes.stream().anyMatch(prefix -> key.commonPrefixLength(prefix) == prefix.size());
+  }
+
+  @Override
+  public Optional<Bytes> getTrieNode(final Bytes location, final Bytes nodeHash) {
+    final Bytes written = trieNodes.get(location);
+    if (written != null) {
+      return Optional.of(written);
+    }
+    if (isWiped(location)) {
+      return Optional.empty();
+    }
+    return base.getTrieNode(location, nodeHash);
+  }
+
+  @Override
+  public Optional<Long> getWorldStateBlockNumber() {
+    return blockNumber;
+  }
+
+  @Override
+  public Optional<Hash> getWorldStateBlockHash() {
+    return blockHash;
+  }
+
+  @Override
+  public Optional<Hash> getZkStateRootHash(final long blockNumber) {
+    return base.getZkStateRootHash(blockNumber);
+  }
+
+  @Override
+  public Optional<Hash> getWorldStateRootHash() {
+    return blockNumber.flatMap(this::getZkStateRootHash);
+  }
+
+  @Override
+  public WorldStateStorage snapshot() {
+    throw new UnsupportedOperationException("Snapshots of world state overlays are not supported.");
+  }
+
+  @Override
+  public WorldStateUpdater updater() {
+    return new WorldStateUpdater() {
+      @Override
+      public void setBlockHash(final Hash blockHash) {
+        OverlayWorldStateStorage.this.blockHash = Optional.ofNullable(blockHash);
+      }
+
+      @Override
+      public void setBlockNumber(final long blockNumber) {
+        OverlayWorldStateStorage.this.blockNumber = Optional.of(blockNumber);
+      }
+
+      @Override
+      public void putFlatLeaf(final Bytes key, final FlattenedLeaf value) {
+        flatLeaves.put(key, Optional.of(value));
+      }
+
+      @Override
+      public void putTrieNode(final Bytes location, final Bytes nodeHash, final Bytes value) {
+        trieNodes.put(location, value);
+      }
+
+      @Override
+      public void removeFlatLeafValue(final Bytes key) {
+        flatLeaves.put(key, Optional.empty());
+      }
+
+      @Override
+      public void removeKeysWithPrefix(final Bytes prefix) {
+        flatLeaves.keySet().removeIf(key -> key.commonPrefixLength(prefix) == prefix.size());
+        trieNodes.keySet().removeIf(key -> key.commonPrefixLength(prefix) == prefix.size());
+        wipes.add(prefix);
+      }
+
+      @Override
+      public void commit() {
+        // the writes are already visible
+      }
+    };
+  }
+
+  /**
+   * Reads the keys not written by the overlay from another world state, which must hold the same
+   * state as the current base. Used once the changes of the base were persisted elsewhere.
+   *
+   * @param base the world state to read the keys not written by the overlay from
+   */
+  public void rebase(final WorldStateStorage base) {
+    this.base = base;
+  }
+
+  /**
+   * Writes the changes of the overlay, its block number and hash included, with the given
+   * updater. The removed key prefixes are written first, the overlay already dropped the keys it
+   * wrote before removing them.
+   *
+   * @param updater the updater of the world state holding the same state as the base
+   */
+  public void copyTo(final WorldStateUpdater updater) {
+    wipes.forEach(updater::removeKeysWithPrefix);
+    flatLeaves.forEach(
+        (key, leaf) ->
+            leaf.ifPresentOrElse(
+                value -> updater.putFlatLeaf(key, value), () -> updater.removeFlatLeafValue(key)));
+    trieNodes.forEach((location, node) -> updater.putTrieNode(location, null, node));
+    blockNumber.ifPresent(updater::setBlockNumber);
+    blockHash.ifPresent(updater::setBlockHash);
+  }
+
+  @Override
+  public void close() {
+    onClose.run();
+  }
+}
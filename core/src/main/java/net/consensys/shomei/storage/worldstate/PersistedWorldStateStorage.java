@@ -23,8 +23,14 @@ import net.consensys.shomei.trie.model.FlattenedLeaf;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import com.google.common.primitives.Longs;
 import org.apache.tuweni.bytes.Bytes;
@@ -38,12 +44,25 @@ import org.slf4j.LoggerFactory;
 public class PersistedWorldStateStorage implements WorldStateStorage {
 
   private static final Logger LOG = LoggerFactory.getLogger(PersistedWorldStateStorage.class);
+  private static final int ACCOUNT_PATH_SIZE = Long.BYTES;
   protected final KeyValueStorage flatLeafStorage;
   protected final AtomicReference<KeyValueStorageTransaction> flatLeafTx;
   protected final KeyValueStorage trieNodeStorage;
   protected final AtomicReference<KeyValueStorageTransaction> trieNodeTx;
   protected final TraceManager traceManager;
 
+  // writes of the block being processed, answered before the storage and flushed once at commit,
+  // discarded if the import fails, see rollback. The trie builds write the nodes from several
+  // threads at once
+  protected final NavigableMap<Bytes, Optional<FlattenedLeaf>> pendingFlatLeaves =
+      new ConcurrentSkipListMap<>();
+  protected final Map<Bytes, Bytes> pendingTrieNodes = new ConcurrentHashMap<>();
+  // account paths whose storage is removed during the block, hiding every persisted key they prefix
+  protected final Set<Bytes> pendingWipes = ConcurrentHashMap.newKeySet();
+
+  // layers of the cached world states, capturing the values overwritten by each commit
+  private volatile WorldStateLayers worldStateLayers;
+
   public PersistedWorldStateStorage(
       final KeyValueStorage flatLeafStorage,
       final KeyValueStorage trieNodeStorage,
@@ -57,60 +76,132 @@ public class PersistedWorldStateStorage implements WorldStateStorage {
 
   @Override
   public Optional<FlattenedLeaf> getFlatLeaf(final Bytes hkey) {
-    return flatLeafTx
-        .get()
-        .get(hkey.toArrayUnsafe())
-        .map(Bytes::wrap)
-        .map(RLP::input)
-        .map(FlattenedLeaf::readFrom);
+    final Optional<FlattenedLeaf> pendingLeaf = pendingFlatLeaves.get(hkey);
+    if (pendingLeaf != null) {
+      return pendingLeaf;
+    }
+    if (findWipedPrefix(hkey).isPresent()) {
+      return Optional.empty();
+    }
+    return flatLeafTx.get().get(hkey.toArrayUnsafe()).map(PersistedWorldStateStorage::decodeLeaf);
   }
 
   @Override
   public Range getNearestKeys(final Bytes hkey) {
-    // call nearest key of rocksdb
-    final Optional<BidirectionalIterator<KeyValuePair>> nearestTo =
-        flatLeafTx.get().getNearestTo(hkey.toArrayUnsafe());
-    if (nearestTo.isPresent()) {
-      try (var iterator = nearestTo.get()) {
-        final KeyValuePair next = iterator.current();
-        final Range range;
-        if (Bytes.wrap(next.key()).equals(hkey)) {
-          iterator.previous();
-          final KeyValuePair left = iterator.next();
-          final KeyValuePair middle = iterator.next();
-          final KeyValuePair right = iterator.next();
-          range =
-              new Range(
-                  Map.entry(
-                      Bytes.wrap(left.key()),
-                      FlattenedLeaf.readFrom(RLP.input(Bytes.wrap(left.value())))),
-                  Optional.of(
-                      Map.entry(
-                          Bytes.wrap(middle.key()),
-                          FlattenedLeaf.readFrom(RLP.input(Bytes.wrap(middle.value()))))),
-                  Map.entry(
-                      Bytes.wrap(right.key()),
-                      FlattenedLeaf.readFrom(RLP.input(Bytes.wrap(right.value())))));
-        } else {
-          final KeyValuePair left = iterator.next();
-          final KeyValuePair right = iterator.next();
-          range =
-              new Range(
-                  Map.entry(
-                      Bytes.wrap(left.key()),
-                      FlattenedLeaf.readFrom(RLP.input(Bytes.wrap(left.value())))),
-                  Optional.empty(),
-                  Map.entry(
-                      Bytes.wrap(right.key()),
-                      FlattenedLeaf.readFrom(RLP.input(Bytes.wrap(right.value())))));
+    final Map.Entry<Bytes, FlattenedLeaf> left =
+        nearest(findPendingNeighbour(hkey, true), findPersistedNeighbour(hkey, true), true);
+    final Map.Entry<Bytes, FlattenedLeaf> right =
+        nearest(findPendingNeighbour(hkey, false), findPersistedNeighbour(hkey, false), false);
+    return new Range(left, getFlatLeaf(hkey).map(leaf -> Map.entry(hkey, leaf)), right);
+  }
+
+  /**
+   * Returns the closest pending leaf strictly before (or after) the given key, removed leaves are
+   * skipped.
+   */
+  private Optional<Map.Entry<Bytes, FlattenedLeaf>> findPendingNeighbour(
+      final Bytes hkey, final boolean lower) {
+    final NavigableMap<Bytes, Optional<FlattenedLeaf>> candidates =
+        lower
+            ? pendingFlatLeaves.headMap(hkey, false).descendingMap()
+            : pendingFlatLeaves.tailMap(hkey, false);
+    return candidates.entrySet().stream()
+        .filter(entry -> entry.getValue().isPresent())
+        .findFirst()
+        .map(entry -> Map.entry(entry.getKey(), entry.getValue().get()));
+  }
+
+  /**
+   * Returns the closest persisted leaf strictly before (or after) the given key, leaves shadowed by
+   * a pending write or a pending wipe are skipped.
+   */
+  private Optional<Map.Entry<Bytes, FlattenedLeaf>> findPersistedNeighbour(
+      final Bytes hkey, final boolean lower) {
+    Bytes seekKey = hkey;
+    Bytes skippedPrefix = null;
+    boolean reseek = true;
+    while (reseek) {
+      reseek = false;
+      // call nearest key of rocksdb
+      final Optional<BidirectionalIterator<KeyValuePair>> nearestTo =
+          flatLeafTx.get().getNearestTo(seekKey.toArrayUnsafe());
+      if (nearestTo.isPresent()) {
+        try (var iterator = nearestTo.get()) {
+          while (!reseek && (lower ? iterator.hasPrevious() : iterator.hasNext())) {
+            final KeyValuePair next = lower ? iterator.previous() : iterator.next();
+            final Bytes key = Bytes.wrap(next.key());
+            final Optional<Bytes> wipedPrefix = findWipedPrefix(key);
+            if (wipedPrefix.isPresent()) {
+              // seek over the wiped range rather than iterating over all of its keys
+              if (!wipedPrefix.get().equals(skippedPrefix)) {
+                skippedPrefix = wipedPrefix.get();
+                seekKey = lower ? skippedPrefix : endOfPrefix(skippedPrefix);
+                reseek = true;
+              }
+            } else {
+              final int compKeyResult = key.compareTo(hkey);
+              if ((lower ? compKeyResult < 0 : compKeyResult > 0)
+                  && !pendingFlatLeaves.containsKey(key)) {
+                return Optional.of(Map.entry(key, decodeLeaf(next.value())));
+              }
+            }
+          }
+        } catch (Exception ex) {
+          LOG.error("failed to get nearest keys", ex);
         }
-        iterator.close();
-        return range;
-      } catch (Exception ex) {
-        LOG.error("failed to get nearest keys", ex);
       }
     }
-    throw new RuntimeException("not found leaf index");
+    return Optional.empty();
+  }
+
+  private Optional<Bytes> findWipedPrefix(final Bytes key) {
+    if (pendingWipes.isEmpty() || key.size() < ACCOUNT_PATH_SIZE) {
+      return Optional.empty();
+    }
+    final Bytes accountPath = key.slice(0, ACCOUNT_PATH_SIZE);
+    return pendingWipes.contains(accountPath) ? Optional.of(accountPath) : Optional.empty();
+  }
+
+  /** Returns the smallest key greater than all the keys starting with the given prefix. */
+  private static Bytes endOfPrefix(final Bytes prefix) {
+    return prefix.mutableCopy().increment();
+  }
+
+  private static Map.Entry<Bytes, FlattenedLeaf> nearest(
+      final Optional<Map.Entry<Bytes, FlattenedLeaf>> pending,
+      final Optional<Map.Entry<Bytes, FlattenedLeaf>> persisted,
+      final boolean lower) {
+    if (pending.isEmpty() || persisted.isEmpty()) {
+      return pending
+          .or(() -> persisted)
+          .orElseThrow(() -> new RuntimeException("not found leaf index"));
+    }
+    final int compKeyResult = pending.get().getKey().compareTo(persisted.get().getKey());
+    return (lower ? compKeyResult > 0 : compKeyResult < 0) ? pending.get() : persisted.get();
+  }
+
+  private static FlattenedLeaf decodeLeaf(final byte[] encodedLeaf) {
+    return FlattenedLeaf.readFrom(Bytes.wrap(encodedLeaf));
+  }
+
+  /** Returns the committed flat leaf, ignoring the pending writes. */
+  Optional<FlattenedLeaf> getCommittedFlatLeaf(final Bytes hkey) {
+    return flatLeafStorage.get(hkey.toArrayUnsafe()).map(PersistedWorldStateStorage::decodeLeaf);
+  }
+
+  /** Returns the committed trie node, ignoring the pending writes. */
+  Optional<Bytes> getCommittedTrieNode(final Bytes location) {
+    return trieNodeStorage.get(location.toArrayUnsafe()).map(Bytes::wrap);
+  }
+
+  /**
+   * Makes the commits capture the values they overwrite into the given layers, which then serve
+   * the world states of the cached blocks.
+   *
+   * @param worldStateLayers the layers of the cached world states
+   */
+  public void setWorldStateLayers(final WorldStateLayers worldStateLayers) {
+    this.worldStateLayers = worldStateLayers;
   }
 
   @Override
@@ -120,6 +211,13 @@ public class PersistedWorldStateStorage implements WorldStateStorage {
 
   @Override
   public Optional<Bytes> getTrieNode(final Bytes location, final Bytes nodeHash) {
+    final Bytes pendingNode = pendingTrieNodes.get(location);
+    if (pendingNode != null) {
+      return Optional.of(pendingNode);
+    }
+    if (findWipedPrefix(location).isPresent()) {
+      return Optional.empty();
+    }
     return trieNodeTx.get().get(location.toArrayUnsafe()).map(Bytes::wrap);
   }
 
@@ -164,35 +262,162 @@ public class PersistedWorldStateStorage implements WorldStateStorage {
 
       @Override
       public void putFlatLeaf(final Bytes key, final FlattenedLeaf value) {
-        flatLeafTx.get().put(key.toArrayUnsafe(), RLP.encode(value::writeTo).toArrayUnsafe());
+        pendingFlatLeaves.put(key, Optional.of(value));
       }
 
       @Override
       public void putTrieNode(final Bytes location, final Bytes nodeHash, final Bytes value) {
-        trieNodeTx.get().put(location.toArrayUnsafe(), value.toArrayUnsafe());
+        pendingTrieNodes.put(location, value);
       }
 
       @Override
       public void removeFlatLeafValue(final Bytes key) {
-        flatLeafTx.get().remove(key.toArrayUnsafe());
+        pendingFlatLeaves.put(key, Optional.empty());
+      }
+
+      @Override
+      public void removeKeysWithPrefix(final Bytes prefix) {
+        wipePendingPrefix(prefix);
       }
 
       @Override
       public synchronized void commit() {
-        flatLeafTx.getAndUpdate(
-            flatTx -> {
-              flatTx.commit();
-              return flatLeafStorage.startTransaction();
-            });
-        trieNodeTx.getAndUpdate(
-            trieTx -> {
-              trieTx.commit();
-              return trieNodeStorage.startTransaction();
-            });
+        final WorldStateLayers layers = worldStateLayers;
+        if (layers != null && layers.isCapturing()) {
+          layers.commit(captureOverwrittenValues(), PersistedWorldStateStorage.this::commitPending);
+        } else {
+          commitPending();
+        }
+      }
+
+      @Override
+      public void rollback() {
+        discardPending();
       }
     };
   }
 
+  /** Discards the writes not committed yet, the reads serve the committed values again. */
+  protected void discardPending() {
+    flatLeafTx.getAndUpdate(
+        flatTx -> {
+          flatTx.rollback();
+          return flatLeafStorage.startTransaction();
+        });
+    trieNodeTx.getAndUpdate(
+        trieTx -> {
+          trieTx.rollback();
+          return trieNodeStorage.startTransaction();
+        });
+    pendingFlatLeaves.clear();
+    pendingTrieNodes.clear();
+    pendingWipes.clear();
+  }
+
+  private void commitPending() {
+    flushPendingWrites();
+    flatLeafTx.getAndUpdate(
+        flatTx -> {
+          flatTx.commit();
+          return flatLeafStorage.startTransaction();
+        });
+    trieNodeTx.getAndUpdate(
+        trieTx -> {
+          trieTx.commit();
+          return trieNodeStorage.startTransaction();
+        });
+    pendingFlatLeaves.clear();
+    pendingTrieNodes.clear();
+    pendingWipes.clear();
+  }
+
+  /** Reads the committed values of the keys written or wiped by the pending writes. */
+  private WorldStateDiff captureOverwrittenValues() {
+    final WorldStateDiff diff = new WorldStateDiff();
+    pendingWipes.forEach(
+        prefix -> {
+          forEachCommittedKey(
+              flatLeafStorage,
+              prefix,
+              pair ->
+                  diff.putFlatLeaf(Bytes.wrap(pair.key()), Optional.of(decodeLeaf(pair.value()))));
+          forEachCommittedKey(
+              trieNodeStorage,
+              prefix,
+              pair ->
+                  diff.putTrieNode(Bytes.wrap(pair.key()), Optional.of(Bytes.wrap(pair.value()))));
+        });
+    pendingFlatLeaves.keySet().forEach(key -> diff.putFlatLeaf(key, getCommittedFlatLeaf(key)));
+    pendingTrieNodes
+        .keySet()
+        .forEach(location -> diff.putTrieNode(location, getCommittedTrieNode(location)));
+    return diff;
+  }
+
+  private static void forEachCommittedKey(
+      final KeyValueStorage storage, final Bytes prefix, final Consumer<KeyValuePair> action) {
+    final Optional<BidirectionalIterator<KeyValuePair>> nearestTo =
+        storage.getNearestTo(prefix.toArrayUnsafe());
+    if (nearestTo.isEmpty()) {
+      // every committed key is greater than the prefix, the ones starting with it come first
+      try (Stream<KeyValuePair> committed = storage.stream()) {
+        committed.takeWhile(pair -> hasPrefix(pair.key(), prefix)).forEach(action);
+      }
+      return;
+    }
+    try (var iterator = nearestTo.get()) {
+      while (iterator.hasNext()) {
+        final KeyValuePair next = iterator.next();
+        if (hasPrefix(next.key(), prefix)) {
+          action.accept(next);
+        } else if (Bytes.wrap(next.key()).compareTo(prefix) > 0) {
+          break;
+        }
+      }
+    } catch (Exception ex) {
+      throw new IllegalStateException("failed to read the keys with prefix " + prefix, ex);
+    }
+  }
+
+  private static boolean hasPrefix(final byte[] key, final Bytes prefix) {
+    return Bytes.wrap(key).commonPrefixLength(prefix) == prefix.size();
+  }
+
+  /**
+   * Removes the pending writes starting with the given prefix and hides the persisted ones until
+   * the commit removes them.
+   */
+  protected void wipePendingPrefix(final Bytes prefix) {
+    if (prefix.size() != ACCOUNT_PATH_SIZE) {
+      throw new IllegalArgumentException("expected an account path but got " + prefix);
+    }
+    pendingFlatLeaves.keySet().removeIf(key -> key.commonPrefixLength(prefix) == prefix.size());
+    pendingTrieNodes.keySet().removeIf(key -> key.commonPrefixLength(prefix) == prefix.size());
+    pendingWipes.add(prefix);
+  }
+
+  /**
+   * Writes the pending wipes, flat leaves and trie nodes into the current storage transactions. The
+   * range deletions are queued first so that they never cover the writes done after the wipe.
+   */
+  private void flushPendingWrites() {
+    final KeyValueStorageTransaction flatTx = flatLeafTx.get();
+    final KeyValueStorageTransaction trieTx = trieNodeTx.get();
+    pendingWipes.forEach(
+        prefix -> {
+          final byte[] endOfPrefix = endOfPrefix(prefix).toArrayUnsafe();
+          flatTx.removeRange(prefix.toArrayUnsafe(), endOfPrefix);
+          trieTx.removeRange(prefix.toArrayUnsafe(), endOfPrefix);
+        });
+    pendingFlatLeaves.forEach(
+        (key, value) ->
+            value.ifPresentOrElse(
+                leaf -> flatTx.put(key.toArrayUnsafe(), RLP.encode(leaf::writeTo).toArrayUnsafe()),
+                () -> flatTx.remove(key.toArrayUnsafe())));
+    pendingTrieNodes.forEach(
+        (location, value) -> trieTx.put(location.toArrayUnsafe(), value.toArrayUnsafe()));
+  }
+
   @Override
   public void close() {
     try {
@@ -18,11 +18,11 @@ import net.consensys.shomei.storage.TraceManager;
 import net.consensys.shomei.trie.model.FlattenedLeaf;
 
 import java.io.IOException;
+import java.util.Optional;
 
 import com.google.common.primitives.Longs;
 import org.apache.tuweni.bytes.Bytes;
 import org.hyperledger.besu.datatypes.Hash;
-import org.hyperledger.besu.ethereum.rlp.RLP;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,17 +58,22 @@ public class SnapshotPersistedWorldStateStorage extends PersistedWorldStateStora
 
       @Override
       public void putFlatLeaf(final Bytes key, final FlattenedLeaf value) {
-        flatLeafTx.get().put(key.toArrayUnsafe(), RLP.encode(value::writeTo).toArrayUnsafe());
+        pendingFlatLeaves.put(key, Optional.of(value));
       }
 
       @Override
       public void putTrieNode(final Bytes location, final Bytes nodeHash, final Bytes value) {
-        trieNodeTx.get().put(location.toArrayUnsafe(), value.toArrayUnsafe());
+        pendingTrieNodes.put(location, value);
       }
 
       @Override
       public void removeFlatLeafValue(final Bytes key) {
-        flatLeafTx.get().remove(key.toArrayUnsafe());
+        pendingFlatLeaves.put(key, Optional.empty());
+      }
+
+      @Override
+      public void removeKeysWithPrefix(final Bytes prefix) {
+        wipePendingPrefix(prefix);
       }
 
       @Override
@@ -0,0 +1,101 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage.worldstate;
+
+import net.consensys.shomei.trie.model.FlattenedLeaf;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import org.apache.tuweni.bytes.Bytes;
+
+/**
+ * The flat leaves and trie nodes of the world state as they were before one or several commits,
+ * see {@link WorldStateLayers}. A value captured as empty did not exist before the commits.
+ *
+ * <p>Only the first value captured for a key is kept, so the diff of several consecutive commits
+ * holds the values before the oldest of them.
+ */
+public final class WorldStateDiff {
+
+  // rough cost of a map entry and of the wrappers of its key and value
+  private static final long ENTRY_OVERHEAD = 96;
+
+  private final NavigableMap<Bytes, Optional<FlattenedLeaf>> flatLeaves = new TreeMap<>();
+  private final Map<Bytes, Optional<Bytes>> trieNodes = new HashMap<>();
+  private long sizeInBytes;
+
+  void putFlatLeaf(final Bytes key, final Optional<FlattenedLeaf> prior) {
+    if (flatLeaves.putIfAbsent(key, prior) == null) {
+      sizeInBytes +=
+          ENTRY_OVERHEAD
+              + key.size()
+              + prior.map(leaf -> Long.BYTES + leaf.leafValue().size()).orElse(0);
+    }
+  }
+
+  void putTrieNode(final Bytes location, final Optional<Bytes> prior) {
+    if (trieNodes.putIfAbsent(location, prior) == null) {
+      sizeInBytes += ENTRY_OVERHEAD + location.size() + prior.map(Bytes::size).orElse(0);
+    }
+  }
+
+  /**
+   * Adds the values captured by a newer diff for the keys this one does not cover yet.
+   *
+   * @param newer the diff of the commits following the ones of this diff
+   * @return the growth of the size of this diff, in bytes
+   */
+  long merge(final WorldStateDiff newer) {
+    final long previousSize = sizeInBytes;
+    newer.flatLeaves.forEach(this::putFlatLeaf);
+    newer.trieNodes.forEach(this::putTrieNode);
+    return sizeInBytes - previousSize;
+  }
+
+  boolean containsFlatLeaf(final Bytes key) {
+    return flatLeaves.containsKey(key);
+  }
+
+  /** Returns the captured flat leaf, empty if it did not exist or was not captured. */
+  Optional<FlattenedLeaf> getFlatLeaf(final Bytes key) {
+    return flatLeaves.getOrDefault(key, Optional.empty());
+  }
+
+  NavigableMap<Bytes, Optional<FlattenedLeaf>> getFlatLeaves() {
+    return Collections.unmodifiableNavigableMap(flatLeaves);
+  }
+
+  boolean containsTrieNode(final Bytes location) {
+    return trieNodes.containsKey(location);
+  }
+
+  /** Returns the captured trie node, empty if it did not exist or was not captured. */
+  Optional<Bytes> getTrieNode(final Bytes location) {
+    return trieNodes.getOrDefault(location, Optional.empty());
+  }
+
+  public boolean isEmpty() {
+    return flatLeaves.isEmpty() && trieNodes.isEmpty();
+  }
+
+  /** Returns an estimate of the memory used by the captured keys and values, in bytes. */
+  public long sizeInBytes() {
+    return sizeInBytes;
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage.worldstate;
+
+import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the world states of recent blocks as in-memory diff layers on top of the persisted head,
+ * instead of one storage snapshot per block.
+ *
+ * <p>Each cached block has a layer holding the values overwritten by the commits done since that
+ * block, captured by the head storage before writing them. The commits between two cached blocks
+ * are flattened into the layer of the older one. The world state of a cached block is thus read
+ * from its layer, then from the layers added after it, then from the persisted head. The layers
+ * are kept in the order of the commits, which differs from the order of the block numbers after a
+ * reorg.
+ *
+ * <p>The oldest layers are dropped once there are more than the maximum number of layers or once
+ * their estimated memory exceeds the configured budget, the listener is then notified so that the
+ * world states of the dropped blocks are no longer served. A dropped layer is still read until the
+ * world state of its block is closed, so a leased world state stays readable; its memory is freed
+ * by the next commit after the lease is closed.
+ */
+public class WorldStateLayers {
+
+  private static final Logger LOG = LoggerFactory.getLogger(WorldStateLayers.class);
+
+  private final PersistedWorldStateStorage headStorage;
+  private final int maxLayers;
+  private final long maxMemoryBytes;
+  private final Consumer<TrieLogIdentifier> onLayerDropped;
+
+  // the head commits write while no layer is read
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final List<Layer> layers = new ArrayList<>();
+  private long memoryBytes;
+
+  public WorldStateLayers(
+      final PersistedWorldStateStorage headStorage,
+      final int maxLayers,
+      final long maxMemoryBytes) {
+    this(headStorage, maxLayers, maxMemoryBytes, trieLogIdentifier -> {});
+  }
+
+  public WorldStateLayers(
+      final PersistedWorldStateStorage headStorage,
+      final int maxLayers,
+      final long maxMemoryBytes,
+      final Consumer<TrieLogIdentifier> onLayerDropped) {
+    this.headStorage = headStorage;
+    this.maxLayers = maxLayers;
+    this.maxMemoryBytes = maxMemoryBytes;
+    this.onLayerDropped = onLayerDropped;
+  }
+
+  /**
+   * Adds a layer for the block the head storage was just committed for.
+   *
+   * @param trieLogIdentifier the block of the head
+   * @return a read only view of the world state of the block, keeping its layer until closed
+   */
+  public WorldStateStorage addLayer(final TrieLogIdentifier trieLogIdentifier) {
+    final Layer layer = new Layer(trieLogIdentifier);
+    lock.writeLock().lock();
+    try {
+      // a block imported again after a reorg replaces its layer, the previous layer then covers
+      // the commits done since the replaced one
+      final int replaced = indexOfCached(trieLogIdentifier.blockNumber());
+      if (replaced >= 0) {
+        final Layer replacedLayer = layers.get(replaced);
+        replacedLayer.dropped = true;
+        if (replaced > 0) {
+          memoryBytes += layers.get(replaced - 1).diff.merge(replacedLayer.diff);
+          replacedLayer.merged = true;
+        }
+      }
+      layers.add(layer);
+      evict();
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return new LayeredWorldStateStorage(this, headStorage, layer);
+  }
+
+  public List<TrieLogIdentifier> getCachedBlocks() {
+    return read(
+        () ->
+            layers.stream()
+                .filter(layer -> !layer.dropped)
+                .map(layer -> layer.trieLogIdentifier)
+                .toList());
+  }
+
+  /** Returns the estimated memory used by the layers, in bytes. */
+  public long getMemoryBytes() {
+    return read(() -> memoryBytes);
+  }
+
+  /** Whether the head storage must capture the values overwritten by its commits. */
+  boolean isCapturing() {
+    return read(() -> !layers.isEmpty());
+  }
+
+  /**
+   * Adds the values overwritten by a commit of the head storage to the newest layer, then runs the
+   * writes of the commit. No layer is read in between.
+   *
+   * @param diff the values overwritten by the commit
+   * @param write the writes of the commit
+   */
+  void commit(final WorldStateDiff diff, final Runnable write) {
+    lock.writeLock().lock();
+    try {
+      if (!layers.isEmpty() && !diff.isEmpty()) {
+        memoryBytes += layers.get(layers.size() - 1).diff.merge(diff);
+      }
+      write.run();
+      evict();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the layers to read for the world state of the block of the given layer, the oldest
+   * first.
+   *
+   * @throws IllegalStateException if the layer was removed, once dropped and closed
+   */
+  List<WorldStateDiff> getDiffs(final Layer layer) {
+    final int index = layers.indexOf(layer);
+    if (index < 0) {
+      throw new IllegalStateException(
+          "world state of block %s is no longer cached"
+              .formatted(layer.trieLogIdentifier.blockNumber()));
+    }
+    return layers.subList(index, layers.size()).stream().map(newer -> newer.diff).toList();
+  }
+
+  /** Runs the read while the head storage is not committed. */
+  <T> T read(final Supplier<T> reader) {
+    lock.readLock().lock();
+    try {
+      return reader.get();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private int indexOfCached(final long blockNumber) {
+    for (int i = 0; i < layers.size(); i++) {
+      final Layer layer = layers.get(i);
+      if (!layer.dropped && layer.trieLogIdentifier.blockNumber() == blockNumber) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int countCached() {
+    return (int) layers.stream().filter(layer -> !layer.dropped).count();
+  }
+
+  private void evict() {
+    removeClosedLayers();
+    int cached = countCached();
+    while (cached > maxLayers || (memoryBytes > maxMemoryBytes && cached > 1)) {
+      final Layer oldest =
+          layers.stream().filter(layer -> !layer.dropped).findFirst().orElseThrow();
+      oldest.dropped = true;
+      cached--;
+      // the listener closes the world state of the block unless it is leased
+      onLayerDropped.accept(oldest.trieLogIdentifier);
+      removeClosedLayers();
+      LOG.atDebug()
+          .setMessage("Dropping world state layer {}, {} layers left using {} bytes")
+          .addArgument(oldest.trieLogIdentifier::toLogString)
+          .addArgument(cached)
+          .addArgument(memoryBytes)
+          .log();
+    }
+  }
+
+  /** Removes the dropped layers no longer read by a world state. */
+  private void removeClosedLayers() {
+    int i = 0;
+    while (i < layers.size()) {
+      final Layer layer = layers.get(i);
+      // the world states of the older blocks read the layer too, unless merged into the previous
+      if (layer.dropped && layer.closed && (i == 0 || layer.merged)) {
+        layers.remove(i);
+        memoryBytes -= layer.diff.sizeInBytes();
+      } else {
+        i++;
+      }
+    }
+  }
+
+  /** The values captured since a block, guarded by the lock unless stated otherwise. */
+  static final class Layer {
+    private final TrieLogIdentifier trieLogIdentifier;
+    private final WorldStateDiff diff = new WorldStateDiff();
+    // no longer served, kept until closed
+    private boolean dropped;
+    // replaced by a reorg, its values also captured by the previous layer
+    private boolean merged;
+    // the world state of the block is closed, set without the lock
+    private volatile boolean closed;
+
+    private Layer(final TrieLogIdentifier trieLogIdentifier) {
+      this.trieLogIdentifier = trieLogIdentifier;
+    }
+
+    TrieLogIdentifier getTrieLogIdentifier() {
+      return trieLogIdentifier;
+    }
+
+    void close() {
+      closed = true;
+    }
+  }
+}
@@ -18,6 +18,7 @@ import net.consensys.shomei.trie.storage.TrieStorage;
 import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 
+import org.apache.tuweni.bytes.Bytes;
 import org.hyperledger.besu.datatypes.Hash;
 
 /**
@@ -74,5 +75,18 @@ public interface WorldStateStorage extends TrieStorage {
     void setBlockHash(final Hash blockHash);
 
     void setBlockNumber(final long blockNumber);
+
+    /**
+     * Removes all the flat leaves and trie nodes of an account storage, see {@link
+     * net.consensys.shomei.trie.storage.StorageTrieRepositoryWrapper#getAccountPath(long)}.
+     *
+     * @param prefix the account path prefixing the keys to remove.
+     */
+    void removeKeysWithPrefix(final Bytes prefix);
+
+    /** Discards the writes not committed yet, for example after a failed import. */
+    default void rollback() {
+      // no-op
+    }
   }
 }
@@ -14,7 +14,6 @@
 package net.consensys.shomei.trielog;
 
 import net.consensys.shomei.util.bytes.MimcSafeBytes;
-import net.consensys.zkevm.HashProvider;
 
 import java.util.Objects;
 
@@ -34,7 +33,7 @@ public record AccountKey(Hash accountHash, MimcSafeBytes<Address> address)
   }
 
   public AccountKey(final MimcSafeBytes<Address> address) {
-    this(HashProvider.trieHash(address), address);
+    this(KeyHashCache.trieHash(address), address);
   }
 
   @Override
@@ -0,0 +1,64 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trielog;
+
+import net.consensys.zkevm.HashBackend;
+import net.consensys.zkevm.HashProvider;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.hyperledger.besu.datatypes.Hash;
+
+/**
+ * Process-wide cache of the trie code hashes, addressed by the keccak hash of the code. Factories
+ * deploy the same bytecode many times, and the keccak hash is computed for every deployment anyway,
+ * so identical bytecode only goes through the trie code hash once per hash function.
+ */
+public final class CodeHashCache {
+
+  static final long MAX_ENTRIES = 10_000;
+
+  private static final Cache<CacheKey, Hash> CACHE =
+      CacheBuilder.newBuilder().maximumSize(MAX_ENTRIES).build();
+
+  private CodeHashCache() {}
+
+  /**
+   * Returns the trie code hash of the given code, computing it only if it is not cached.
+   *
+   * @param keccakCodeHash the keccak hash of the code
+   * @param code the bytecode
+   * @return the trie code hash of the code
+   */
+  public static Hash trieCodeHash(final Bytes32 keccakCodeHash, final Bytes code) {
+    final CacheKey key = new CacheKey(HashProvider.getTrieHashBackend(), keccakCodeHash);
+    final Hash cached = CACHE.getIfPresent(key);
+    if (cached != null) {
+      return cached;
+    }
+    final Hash hash = HashProvider.trieCodeHash(code);
+    CACHE.put(key, hash);
+    return hash;
+  }
+
+  /** Returns the number of cached hashes, for tests. */
+  static long size() {
+    CACHE.cleanUp();
+    return CACHE.size();
+  }
+
+  private record CacheKey(HashBackend hashBackend, Bytes32 keccakCodeHash) {}
+}
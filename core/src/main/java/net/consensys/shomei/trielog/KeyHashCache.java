@@ -0,0 +1,83 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trielog;
+
+import net.consensys.zkevm.HashBackend;
+import net.consensys.zkevm.HashMetrics;
+import net.consensys.zkevm.HashProvider;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.tuweni.bytes.Bytes;
+import org.hyperledger.besu.datatypes.Hash;
+
+/**
+ * Process-wide cache of the trie hashes of account and storage slot keys. The same hot contracts
+ * and slots recur in nearly every trie log, so their keys are hashed once and then reused across
+ * blocks. Entries are keyed by the trie hash function in use, a change of hash function never
+ * returns a stale hash.
+ */
+public final class KeyHashCache {
+
+  static final long MAX_ENTRIES = 100_000;
+
+  private static final Cache<CacheKey, Hash> CACHE =
+      CacheBuilder.newBuilder().maximumSize(MAX_ENTRIES).build();
+
+  private static final LongAdder HITS = new LongAdder();
+  private static final LongAdder MISSES = new LongAdder();
+
+  private KeyHashCache() {}
+
+  /**
+   * Returns the trie hash of the given mimc safe key, computing it only if it is not cached.
+   *
+   * @param key the mimc safe encoding of an address or a storage slot
+   * @return the trie hash of the key
+   */
+  public static Hash trieHash(final Bytes key) {
+    final HashBackend hashBackend = HashProvider.getTrieHashBackend();
+    final Hash cached = CACHE.getIfPresent(new CacheKey(hashBackend, key));
+    if (cached != null) {
+      HITS.increment();
+      return cached;
+    }
+    MISSES.increment();
+    final Hash hash;
+    try (HashMetrics.Scope ignored = HashMetrics.enter(HashMetrics.Category.KEY)) {
+      hash = HashProvider.trieHash(key);
+    }
+    // copy the key so that the cache does not retain the caller's wrapper
+    CACHE.put(new CacheKey(hashBackend, key.copy()), hash);
+    return hash;
+  }
+
+  public static LongAdder getHits() {
+    return HITS;
+  }
+
+  public static LongAdder getMisses() {
+    return MISSES;
+  }
+
+  /** Returns the number of cached hashes, for tests. */
+  static long size() {
+    CACHE.cleanUp();
+    return CACHE.size();
+  }
+
+  private record CacheKey(HashBackend hashBackend, Bytes key) {}
+}
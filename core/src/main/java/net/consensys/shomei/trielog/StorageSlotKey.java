@@ -16,7 +16,6 @@ package net.consensys.shomei.trielog;
 import static net.consensys.shomei.util.bytes.MimcSafeBytes.safeUInt256;
 
 import net.consensys.shomei.util.bytes.MimcSafeBytes;
-import net.consensys.zkevm.HashProvider;
 
 import java.util.Objects;
 
@@ -32,7 +31,7 @@ public record StorageSlotKey(Hash slotHash, MimcSafeBytes<UInt256> slotKey)
   }
 
   public StorageSlotKey(final UInt256 slotKey) {
-    this(HashProvider.trieHash(safeUInt256(slotKey)), slotKey);
+    this(KeyHashCache.trieHash(safeUInt256(slotKey)), slotKey);
   }
 
   @Override
@@ -134,7 +134,7 @@ public class TrieLogAccountValue {
     Bytes32 mimcCodeHash;
     UInt256 codeSize;
     if (in.nextIsNull()) {
-      storageRoot = ZKTrie.DEFAULT_TRIE_ROOT;
+      storageRoot = ZKTrie.getDefaultTrieRoot();
       in.skipNext();
     } else {
       storageRoot = in.readBytes32();
@@ -18,7 +18,6 @@ import static com.google.common.base.Preconditions.checkState;
 import net.consensys.shomei.ZkAccount;
 import net.consensys.shomei.ZkValue;
 import net.consensys.shomei.util.bytes.MimcSafeBytes;
-import net.consensys.zkevm.HashProvider;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -94,7 +93,7 @@ public class TrieLogLayer {
       final ZkAccount oldValue,
       final ZkAccount newValue,
       final boolean isCleared) {
-    final AccountKey accountKey = new AccountKey(HashProvider.trieHash(address), address);
+    final AccountKey accountKey = new AccountKey(address);
     addAccountChange(accountKey, oldValue, newValue, isCleared);
     return accountKey;
   }
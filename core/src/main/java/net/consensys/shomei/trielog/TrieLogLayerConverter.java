@@ -28,7 +28,6 @@ import java.util.Optional;
 
 import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
-import org.apache.tuweni.bytes.MutableBytes;
 import org.apache.tuweni.units.bigints.UInt256;
 import org.hyperledger.besu.datatypes.Address;
 import org.hyperledger.besu.datatypes.Hash;
@@ -164,6 +163,198 @@ public class TrieLogLayerConverter {
     return trieLogLayer;
   }
 
+  /**
+   * Decodes the trie log of a block against the world state of the block itself, rather than the
+   * one of its parent, in order to roll the block back. The prior values match the ones decoded by
+   * {@link #decodeTrieLog(RLPInput)} on the state of the parent block: the zk fields missing from
+   * the trie log are taken from the current account when the block did not change them, otherwise
+   * the code hashes are computed from the prior code and the storage root is left to be computed
+   * from the rolled back slots. Unlike the forward decoding, the prior slots of a cleared account
+   * are kept so that the rollback restores them.
+   *
+   * @param input the encoded trie log
+   * @return the decoded trie log layer
+   */
+  public TrieLogLayer decodeTrieLogForRollback(final RLPInput input) {
+
+    TrieLogLayer trieLogLayer = new TrieLogLayer();
+
+    input.enterList();
+    trieLogLayer.setBlockHash(Hash.wrap(input.readBytes32()));
+    trieLogLayer.setBlockNumber(input.readLongScalar());
+
+    while (!input.isEndOfCurrentList()) {
+      input.enterList();
+
+      final Address address = Address.readFrom(input);
+      final AccountKey accountKey = new AccountKey(address);
+      final Optional<FlattenedLeaf> flatLeaf =
+          worldStateStorage.getFlatLeaf(WRAP_ACCOUNT.apply(accountKey.accountHash()));
+      final Optional<Bytes> priorCode;
+      ZkAccount updatedAccount = null;
+      boolean isStorageRootRecomputed = false;
+
+      if (input.nextIsNull()) {
+        input.skipNext();
+        priorCode = Optional.empty();
+      } else {
+        input.enterList();
+        priorCode = Optional.of(input.readBytes());
+        input.skipNext(); // skip new code, the current account has its hashes
+        input.skipNext(); // skip is cleared for code
+        input.leaveList();
+      }
+
+      if (input.nextIsNull()) {
+        input.skipNext();
+      } else {
+        input.enterList();
+        final EvmAccount priorValue = TrieLogLayer.nullOrValue(input, EvmAccount::readFrom);
+        final EvmAccount updatedValue = TrieLogLayer.nullOrValue(input, EvmAccount::readFrom);
+        final boolean isAccountCleared =
+            TrieLogLayer.defaultOrValue(input, 0, RLPInput::readInt) == 1;
+        input.leaveList();
+
+        // the current account must be the one updated by the block
+        updatedAccount =
+            flatLeaf
+                .map(value -> ZkAccount.fromEncodedBytes(accountKey, value.leafValue()))
+                .orElse(null);
+        final boolean isConsistent =
+            updatedValue == null
+                ? updatedAccount == null
+                : updatedAccount != null
+                    && updatedAccount.getNonce().equals(updatedValue.nonce())
+                    && updatedAccount.getBalance().equals(updatedValue.balance());
+        if (!isConsistent) {
+          // check consistency between trielog and db
+          throw new IllegalStateException("invalid trie log exception");
+        }
+        final ZkAccount priorAccount;
+        if (priorValue == null) {
+          priorAccount = null;
+        } else {
+          final Hash storageRoot;
+          if (priorValue.storageRoot().equals(Hash.EMPTY_TRIE_HASH)) {
+            storageRoot = ZKTrie.getDefaultTrieRoot();
+          } else if (updatedAccount != null
+              && !isAccountCleared
+              && priorValue.storageRoot().equals(updatedValue.storageRoot())) {
+            storageRoot = updatedAccount.getStorageRoot();
+          } else {
+            // computed from the rolled back slots
+            storageRoot = null;
+            isStorageRootRecomputed = true;
+          }
+          priorAccount =
+              preparePriorAccountForRollback(
+                  accountKey, priorValue, storageRoot, updatedAccount, priorCode);
+        }
+        trieLogLayer.addAccountChange(accountKey, priorAccount, updatedAccount, isAccountCleared);
+      }
+
+      boolean hasStorageChanges = false;
+      if (input.nextIsNull()) {
+        input.skipNext();
+      } else {
+        final Optional<Long> maybeAccountIndex =
+            updatedAccount == null ? Optional.empty() : flatLeaf.map(FlattenedLeaf::leafIndex);
+        input.enterList();
+        while (!input.isEndOfCurrentList()) {
+          input.enterList();
+          input.skipNext(); // skip keccak slot hash
+          final UInt256 oldValue = TrieLogLayer.nullOrValue(input, RLPInput::readUInt256Scalar);
+          final UInt256 newValue = TrieLogLayer.nullOrValue(input, RLPInput::readUInt256Scalar);
+          final boolean isCleared = TrieLogLayer.defaultOrValue(input, 0, RLPInput::readInt) == 1;
+
+          if (!input.isEndOfCurrentList()) {
+            final StorageSlotKey storageSlotKey =
+                new StorageSlotKey(
+                    TrieLogLayer.defaultOrValue(input, UInt256.ZERO, RLPInput::readUInt256Scalar));
+            final UInt256 currentValue =
+                maybeAccountIndex
+                    .flatMap(
+                        index ->
+                            new StorageTrieRepositoryWrapper(index, worldStateStorage, null)
+                                .getFlatLeaf(storageSlotKey.slotHash())
+                                .map(FlattenedLeaf::leafValue)
+                                .map(UInt256::fromBytes))
+                    .orElse(null);
+            if (!Objects.equals(newValue, currentValue)) {
+              // check consistency between trielog and db
+              throw new IllegalStateException("invalid trie log exception");
+            }
+            trieLogLayer.addStorageChange(
+                accountKey, storageSlotKey, oldValue, newValue, isCleared);
+            hasStorageChanges = true;
+          }
+          input.leaveList();
+        }
+        input.leaveList();
+      }
+      if (isStorageRootRecomputed && !hasStorageChanges) {
+        throw new IllegalStateException(
+            "cannot recover the prior storage root of account " + address);
+      }
+      // lenient leave list for forward compatible additions.
+      input.leaveListLenient();
+    }
+    input.leaveListLenient();
+    trieLogLayer.freeze();
+
+    return trieLogLayer;
+  }
+
+  private ZkAccount preparePriorAccountForRollback(
+      final AccountKey accountKey,
+      final EvmAccount priorValue,
+      final Hash storageRoot,
+      final ZkAccount updatedAccount,
+      final Optional<Bytes> priorCode) {
+    final Hash mimcCodeHash;
+    final UInt256 codeSize;
+    if (updatedAccount != null && updatedAccount.getCodeHash().equals(priorValue.codeHash())) {
+      mimcCodeHash = updatedAccount.getMimcCodeHash();
+      codeSize = updatedAccount.getCodeSize();
+    } else if (priorCode.isPresent() && !priorCode.get().isEmpty()) {
+      mimcCodeHash = CodeHashCache.trieCodeHash(priorValue.codeHash(), priorCode.get());
+      codeSize = UInt256.valueOf(priorCode.get().size());
+    } else if (priorValue
+        .codeHash()
+        .equals(ZkAccount.EMPTY_KECCAK_CODE_HASH.getOriginalUnsafeValue())) {
+      mimcCodeHash = ZkAccount.EMPTY_CODE_HASH;
+      codeSize = UInt256.ZERO;
+    } else {
+      throw new IllegalStateException(
+          "cannot recover the prior code of account " + accountKey.address());
+    }
+    return new ZkAccount(
+        accountKey,
+        priorValue.nonce(),
+        priorValue.balance(),
+        storageRoot,
+        mimcCodeHash,
+        safeByte32(priorValue.codeHash()),
+        codeSize);
+  }
+
+  /** The account values of the trie log, without the zk fields. */
+  record EvmAccount(UInt256 nonce, Wei balance, Hash storageRoot, Bytes32 codeHash) {
+
+    static EvmAccount readFrom(final RLPInput in) {
+      in.enterList();
+      final UInt256 nonce = UInt256.valueOf(in.readLongScalar());
+      final Wei balance = Wei.of(in.readUInt256Scalar());
+      final Hash storageRoot =
+          Hash.wrap(TrieLogLayer.defaultOrValue(in, Hash.EMPTY_TRIE_HASH, RLPInput::readBytes32));
+      final Bytes32 codeHash =
+          TrieLogLayer.defaultOrValue(
+              in, ZkAccount.EMPTY_KECCAK_CODE_HASH.getOriginalUnsafeValue(), RLPInput::readBytes32);
+      in.leaveList();
+      return new EvmAccount(nonce, balance, storageRoot, codeHash);
+    }
+  }
+
   record PriorAccount(ZkAccount account, Hash evmStorageRoot, Optional<Long> index) {}
 
   public PriorAccount preparePriorTrieLogAccount(final AccountKey accountKey, final RLPInput in) {
@@ -234,7 +425,7 @@ public class TrieLogLayerConverter {
     final Wei balance = Wei.of(in.readUInt256Scalar());
     Hash storageRoot;
     if (in.nextIsNull() || priorAccount.account == null) {
-      storageRoot = ZKTrie.DEFAULT_TRIE_ROOT;
+      storageRoot = ZKTrie.getDefaultTrieRoot();
       in.skipNext();
     } else {
       final Hash newEvmStorageRoot = Hash.wrap(in.readBytes32());
@@ -264,7 +455,7 @@ public class TrieLogLayerConverter {
     } else {
       final Bytes code = newCode.get();
       keccakCodeHash = HashProvider.keccak256(code);
-      mimcCodeHash = prepareMimcCodeHash(code);
+      mimcCodeHash = CodeHashCache.trieCodeHash(keccakCodeHash, code);
       codeSize = UInt256.valueOf(code.size());
     }
 
@@ -277,26 +468,4 @@ public class TrieLogLayerConverter {
         safeByte32(keccakCodeHash),
         codeSize);
   }
-
-  /**
-   * The MiMC hasher operates over field elements and the overall operation should be ZK friendly.
-   * Each opcode making up the code to hash fit on a single byte. Since it would be too inefficient
-   * to use one field element per opcode we group them in “limbs” of 16 bytes (so 16 opcodes per
-   * limbs).
-   *
-   * @param code bytecode
-   * @return mimc code hash
-   */
-  private static Hash prepareMimcCodeHash(final Bytes code) {
-    final int sizeChunk = Bytes32.SIZE / 2;
-    final int numChunks = (int) Math.ceil((double) code.size() / sizeChunk);
-    final MutableBytes mutableBytes = MutableBytes.create(numChunks * Bytes32.SIZE);
-    int offset = 0;
-    for (int i = 0; i < numChunks; i++) {
-      int length = Math.min(sizeChunk, code.size() - offset);
-      mutableBytes.set(i * Bytes32.SIZE + (Bytes32.SIZE - length), code.slice(offset, length));
-      offset += length;
-    }
-    return HashProvider.trieHash(mutableBytes);
-  }
 }
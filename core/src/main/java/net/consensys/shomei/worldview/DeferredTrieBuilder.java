@@ -0,0 +1,314 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.worldview;
+
+import static net.consensys.shomei.util.bytes.MimcSafeBytes.safeUInt256;
+
+import net.consensys.shomei.MutableZkAccount;
+import net.consensys.shomei.ZkAccount;
+import net.consensys.shomei.ZkValue;
+import net.consensys.shomei.storage.worldstate.WorldStateStorage;
+import net.consensys.shomei.trie.ZKTrie;
+import net.consensys.shomei.trie.engine.BottomUpTrieBuilder;
+import net.consensys.shomei.trie.model.FlattenedLeaf;
+import net.consensys.shomei.trie.model.LeafOpening;
+import net.consensys.shomei.trie.path.PathResolver;
+import net.consensys.shomei.trie.storage.AccountTrieRepositoryWrapper;
+import net.consensys.shomei.trie.storage.StorageTrieRepositoryWrapper;
+import net.consensys.shomei.trie.storage.TrieStorage;
+import net.consensys.shomei.trie.storage.TrieStorage.TrieUpdater;
+import net.consensys.shomei.trielog.AccountKey;
+import net.consensys.shomei.trielog.StorageSlotKey;
+import net.consensys.zkevm.HashMetrics;
+import net.consensys.zkevm.HashProvider;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.units.bigints.UInt256;
+import org.hyperledger.besu.datatypes.Address;
+import org.hyperledger.besu.datatypes.Hash;
+
+/**
+ * Applies the changes of the blocks to the flat leaves of the world state only, and later builds
+ * all the tries at once from these flat leaves.
+ *
+ * <p>The flat leaves are updated as {@link ZkEvmWorldState} does when rolling forward: a new leaf
+ * takes the next free index of its trie, a removed leaf frees nothing. The tries built from them
+ * are thus the same as the ones committed block after block. In the meantime, the trie nodes and
+ * the storage roots saved in the accounts are stale and must not be read.
+ *
+ * <p>The storage tries are committed in batches of about {@link #MAX_LEAVES_PER_COMMIT} leaves, a
+ * larger storage trie being committed alone, which bounds the trie nodes held in memory until a
+ * commit to roughly a hundred megabytes. A build interrupted between two batches is done again
+ * from the start. The account trie is built and committed at once with the state root: its flat
+ * leaves, leaf hashes and nodes take a few hundred bytes per account until then.
+ */
+final class DeferredTrieBuilder {
+
+  static final long MAX_LEAVES_PER_COMMIT = 1L << 18;
+
+  private final WorldStateStorage worldStateStorage;
+  private final long maxLeavesPerCommit;
+
+  // leaf indexes of the accounts whose storage changed since the last build, null if unknown
+  private final Set<Long> changedStorages;
+
+  /**
+   * Creates the builder.
+   *
+   * @param worldStateStorage the world state storage
+   * @param resumed whether flat leaves were applied before a restart, in which case all the
+   *     storage tries are rebuilt
+   */
+  DeferredTrieBuilder(final WorldStateStorage worldStateStorage, final boolean resumed) {
+    this(worldStateStorage, resumed, MAX_LEAVES_PER_COMMIT);
+  }
+
+  // visible for testing
+  DeferredTrieBuilder(
+      final WorldStateStorage worldStateStorage,
+      final boolean resumed,
+      final long maxLeavesPerCommit) {
+    this.worldStateStorage = worldStateStorage;
+    this.changedStorages = resumed ? null : new HashSet<>();
+    this.maxLeavesPerCommit = maxLeavesPerCommit;
+  }
+
+  /**
+   * Applies the accumulated changes to the flat leaves, without hashing anything.
+   *
+   * @param accumulator the changes of the block
+   * @param updater the updater of the world state
+   */
+  void applyFlatLeaves(
+      final ZkEvmWorldStateUpdateAccumulator accumulator,
+      final WorldStateStorage.WorldStateUpdater updater) {
+    final FlatTrie accountTrie =
+        new FlatTrie(new AccountTrieRepositoryWrapper(worldStateStorage, updater));
+    for (Map.Entry<AccountKey, ZkValue<ZkAccount>> entry :
+        accumulator.getSortedAccountsToUpdate()) {
+      applyAccount(accumulator, entry.getKey(), entry.getValue(), accountTrie, updater);
+    }
+    accountTrie.saveNextFreeNode();
+  }
+
+  private void applyAccount(
+      final ZkEvmWorldStateUpdateAccumulator accumulator,
+      final AccountKey accountKey,
+      final ZkValue<ZkAccount> accountValue,
+      final FlatTrie accountTrie,
+      final WorldStateStorage.WorldStateUpdater updater) {
+    if (accountValue.isCleared() && accountValue.getPrior() != null) {
+      accountTrie
+          .getLeafIndex(accountKey.accountHash())
+          .ifPresent(
+              accountLeafIndex ->
+                  updater.removeKeysWithPrefix(
+                      StorageTrieRepositoryWrapper.getAccountPath(accountLeafIndex)));
+      accountTrie.remove(accountKey.accountHash());
+    }
+
+    if ((accountValue.isCleared() || !accountValue.isUnchanged())
+        && accountValue.getUpdated() != null) {
+      final long accountLeafIndex =
+          accountTrie
+              .getLeafIndex(accountKey.accountHash())
+              .orElse(accountTrie.getNextFreeNode());
+      final List<Map.Entry<StorageSlotKey, ZkValue<UInt256>>> storageToUpdate =
+          accumulator.getSortedStorageToUpdate(accountKey);
+      if (!storageToUpdate.isEmpty()) {
+        final FlatTrie storageTrie =
+            new FlatTrie(
+                new StorageTrieRepositoryWrapper(accountLeafIndex, worldStateStorage, updater));
+        for (Map.Entry<StorageSlotKey, ZkValue<UInt256>> storageEntry : storageToUpdate) {
+          final Hash slotHash = storageEntry.getKey().slotHash();
+          final ZkValue<UInt256> storageValue = storageEntry.getValue();
+          if (storageValue.isCleared()
+              && !accountValue.isRecreated()
+              && storageValue.getPrior() != null) {
+            storageTrie.remove(slotHash);
+          }
+          if ((accountValue.isCleared() || !storageValue.isUnchanged())
+              && storageValue.getUpdated() != null) {
+            storageTrie.put(
+                slotHash, safeUInt256(storageValue.getUpdated()).getOriginalUnsafeValue());
+          }
+        }
+        storageTrie.saveNextFreeNode();
+        if (changedStorages != null) {
+          changedStorages.add(accountLeafIndex);
+        }
+      }
+      accountTrie.put(
+          accountKey.accountHash(),
+          accountValue.getUpdated().getEncodedBytes().getOriginalUnsafeValue());
+    }
+  }
+
+  /**
+   * Builds the storage tries that changed, saves their roots in the accounts, then builds the
+   * account trie. The storage tries are committed in batches, the account trie is left to the
+   * caller to commit with the state root.
+   *
+   * @param updater the updater of the world state
+   * @return the new state root
+   */
+  Hash buildTries(final TrieUpdater updater) {
+    final TrieStorage accountStorage = new AccountTrieRepositoryWrapper(worldStateStorage, updater);
+    final List<Map.Entry<Bytes, FlattenedLeaf>> accounts =
+        BottomUpTrieBuilder.readFlatLeaves(accountStorage);
+
+    final HashMetrics.Context hashContext = HashMetrics.currentContext();
+    final Map<Long, Hash> storageRoots = new ConcurrentHashMap<>();
+    final List<Long> batch = new ArrayList<>();
+    long batchLeaves = 0;
+    for (Map.Entry<Bytes, FlattenedLeaf> account : accounts.subList(1, accounts.size() - 1)) {
+      final long leafIndex = account.getValue().leafIndex();
+      if (changedStorages != null && !changedStorages.contains(leafIndex)) {
+        continue;
+      }
+      final Optional<Long> nextFreeNode =
+          ZKTrie.readNextFreeNode(
+              new StorageTrieRepositoryWrapper(leafIndex, worldStateStorage, updater));
+      if (nextFreeNode.isEmpty()) {
+        // the account never had a storage
+        continue;
+      }
+      batch.add(leafIndex);
+      batchLeaves += nextFreeNode.get();
+      if (batchLeaves >= maxLeavesPerCommit) {
+        buildStorageTries(batch, updater, hashContext, storageRoots);
+        // no trie node is read before the state root is saved, a partial build is done again
+        updater.commit();
+        batch.clear();
+        batchLeaves = 0;
+      }
+    }
+    buildStorageTries(batch, updater, hashContext, storageRoots);
+
+    final TrieUpdater accountUpdater = accountStorage.updater();
+    for (Map.Entry<Bytes, FlattenedLeaf> account : accounts) {
+      final Hash storageRoot = storageRoots.get(account.getValue().leafIndex());
+      if (storageRoot != null) {
+        final MutableZkAccount zkAccount =
+            new MutableZkAccount(decodeAccount(account.getKey(), account.getValue().leafValue()));
+        zkAccount.setStorageRoot(storageRoot);
+        accountUpdater.putFlatLeaf(
+            account.getKey(),
+            new FlattenedLeaf(
+                account.getValue().leafIndex(),
+                zkAccount.getEncodedBytes().getOriginalUnsafeValue()));
+      }
+    }
+    if (changedStorages != null) {
+      changedStorages.clear();
+    }
+
+    return Hash.wrap(
+        ZKTrie.buildFromFlatLeaves(
+            accountStorage,
+            readNextFreeNode(accountStorage),
+            value -> HashProvider.trieHash(decodeAccount(Bytes32.ZERO, value).getEncodedBytes())));
+  }
+
+  /** Builds the storage tries, independent of each other, in parallel. */
+  private void buildStorageTries(
+      final List<Long> accountLeafIndexes,
+      final TrieUpdater updater,
+      final HashMetrics.Context hashContext,
+      final Map<Long, Hash> storageRoots) {
+    accountLeafIndexes.parallelStream()
+        .forEach(
+            leafIndex -> {
+              try (HashMetrics.Scope ignored = HashMetrics.enter(hashContext);
+                  HashMetrics.Scope ignoredStorage =
+                      HashMetrics.enter(HashMetrics.Category.STORAGE_TRIE)) {
+                storageRoots.put(leafIndex, buildStorageTrie(leafIndex, updater));
+              }
+            });
+  }
+
+  private Hash buildStorageTrie(final long accountLeafIndex, final TrieUpdater updater) {
+    final TrieStorage storage =
+        new StorageTrieRepositoryWrapper(accountLeafIndex, worldStateStorage, updater);
+    return Hash.wrap(
+        ZKTrie.buildFromFlatLeaves(
+            storage,
+            readNextFreeNode(storage),
+            value -> HashProvider.trieHash(safeUInt256(UInt256.fromBytes(value)))));
+  }
+
+  private static long readNextFreeNode(final TrieStorage storage) {
+    return ZKTrie.readNextFreeNode(storage)
+        .orElseThrow(() -> new IllegalStateException("missing next free node of the trie"));
+  }
+
+  /** The address is not part of the encoded account, only the encoding of the result is used. */
+  private static ZkAccount decodeAccount(final Bytes hkey, final Bytes encodedAccount) {
+    return ZkAccount.fromEncodedBytes(
+        new AccountKey(Hash.wrap(Bytes32.wrap(hkey)), Address.ZERO), encodedAccount);
+  }
+
+  /** The flat leaves of a trie and its next free leaf index. */
+  private static final class FlatTrie {
+    private final TrieStorage storage;
+    private final TrieUpdater updater;
+    private long nextFreeNode;
+
+    private FlatTrie(final TrieStorage storage) {
+      this.storage = storage;
+      this.updater = storage.updater();
+      if (storage.getFlatLeaf(LeafOpening.HEAD.getHkey()).isEmpty()) {
+        updater.putFlatLeaf(LeafOpening.HEAD.getHkey(), FlattenedLeaf.HEAD);
+        updater.putFlatLeaf(LeafOpening.TAIL.getHkey(), FlattenedLeaf.TAIL);
+        nextFreeNode = 2;
+      } else {
+        nextFreeNode = readNextFreeNode(storage);
+      }
+    }
+
+    private Optional<Long> getLeafIndex(final Hash hkey) {
+      return storage.getFlatLeaf(hkey).map(FlattenedLeaf::leafIndex);
+    }
+
+    private long getNextFreeNode() {
+      return nextFreeNode;
+    }
+
+    private void put(final Hash hkey, final Bytes value) {
+      final long leafIndex = getLeafIndex(hkey).orElseGet(() -> nextFreeNode++);
+      updater.putFlatLeaf(hkey, new FlattenedLeaf(leafIndex, value));
+    }
+
+    private void remove(final Hash hkey) {
+      updater.removeFlatLeafValue(hkey);
+    }
+
+    private void saveNextFreeNode() {
+      final Bytes encodedNextFreeNode = UInt256.valueOf(nextFreeNode);
+      updater.putTrieNode(
+          PathResolver.NEXT_FREE_NODE_PATH,
+          HashProvider.trieHash(encodedNextFreeNode),
+          encodedNextFreeNode);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.worldview;
+
+import net.consensys.shomei.ZkAccount;
+import net.consensys.shomei.ZkValue;
+import net.consensys.shomei.storage.worldstate.WorldStateStorage;
+import net.consensys.shomei.trie.ZKTrie;
+import net.consensys.shomei.trie.model.FlattenedLeaf;
+import net.consensys.shomei.trie.storage.AccountTrieRepositoryWrapper;
+import net.consensys.shomei.trie.storage.StorageTrieRepositoryWrapper;
+import net.consensys.shomei.trie.storage.TrieStorage;
+import net.consensys.shomei.trie.storage.TrieStorage.TrieUpdater;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.hyperledger.besu.datatypes.Hash;
+
+/**
+ * Keeps the tries of a world state loaded between its commits: the account trie and the most
+ * recently used storage tries, keyed by the leaf index of their account. The nodes near the roots
+ * and the next free leaf indexes are thus read and decoded once instead of on every block.
+ *
+ * <p>A trie is only reused if its root hash is the expected one, a trie left behind by a failed
+ * commit is thus loaded again. The writes done to the world state without these tries must be
+ * followed by {@link #clear()}. The tries write to the updater of the block being committed, see
+ * {@link #setUpdater(TrieUpdater)}.
+ */
+final class TrieHandles {
+
+  static final int MAX_STORAGE_TRIES = 256;
+
+  // the levels of nodes kept in memory after a commit, the deeper ones are read again when needed
+  static final int ACCOUNT_TRIE_KEPT_LEVELS = 16;
+  static final int STORAGE_TRIE_KEPT_LEVELS = 8;
+
+  private final WorldStateStorage worldStateStorage;
+  private final ForwardingUpdater updater = new ForwardingUpdater();
+  private ZKTrie accountTrie;
+  // the least recently used storage trie first
+  private final Map<Long, ZKTrie> storageTries =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, ZKTrie> eldest) {
+          return size() > MAX_STORAGE_TRIES;
+        }
+      };
+
+  TrieHandles(final WorldStateStorage worldStateStorage) {
+    this.worldStateStorage = worldStateStorage;
+  }
+
+  /** Sets the updater the tries write to until the next call. */
+  void setUpdater(final TrieUpdater worldStateUpdater) {
+    updater.delegate = worldStateUpdater;
+  }
+
+  /**
+   * Returns the account trie, loaded again if its root hash is not the given one.
+   *
+   * @param stateRoot the state root of the world state
+   * @return the account trie
+   */
+  ZKTrie getAccountTrie(final Hash stateRoot) {
+    if (accountTrie == null || !stateRoot.equals(Hash.wrap(accountTrie.getTopRootHash()))) {
+      accountTrie =
+          loadTrie(new AccountTrieRepositoryWrapper(worldStateStorage, updater), stateRoot);
+    }
+    return accountTrie;
+  }
+
+  /**
+   * Returns the storage trie of the account, loaded again if its root hash is not the storage root
+   * of the prior account.
+   *
+   * @param accountLeafIndex the leaf index of the account in the account trie
+   * @param accountValue the account
+   * @return the storage trie of the account
+   */
+  ZKTrie getStorageTrie(final long accountLeafIndex, final ZkValue<ZkAccount> accountValue) {
+    final ZKTrie storageTrie = storageTries.get(accountLeafIndex);
+    if (storageTrie != null
+        && accountValue.getPrior() != null
+        && accountValue
+            .getPrior()
+            .getStorageRoot()
+            .equals(Hash.wrap(storageTrie.getTopRootHash()))) {
+      return storageTrie;
+    }
+    final TrieStorage storage =
+        new StorageTrieRepositoryWrapper(accountLeafIndex, worldStateStorage, updater);
+    final ZKTrie loaded =
+        storage.getTrieNode(Bytes.EMPTY, null).isEmpty()
+            ? ZKTrie.createTrie(storage)
+            : ZKTrie.loadTrie(accountValue.getPrior().getStorageRoot(), storage);
+    storageTries.put(accountLeafIndex, loaded);
+    return loaded;
+  }
+
+  /** Commits the account trie and releases its deepest nodes. */
+  void commitAccountTrie() {
+    accountTrie.commit();
+    accountTrie.releaseNodesBelow(ACCOUNT_TRIE_KEPT_LEVELS);
+  }
+
+  /** Commits the storage trie and releases its deepest nodes. */
+  void commitStorageTrie(final ZKTrie storageTrie) {
+    storageTrie.commit();
+    storageTrie.releaseNodesBelow(STORAGE_TRIE_KEPT_LEVELS);
+  }
+
+  /** Forgets the storage trie of the account, whose storage is removed. */
+  void evictStorageTrie(final long accountLeafIndex) {
+    storageTries.remove(accountLeafIndex);
+  }
+
+  /** Forgets all the tries, they are loaded again from the storage. */
+  void clear() {
+    accountTrie = null;
+    storageTries.clear();
+  }
+
+  /**
+   * Loads the trie with the given root hash, or creates it if the storage does not hold it yet.
+   *
+   * @param storage the storage of the trie
+   * @param rootHash the root hash of the trie
+   * @return the trie
+   */
+  static ZKTrie loadTrie(final TrieStorage storage, final Bytes32 rootHash) {
+    if (storage.getTrieNode(Bytes.EMPTY, null).isEmpty()) {
+      return ZKTrie.createTrie(storage);
+    } else {
+      return ZKTrie.loadTrie(rootHash, storage);
+    }
+  }
+
+  /** Writes to the updater of the block being committed. */
+  private static final class ForwardingUpdater implements TrieUpdater {
+    private TrieUpdater delegate;
+
+    @Override
+    public void putFlatLeaf(final Bytes key, final FlattenedLeaf value) {
+      delegate.putFlatLeaf(key, value);
+    }
+
+    @Override
+    public void putTrieNode(final Bytes location, final Bytes nodeHash, final Bytes value) {
+      delegate.putTrieNode(location, nodeHash, value);
+    }
+
+    @Override
+    public void removeFlatLeafValue(final Bytes key) {
+      delegate.removeFlatLeafValue(key);
+    }
+
+    @Override
+    public void commit() {
+      delegate.commit();
+    }
+  }
+}
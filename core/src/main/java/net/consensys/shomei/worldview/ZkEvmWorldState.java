@@ -13,30 +13,29 @@
 
 package net.consensys.shomei.worldview;
 
-import static net.consensys.shomei.trie.ZKTrie.DEFAULT_TRIE_ROOT;
+import static net.consensys.shomei.trie.ZKTrie.getDefaultTrieRoot;
 import static net.consensys.shomei.util.bytes.MimcSafeBytes.safeUInt256;
 
 import net.consensys.shomei.MutableZkAccount;
 import net.consensys.shomei.ZkAccount;
 import net.consensys.shomei.ZkValue;
 import net.consensys.shomei.storage.TraceManager;
+import net.consensys.shomei.storage.worldstate.OverlayWorldStateStorage;
 import net.consensys.shomei.storage.worldstate.WorldStateStorage;
 import net.consensys.shomei.trie.ZKTrie;
-import net.consensys.shomei.trie.storage.AccountTrieRepositoryWrapper;
 import net.consensys.shomei.trie.storage.StorageTrieRepositoryWrapper;
-import net.consensys.shomei.trie.storage.TrieStorage;
-import net.consensys.shomei.trie.storage.TrieStorage.TrieUpdater;
 import net.consensys.shomei.trie.trace.Trace;
 import net.consensys.shomei.trielog.AccountKey;
 import net.consensys.shomei.trielog.StorageSlotKey;
+import net.consensys.zkevm.HashMetrics;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 import com.google.common.annotations.VisibleForTesting;
-import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.units.bigints.UInt256;
 import org.hyperledger.besu.datatypes.Hash;
 import org.slf4j.Logger;
@@ -63,14 +62,28 @@ public class ZkEvmWorldState {
 
   private final TraceManager traceManager;
 
+  // blocks applied to the tries but not persisted yet, see commitToBatch
+  private Batch batch;
+
+  // set while blocks are applied to the flat leaves only, see commitFlatLeaves
+  private DeferredTrieBuilder deferredTrieBuilder;
+
+  // tries kept loaded between the blocks
+  private final TrieHandles trieHandles;
+
   public ZkEvmWorldState(
       final WorldStateStorage zkEvmWorldStateStorage, final TraceManager traceManager) {
-    this.stateRoot = zkEvmWorldStateStorage.getWorldStateRootHash().orElse(DEFAULT_TRIE_ROOT);
+    this.stateRoot = zkEvmWorldStateStorage.getWorldStateRootHash().orElse(getDefaultTrieRoot());
     this.blockNumber = zkEvmWorldStateStorage.getWorldStateBlockNumber().orElse(-1L);
     this.blockHash = zkEvmWorldStateStorage.getWorldStateBlockHash().orElse(Hash.EMPTY);
     this.accumulator = new ZkEvmWorldStateUpdateAccumulator();
     this.zkEvmWorldStateStorage = zkEvmWorldStateStorage;
     this.traceManager = traceManager;
+    this.trieHandles = new TrieHandles(zkEvmWorldStateStorage);
+    if (blockNumber >= 0 && traceManager.getZkStateRootHash(blockNumber).isEmpty()) {
+      // stopped before the tries of the last blocks imported into the flat leaves were built
+      this.deferredTrieBuilder = new DeferredTrieBuilder(zkEvmWorldStateStorage, true);
+    }
   }
 
   public WorldStateStorage getZkEvmWorldStateStorage() {
@@ -78,6 +91,9 @@ public class ZkEvmWorldState {
   }
 
   public void commit(final long blockNumber, final Hash blockHash, final boolean generateTrace) {
+    // the block must be applied on top of the persisted state of the previous ones
+    flushBatch();
+    buildTries();
     LOG.atDebug()
         .setMessage("Commit world state for block number {} and block hash {}")
         .addArgument(blockNumber)
@@ -88,7 +104,15 @@ public class ZkEvmWorldState {
         (WorldStateStorage.WorldStateUpdater) zkEvmWorldStateStorage.updater();
     final TraceManager.TraceManagerUpdater traceUpdater = traceManager.updater();
 
-    final State state = generateNewState(worldStateUpdater, generateTrace);
+    final State state;
+    try (HashMetrics.Scope ignored = HashMetrics.enter(HashMetrics.Category.ACCOUNT_TRIE)) {
+      state = generateNewState(worldStateUpdater, generateTrace);
+    } catch (RuntimeException e) {
+      discardPendingWrites(worldStateUpdater);
+      throw e;
+    }
+    // hashes computed by this thread since the previous block, trie log decoding included
+    final HashMetrics.ThreadCounts blockHashes = HashMetrics.takeThreadCounts();
 
     this.stateRoot = state.stateRoot();
     this.blockNumber = blockNumber;
@@ -102,10 +126,12 @@ public class ZkEvmWorldState {
       traceUpdater.saveTrace(blockNumber, state.traces);
       if (!state.traces.isEmpty()) {
         LOG.atInfo()
-            .setMessage("Generated trace for block {}:{} in {} ms")
+            .setMessage("Generated trace for block {}:{} in {} ms with {} hashes ({})")
             .addArgument(blockNumber)
             .addArgument(blockHash)
             .addArgument(System.currentTimeMillis() - start)
+            .addArgument(blockHashes::total)
+            .addArgument(blockHashes)
             .log();
       } else {
         LOG.atInfo()
@@ -121,28 +147,260 @@ public class ZkEvmWorldState {
     accumulator.reset();
   }
 
+  /**
+   * Persists a block already imported on top of this world state into an overlay, without applying
+   * its changes again. The overlay holds the changes of the block only, its state root and trace
+   * were computed on its import.
+   *
+   * @param overlay the overlay of the block, on top of this world state
+   * @param stateRoot the state root of the block
+   * @param traces the trace of the block, empty if not generated
+   */
+  public void commitOverlay(
+      final OverlayWorldStateStorage overlay,
+      final Hash stateRoot,
+      final Optional<List<Trace>> traces) {
+    flushBatch();
+    buildTries();
+    final long newBlockNumber = overlay.getWorldStateBlockNumber().orElseThrow();
+    final Hash newBlockHash = overlay.getWorldStateBlockHash().orElseThrow();
+    LOG.atDebug()
+        .setMessage("Commit overlay for block number {} and block hash {}")
+        .addArgument(newBlockNumber)
+        .addArgument(newBlockHash)
+        .log();
+    final WorldStateStorage.WorldStateUpdater worldStateUpdater =
+        (WorldStateStorage.WorldStateUpdater) zkEvmWorldStateStorage.updater();
+    final TraceManager.TraceManagerUpdater traceUpdater = traceManager.updater();
+    trieHandles.clear();
+    overlay.copyTo(worldStateUpdater);
+    traceUpdater.saveZkStateRootHash(newBlockNumber, stateRoot);
+    traces.ifPresent(trace -> traceUpdater.saveTrace(newBlockNumber, trace));
+    worldStateUpdater.commit();
+    traceUpdater.commit();
+    this.stateRoot = stateRoot;
+    this.blockNumber = newBlockNumber;
+    this.blockHash = newBlockHash;
+  }
+
+  /**
+   * Applies the accumulated changes of the block to the tries of the current batch, without
+   * computing the new state root nor persisting anything. The account trie stays open between the
+   * blocks of the batch, so the nodes shared by the blocks, starting with the ones near the root,
+   * are hashed and written once by {@link #flushBatch()}.
+   *
+   * <p>The changes are applied block after block, the leaves are thus inserted in the same order
+   * as with {@link #commit(long, Hash, boolean)} and the final state root is the same. No trace is
+   * generated and the zk state root hash is only saved for the last block of the batch.
+   *
+   * @param blockNumber the number of the block
+   * @param blockHash the hash of the block
+   */
+  public void commitToBatch(final long blockNumber, final Hash blockHash) {
+    LOG.atDebug()
+        .setMessage("Add block number {} and block hash {} to the commit batch")
+        .addArgument(blockNumber)
+        .addArgument(blockHash)
+        .log();
+    if (batch == null) {
+      buildTries();
+      final WorldStateStorage.WorldStateUpdater worldStateUpdater =
+          (WorldStateStorage.WorldStateUpdater) zkEvmWorldStateStorage.updater();
+      trieHandles.setUpdater(worldStateUpdater);
+      batch =
+          new Batch(
+              worldStateUpdater,
+              trieHandles.getAccountTrie(stateRoot),
+              System.currentTimeMillis());
+    }
+    try (HashMetrics.Scope ignored = HashMetrics.enter(HashMetrics.Category.ACCOUNT_TRIE)) {
+      updateAccounts(batch.accountTrie, batch.updater, false);
+    } catch (RuntimeException e) {
+      // the previous blocks of the batch are discarded too, they are imported again
+      discardPendingWrites(batch.updater);
+      throw e;
+    }
+    batch.blockCount++;
+    this.blockNumber = blockNumber;
+    this.blockHash = blockHash;
+    accumulator.reset();
+  }
+
+  /**
+   * Commits the account trie of the current batch and persists the blocks added to it. Does
+   * nothing if no block is pending.
+   */
+  public void flushBatch() {
+    if (batch == null) {
+      return;
+    }
+    final Hash newStateRoot;
+    try (HashMetrics.Scope ignored = HashMetrics.enter(HashMetrics.Category.ACCOUNT_TRIE)) {
+      trieHandles.commitAccountTrie();
+      newStateRoot = Hash.wrap(batch.accountTrie.getTopRootHash());
+    } catch (RuntimeException e) {
+      discardPendingWrites(batch.updater);
+      throw e;
+    }
+    final HashMetrics.ThreadCounts batchHashes = HashMetrics.takeThreadCounts();
+    this.stateRoot = newStateRoot;
+
+    final TraceManager.TraceManagerUpdater traceUpdater = traceManager.updater();
+    batch.updater.setBlockHash(blockHash);
+    batch.updater.setBlockNumber(blockNumber);
+    traceUpdater.saveZkStateRootHash(blockNumber, newStateRoot);
+    batch.updater.commit();
+    traceUpdater.commit();
+
+    LOG.atDebug()
+        .setMessage("Committed {} blocks up to {}:{} in {} ms with {} hashes ({})")
+        .addArgument(batch.blockCount)
+        .addArgument(blockNumber)
+        .addArgument(blockHash)
+        .addArgument(System.currentTimeMillis() - batch.startTime)
+        .addArgument(batchHashes::total)
+        .addArgument(batchHashes)
+        .log();
+    batch = null;
+  }
+
+  /** Returns the number of blocks added to the current batch and not persisted yet. */
+  public int getBatchedBlockCount() {
+    return batch == null ? 0 : batch.blockCount;
+  }
+
+  /**
+   * Applies the accumulated changes of the block to the flat leaves only and persists them. No trie
+   * node is hashed nor written until {@link #buildTries()}, which builds the tries of all the
+   * blocks imported this way at once, bottom up.
+   *
+   * <p>Until then the state root is the one of the last block whose tries were built, no zk state
+   * root hash is saved for the imported blocks and no proof can be served for them.
+   *
+   * @param blockNumber the number of the block
+   * @param blockHash the hash of the block
+   */
+  public void commitFlatLeaves(final long blockNumber, final Hash blockHash) {
+    flushBatch();
+    LOG.atDebug()
+        .setMessage("Commit flat leaves for block number {} and block hash {}")
+        .addArgument(blockNumber)
+        .addArgument(blockHash)
+        .log();
+    if (deferredTrieBuilder == null) {
+      deferredTrieBuilder = new DeferredTrieBuilder(zkEvmWorldStateStorage, false);
+    }
+    trieHandles.clear();
+    final WorldStateStorage.WorldStateUpdater worldStateUpdater =
+        (WorldStateStorage.WorldStateUpdater) zkEvmWorldStateStorage.updater();
+    try {
+      deferredTrieBuilder.applyFlatLeaves(accumulator, worldStateUpdater);
+    } catch (RuntimeException e) {
+      discardPendingWrites(worldStateUpdater);
+      throw e;
+    }
+    this.blockNumber = blockNumber;
+    this.blockHash = blockHash;
+    worldStateUpdater.setBlockHash(blockHash);
+    worldStateUpdater.setBlockNumber(blockNumber);
+    worldStateUpdater.commit();
+    accumulator.reset();
+  }
+
+  /**
+   * Builds the tries from the flat leaves imported by {@link #commitFlatLeaves(long, Hash)} and
+   * saves the state root of the current block. Does nothing if no block was imported this way.
+   */
+  public void buildTries() {
+    if (deferredTrieBuilder == null) {
+      return;
+    }
+    final long start = System.currentTimeMillis();
+    trieHandles.clear();
+    final WorldStateStorage.WorldStateUpdater worldStateUpdater =
+        (WorldStateStorage.WorldStateUpdater) zkEvmWorldStateStorage.updater();
+    final Hash newStateRoot;
+    try (HashMetrics.Scope ignored = HashMetrics.enter(HashMetrics.Category.ACCOUNT_TRIE)) {
+      newStateRoot = deferredTrieBuilder.buildTries(worldStateUpdater);
+    } catch (RuntimeException e) {
+      discardPendingWrites(worldStateUpdater);
+      throw e;
+    }
+    final HashMetrics.ThreadCounts buildHashes = HashMetrics.takeThreadCounts();
+    this.stateRoot = newStateRoot;
+
+    final TraceManager.TraceManagerUpdater traceUpdater = traceManager.updater();
+    traceUpdater.saveZkStateRootHash(blockNumber, newStateRoot);
+    worldStateUpdater.commit();
+    traceUpdater.commit();
+    deferredTrieBuilder = null;
+
+    LOG.atInfo()
+        .setMessage("Built the tries up to block {}:{} in {} ms with {} hashes ({})")
+        .addArgument(blockNumber)
+        .addArgument(blockHash)
+        .addArgument(System.currentTimeMillis() - start)
+        .addArgument(buildHashes::total)
+        .addArgument(buildHashes)
+        .log();
+  }
+
+  /** Returns whether blocks were imported into the flat leaves and their tries not built yet. */
+  public boolean isTrieBuildPending() {
+    return deferredTrieBuilder != null;
+  }
+
   record State(Hash stateRoot, List<Trace> traces) {}
 
-  private State generateNewState(final TrieUpdater updater, final boolean generateTrace) {
-    final ZKTrie zkAccountTrie =
-        loadAccountTrie(new AccountTrieRepositoryWrapper(zkEvmWorldStateStorage, updater));
+  private static final class Batch {
+    private final WorldStateStorage.WorldStateUpdater updater;
+    private final ZKTrie accountTrie;
+    private final long startTime;
+    private int blockCount;
+
+    private Batch(
+        final WorldStateStorage.WorldStateUpdater updater,
+        final ZKTrie accountTrie,
+        final long startTime) {
+      this.updater = updater;
+      this.accountTrie = accountTrie;
+      this.startTime = startTime;
+    }
+  }
+
+  private State generateNewState(
+      final WorldStateStorage.WorldStateUpdater updater, final boolean generateTrace) {
+    trieHandles.setUpdater(updater);
+    final ZKTrie zkAccountTrie = trieHandles.getAccountTrie(stateRoot);
     final List<Trace> traces = updateAccounts(zkAccountTrie, updater, generateTrace);
-    zkAccountTrie.commit();
+    trieHandles.commitAccountTrie();
     return new State(Hash.wrap(zkAccountTrie.getTopRootHash()), traces);
   }
 
+  /**
+   * Discards the writes of a failed import, and the blocks of the current batch if any, so that the
+   * next import does not read them. The head goes back to the last persisted block.
+   */
+  private void discardPendingWrites(final WorldStateStorage.WorldStateUpdater updater) {
+    updater.rollback();
+    batch = null;
+    // the tries may hold changes that will never be persisted
+    trieHandles.clear();
+    accumulator.reset();
+    this.blockNumber = zkEvmWorldStateStorage.getWorldStateBlockNumber().orElse(-1L);
+    this.blockHash = zkEvmWorldStateStorage.getWorldStateBlockHash().orElse(Hash.EMPTY);
+  }
+
   private List<Trace> updateAccounts(
-      final ZKTrie zkAccountTrie, final TrieUpdater updater, final boolean generateTrace) {
+      final ZKTrie zkAccountTrie,
+      final WorldStateStorage.WorldStateUpdater updater,
+      final boolean generateTrace) {
     final List<Trace> traces = new ArrayList<>();
-    accumulator.getAccountsToUpdate().entrySet().stream()
-        .sorted(Map.Entry.comparingByKey())
-        .forEach(
-            (entry) -> {
-              final AccountKey accountKey = entry.getKey();
-              final ZkValue<ZkAccount> accountValue = entry.getValue();
-              traces.addAll(
-                  updateAccount(accountKey, accountValue, zkAccountTrie, updater, generateTrace));
-            });
+    for (Map.Entry<AccountKey, ZkValue<ZkAccount>> entry :
+        accumulator.getSortedAccountsToUpdate()) {
+      traces.addAll(
+          updateAccount(entry.getKey(), entry.getValue(), zkAccountTrie, updater, generateTrace));
+    }
     return traces;
   }
 
@@ -150,7 +408,7 @@ public class ZkEvmWorldState {
       final AccountKey accountKey,
       final ZkValue<ZkAccount> accountValue,
       final ZKTrie zkAccountTrie,
-      final TrieUpdater updater,
+      final WorldStateStorage.WorldStateUpdater updater,
       final boolean generateTrace) {
     final List<Trace> traces = new ArrayList<>();
 
@@ -165,7 +423,9 @@ public class ZkEvmWorldState {
         if (accountValue.getPrior() != null) {
           final long accountLeafIndex =
               zkAccountTrie.getLeafIndex(accountKey.accountHash()).orElseThrow();
-          traces.addAll(readSlots(accountKey, accountLeafIndex, accountValue, updater));
+          try (HashMetrics.Scope ignored = HashMetrics.enter(HashMetrics.Category.STORAGE_TRIE)) {
+            traces.addAll(readSlots(accountKey, accountLeafIndex, accountValue));
+          }
         }
       }
     }
@@ -176,9 +436,8 @@ public class ZkEvmWorldState {
         zkAccountTrie.decrementNextFreeNode();
       }
       if (accountValue.getPrior() != null) {
+        wipeStorage(accountKey, zkAccountTrie, updater);
         traces.add(zkAccountTrie.removeWithTrace(accountKey.accountHash(), accountKey.address()));
-        // TODO remove all slots from storage : if we not do that the rollback will not work
-        // get index leaf from DB and delete all keys starting by HKEY+index in trie branch
       }
     }
 
@@ -186,9 +445,8 @@ public class ZkEvmWorldState {
     if (!accountValue.isRollforward()
         && accountValue.isRecreated()) { // decrement again in case of selfdestruct
       zkAccountTrie.decrementNextFreeNode();
+      wipeStorage(accountKey, zkAccountTrie, updater);
       zkAccountTrie.removeWithTrace(accountKey.accountHash(), accountKey.address());
-      // TODO remove all slots from storage : if we not do that the rollback will not work
-      // get index leaf from DB and delete all keys starting by HKEY+index in trie branch
     }
 
     // check update and insert
@@ -201,7 +459,9 @@ public class ZkEvmWorldState {
                 .getLeafIndex(accountKey.accountHash())
                 .orElse(zkAccountTrie.getNextFreeNode());
         // update slots of the account
-        traces.addAll(updateSlots(accountKey, accountLeafIndex, accountValue, updater));
+        try (HashMetrics.Scope ignored = HashMetrics.enter(HashMetrics.Category.STORAGE_TRIE)) {
+          traces.addAll(updateSlots(accountKey, accountLeafIndex, accountValue));
+        }
 
         traces.add(
             zkAccountTrie.putWithTrace(
@@ -213,32 +473,44 @@ public class ZkEvmWorldState {
     return traces;
   }
 
+  /**
+   * Removes all the slots and trie nodes of the account storage before the account leaf is removed.
+   * A storage trie created later under the same leaf index, for example when a rollback replays
+   * the slots of the trie log, starts from an empty storage instead of the stale one.
+   */
+  private void wipeStorage(
+      final AccountKey accountKey,
+      final ZKTrie zkAccountTrie,
+      final WorldStateStorage.WorldStateUpdater updater) {
+    zkAccountTrie
+        .getLeafIndex(accountKey.accountHash())
+        .ifPresent(
+            accountLeafIndex -> {
+              trieHandles.evictStorageTrie(accountLeafIndex);
+              updater.removeKeysWithPrefix(
+                  StorageTrieRepositoryWrapper.getAccountPath(accountLeafIndex));
+            });
+  }
+
   private List<Trace> readSlots(
       final AccountKey accountKey,
       final long accountLeafIndex,
-      final ZkValue<ZkAccount> accountValue,
-      final TrieUpdater updater) {
+      final ZkValue<ZkAccount> accountValue) {
     final List<Trace> traces = new ArrayList<>();
-    final Map<StorageSlotKey, ZkValue<UInt256>> storageToRead =
-        accumulator.getStorageToUpdate().get(accountKey);
-    if (storageToRead != null) {
+    final List<Map.Entry<StorageSlotKey, ZkValue<UInt256>>> storageToRead =
+        accumulator.getSortedStorageToUpdate(accountKey);
+    if (!storageToRead.isEmpty()) {
       // load the account storage trie
-      final StorageTrieRepositoryWrapper storageAdapter =
-          new StorageTrieRepositoryWrapper(accountLeafIndex, zkEvmWorldStateStorage, updater);
-      final ZKTrie zkStorageTrie = loadStorageTrie(accountValue, storageAdapter);
-      storageToRead.entrySet().stream()
-          .sorted(Map.Entry.comparingByKey())
-          .forEach(
-              (storageEntry) -> {
-                final StorageSlotKey storageSlotKey = storageEntry.getKey();
-                final ZkValue<UInt256> storageValue = storageEntry.getValue();
-                if (Objects.equals(storageValue.getPrior(), storageValue.getUpdated())
-                    || storageValue.isCleared()) {
-                  traces.add(
-                      zkStorageTrie.readWithTrace(
-                          storageSlotKey.slotHash(), storageSlotKey.slotKey()));
-                }
-              });
+      final ZKTrie zkStorageTrie = trieHandles.getStorageTrie(accountLeafIndex, accountValue);
+      for (Map.Entry<StorageSlotKey, ZkValue<UInt256>> storageEntry : storageToRead) {
+        final StorageSlotKey storageSlotKey = storageEntry.getKey();
+        final ZkValue<UInt256> storageValue = storageEntry.getValue();
+        if (Objects.equals(storageValue.getPrior(), storageValue.getUpdated())
+            || storageValue.isCleared()) {
+          traces.add(
+              zkStorageTrie.readWithTrace(storageSlotKey.slotHash(), storageSlotKey.slotKey()));
+        }
+      }
     }
     traces.forEach(
         trace ->
@@ -252,31 +524,24 @@ public class ZkEvmWorldState {
   private List<Trace> updateSlots(
       final AccountKey accountKey,
       final long accountLeafIndex,
-      final ZkValue<ZkAccount> accountValue,
-      final TrieUpdater updater) {
+      final ZkValue<ZkAccount> accountValue) {
     final List<Trace> traces = new ArrayList<>();
-    final Map<StorageSlotKey, ZkValue<UInt256>> storageToUpdate =
-        accumulator.getStorageToUpdate().get(accountKey);
-    if (storageToUpdate != null) {
+    final List<Map.Entry<StorageSlotKey, ZkValue<UInt256>>> storageToUpdate =
+        accumulator.getSortedStorageToUpdate(accountKey);
+    if (!storageToUpdate.isEmpty()) {
       // load the account storage trie
-      final StorageTrieRepositoryWrapper storageAdapter =
-          new StorageTrieRepositoryWrapper(accountLeafIndex, zkEvmWorldStateStorage, updater);
-      final ZKTrie zkStorageTrie = loadStorageTrie(accountValue, storageAdapter);
-      storageToUpdate.entrySet().stream()
-          .sorted(Map.Entry.comparingByKey())
-          .forEach(
-              (storageEntry) -> {
-                final StorageSlotKey storageSlotKey = storageEntry.getKey();
-                final ZkValue<UInt256> storageValue = storageEntry.getValue();
-                traces.addAll(
-                    updateSlot(accountValue, storageSlotKey, storageValue, zkStorageTrie));
-              });
+      final ZKTrie zkStorageTrie = trieHandles.getStorageTrie(accountLeafIndex, accountValue);
+      for (Map.Entry<StorageSlotKey, ZkValue<UInt256>> storageEntry : storageToUpdate) {
+        traces.addAll(
+            updateSlot(
+                accountValue, storageEntry.getKey(), storageEntry.getValue(), zkStorageTrie));
+      }
       // update storage root of the account
       final MutableZkAccount mutableZkAccount = new MutableZkAccount(accountValue.getUpdated());
       mutableZkAccount.setStorageRoot(Hash.wrap(zkStorageTrie.getTopRootHash()));
       accountValue.setUpdated(mutableZkAccount);
 
-      zkStorageTrie.commit();
+      trieHandles.commitStorageTrie(zkStorageTrie);
     }
     traces.forEach(
         trace ->
@@ -293,8 +558,11 @@ public class ZkEvmWorldState {
       final ZkValue<UInt256> storageValue,
       final ZKTrie zkStorageTrie) {
     final List<Trace> traces = new ArrayList<>();
-    // check remove needed (not needed in case of selfdestruct contract)
-    if (storageValue.isCleared() && !accountValue.isRecreated()) {
+    // check remove needed (not needed in case of selfdestruct contract, nor when a rollback
+    // restores a deleted account, whose wiped storage is replayed into an empty trie)
+    if (storageValue.isCleared()
+        && !accountValue.isRecreated()
+        && accountValue.getPrior() != null) {
       if (!storageValue.isRollforward()) {
         zkStorageTrie.decrementNextFreeNode();
       }
@@ -318,6 +586,10 @@ public class ZkEvmWorldState {
     return traces;
   }
 
+  /**
+   * Returns the state root of the last persisted block, blocks of a pending batch and blocks
+   * waiting for their tries to be built excluded.
+   */
   public Hash getStateRootHash() {
     return stateRoot;
   }
@@ -334,20 +606,4 @@ public class ZkEvmWorldState {
   public ZkEvmWorldStateUpdateAccumulator getAccumulator() {
     return accumulator;
   }
-
-  private ZKTrie loadAccountTrie(final TrieStorage storage) {
-    if (storage.getTrieNode(Bytes.EMPTY, null).isEmpty()) {
-      return ZKTrie.createTrie(storage);
-    } else {
-      return ZKTrie.loadTrie(stateRoot, storage);
-    }
-  }
-
-  private ZKTrie loadStorageTrie(final ZkValue<ZkAccount> zkAccount, final TrieStorage storage) {
-    if (storage.getTrieNode(Bytes.EMPTY, null).isEmpty()) {
-      return ZKTrie.createTrie(storage);
-    } else {
-      return ZKTrie.loadTrie(zkAccount.getPrior().getStorageRoot(), storage);
-    }
-  }
 }
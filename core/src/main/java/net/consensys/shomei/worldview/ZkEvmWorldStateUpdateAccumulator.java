@@ -19,23 +19,42 @@ import net.consensys.shomei.trielog.AccountKey;
 import net.consensys.shomei.trielog.StorageSlotKey;
 import net.consensys.shomei.trielog.TrieLogLayer;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.tuweni.bytes.Bytes32;
 import org.apache.tuweni.units.bigints.UInt256;
 
 /**
  * The ZkEvmWorldStateUpdateAccumulator class is responsible for accumulating updates to the EVM
  * world state in a zero-knowledge-friendly manner. It tracks the changes made to account states and
  * storage values within the EVM world state.
+ *
+ * <p>The accumulator is only used by the thread importing the blocks. The changes are applied to
+ * the tries in the order of their keys, the sorted views are built once after the last change and
+ * reused by every pass over the same account.
  */
 public class ZkEvmWorldStateUpdateAccumulator {
 
-  private final Map<AccountKey, ZkValue<ZkAccount>> accountsToUpdate = new ConcurrentHashMap<>();
+  private static final Comparator<Map.Entry<AccountKey, ZkValue<ZkAccount>>> ACCOUNT_ORDER =
+      (a, b) -> compareHashes(a.getKey().accountHash(), b.getKey().accountHash());
+
+  private static final Comparator<Map.Entry<StorageSlotKey, ZkValue<UInt256>>> SLOT_ORDER =
+      (a, b) -> compareHashes(a.getKey().slotHash(), b.getKey().slotHash());
+
+  private final Map<AccountKey, ZkValue<ZkAccount>> accountsToUpdate = new HashMap<>();
 
   private final Map<AccountKey, Map<StorageSlotKey, ZkValue<UInt256>>> storageToUpdate =
-      new ConcurrentHashMap<>();
+      new HashMap<>();
+
+  // sorted views of the changes, dropped on each new change
+  private List<Map.Entry<AccountKey, ZkValue<ZkAccount>>> sortedAccountsToUpdate;
+  private final Map<AccountKey, List<Map.Entry<StorageSlotKey, ZkValue<UInt256>>>>
+      sortedStorageToUpdate = new HashMap<>();
 
   private boolean isAccumulatorStateChanged;
 
@@ -51,6 +70,52 @@ public class ZkEvmWorldStateUpdateAccumulator {
     return storageToUpdate;
   }
 
+  /**
+   * Returns the account changes in the order of the account hashes.
+   *
+   * @return the sorted account changes, not to be modified
+   */
+  public List<Map.Entry<AccountKey, ZkValue<ZkAccount>>> getSortedAccountsToUpdate() {
+    if (sortedAccountsToUpdate == null) {
+      sortedAccountsToUpdate = new ArrayList<>(accountsToUpdate.entrySet());
+      sortedAccountsToUpdate.sort(ACCOUNT_ORDER);
+    }
+    return sortedAccountsToUpdate;
+  }
+
+  /**
+   * Returns the slot changes of the account in the order of the slot hashes.
+   *
+   * @param accountKey the account
+   * @return the sorted slot changes, empty if the storage of the account did not change
+   */
+  public List<Map.Entry<StorageSlotKey, ZkValue<UInt256>>> getSortedStorageToUpdate(
+      final AccountKey accountKey) {
+    final Map<StorageSlotKey, ZkValue<UInt256>> storageMap = storageToUpdate.get(accountKey);
+    if (storageMap == null) {
+      return List.of();
+    }
+    return sortedStorageToUpdate.computeIfAbsent(
+        accountKey,
+        __ -> {
+          final List<Map.Entry<StorageSlotKey, ZkValue<UInt256>>> sorted =
+              new ArrayList<>(storageMap.entrySet());
+          sorted.sort(SLOT_ORDER);
+          return sorted;
+        });
+  }
+
+  // same order as Bytes.compareTo for 32 bytes, comparing four longs instead of each byte
+  private static int compareHashes(final Bytes32 a, final Bytes32 b) {
+    for (int offset = 0; offset < Bytes32.SIZE; offset += Long.BYTES) {
+      final int comparison = Long.compareUnsigned(a.getLong(offset), b.getLong(offset));
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return 0;
+  }
+
   public void rollForward(final TrieLogLayer layer) {
     layer
         .streamAccountChanges()
@@ -115,15 +180,14 @@ public class ZkEvmWorldStateUpdateAccumulator {
       final boolean isRollforward) {
     ZkValue<ZkAccount> accountValue = accountsToUpdate.get(accountKey);
     if (accountValue == null && expectedValue != null) {
-      accountValue =
-          accountsToUpdate.compute(
-              accountKey,
-              (__, zkAccountZkValue) -> new ZkValue<>(expectedValue, expectedValue, isCleared));
+      accountValue = new ZkValue<>(expectedValue, expectedValue, isCleared);
+      accountsToUpdate.put(accountKey, accountValue);
+      sortedAccountsToUpdate = null;
     }
     if (accountValue == null) {
-      accountValue =
-          accountsToUpdate.compute(
-              accountKey, (__, zkAccountZkValue) -> new ZkValue<>(null, replacementValue));
+      accountValue = new ZkValue<>(null, replacementValue);
+      accountsToUpdate.put(accountKey, accountValue);
+      sortedAccountsToUpdate = null;
     } else {
       if (expectedValue == null) {
         if (accountValue.getUpdated() != null) {
@@ -154,23 +218,22 @@ public class ZkEvmWorldStateUpdateAccumulator {
       final UInt256 replacementValue,
       final boolean isCleared,
       final boolean isRollforward) {
-    final Map<StorageSlotKey, ZkValue<UInt256>> storageMap = storageToUpdate.get(accountKey);
-    ZkValue<UInt256> slotValue = storageMap == null ? null : storageMap.get(storageSlotKey);
+    final Map<StorageSlotKey, ZkValue<UInt256>> storageMap =
+        storageToUpdate.computeIfAbsent(accountKey, __ -> new HashMap<>());
+    ZkValue<UInt256> slotValue = storageMap.get(storageSlotKey);
     if (slotValue == null && expectedValue != null) {
       slotValue =
           new ZkValue<>(
               expectedValue.isZero() ? null : expectedValue,
               expectedValue.isZero() ? null : expectedValue,
               isCleared);
-      storageToUpdate
-          .computeIfAbsent(accountKey, slotHash -> new ConcurrentHashMap<>())
-          .put(storageSlotKey, slotValue);
+      storageMap.put(storageSlotKey, slotValue);
+      sortedStorageToUpdate.remove(accountKey);
     }
     if (slotValue == null) {
       slotValue = new ZkValue<>(null, replacementValue);
-      storageToUpdate
-          .computeIfAbsent(accountKey, slotHash -> new ConcurrentHashMap<>())
-          .put(storageSlotKey, slotValue);
+      storageMap.put(storageSlotKey, slotValue);
+      sortedStorageToUpdate.remove(accountKey);
     } else {
       final UInt256 existingSlotValue = slotValue.getUpdated();
       if ((expectedValue == null || expectedValue.isZero())
@@ -213,6 +276,8 @@ public class ZkEvmWorldStateUpdateAccumulator {
   public void reset() {
     storageToUpdate.clear();
     accountsToUpdate.clear();
+    sortedAccountsToUpdate = null;
+    sortedStorageToUpdate.clear();
     resetAccumulatorStateChanged();
   }
 }
@@ -13,7 +13,7 @@
 
 package net.consensys.shomei;
 
-import static net.consensys.shomei.trie.ZKTrie.DEFAULT_TRIE_ROOT;
+import static net.consensys.shomei.trie.ZKTrie.getDefaultTrieRoot;
 import static net.consensys.shomei.util.TestFixtureGenerator.getAccountOne;
 import static net.consensys.shomei.util.TestFixtureGenerator.getAccountTwo;
 import static net.consensys.shomei.util.TestFixtureGenerator.getContractStorageTrie;
@@ -21,13 +21,20 @@ import static net.consensys.shomei.util.bytes.MimcSafeBytes.safeUInt256;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import net.consensys.shomei.storage.InMemoryStorageProvider;
+import net.consensys.shomei.storage.worldstate.InMemoryWorldStateStorage;
 import net.consensys.shomei.trie.ZKTrie;
+import net.consensys.shomei.trie.model.FlattenedLeaf;
+import net.consensys.shomei.trie.storage.AccountTrieRepositoryWrapper;
 import net.consensys.shomei.trielog.AccountKey;
 import net.consensys.shomei.trielog.StorageSlotKey;
 import net.consensys.shomei.trielog.TrieLogLayer;
 import net.consensys.shomei.util.bytes.MimcSafeBytes;
 import net.consensys.shomei.worldview.ZkEvmWorldState;
 
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.units.bigints.UInt256;
 import org.hyperledger.besu.datatypes.Hash;
 import org.hyperledger.besu.datatypes.Wei;
@@ -50,19 +57,19 @@ public class RollingBackwardTests {
     trieLog.addAccountChange(account.getAddress(), null, account);
 
     ZkEvmWorldState zkEvmWorldState = inMemoryWorldState();
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
 
     // rollforward and adding an account
     zkEvmWorldState.getAccumulator().rollForward(trieLog);
     zkEvmWorldState.commit(0L, null, false);
 
-    assertThat(zkEvmWorldState.getStateRootHash()).isNotEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isNotEqualTo(getDefaultTrieRoot());
 
     // rollbackward and reverting an account
     zkEvmWorldState.getAccumulator().rollBack(trieLog);
     zkEvmWorldState.commit(0L, null, false);
 
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
   }
 
   @Test
@@ -76,17 +83,17 @@ public class RollingBackwardTests {
     trieLog.addAccountChange(accountTwo.getAddress(), null, accountTwo);
 
     ZkEvmWorldState zkEvmWorldState = inMemoryWorldState();
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
 
     // rollforward and adding an account
     zkEvmWorldState.getAccumulator().rollForward(trieLog);
     zkEvmWorldState.commit(0L, null, false);
-    assertThat(zkEvmWorldState.getStateRootHash()).isNotEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isNotEqualTo(getDefaultTrieRoot());
 
     // rollbackward and reverting an account
     zkEvmWorldState.getAccumulator().rollBack(trieLog);
     zkEvmWorldState.commit(0L, null, false);
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
   }
 
   @Test
@@ -104,7 +111,7 @@ public class RollingBackwardTests {
 
     // roll forward account creation
     ZkEvmWorldState zkEvmWorldState = inMemoryWorldState();
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
     zkEvmWorldState.getAccumulator().rollForward(trieLogLayer);
     zkEvmWorldState.commit(0L, null, false);
     final Hash rootHashBeforeUpdate = zkEvmWorldState.getStateRootHash();
@@ -122,7 +129,7 @@ public class RollingBackwardTests {
     // roll backward account creation
     zkEvmWorldState.getAccumulator().rollBack(trieLogLayer);
     zkEvmWorldState.commit(0L, null, false);
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
   }
 
   @Test
@@ -139,7 +146,7 @@ public class RollingBackwardTests {
 
     // roll forward account creation
     ZkEvmWorldState zkEvmWorldState = inMemoryWorldState();
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
     zkEvmWorldState.getAccumulator().rollForward(trieLogLayer);
     zkEvmWorldState.commit(0L, null, false);
     final Hash rootHashBeforeUpdate = zkEvmWorldState.getStateRootHash();
@@ -148,7 +155,7 @@ public class RollingBackwardTests {
     zkEvmWorldState.getAccumulator().rollForward(trieLogLayer2);
     zkEvmWorldState.commit(0L, null, false);
     assertThat(zkEvmWorldState.getStateRootHash()).isNotEqualTo(rootHashBeforeUpdate);
-    assertThat(zkEvmWorldState.getStateRootHash()).isNotEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isNotEqualTo(getDefaultTrieRoot());
 
     // roll backward account update
     zkEvmWorldState.getAccumulator().rollBack(trieLogLayer2);
@@ -158,7 +165,7 @@ public class RollingBackwardTests {
     // roll backward account creation
     zkEvmWorldState.getAccumulator().rollBack(trieLogLayer);
     zkEvmWorldState.commit(0L, null, false);
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
   }
 
   @Test
@@ -197,7 +204,7 @@ public class RollingBackwardTests {
 
     // roll forward account creation
     ZkEvmWorldState zkEvmWorldState = inMemoryWorldState();
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
     zkEvmWorldState.getAccumulator().rollForward(trieLogLayer);
     zkEvmWorldState.commit(0L, null, false);
     final Hash rootHashBeforeUpdate = zkEvmWorldState.getStateRootHash();
@@ -215,7 +222,62 @@ public class RollingBackwardTests {
     // roll backward account creation
     zkEvmWorldState.getAccumulator().rollBack(trieLogLayer);
     zkEvmWorldState.commit(0L, null, false);
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
+  }
+
+  @Test
+  public void rollingBackwardContractDeletionRestoresStorage() {
+
+    // create contract with storage
+    MutableZkAccount contract = getAccountOne();
+    StorageSlotKey storageSlotKey = new StorageSlotKey(UInt256.valueOf(14));
+    MimcSafeBytes<UInt256> slotValue = safeUInt256(UInt256.valueOf(12));
+    ZKTrie contractStorageTrie = getContractStorageTrie(contract);
+    contractStorageTrie.putWithTrace(
+        storageSlotKey.slotHash(), storageSlotKey.slotKey(), slotValue);
+    contract.setStorageRoot(Hash.wrap(contractStorageTrie.getTopRootHash()));
+
+    TrieLogLayer trieLogLayer = new TrieLogLayer();
+    AccountKey accountKey = trieLogLayer.addAccountChange(contract.getAddress(), null, contract);
+    trieLogLayer.addStorageChange(
+        accountKey,
+        storageSlotKey.slotKey().getOriginalUnsafeValue(),
+        null,
+        slotValue.getOriginalUnsafeValue());
+
+    // delete the contract, its storage is wiped
+    TrieLogLayer trieLogLayer2 = new TrieLogLayer();
+    AccountKey deletedAccountKey =
+        trieLogLayer2.addAccountChange(contract.getAddress(), contract, null);
+    trieLogLayer2.addStorageChange(
+        deletedAccountKey,
+        storageSlotKey.slotKey().getOriginalUnsafeValue(),
+        slotValue.getOriginalUnsafeValue(),
+        null);
+
+    // roll forward contract creation
+    final InMemoryWorldStateStorage storage = new InMemoryWorldStateStorage();
+    ZkEvmWorldState zkEvmWorldState =
+        new ZkEvmWorldState(storage, new InMemoryStorageProvider().getTraceManager());
+    zkEvmWorldState.getAccumulator().rollForward(trieLogLayer);
+    zkEvmWorldState.commit(0L, null, false);
+    final Hash rootHashBeforeDeletion = zkEvmWorldState.getStateRootHash();
+    final Map<Bytes, FlattenedLeaf> flatLeavesBeforeDeletion =
+        new TreeMap<>(storage.getFlatLeafStorage());
+
+    // roll forward contract deletion, only the leaves of the account trie are left
+    zkEvmWorldState.getAccumulator().rollForward(trieLogLayer2);
+    zkEvmWorldState.commit(0L, null, false);
+    assertThat(zkEvmWorldState.getStateRootHash()).isNotEqualTo(rootHashBeforeDeletion);
+    final Bytes accountTriePrefix = AccountTrieRepositoryWrapper.WRAP_ACCOUNT.apply(Bytes.EMPTY);
+    assertThat(storage.getFlatLeafStorage().keySet())
+        .allMatch(key -> key.commonPrefixLength(accountTriePrefix) == accountTriePrefix.size());
+
+    // roll backward contract deletion, the trie log restores the storage
+    zkEvmWorldState.getAccumulator().rollBack(trieLogLayer2);
+    zkEvmWorldState.commit(0L, null, false);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(rootHashBeforeDeletion);
+    assertThat(storage.getFlatLeafStorage()).isEqualTo(flatLeavesBeforeDeletion);
   }
 
   @Test
@@ -257,7 +319,7 @@ public class RollingBackwardTests {
 
     // roll forward account creation
     ZkEvmWorldState zkEvmWorldState = inMemoryWorldState();
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
     zkEvmWorldState.getAccumulator().rollForward(trieLogLayer);
     zkEvmWorldState.commit(0L, null, false);
     final Hash rootHashBeforeUpdate = zkEvmWorldState.getStateRootHash();
@@ -275,6 +337,6 @@ public class RollingBackwardTests {
     // roll backward account creation
     zkEvmWorldState.getAccumulator().rollBack(trieLogLayer);
     zkEvmWorldState.commit(0L, null, false);
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
   }
 }
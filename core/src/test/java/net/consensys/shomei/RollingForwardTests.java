@@ -13,7 +13,7 @@
 
 package net.consensys.shomei;
 
-import static net.consensys.shomei.trie.ZKTrie.DEFAULT_TRIE_ROOT;
+import static net.consensys.shomei.trie.ZKTrie.getDefaultTrieRoot;
 import static net.consensys.shomei.util.TestFixtureGenerator.getAccountOne;
 import static net.consensys.shomei.util.TestFixtureGenerator.getAccountTwo;
 import static net.consensys.shomei.util.TestFixtureGenerator.getContractStorageTrie;
@@ -23,6 +23,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import net.consensys.shomei.storage.InMemoryStorageProvider;
 import net.consensys.shomei.storage.TraceManager;
 import net.consensys.shomei.storage.worldstate.InMemoryWorldStateStorage;
+import net.consensys.shomei.storage.worldstate.WorldStateStorage;
 import net.consensys.shomei.trie.ZKTrie;
 import net.consensys.shomei.trie.json.JsonTraceParser;
 import net.consensys.shomei.trie.storage.AccountTrieRepositoryWrapper;
@@ -87,7 +88,7 @@ public class RollingForwardTests {
     trieLogLayer.addAccountChange(account.getAddress(), null, account);
     trieLogLayer.addAccountChange(missingAccount.getAddress(), null, null);
 
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
     zkEvmWorldState.getAccumulator().rollForward(trieLogLayer);
     zkEvmWorldState.commit(0L, null, true);
 
@@ -122,7 +123,7 @@ public class RollingForwardTests {
     TrieLogLayer trieLogLayer = new TrieLogLayer();
     trieLogLayer.addAccountChange(account.getAddress(), null, account);
 
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
     zkEvmWorldState.getAccumulator().rollForward(trieLogLayer);
     zkEvmWorldState.commit(0L, null, true);
 
@@ -168,7 +169,7 @@ public class RollingForwardTests {
     TrieLogLayer trieLogLayer2 = new TrieLogLayer();
     trieLogLayer2.addAccountChange(account.getAddress(), account, accountUpdated);
 
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
     zkEvmWorldState.getAccumulator().rollForward(trieLogLayer);
     zkEvmWorldState.commit(0L, null, true);
     assertThat(zkEvmWorldState.getStateRootHash())
@@ -213,7 +214,7 @@ public class RollingForwardTests {
     trieLogLayer.addAccountChange(secondAccount.getAddress(), null, secondAccount);
     trieLogLayer.addAccountChange(account.getAddress(), null, account);
 
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
 
     zkEvmWorldState.getAccumulator().rollForward(trieLogLayer);
     zkEvmWorldState.commit(0L, null, true);
@@ -309,7 +310,7 @@ public class RollingForwardTests {
         null,
         slotValue.getOriginalUnsafeValue());
 
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
 
     zkEvmWorldState.getAccumulator().rollForward(trieLogLayer);
     zkEvmWorldState.commit(0L, null, true);
@@ -370,7 +371,7 @@ public class RollingForwardTests {
         slotValue.getOriginalUnsafeValue(),
         slotValue.getOriginalUnsafeValue());
 
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
     zkEvmWorldState.getAccumulator().rollForward(trieLogLayer);
     zkEvmWorldState.commit(0L, null, true);
 
@@ -429,7 +430,7 @@ public class RollingForwardTests {
 
     Hash topRootHash = Hash.wrap(accountStateTrieOne.getTopRootHash());
 
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
 
     // create account with the rolling
     TrieLogLayer trieLogLayer = new TrieLogLayer();
@@ -511,7 +512,7 @@ public class RollingForwardTests {
 
     Hash topRootHash = Hash.wrap(accountStateTrieOne.getTopRootHash());
 
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
 
     // create account with the rolling
     TrieLogLayer trieLogLayer = new TrieLogLayer();
@@ -596,7 +597,7 @@ public class RollingForwardTests {
 
     Hash topRootHash = Hash.wrap(accountStateTrieOne.getTopRootHash());
 
-    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(DEFAULT_TRIE_ROOT);
+    assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
 
     // create account with the rolling
     TrieLogLayer trieLogLayer = new TrieLogLayer();
@@ -630,6 +631,252 @@ public class RollingForwardTests {
     assertThat(zkEvmWorldState.getStateRootHash()).isEqualTo(topRootHash);
   }
 
+  @Test
+  public void rollingForwardInBatchMatchesBlockByBlockCommit() {
+    MutableZkAccount account = getAccountOne();
+    MutableZkAccount accountUpdated = new MutableZkAccount(account);
+    accountUpdated.setBalance(Wei.of(100));
+    MutableZkAccount contract = getAccountTwo();
+    StorageSlotKey storageSlotKey = new StorageSlotKey(UInt256.valueOf(14));
+
+    // the contract is created after the account, whose leaf index is thus lower
+    TrieLogLayer trieLogLayer = new TrieLogLayer();
+    trieLogLayer.addAccountChange(account.getAddress(), null, account);
+    TrieLogLayer trieLogLayer2 = new TrieLogLayer();
+    final AccountKey contractAccountKey =
+        trieLogLayer2.addAccountChange(contract.getAddress(), null, contract);
+    trieLogLayer2.addStorageChange(
+        contractAccountKey, storageSlotKey.slotKey().getOriginalUnsafeValue(), null, UInt256.ONE);
+    TrieLogLayer trieLogLayer3 = new TrieLogLayer();
+    trieLogLayer3.addAccountChange(account.getAddress(), account, accountUpdated);
+    final List<TrieLogLayer> trieLogLayers = List.of(trieLogLayer, trieLogLayer2, trieLogLayer3);
+
+    for (int i = 0; i < trieLogLayers.size(); i++) {
+      zkEvmWorldState.getAccumulator().rollForward(trieLogLayers.get(i));
+      zkEvmWorldState.commit(i, Hash.ZERO, false);
+    }
+
+    final InMemoryStorageProvider batchStorageProvider = new InMemoryStorageProvider();
+    final ZkEvmWorldState batchWorldState =
+        new ZkEvmWorldState(
+            batchStorageProvider.getWorldStateStorage(), batchStorageProvider.getTraceManager());
+    for (int i = 0; i < trieLogLayers.size(); i++) {
+      batchWorldState.getAccumulator().rollForward(trieLogLayers.get(i));
+      batchWorldState.commitToBatch(i, Hash.ZERO);
+    }
+    assertThat(batchWorldState.getBatchedBlockCount()).isEqualTo(3);
+    assertThat(batchWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
+
+    batchWorldState.flushBatch();
+    assertThat(batchWorldState.getBatchedBlockCount()).isZero();
+    assertThat(batchWorldState.getBlockNumber()).isEqualTo(2L);
+    assertThat(batchWorldState.getStateRootHash()).isEqualTo(zkEvmWorldState.getStateRootHash());
+    assertThat(batchStorageProvider.getTraceManager().getZkStateRootHash(2L))
+        .contains(zkEvmWorldState.getStateRootHash());
+    assertThat(batchStorageProvider.getTraceManager().getZkStateRootHash(1L)).isEmpty();
+  }
+
+  @Test
+  public void rollingForwardFlatLeavesOnlyMatchesBlockByBlockCommit() {
+    MutableZkAccount account = getAccountOne();
+    MutableZkAccount accountUpdated = new MutableZkAccount(account);
+    accountUpdated.setBalance(Wei.of(100));
+    MutableZkAccount contract = getAccountTwo();
+    StorageSlotKey storageSlotKey = new StorageSlotKey(UInt256.valueOf(14));
+
+    TrieLogLayer trieLogLayer = new TrieLogLayer();
+    trieLogLayer.addAccountChange(account.getAddress(), null, account);
+    TrieLogLayer trieLogLayer2 = new TrieLogLayer();
+    final AccountKey contractAccountKey =
+        trieLogLayer2.addAccountChange(contract.getAddress(), null, contract);
+    trieLogLayer2.addStorageChange(
+        contractAccountKey, storageSlotKey.slotKey().getOriginalUnsafeValue(), null, UInt256.ONE);
+    TrieLogLayer trieLogLayer3 = new TrieLogLayer();
+    trieLogLayer3.addAccountChange(account.getAddress(), account, accountUpdated);
+    final List<TrieLogLayer> trieLogLayers = List.of(trieLogLayer, trieLogLayer2, trieLogLayer3);
+
+    for (int i = 0; i < trieLogLayers.size(); i++) {
+      zkEvmWorldState.getAccumulator().rollForward(trieLogLayers.get(i));
+      zkEvmWorldState.commit(i, Hash.ZERO, false);
+    }
+
+    final InMemoryStorageProvider deferredStorageProvider = new InMemoryStorageProvider();
+    final ZkEvmWorldState deferredWorldState =
+        new ZkEvmWorldState(
+            deferredStorageProvider.getWorldStateStorage(),
+            deferredStorageProvider.getTraceManager());
+    for (int i = 0; i < trieLogLayers.size(); i++) {
+      deferredWorldState.getAccumulator().rollForward(trieLogLayers.get(i));
+      deferredWorldState.commitFlatLeaves(i, Hash.ZERO);
+    }
+    assertThat(deferredWorldState.isTrieBuildPending()).isTrue();
+    assertThat(deferredWorldState.getStateRootHash()).isEqualTo(getDefaultTrieRoot());
+
+    deferredWorldState.buildTries();
+    assertThat(deferredWorldState.isTrieBuildPending()).isFalse();
+    assertThat(deferredWorldState.getBlockNumber()).isEqualTo(2L);
+    assertThat(deferredWorldState.getStateRootHash()).isEqualTo(zkEvmWorldState.getStateRootHash());
+    assertThat(deferredStorageProvider.getTraceManager().getZkStateRootHash(2L))
+        .contains(zkEvmWorldState.getStateRootHash());
+  }
+
+  @Test
+  public void rollingForwardFlatLeavesOnlyWithLeafDeletionMatchesBlockByBlockCommit() {
+    MutableZkAccount account = getAccountOne();
+    MutableZkAccount contract = getAccountTwo();
+    StorageSlotKey storageSlotKey = new StorageSlotKey(UInt256.valueOf(14));
+    StorageSlotKey storageSlotKey2 = new StorageSlotKey(UInt256.valueOf(15));
+
+    TrieLogLayer trieLogLayer = new TrieLogLayer();
+    trieLogLayer.addAccountChange(account.getAddress(), null, account);
+    final AccountKey contractAccountKey =
+        trieLogLayer.addAccountChange(contract.getAddress(), null, contract);
+    trieLogLayer.addStorageChange(contractAccountKey, storageSlotKey, null, UInt256.ONE);
+    trieLogLayer.addStorageChange(contractAccountKey, storageSlotKey2, null, UInt256.valueOf(2));
+    // clear a slot, its leaf is removed from the storage trie
+    TrieLogLayer trieLogLayer2 = new TrieLogLayer();
+    final AccountKey contractAccountKey2 =
+        trieLogLayer2.addAccountChange(contract.getAddress(), contract, contract);
+    trieLogLayer2.addStorageChange(contractAccountKey2, storageSlotKey, UInt256.ONE, null);
+
+    assertFlatLeavesOnlyMatchesBlockByBlockCommit(List.of(trieLogLayer, trieLogLayer2), -1);
+  }
+
+  @Test
+  public void rollingForwardFlatLeavesOnlyWithAccountDeletionMatchesBlockByBlockCommit() {
+    MutableZkAccount account = getAccountOne();
+    MutableZkAccount contract = getAccountTwo();
+    StorageSlotKey storageSlotKey = new StorageSlotKey(UInt256.valueOf(14));
+    StorageSlotKey storageSlotKey2 = new StorageSlotKey(UInt256.valueOf(15));
+
+    TrieLogLayer trieLogLayer = new TrieLogLayer();
+    trieLogLayer.addAccountChange(account.getAddress(), null, account);
+    final AccountKey contractAccountKey =
+        trieLogLayer.addAccountChange(contract.getAddress(), null, contract);
+    trieLogLayer.addStorageChange(contractAccountKey, storageSlotKey, null, UInt256.ONE);
+    // delete the contract, its storage is wiped
+    TrieLogLayer trieLogLayer2 = new TrieLogLayer();
+    final AccountKey deletedAccountKey =
+        trieLogLayer2.addAccountChange(contract.getAddress(), contract, null);
+    trieLogLayer2.addStorageChange(deletedAccountKey, storageSlotKey, UInt256.ONE, null);
+    // recreate the contract with another slot, the wiped one must not come back
+    TrieLogLayer trieLogLayer3 = new TrieLogLayer();
+    final AccountKey recreatedAccountKey =
+        trieLogLayer3.addAccountChange(contract.getAddress(), null, contract);
+    trieLogLayer3.addStorageChange(recreatedAccountKey, storageSlotKey2, null, UInt256.ONE);
+
+    assertFlatLeavesOnlyMatchesBlockByBlockCommit(
+        List.of(trieLogLayer, trieLogLayer2, trieLogLayer3), -1);
+  }
+
+  @Test
+  public void rollingForwardFlatLeavesOnlyAfterRestartMatchesBlockByBlockCommit() {
+    MutableZkAccount account = getAccountOne();
+    MutableZkAccount accountUpdated = new MutableZkAccount(account);
+    accountUpdated.setBalance(Wei.of(100));
+    MutableZkAccount contract = getAccountTwo();
+    StorageSlotKey storageSlotKey = new StorageSlotKey(UInt256.valueOf(14));
+
+    TrieLogLayer trieLogLayer = new TrieLogLayer();
+    trieLogLayer.addAccountChange(account.getAddress(), null, account);
+    TrieLogLayer trieLogLayer2 = new TrieLogLayer();
+    final AccountKey contractAccountKey =
+        trieLogLayer2.addAccountChange(contract.getAddress(), null, contract);
+    trieLogLayer2.addStorageChange(contractAccountKey, storageSlotKey, null, UInt256.ONE);
+    TrieLogLayer trieLogLayer3 = new TrieLogLayer();
+    trieLogLayer3.addAccountChange(account.getAddress(), account, accountUpdated);
+
+    // restart once the contract storage is imported, the build of its trie is still pending
+    assertFlatLeavesOnlyMatchesBlockByBlockCommit(
+        List.of(trieLogLayer, trieLogLayer2, trieLogLayer3), 1);
+  }
+
+  @Test
+  public void rollingForwardBlockOnTopOfBuiltTriesMatchesBlockByBlockCommit() {
+    MutableZkAccount account = getAccountOne();
+    MutableZkAccount accountUpdated = new MutableZkAccount(account);
+    accountUpdated.setBalance(Wei.of(100));
+    MutableZkAccount contract = getAccountTwo();
+    StorageSlotKey storageSlotKey = new StorageSlotKey(UInt256.valueOf(14));
+    StorageSlotKey storageSlotKey2 = new StorageSlotKey(UInt256.valueOf(15));
+
+    TrieLogLayer trieLogLayer = new TrieLogLayer();
+    trieLogLayer.addAccountChange(account.getAddress(), null, account);
+    final AccountKey contractAccountKey =
+        trieLogLayer.addAccountChange(contract.getAddress(), null, contract);
+    trieLogLayer.addStorageChange(contractAccountKey, storageSlotKey, null, UInt256.ONE);
+    TrieLogLayer trieLogLayer2 = new TrieLogLayer();
+    final AccountKey contractAccountKey2 =
+        trieLogLayer2.addAccountChange(contract.getAddress(), contract, contract);
+    trieLogLayer2.addStorageChange(contractAccountKey2, storageSlotKey2, null, UInt256.ONE);
+    // imported block by block on top of the built tries, reading their nodes
+    TrieLogLayer trieLogLayer3 = new TrieLogLayer();
+    trieLogLayer3.addAccountChange(account.getAddress(), account, accountUpdated);
+    final AccountKey contractAccountKey3 =
+        trieLogLayer3.addAccountChange(contract.getAddress(), contract, contract);
+    trieLogLayer3.addStorageChange(
+        contractAccountKey3, storageSlotKey, UInt256.ONE, UInt256.valueOf(3));
+
+    final List<TrieLogLayer> trieLogLayers = List.of(trieLogLayer, trieLogLayer2, trieLogLayer3);
+    for (int i = 0; i < trieLogLayers.size(); i++) {
+      zkEvmWorldState.getAccumulator().rollForward(trieLogLayers.get(i));
+      zkEvmWorldState.commit(i, Hash.ZERO, false);
+    }
+
+    final InMemoryStorageProvider deferredStorageProvider = new InMemoryStorageProvider();
+    final TraceManager deferredTraceManager = deferredStorageProvider.getTraceManager();
+    final ZkEvmWorldState deferredWorldState =
+        new ZkEvmWorldState(deferredStorageProvider.getWorldStateStorage(), deferredTraceManager);
+    for (int i = 0; i < 2; i++) {
+      deferredWorldState.getAccumulator().rollForward(trieLogLayers.get(i));
+      deferredWorldState.commitFlatLeaves(i, Hash.ZERO);
+    }
+    deferredWorldState.buildTries();
+    assertThat(deferredWorldState.isTrieBuildPending()).isFalse();
+    deferredWorldState.getAccumulator().rollForward(trieLogLayer3);
+    deferredWorldState.commit(2, Hash.ZERO, false);
+
+    assertThat(deferredWorldState.getStateRootHash()).isEqualTo(zkEvmWorldState.getStateRootHash());
+    assertThat(deferredTraceManager.getZkStateRootHash(2))
+        .contains(zkEvmWorldState.getStateRootHash());
+  }
+
+  /**
+   * Imports the blocks into the flat leaves only, builds the tries and compares the state root with
+   * the one committed block by block.
+   *
+   * @param trieLogLayers the trie logs of the blocks
+   * @param restartAfterBlock the block after which the world state is loaded again, -1 for none
+   */
+  private void assertFlatLeavesOnlyMatchesBlockByBlockCommit(
+      final List<TrieLogLayer> trieLogLayers, final int restartAfterBlock) {
+    for (int i = 0; i < trieLogLayers.size(); i++) {
+      zkEvmWorldState.getAccumulator().rollForward(trieLogLayers.get(i));
+      zkEvmWorldState.commit(i, Hash.ZERO, false);
+    }
+
+    final InMemoryStorageProvider deferredStorageProvider = new InMemoryStorageProvider();
+    final WorldStateStorage deferredStorage = deferredStorageProvider.getWorldStateStorage();
+    final TraceManager deferredTraceManager = deferredStorageProvider.getTraceManager();
+    ZkEvmWorldState deferredWorldState =
+        new ZkEvmWorldState(deferredStorage, deferredTraceManager);
+    for (int i = 0; i < trieLogLayers.size(); i++) {
+      deferredWorldState.getAccumulator().rollForward(trieLogLayers.get(i));
+      deferredWorldState.commitFlatLeaves(i, Hash.ZERO);
+      if (i == restartAfterBlock) {
+        deferredWorldState = new ZkEvmWorldState(deferredStorage, deferredTraceManager);
+        assertThat(deferredWorldState.isTrieBuildPending()).isTrue();
+        assertThat(deferredWorldState.getBlockNumber()).isEqualTo(i);
+      }
+    }
+    assertThat(deferredWorldState.isTrieBuildPending()).isTrue();
+
+    deferredWorldState.buildTries();
+    assertThat(deferredWorldState.getStateRootHash()).isEqualTo(zkEvmWorldState.getStateRootHash());
+    assertThat(deferredTraceManager.getZkStateRootHash(trieLogLayers.size() - 1))
+        .contains(zkEvmWorldState.getStateRootHash());
+  }
+
   private Trace updateTraceStorageLocation(
       final MimcSafeBytes<Address> address, final Trace trace) {
     trace.setLocation(address.getOriginalUnsafeValue());
@@ -15,7 +15,7 @@ package net.consensys.shomei;
 
 import static net.consensys.shomei.ZkAccount.EMPTY_CODE_HASH;
 import static net.consensys.shomei.ZkAccount.EMPTY_KECCAK_CODE_HASH;
-import static net.consensys.shomei.trie.ZKTrie.DEFAULT_TRIE_ROOT;
+import static net.consensys.shomei.trie.ZKTrie.getDefaultTrieRoot;
 import static net.consensys.shomei.util.TestFixtureGenerator.createDumAddress;
 import static net.consensys.shomei.util.TestFixtureGenerator.createDumDigest;
 import static net.consensys.shomei.util.TestFixtureGenerator.createDumFullBytes;
@@ -46,7 +46,7 @@ public class WorldStateStateRootTest {
             new AccountKey(createDumAddress(36)),
             65,
             Wei.of(835),
-            DEFAULT_TRIE_ROOT,
+            getDefaultTrieRoot(),
             EMPTY_CODE_HASH,
             EMPTY_KECCAK_CODE_HASH,
             0L);
@@ -80,7 +80,7 @@ public class WorldStateStateRootTest {
             new AccountKey(createDumAddress(41)),
             42,
             Wei.of(354),
-            DEFAULT_TRIE_ROOT,
+            getDefaultTrieRoot(),
             EMPTY_CODE_HASH,
             EMPTY_KECCAK_CODE_HASH,
             0L);
@@ -113,7 +113,7 @@ public class WorldStateStateRootTest {
             new AccountKey(createDumAddress(47)),
             41,
             Wei.of(15353),
-            DEFAULT_TRIE_ROOT,
+            getDefaultTrieRoot(),
             Hash.wrap(createDumDigest(75)),
             createDumFullBytes(15),
             7L);
@@ -144,7 +144,7 @@ public class WorldStateStateRootTest {
             7L,
             41,
             Wei.of(15353),
-            DEFAULT_TRIE_ROOT);
+            getDefaultTrieRoot());
 
     final ZKTrie accountStateTrie =
         ZKTrie.createTrie(new AccountTrieRepositoryWrapper(new InMemoryWorldStateStorage()));
@@ -189,7 +189,7 @@ public class WorldStateStateRootTest {
             7L,
             41,
             Wei.of(15353),
-            DEFAULT_TRIE_ROOT);
+            getDefaultTrieRoot());
 
     final ZKTrie accountStateTrie =
         ZKTrie.createTrie(new AccountTrieRepositoryWrapper(new InMemoryWorldStateStorage()));
@@ -252,7 +252,7 @@ public class WorldStateStateRootTest {
             new AccountKey(createDumAddress(47)),
             41,
             Wei.of(15353),
-            DEFAULT_TRIE_ROOT,
+            getDefaultTrieRoot(),
             Hash.wrap(createDumDigest(75)),
             createDumFullBytes(15),
             7L);
@@ -262,7 +262,7 @@ public class WorldStateStateRootTest {
             new AccountKey(createDumAddress(120)),
             48,
             Wei.of(9835),
-            DEFAULT_TRIE_ROOT,
+            getDefaultTrieRoot(),
             Hash.wrap(createDumDigest(54)),
             createDumFullBytes(85),
             19L);
@@ -292,7 +292,7 @@ public class WorldStateStateRootTest {
             new AccountKey(createDumAddress(47)),
             41,
             Wei.of(15353),
-            DEFAULT_TRIE_ROOT,
+            getDefaultTrieRoot(),
             Hash.wrap(createDumDigest(75)),
             createDumFullBytes(15),
             7L);
@@ -15,7 +15,7 @@ package net.consensys.shomei;
 
 import static net.consensys.shomei.ZkAccount.EMPTY_CODE_HASH;
 import static net.consensys.shomei.ZkAccount.EMPTY_KECCAK_CODE_HASH;
-import static net.consensys.shomei.trie.ZKTrie.DEFAULT_TRIE_ROOT;
+import static net.consensys.shomei.trie.ZKTrie.getDefaultTrieRoot;
 import static net.consensys.shomei.util.TestFixtureGenerator.createDumAddress;
 import static net.consensys.shomei.util.TestFixtureGenerator.createDumDigest;
 import static net.consensys.shomei.util.TestFixtureGenerator.createDumFullBytes;
@@ -25,6 +25,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import net.consensys.shomei.storage.worldstate.InMemoryWorldStateStorage;
 import net.consensys.shomei.trie.ZKTrie;
+import net.consensys.shomei.trie.engine.TrieEngineType;
 import net.consensys.shomei.trie.json.JsonTraceParser;
 import net.consensys.shomei.trie.storage.AccountTrieRepositoryWrapper;
 import net.consensys.shomei.trie.storage.StorageTrieRepositoryWrapper;
@@ -42,16 +43,33 @@ import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
 import org.hyperledger.besu.datatypes.Hash;
 import org.hyperledger.besu.datatypes.Wei;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
+@RunWith(Parameterized.class)
 public class WorldstateTraceTest {
 
   private static final ObjectMapper JSON_OBJECT_MAPPER = new ObjectMapper();
 
+  @Parameterized.Parameter public TrieEngineType trieEngineType;
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Object[] trieEngineTypes() {
+    return TrieEngineType.values();
+  }
+
   @Before
   public void setup() {
     JSON_OBJECT_MAPPER.registerModules(JsonTraceParser.modules);
+    ZKTrie.setTrieEngineType(trieEngineType);
+  }
+
+  @After
+  public void tearDown() {
+    ZKTrie.setTrieEngineType(TrieEngineType.STORED_NODE);
   }
 
   @Test
@@ -126,7 +144,7 @@ public class WorldstateTraceTest {
             new AccountKey(createDumAddress(41)),
             42,
             Wei.of(354),
-            DEFAULT_TRIE_ROOT,
+            getDefaultTrieRoot(),
             EMPTY_CODE_HASH,
             EMPTY_KECCAK_CODE_HASH,
             0L);
@@ -154,7 +172,7 @@ public class WorldstateTraceTest {
             new AccountKey(createDumAddress(47)),
             41,
             Wei.of(15353),
-            DEFAULT_TRIE_ROOT,
+            getDefaultTrieRoot(),
             Hash.wrap(createDumDigest(75)),
             createDumFullBytes(15),
             7L);
@@ -184,7 +202,7 @@ public class WorldstateTraceTest {
             7L,
             41,
             Wei.of(15353),
-            DEFAULT_TRIE_ROOT);
+            getDefaultTrieRoot());
 
     final ZKTrie accountStateTrie =
         ZKTrie.createTrie(new AccountTrieRepositoryWrapper(new InMemoryWorldStateStorage()));
@@ -231,7 +249,7 @@ public class WorldstateTraceTest {
             7L,
             41,
             Wei.of(15353),
-            DEFAULT_TRIE_ROOT);
+            getDefaultTrieRoot());
 
     final ZKTrie accountStateTrie =
         ZKTrie.createTrie(new AccountTrieRepositoryWrapper(new InMemoryWorldStateStorage()));
@@ -297,7 +315,7 @@ public class WorldstateTraceTest {
             new AccountKey(createDumAddress(47)),
             41,
             Wei.of(15353),
-            DEFAULT_TRIE_ROOT,
+            getDefaultTrieRoot(),
             Hash.wrap(createDumDigest(75)),
             createDumFullBytes(15),
             7L);
@@ -307,7 +325,7 @@ public class WorldstateTraceTest {
             new AccountKey(createDumAddress(120)),
             48,
             Wei.of(9835),
-            DEFAULT_TRIE_ROOT,
+            getDefaultTrieRoot(),
             Hash.wrap(createDumDigest(54)),
             createDumFullBytes(85),
             19L);
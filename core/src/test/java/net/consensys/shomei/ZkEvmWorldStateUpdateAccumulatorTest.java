@@ -0,0 +1,95 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei;
+
+import static net.consensys.shomei.util.TestFixtureGenerator.getAccountOne;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import net.consensys.shomei.trielog.AccountKey;
+import net.consensys.shomei.trielog.StorageSlotKey;
+import net.consensys.shomei.trielog.TrieLogLayer;
+import net.consensys.shomei.worldview.ZkEvmWorldStateUpdateAccumulator;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.units.bigints.UInt256;
+import org.hyperledger.besu.datatypes.Address;
+import org.hyperledger.besu.datatypes.Hash;
+import org.junit.Test;
+
+public class ZkEvmWorldStateUpdateAccumulatorTest {
+
+  private static final List<String> HASHES =
+      List.of(
+          "0x8000000000000000000000000000000000000000000000000000000000000000",
+          "0x0000000000000001000000000000000000000000000000000000000000000000",
+          "0x0000000000000000000000000000000000000000000000000000000000000001",
+          "0x00000000000000000000000000000000000000000000000000000000000000ff",
+          "0xff00000000000000000000000000000000000000000000000000000000000000",
+          "0x0000000000000000000000000000000100000000000000000000000000000000");
+
+  @Test
+  public void sortedChangesFollowTheKeyOrder() {
+    final ZkEvmWorldStateUpdateAccumulator accumulator = new ZkEvmWorldStateUpdateAccumulator();
+    final TrieLogLayer trieLogLayer = new TrieLogLayer();
+    final AccountKey contractKey = accountKey(0);
+    for (int i = 0; i < HASHES.size(); i++) {
+      trieLogLayer.addAccountChange(accountKey(i), null, getAccountOne(), false);
+      trieLogLayer.addStorageChange(contractKey, slotKey(i), null, UInt256.ONE);
+    }
+    accumulator.rollForward(trieLogLayer);
+
+    assertThat(accumulator.getSortedAccountsToUpdate())
+        .extracting(Map.Entry::getKey)
+        .isSorted()
+        .hasSize(HASHES.size());
+    assertThat(accumulator.getSortedStorageToUpdate(contractKey))
+        .extracting(Map.Entry::getKey)
+        .isSorted()
+        .hasSize(HASHES.size());
+    assertThat(accumulator.getSortedStorageToUpdate(accountKey(1))).isEmpty();
+  }
+
+  @Test
+  public void sortedChangesIncludeTheLaterChanges() {
+    final ZkEvmWorldStateUpdateAccumulator accumulator = new ZkEvmWorldStateUpdateAccumulator();
+    final AccountKey contractKey = accountKey(0);
+    accumulator.rollForward(
+        new TrieLogLayer().addStorageChange(contractKey, slotKey(0), null, UInt256.ONE));
+    assertThat(accumulator.getSortedStorageToUpdate(contractKey)).hasSize(1);
+
+    accumulator.rollForward(
+        new TrieLogLayer().addStorageChange(contractKey, slotKey(2), null, UInt256.ONE));
+    assertThat(accumulator.getSortedStorageToUpdate(contractKey))
+        .extracting(Map.Entry::getKey)
+        .containsExactly(slotKey(2), slotKey(0));
+
+    accumulator.reset();
+    assertThat(accumulator.getSortedStorageToUpdate(contractKey)).isEmpty();
+    assertThat(accumulator.getSortedAccountsToUpdate()).isEmpty();
+  }
+
+  private static AccountKey accountKey(final int index) {
+    return new AccountKey(
+        Hash.wrap(Bytes32.fromHexString(HASHES.get(index))),
+        Address.fromHexString("0x" + Integer.toHexString(index + 1)));
+  }
+
+  private static StorageSlotKey slotKey(final int index) {
+    return new StorageSlotKey(
+        Hash.wrap(Bytes32.fromHexString(HASHES.get(index))), UInt256.valueOf(index));
+  }
+}
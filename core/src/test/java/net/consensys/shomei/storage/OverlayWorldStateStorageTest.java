@@ -0,0 +1,121 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage;
+
+import static net.consensys.shomei.util.TestFixtureGenerator.getAccountOne;
+import static net.consensys.shomei.util.TestFixtureGenerator.getAccountTwo;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import net.consensys.shomei.MutableZkAccount;
+import net.consensys.shomei.storage.worldstate.InMemoryWorldStateStorage;
+import net.consensys.shomei.storage.worldstate.OverlayWorldStateStorage;
+import net.consensys.shomei.storage.worldstate.WorldStateStorage;
+import net.consensys.shomei.trie.model.FlattenedLeaf;
+import net.consensys.shomei.trielog.TrieLogLayer;
+import net.consensys.shomei.worldview.ZkEvmWorldState;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.hyperledger.besu.datatypes.Hash;
+import org.hyperledger.besu.datatypes.Wei;
+import org.junit.Test;
+
+public class OverlayWorldStateStorageTest {
+
+  private static final FlattenedLeaf LEAF_1 = new FlattenedLeaf(1L, Bytes.EMPTY);
+  private static final FlattenedLeaf LEAF_3 = new FlattenedLeaf(3L, Bytes.EMPTY);
+  private static final FlattenedLeaf LEAF_4 = new FlattenedLeaf(4L, Bytes.EMPTY);
+  private static final FlattenedLeaf LEAF_5 = new FlattenedLeaf(5L, Bytes.EMPTY);
+
+  @Test
+  public void assertOverlayWritesDoNotReachBase() {
+    final InMemoryWorldStateStorage base = new InMemoryWorldStateStorage();
+    base.putFlatLeaf(Bytes.of(1), LEAF_1);
+    base.putFlatLeaf(Bytes.of(3), LEAF_3);
+    base.putFlatLeaf(Bytes.of(5), LEAF_5);
+    base.putTrieNode(Bytes.of(1), Bytes.of(1), Bytes.of(1));
+    final AtomicBoolean closed = new AtomicBoolean();
+    final OverlayWorldStateStorage overlay =
+        new OverlayWorldStateStorage(base, () -> closed.set(true));
+
+    final WorldStateStorage.WorldStateUpdater updater = overlay.updater();
+    updater.removeFlatLeafValue(Bytes.of(3));
+    updater.putFlatLeaf(Bytes.of(4), LEAF_4);
+    updater.putTrieNode(Bytes.of(1), Bytes.of(2), Bytes.of(2));
+
+    assertThat(overlay.getFlatLeaf(Bytes.of(3))).isEmpty();
+    assertThat(overlay.getFlatLeaf(Bytes.of(4))).contains(LEAF_4);
+    assertThat(overlay.getTrieNode(Bytes.of(1), Bytes.of(2))).contains(Bytes.of(2));
+    var range = overlay.getNearestKeys(Bytes.of(2));
+    assertThat(range.getLeftNodeKey()).isEqualTo(Bytes.of(1));
+    assertThat(range.getRightNodeKey()).isEqualTo(Bytes.of(4));
+    range = overlay.getNearestKeys(Bytes.of(4));
+    assertThat(range.getLeftNodeKey()).isEqualTo(Bytes.of(1));
+    assertThat(range.getCenterNodeValue()).contains(LEAF_4);
+    assertThat(range.getRightNodeKey()).isEqualTo(Bytes.of(5));
+
+    // the wiped keys of the base are hidden, the ones written afterward are not
+    updater.removeKeysWithPrefix(Bytes.of(5));
+    assertThat(overlay.getFlatLeaf(Bytes.of(5))).isEmpty();
+    updater.putFlatLeaf(Bytes.of(5), LEAF_1);
+    assertThat(overlay.getFlatLeaf(Bytes.of(5))).contains(LEAF_1);
+
+    assertThat(base.getFlatLeaf(Bytes.of(3))).contains(LEAF_3);
+    assertThat(base.getFlatLeaf(Bytes.of(4))).isEmpty();
+    assertThat(base.getFlatLeaf(Bytes.of(5))).contains(LEAF_5);
+    assertThat(base.getTrieNode(Bytes.of(1), Bytes.of(1))).contains(Bytes.of(1));
+
+    overlay.close();
+    assertThat(closed).isTrue();
+  }
+
+  @Test
+  public void assertRollingBackOnOverlayRestoresParentState() {
+    final InMemoryStorageProvider provider = new InMemoryStorageProvider();
+    final TraceManager traceManager = provider.getTraceManager();
+    final WorldStateStorage base = provider.getWorldStateStorage();
+    final ZkEvmWorldState head = new ZkEvmWorldState(base, traceManager);
+
+    final MutableZkAccount account = getAccountOne();
+    final TrieLogLayer block0 = new TrieLogLayer();
+    block0.addAccountChange(account.getAddress(), null, account);
+    head.getAccumulator().rollForward(block0);
+    head.commit(0L, Hash.ZERO, false);
+    final Hash stateRoot0 = head.getStateRootHash();
+
+    final MutableZkAccount updatedAccount = new MutableZkAccount(account);
+    updatedAccount.setBalance(Wei.of(100));
+    final MutableZkAccount accountTwo = getAccountTwo();
+    final TrieLogLayer block1 = new TrieLogLayer();
+    block1.addAccountChange(account.getAddress(), account, updatedAccount);
+    block1.addAccountChange(accountTwo.getAddress(), null, accountTwo);
+    head.getAccumulator().rollForward(block1);
+    head.commit(1L, Hash.EMPTY, false);
+    final Hash stateRoot1 = head.getStateRootHash();
+    final Bytes rootNode1 = base.getTrieNode(Bytes.EMPTY, null).orElseThrow();
+
+    final OverlayWorldStateStorage overlay = new OverlayWorldStateStorage(base, () -> {});
+    final ZkEvmWorldState reconstructed = new ZkEvmWorldState(overlay, traceManager);
+    reconstructed.getAccumulator().rollBack(block1);
+    reconstructed.commit(0L, Hash.ZERO, false);
+
+    assertThat(reconstructed.getStateRootHash()).isEqualTo(stateRoot0);
+    assertThat(overlay.getWorldStateBlockNumber()).contains(0L);
+    // the base still holds the state of block 1
+    assertThat(base.getWorldStateBlockNumber()).contains(1L);
+    assertThat(base.getTrieNode(Bytes.EMPTY, null)).contains(rootNode1);
+    assertThat(stateRoot1).isNotEqualTo(stateRoot0);
+  }
+}
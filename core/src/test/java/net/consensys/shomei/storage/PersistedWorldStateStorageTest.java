@@ -14,19 +14,28 @@
 package net.consensys.shomei.storage;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import net.consensys.shomei.observer.TrieLogObserver;
 import net.consensys.shomei.services.storage.rocksdb.configuration.RocksDBConfigurationBuilder;
 import net.consensys.shomei.storage.worldstate.PersistedWorldStateStorage;
+import net.consensys.shomei.storage.worldstate.WorldStateLayers;
+import net.consensys.shomei.storage.worldstate.WorldStateStorage;
 import net.consensys.shomei.storage.worldstate.WorldStateStorage.WorldStateUpdater;
+import net.consensys.shomei.trie.ZKTrie;
 import net.consensys.shomei.trie.model.FlattenedLeaf;
+import net.consensys.shomei.trie.model.LeafOpening;
+import net.consensys.shomei.trie.storage.InMemoryStorage;
 import net.consensys.shomei.trie.trace.Trace;
+import net.consensys.shomei.worldview.ZkEvmWorldState;
+import net.consensys.zkevm.HashProvider;
 
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Optional;
 
 import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
 import org.hyperledger.besu.datatypes.Hash;
 import org.hyperledger.besu.ethereum.rlp.RLPOutput;
 import org.junit.After;
@@ -120,6 +129,228 @@ public class PersistedWorldStateStorageTest {
     assertVal(storage.getTrieNode(Bytes.of(1), Bytes.of(1)), newTrieVal);
   }
 
+  @Test
+  public void assertWorldStateLayerReadsStateOfCachedBlock() {
+    final WorldStateLayers layers = new WorldStateLayers(storage, 128, Long.MAX_VALUE);
+    storage.setWorldStateLayers(layers);
+    final FlattenedLeaf leaf2 = new FlattenedLeaf(2L, Bytes.EMPTY);
+    final FlattenedLeaf leaf3 = new FlattenedLeaf(3L, Bytes.EMPTY);
+    updater.putFlatLeaf(Bytes.of(1), FLAT_LEAF);
+    updater.putFlatLeaf(Bytes.of(2), leaf2);
+    final Bytes accountPath = Bytes.of(5, 0, 0, 0, 0, 0, 0, 0);
+    final Bytes wipedKey = Bytes.concatenate(accountPath, Bytes.of(1));
+    updater.putFlatLeaf(wipedKey, leaf3);
+    updater.putTrieNode(Bytes.of(1), Bytes.of(1), BYTES_TEST);
+    updater.commit();
+    final TrieLogObserver.TrieLogIdentifier block0 =
+        new TrieLogObserver.TrieLogIdentifier(0L, Hash.ZERO);
+    final WorldStateStorage cached = layers.addLayer(block0);
+
+    // the next blocks update the head storage
+    updater.removeFlatLeafValue(Bytes.of(2));
+    updater.putFlatLeaf(Bytes.of(3), leaf2);
+    updater.putTrieNode(Bytes.of(1), Bytes.of(1), Bytes.of(2));
+    updater.commit();
+    layers.addLayer(new TrieLogObserver.TrieLogIdentifier(1L, HASH_TEST));
+    updater.putFlatLeaf(Bytes.of(4), leaf3);
+    updater.removeKeysWithPrefix(accountPath);
+    updater.commit();
+
+    assertThat(cached.getWorldStateBlockNumber()).contains(0L);
+    assertThat(cached.getFlatLeaf(Bytes.of(2))).contains(leaf2);
+    assertThat(cached.getFlatLeaf(Bytes.of(3))).isEmpty();
+    assertThat(cached.getFlatLeaf(wipedKey)).contains(leaf3);
+    assertVal(cached.getTrieNode(Bytes.of(1), Bytes.of(1)), BYTES_TEST);
+    var range = cached.getNearestKeys(Bytes.of(3));
+    assertThat(range.getLeftNodeKey()).isEqualTo(Bytes.of(2));
+    assertThat(range.getCenterNode()).isEmpty();
+    assertThat(range.getRightNodeKey()).isEqualTo(wipedKey);
+
+    // the head storage is not affected by the layers
+    assertThat(storage.getFlatLeaf(Bytes.of(2))).isEmpty();
+    assertThat(storage.getFlatLeaf(wipedKey)).isEmpty();
+    assertVal(storage.getTrieNode(Bytes.of(1), Bytes.of(1)), Bytes.of(2));
+  }
+
+  @Test
+  public void assertOldestWorldStateLayersDroppedOverMemoryBudget() throws Exception {
+    final WorldStateLayers layers = new WorldStateLayers(storage, 128, 1L);
+    storage.setWorldStateLayers(layers);
+    // the layer is kept while its world state is open
+    layers.addLayer(new TrieLogObserver.TrieLogIdentifier(0L, Hash.ZERO)).close();
+    updater.putFlatLeaf(Bytes.of(1), FLAT_LEAF);
+    updater.commit();
+    assertThat(layers.getMemoryBytes()).isPositive();
+
+    layers.addLayer(new TrieLogObserver.TrieLogIdentifier(1L, HASH_TEST));
+    assertThat(layers.getCachedBlocks())
+        .containsExactly(new TrieLogObserver.TrieLogIdentifier(1L, HASH_TEST));
+    assertThat(layers.getMemoryBytes()).isZero();
+  }
+
+  @Test
+  public void assertLeasedWorldStateReadableAfterItsLayerIsDropped() {
+    final WorldStateRegistry registry =
+        new WorldStateRegistry(cached -> new ZkEvmWorldState(cached, traceManager));
+    final WorldStateLayers layers =
+        new WorldStateLayers(storage, 1, Long.MAX_VALUE, registry::evict);
+    storage.setWorldStateLayers(layers);
+    final FlattenedLeaf leaf2 = new FlattenedLeaf(2L, Bytes.EMPTY);
+    final FlattenedLeaf leaf3 = new FlattenedLeaf(3L, Bytes.EMPTY);
+    final TrieLogObserver.TrieLogIdentifier block0 =
+        new TrieLogObserver.TrieLogIdentifier(0L, Hash.ZERO);
+    final TrieLogObserver.TrieLogIdentifier block1 =
+        new TrieLogObserver.TrieLogIdentifier(1L, HASH_TEST);
+    updater.putFlatLeaf(Bytes.of(1), FLAT_LEAF);
+    updater.commit();
+    registry.register(block0, layers.addLayer(block0));
+
+    final WorldStateStorage leased;
+    try (WorldStateLease lease = registry.lease(0L).orElseThrow()) {
+      leased = lease.getWorldState().getZkEvmWorldStateStorage();
+
+      // the next block evicts the leased block
+      updater.putFlatLeaf(Bytes.of(1), leaf2);
+      updater.commit();
+      registry.register(block1, layers.addLayer(block1));
+      assertThat(registry.lease(0L)).isEmpty();
+      assertThat(layers.getCachedBlocks()).containsExactly(block1);
+
+      // the lease still reads the state of its block, across the next commits
+      assertThat(leased.getFlatLeaf(Bytes.of(1))).contains(FLAT_LEAF);
+      updater.putFlatLeaf(Bytes.of(1), leaf3);
+      updater.commit();
+      assertThat(leased.getFlatLeaf(Bytes.of(1))).contains(FLAT_LEAF);
+    }
+
+    // the layer is removed by the first commit after the lease is closed
+    updater.putFlatLeaf(Bytes.of(2), leaf2);
+    updater.commit();
+    assertThatThrownBy(() -> leased.getFlatLeaf(Bytes.of(1)))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void assertNearestKeysMergePendingAndPersistedLeaves() {
+    final FlattenedLeaf leaf2 = new FlattenedLeaf(2L, Bytes.EMPTY);
+    final FlattenedLeaf leaf3 = new FlattenedLeaf(3L, Bytes.EMPTY);
+    updater.putFlatLeaf(Bytes.of(1), FLAT_LEAF);
+    updater.putFlatLeaf(Bytes.of(4), leaf3);
+    updater.commit();
+
+    // pending leaf between persisted leaves
+    updater.putFlatLeaf(Bytes.of(2), leaf2);
+    var range = storage.getNearestKeys(Bytes.of(3));
+    assertThat(range.getLeftNodeKey()).isEqualTo(Bytes.of(2));
+    assertThat(range.getCenterNode()).isEmpty();
+    assertThat(range.getRightNodeKey()).isEqualTo(Bytes.of(4));
+
+    // pending removal hides the persisted leaf
+    updater.removeFlatLeafValue(Bytes.of(4));
+    updater.putFlatLeaf(Bytes.of(5), leaf3);
+    range = storage.getNearestKeys(Bytes.of(2));
+    assertThat(range.getLeftNodeKey()).isEqualTo(Bytes.of(1));
+    assertThat(range.getCenterNodeValue()).contains(leaf2);
+    assertThat(range.getRightNodeKey()).isEqualTo(Bytes.of(5));
+    assertThat(storage.getFlatLeaf(Bytes.of(4))).isEmpty();
+
+    updater.commit();
+    assertThat(storage.getFlatLeaf(Bytes.of(4))).isEmpty();
+    assertThat(storage.getNearestKeys(Bytes.of(3)).getRightNodeKey()).isEqualTo(Bytes.of(5));
+  }
+
+  @Test
+  public void assertRollbackDiscardsPendingWrites() {
+    updater.putFlatLeaf(Bytes.of(1), FLAT_LEAF);
+    updater.commit();
+
+    updater.putFlatLeaf(Bytes.of(2), FLAT_LEAF);
+    updater.removeFlatLeafValue(Bytes.of(1));
+    updater.putTrieNode(Bytes.of(1), Bytes.of(1), BYTES_TEST);
+    updater.setBlockNumber(1L);
+    updater.rollback();
+
+    assertVal(storage.getFlatLeaf(Bytes.of(1)), FLAT_LEAF);
+    assertThat(storage.getFlatLeaf(Bytes.of(2))).isEmpty();
+    assertThat(storage.getTrieNode(Bytes.of(1), Bytes.of(1))).isEmpty();
+    assertThat(storage.getWorldStateBlockNumber()).isEmpty();
+
+    // nothing is left for the next commit
+    updater.commit();
+    assertThat(storage.getFlatLeaf(Bytes.of(2))).isEmpty();
+    assertVal(storage.getFlatLeaf(Bytes.of(1)), FLAT_LEAF);
+  }
+
+  @Test
+  public void assertWipeRemovesPrefixButKeepsLaterWrites() {
+    final Bytes prefix = Bytes.of(0, 0, 0, 0, 0, 0, 0, 2);
+    final Bytes before = Bytes.of(0, 0, 0, 0, 0, 0, 0, 1, 1);
+    final Bytes wiped = Bytes.of(0, 0, 0, 0, 0, 0, 0, 2, 1);
+    final Bytes rewritten = Bytes.of(0, 0, 0, 0, 0, 0, 0, 2, 2);
+    final Bytes after = Bytes.of(0, 0, 0, 0, 0, 0, 0, 3, 1);
+    updater.putFlatLeaf(before, FLAT_LEAF);
+    updater.putFlatLeaf(wiped, FLAT_LEAF);
+    updater.putFlatLeaf(rewritten, FLAT_LEAF);
+    updater.putFlatLeaf(after, FLAT_LEAF);
+    updater.putTrieNode(prefix, prefix, BYTES_TEST);
+    updater.putTrieNode(wiped, Bytes.of(1), BYTES_TEST);
+    updater.commit();
+
+    updater.removeKeysWithPrefix(prefix);
+    updater.putFlatLeaf(rewritten, FLAT_LEAF);
+
+    // wiped keys are hidden before the commit
+    assertThat(storage.getFlatLeaf(wiped)).isEmpty();
+    assertThat(storage.getTrieNode(prefix, prefix)).isEmpty();
+    assertThat(storage.getNearestKeys(Bytes.of(0, 0, 0, 0, 0, 0, 0, 2, 3)).getLeftNodeKey())
+        .isEqualTo(rewritten);
+    assertThat(storage.getNearestKeys(Bytes.of(0, 0, 0, 0, 0, 0, 0, 2, 0)).getLeftNodeKey())
+        .isEqualTo(before);
+
+    updater.commit();
+    assertThat(storage.getFlatLeaf(wiped)).isEmpty();
+    assertVal(storage.getFlatLeaf(rewritten), FLAT_LEAF);
+    assertThat(storage.getTrieNode(prefix, prefix)).isEmpty();
+    assertThat(storage.getTrieNode(wiped, Bytes.of(1))).isEmpty();
+    assertVal(storage.getFlatLeaf(before), FLAT_LEAF);
+    assertVal(storage.getFlatLeaf(after), FLAT_LEAF);
+  }
+
+  @Test
+  public void assertWipeRejectsKeyPrefixOtherThanAccountPath() {
+    assertThatThrownBy(() -> updater.removeKeysWithPrefix(Bytes.of(0, 2)))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void assertTrieBuiltInSeveralChunksWritesEveryNode() {
+    // more leaves than a chunk of the bottom up build, the nodes are written by several threads
+    final int leafCount = 6_000;
+    final InMemoryStorage expected = new InMemoryStorage();
+    updater.putFlatLeaf(LeafOpening.HEAD.getHkey(), FlattenedLeaf.HEAD);
+    updater.putFlatLeaf(LeafOpening.TAIL.getHkey(), FlattenedLeaf.TAIL);
+    expected.putFlatLeaf(LeafOpening.HEAD.getHkey(), FlattenedLeaf.HEAD);
+    expected.putFlatLeaf(LeafOpening.TAIL.getHkey(), FlattenedLeaf.TAIL);
+    for (int i = 0; i < leafCount; i++) {
+      final Bytes hkey = Hash.hash(Bytes.ofUnsignedInt(i));
+      final FlattenedLeaf leaf = new FlattenedLeaf(i + 2L, Bytes32.leftPad(Bytes.ofUnsignedInt(i)));
+      updater.putFlatLeaf(hkey, leaf);
+      expected.putFlatLeaf(hkey, leaf);
+    }
+    updater.commit();
+
+    final Bytes32 rootHash =
+        ZKTrie.buildFromFlatLeaves(storage, leafCount + 2, HashProvider::trieHash);
+    updater.commit();
+
+    assertThat(ZKTrie.buildFromFlatLeaves(expected, leafCount + 2, HashProvider::trieHash))
+        .isEqualTo(rootHash);
+    assertThat(expected.getTrieNodeStorage()).hasSizeGreaterThan(leafCount);
+    expected
+        .getTrieNodeStorage()
+        .forEach((location, node) -> assertVal(storage.getTrieNode(location, null), node));
+  }
+
   void mutateWorldStateStorage() {
     updater.putFlatLeaf(Bytes.of(1), FLAT_LEAF);
     updater.putTrieNode(Bytes.of(1), Bytes.of(1), BYTES_TEST);
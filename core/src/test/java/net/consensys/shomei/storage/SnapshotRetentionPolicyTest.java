@@ -0,0 +1,110 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+import net.consensys.shomei.storage.worldstate.InMemoryWorldStateStorage;
+import net.consensys.shomei.worldview.ZkEvmWorldState;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.OptionalLong;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.hyperledger.besu.datatypes.Hash;
+import org.junit.Test;
+
+public class SnapshotRetentionPolicyTest {
+
+  private final MutableClock clock = new MutableClock();
+  private final WorldStateRegistry registry =
+      new WorldStateRegistry(storage -> new ZkEvmWorldState(storage, null), clock);
+
+  @Test
+  public void shouldEvictTheWorldStatesOlderThanTheMaxAge() {
+    final SnapshotRetentionPolicy policy =
+        new SnapshotRetentionPolicy(128, Duration.ofSeconds(10), 0L);
+    register(0L);
+    clock.advance(Duration.ofSeconds(6));
+    register(1L);
+    clock.advance(Duration.ofSeconds(6));
+
+    policy.apply(registry, OptionalLong::empty);
+
+    assertThat(registry.getStorages().keySet())
+        .extracting(TrieLogIdentifier::blockNumber)
+        .containsExactly(1L);
+    assertThat(registry.getOldestAge()).contains(Duration.ofSeconds(6));
+  }
+
+  @Test
+  public void shouldEvictOneWorldStatePerCallWhileTooManyBytesArePinned() {
+    final SnapshotRetentionPolicy policy =
+        new SnapshotRetentionPolicy(128, Duration.ZERO, 100L);
+    register(0L);
+    register(1L);
+    register(2L);
+
+    policy.apply(registry, OptionalLong::empty);
+    assertThat(registry.size()).isEqualTo(3);
+
+    policy.apply(registry, () -> OptionalLong.of(200L));
+    assertThat(registry.getStorages().keySet())
+        .extracting(TrieLogIdentifier::blockNumber)
+        .containsExactly(1L, 2L);
+
+    // the most recent world state is always kept
+    policy.apply(registry, () -> OptionalLong.of(200L));
+    policy.apply(registry, () -> OptionalLong.of(200L));
+    assertThat(registry.getStorages().keySet())
+        .extracting(TrieLogIdentifier::blockNumber)
+        .containsExactly(2L);
+  }
+
+  private void register(final long blockNumber) {
+    registry.register(
+        new TrieLogIdentifier(
+            blockNumber, Hash.wrap(Bytes32.leftPad(Bytes.ofUnsignedLong(blockNumber)))),
+        new InMemoryWorldStateStorage());
+  }
+
+  private static final class MutableClock extends Clock {
+    private Instant instant = Instant.EPOCH;
+
+    private void advance(final Duration duration) {
+      instant = instant.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+  }
+}
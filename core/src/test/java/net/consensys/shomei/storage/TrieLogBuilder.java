@@ -0,0 +1,140 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage;
+
+import net.consensys.zkevm.HashProvider;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.units.bigints.UInt256;
+import org.hyperledger.besu.datatypes.Address;
+import org.hyperledger.besu.datatypes.Hash;
+import org.hyperledger.besu.datatypes.Wei;
+import org.hyperledger.besu.ethereum.rlp.BytesValueRLPOutput;
+
+/**
+ * Encodes a trie log in the format of Besu, the one read by {@link
+ * net.consensys.shomei.trielog.TrieLogLayerConverter}.
+ */
+final class TrieLogBuilder {
+
+  /** An account as written in the trie log by Besu, a null storage root for an empty storage. */
+  record Account(long nonce, long balance, Hash storageRoot, Bytes code) {}
+
+  /** A slot change, null for a missing value. */
+  record Slot(UInt256 slotKey, Integer prior, Integer updated) {}
+
+  private final BytesValueRLPOutput output = new BytesValueRLPOutput();
+
+  TrieLogBuilder(final long blockNumber) {
+    this(blockNumber, blockHash(blockNumber));
+  }
+
+  TrieLogBuilder(final long blockNumber, final Hash blockHash) {
+    output.startList();
+    output.writeBytes(blockHash);
+    output.writeLongScalar(blockNumber);
+  }
+
+  TrieLogBuilder account(
+      final Address address,
+      final Account prior,
+      final Account updated,
+      final boolean isCleared,
+      final Slot... slots) {
+    output.startList();
+    output.writeBytes(address);
+
+    final Bytes priorCode = prior == null ? Bytes.EMPTY : prior.code();
+    final Bytes updatedCode = updated == null ? Bytes.EMPTY : updated.code();
+    if (priorCode.equals(updatedCode)) {
+      output.writeNull();
+    } else {
+      output.startList();
+      output.writeBytes(priorCode);
+      output.writeBytes(updatedCode);
+      output.writeNull();
+      output.endList();
+    }
+
+    output.startList();
+    writeAccount(prior);
+    writeAccount(updated);
+    writeCleared(isCleared);
+    output.endList();
+
+    if (slots.length == 0) {
+      output.writeNull();
+    } else {
+      output.startList();
+      for (Slot slot : slots) {
+        output.startList();
+        output.writeBytes(Hash.hash(slot.slotKey()));
+        writeSlotValue(slot.prior());
+        writeSlotValue(slot.updated());
+        writeCleared(false);
+        output.writeUInt256Scalar(slot.slotKey());
+        output.endList();
+      }
+      output.endList();
+    }
+    output.endList();
+    return this;
+  }
+
+  private void writeAccount(final Account account) {
+    if (account == null) {
+      output.writeNull();
+      return;
+    }
+    output.startList();
+    output.writeLongScalar(account.nonce());
+    output.writeUInt256Scalar(Wei.of(account.balance()));
+    if (account.storageRoot() == null) {
+      output.writeNull();
+    } else {
+      output.writeBytes(account.storageRoot());
+    }
+    if (account.code().isEmpty()) {
+      output.writeNull();
+    } else {
+      output.writeBytes(HashProvider.keccak256(account.code()));
+    }
+    output.endList();
+  }
+
+  private void writeSlotValue(final Integer value) {
+    if (value == null) {
+      output.writeNull();
+    } else {
+      output.writeUInt256Scalar(UInt256.valueOf(value));
+    }
+  }
+
+  private void writeCleared(final boolean isCleared) {
+    if (isCleared) {
+      output.writeInt(1);
+    } else {
+      output.writeNull();
+    }
+  }
+
+  Bytes build() {
+    output.endList();
+    return output.encoded();
+  }
+
+  static Hash blockHash(final long blockNumber) {
+    return Hash.hash(Bytes.ofUnsignedLong(blockNumber));
+  }
+}
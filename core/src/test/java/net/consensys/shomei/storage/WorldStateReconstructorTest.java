@@ -0,0 +1,223 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.storage;
+
+import static net.consensys.shomei.storage.TrieLogBuilder.blockHash;
+import static net.consensys.shomei.util.TestFixtureGenerator.createDumAddress;
+import static net.consensys.shomei.util.TestFixtureGenerator.createDumDigest;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import net.consensys.shomei.ZkAccount;
+import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+import net.consensys.shomei.proof.MerkleAccountProof;
+import net.consensys.shomei.proof.WorldStateProofProvider;
+import net.consensys.shomei.storage.TrieLogBuilder.Account;
+import net.consensys.shomei.storage.TrieLogBuilder.Slot;
+import net.consensys.shomei.storage.worldstate.InMemoryWorldStateStorage;
+import net.consensys.shomei.trie.json.JsonTraceParser;
+import net.consensys.shomei.trie.proof.MerkleProof;
+import net.consensys.shomei.trielog.AccountKey;
+import net.consensys.shomei.trielog.StorageSlotKey;
+import net.consensys.shomei.trielog.TrieLogLayer;
+import net.consensys.shomei.trielog.TrieLogLayerConverter;
+import net.consensys.shomei.worldview.ZkEvmWorldState;
+import net.consensys.zkevm.HashProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.units.bigints.UInt256;
+import org.hyperledger.besu.datatypes.Address;
+import org.hyperledger.besu.datatypes.Hash;
+import org.hyperledger.besu.ethereum.rlp.RLP;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorldStateReconstructorTest {
+
+  private static final ObjectMapper JSON_OBJECT_MAPPER =
+      new ObjectMapper().registerModules(JsonTraceParser.modules);
+
+  private static final Address EOA = createDumAddress(36);
+  private static final Address CONTRACT = createDumAddress(47);
+  private static final Address SELF_DESTRUCTED = createDumAddress(58);
+
+  private static final Bytes CODE_1 = Bytes.fromHexString("0x600160015500");
+  private static final Bytes CODE_2 = Bytes.fromHexString("0x600260025500");
+  private static final Bytes CODE_3 = Bytes.fromHexString("0x60036003550000");
+
+  private static final UInt256 SLOT_X = UInt256.valueOf(1);
+  private static final UInt256 SLOT_Y = UInt256.valueOf(2);
+  private static final UInt256 SLOT_Z = UInt256.valueOf(3);
+  private static final UInt256 SLOT_W = UInt256.valueOf(4);
+
+  // the zk storage roots are computed from the slots, the evm ones only need to differ
+  private static final Hash EVM_STORAGE_ROOT_1 = Hash.wrap(createDumDigest(1));
+  private static final Hash EVM_STORAGE_ROOT_2 = Hash.wrap(createDumDigest(2));
+  private static final Hash EVM_STORAGE_ROOT_3 = Hash.wrap(createDumDigest(3));
+
+  private static final Account EOA_ACCOUNT = new Account(1, 100, null, Bytes.EMPTY);
+  private static final Account EOA_ACCOUNT_UPDATED = new Account(1, 150, null, Bytes.EMPTY);
+  private static final Account CONTRACT_ACCOUNT = new Account(1, 0, EVM_STORAGE_ROOT_1, CODE_1);
+  private static final Account CONTRACT_ACCOUNT_CLEARED = new Account(1, 0, null, CODE_1);
+  private static final Account DESTRUCTED_ACCOUNT = new Account(1, 0, EVM_STORAGE_ROOT_2, CODE_2);
+  private static final Account RECREATED_ACCOUNT = new Account(1, 0, EVM_STORAGE_ROOT_3, CODE_3);
+
+  private final InMemoryStorageProvider storageProvider = new InMemoryStorageProvider();
+  private final TrieLogManager trieLogManager = storageProvider.getTrieLogManager();
+  private final TraceManager traceManager = storageProvider.getTraceManager();
+  private final InMemoryWorldStateStorage headStorage = new InMemoryWorldStateStorage();
+  private final ZkEvmWorldState headWorldState = new ZkEvmWorldState(headStorage, traceManager);
+
+  private Hash stateRootOfBlock1;
+  private List<String> proofsOfBlock1;
+
+  @Before
+  public void importBlocks() throws JsonProcessingException {
+    importBlock(
+        new TrieLogBuilder(0)
+            .account(EOA, null, EOA_ACCOUNT, false)
+            .account(CONTRACT, null, CONTRACT_ACCOUNT, false, new Slot(SLOT_X, null, 1)));
+    importBlock(
+        new TrieLogBuilder(1)
+            .account(EOA, EOA_ACCOUNT, EOA_ACCOUNT_UPDATED, false)
+            .account(
+                SELF_DESTRUCTED,
+                null,
+                DESTRUCTED_ACCOUNT,
+                false,
+                new Slot(SLOT_Y, null, 7),
+                new Slot(SLOT_Z, null, 8)));
+    stateRootOfBlock1 = headWorldState.getStateRootHash();
+    proofsOfBlock1 = getProofs(headWorldState);
+    // self-destructed and recreated with another code and another slot
+    importBlock(
+        new TrieLogBuilder(2)
+            .account(
+                SELF_DESTRUCTED,
+                DESTRUCTED_ACCOUNT,
+                RECREATED_ACCOUNT,
+                true,
+                new Slot(SLOT_Y, 7, null),
+                new Slot(SLOT_Z, 8, null),
+                new Slot(SLOT_W, null, 9)));
+    // the only slot of the contract is cleared
+    importBlock(
+        new TrieLogBuilder(3)
+            .account(
+                CONTRACT,
+                CONTRACT_ACCOUNT,
+                CONTRACT_ACCOUNT_CLEARED,
+                false,
+                new Slot(SLOT_X, 1, null)));
+    importBlock(
+        new TrieLogBuilder(4)
+            .account(SELF_DESTRUCTED, RECREATED_ACCOUNT, null, false, new Slot(SLOT_W, 9, null)));
+  }
+
+  @Test
+  public void reconstructedWorldStateMatchesTheBlockByBlockImport() throws JsonProcessingException {
+    final Hash stateRootOfBlock4 = headWorldState.getStateRootHash();
+    final List<String> proofsOfBlock4 = getProofs(headWorldState);
+    final WorldStateRegistry cachedWorldStates =
+        new WorldStateRegistry(storage -> new ZkEvmWorldState(storage, traceManager));
+    cachedWorldStates.register(new TrieLogIdentifier(4L, blockHash(4)), headStorage);
+    final WorldStateReconstructor reconstructor =
+        new WorldStateReconstructor(
+            trieLogManager,
+            traceManager,
+            cachedWorldStates,
+            storage -> new ZkEvmWorldState(storage, traceManager),
+            16,
+            4);
+
+    try (WorldStateLease lease = reconstructor.lease(1).orElseThrow()) {
+      assertThat(lease.getTrieLogIdentifier()).isEqualTo(new TrieLogIdentifier(1L, blockHash(1)));
+      assertThat(lease.getWorldState().getStateRootHash()).isEqualTo(stateRootOfBlock1);
+      assertThat(getProofs(lease.getWorldState())).isEqualTo(proofsOfBlock1);
+    }
+
+    // the rollback is not written to the storage of the cached world state
+    final ZkEvmWorldState reloaded = new ZkEvmWorldState(headStorage, traceManager);
+    assertThat(reloaded.getStateRootHash()).isEqualTo(stateRootOfBlock4);
+    assertThat(getProofs(reloaded)).isEqualTo(proofsOfBlock4);
+  }
+
+  @Test
+  public void rollbackDecodingTakesThePriorValuesFromTheTrieLog() {
+    final TrieLogLayer trieLogLayer =
+        new TrieLogLayerConverter(headStorage)
+            .decodeTrieLogForRollback(RLP.input(trieLogManager.getTrieLog(4).orElseThrow()));
+
+    final AccountKey accountKey = new AccountKey(SELF_DESTRUCTED);
+    assertThat(trieLogLayer.getAccount(accountKey)).isEmpty();
+    final ZkAccount priorAccount = trieLogLayer.getPriorAccount(accountKey).orElseThrow();
+    assertThat(priorAccount.getCodeHash()).isEqualTo(HashProvider.keccak256(CODE_3));
+    assertThat(priorAccount.getCodeSize()).isEqualTo(UInt256.valueOf(CODE_3.size()));
+    // computed from the rolled back slots
+    assertThat(priorAccount.getStorageRoot()).isNull();
+  }
+
+  @Test
+  public void rollbackDecodingRejectsATrieLogNotMatchingTheWorldState() {
+    // the account recreated by block 2 no longer exists in the world state of block 4
+    final TrieLogLayerConverter converter = new TrieLogLayerConverter(headStorage);
+    final Bytes trieLog = trieLogManager.getTrieLog(2).orElseThrow();
+
+    assertThatThrownBy(() -> converter.decodeTrieLogForRollback(RLP.input(trieLog)))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  private void importBlock(final TrieLogBuilder trieLogBuilder) {
+    final Bytes trieLog = trieLogBuilder.build();
+    final TrieLogLayer trieLogLayer =
+        new TrieLogLayerConverter(headStorage).decodeTrieLog(RLP.input(trieLog));
+    trieLogManager
+        .updater()
+        .saveTrieLog(
+            new TrieLogIdentifier(trieLogLayer.getBlockNumber(), trieLogLayer.getBlockHash()),
+            trieLog)
+        .commit();
+    headWorldState.getAccumulator().rollForward(trieLogLayer);
+    headWorldState.commit(trieLogLayer.getBlockNumber(), trieLogLayer.getBlockHash(), false);
+  }
+
+  private static List<String> getProofs(final ZkEvmWorldState worldState)
+      throws JsonProcessingException {
+    final WorldStateProofProvider proofProvider = new WorldStateProofProvider(worldState);
+    final List<MerkleAccountProof> accountProofs =
+        List.of(
+            proofProvider.getAccountProof(new AccountKey(EOA), List.of()),
+            proofProvider.getAccountProof(
+                new AccountKey(CONTRACT), List.of(new StorageSlotKey(SLOT_X))),
+            proofProvider.getAccountProof(
+                new AccountKey(SELF_DESTRUCTED),
+                List.of(
+                    new StorageSlotKey(SLOT_Y),
+                    new StorageSlotKey(SLOT_Z),
+                    new StorageSlotKey(SLOT_W))));
+    final List<String> proofs = new ArrayList<>();
+    for (MerkleAccountProof accountProof : accountProofs) {
+      proofs.add(JSON_OBJECT_MAPPER.writeValueAsString(accountProof.getAccountProof()));
+      for (MerkleProof storageProof : accountProof.getStorageProofs()) {
+        proofs.add(JSON_OBJECT_MAPPER.writeValueAsString(storageProof));
+      }
+    }
+    return proofs;
+  }
+}
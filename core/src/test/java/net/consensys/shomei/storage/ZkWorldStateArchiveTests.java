@@ -13,23 +13,116 @@
 
 package net.consensys.shomei.storage;
 
+import static net.consensys.shomei.storage.TrieLogBuilder.blockHash;
+import static net.consensys.shomei.util.TestFixtureGenerator.createDumAddress;
+import static net.consensys.shomei.util.TestFixtureGenerator.createDumDigest;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import net.consensys.shomei.exception.MissingTrieLogException;
 import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+import net.consensys.shomei.proof.MerkleAccountProof;
+import net.consensys.shomei.proof.WorldStateProofProvider;
+import net.consensys.shomei.storage.TrieLogBuilder.Account;
+import net.consensys.shomei.storage.TrieLogBuilder.Slot;
+import net.consensys.shomei.storage.worldstate.InMemoryWorldStateStorage;
+import net.consensys.shomei.storage.worldstate.WorldStateStorage;
+import net.consensys.shomei.trie.json.JsonTraceParser;
+import net.consensys.shomei.trie.proof.MerkleProof;
+import net.consensys.shomei.trie.storage.ReadOnlyTrieRepositoryWrapper;
+import net.consensys.shomei.trielog.AccountKey;
 import net.consensys.shomei.trielog.PluginTrieLogLayer;
+import net.consensys.shomei.trielog.StorageSlotKey;
 import net.consensys.shomei.trielog.TrieLogLayerConverter;
 import net.consensys.shomei.trielog.ZkTrieLogFactory;
+import net.consensys.shomei.worldview.ZkEvmWorldState;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.units.bigints.UInt256;
+import org.hyperledger.besu.datatypes.Address;
 import org.hyperledger.besu.datatypes.Hash;
 import org.junit.Test;
 
 public class ZkWorldStateArchiveTests {
 
+  private static final ObjectMapper JSON_OBJECT_MAPPER =
+      new ObjectMapper().registerModules(JsonTraceParser.modules);
+
+  private static final Address EOA = createDumAddress(36);
+  private static final Address CONTRACT = createDumAddress(47);
+  private static final Address SELF_DESTRUCTED = createDumAddress(58);
+
+  private static final Bytes CODE = Bytes.fromHexString("0x600160015500");
+
+  private static final UInt256 SLOT_X = UInt256.valueOf(1);
+  private static final UInt256 SLOT_Y = UInt256.valueOf(2);
+  private static final UInt256 SLOT_Z = UInt256.valueOf(3);
+
+  private static final Account EOA_ACCOUNT = new Account(1, 100, null, Bytes.EMPTY);
+  private static final Account EOA_ACCOUNT_UPDATED = new Account(1, 150, null, Bytes.EMPTY);
+  // the zk storage roots are computed from the slots, the evm ones only need to differ
+  private static final Account CONTRACT_ACCOUNT =
+      new Account(1, 0, Hash.wrap(createDumDigest(1)), CODE);
+  private static final Account CONTRACT_ACCOUNT_UPDATED =
+      new Account(1, 0, Hash.wrap(createDumDigest(2)), CODE);
+  private static final Account DESTRUCTED_ACCOUNT =
+      new Account(1, 0, Hash.wrap(createDumDigest(3)), CODE);
+  private static final Account RECREATED_ACCOUNT =
+      new Account(2, 0, Hash.wrap(createDumDigest(4)), CODE);
+
+  private static final TrieLogIdentifier BLOCK_0 = new TrieLogIdentifier(0L, blockHash(0));
+  private static final Bytes BLOCK_0_TRIE_LOG =
+      new TrieLogBuilder(0)
+          .account(EOA, null, EOA_ACCOUNT, false)
+          .account(CONTRACT, null, CONTRACT_ACCOUNT, false, new Slot(SLOT_X, null, 1))
+          .account(
+              SELF_DESTRUCTED,
+              null,
+              DESTRUCTED_ACCOUNT,
+              false,
+              new Slot(SLOT_X, null, 7),
+              new Slot(SLOT_Y, null, 8))
+          .build();
+
+  // updates a balance and a slot, and wipes the storage of a self-destructed account recreated
+  private static final TrieLogIdentifier BLOCK_1 = new TrieLogIdentifier(1L, blockHash(1));
+  private static final Bytes BLOCK_1_TRIE_LOG =
+      new TrieLogBuilder(1)
+          .account(EOA, EOA_ACCOUNT, EOA_ACCOUNT_UPDATED, false)
+          .account(
+              CONTRACT, CONTRACT_ACCOUNT, CONTRACT_ACCOUNT_UPDATED, false, new Slot(SLOT_X, 1, 2))
+          .account(
+              SELF_DESTRUCTED,
+              DESTRUCTED_ACCOUNT,
+              RECREATED_ACCOUNT,
+              true,
+              new Slot(SLOT_X, 7, null),
+              new Slot(SLOT_Y, 8, null),
+              new Slot(SLOT_Z, null, 9))
+          .build();
+
+  // another block 1, updating other slots of the contract
+  private static final TrieLogIdentifier REORGED_BLOCK_1 =
+      new TrieLogIdentifier(1L, Hash.hash(Bytes.of(2)));
+  private static final Bytes REORGED_BLOCK_1_TRIE_LOG =
+      new TrieLogBuilder(1, REORGED_BLOCK_1.blockHash())
+          .account(
+              CONTRACT,
+              CONTRACT_ACCOUNT,
+              CONTRACT_ACCOUNT_UPDATED,
+              false,
+              new Slot(SLOT_X, 1, null),
+              new Slot(SLOT_Y, null, 3))
+          .build();
+
   ZkWorldStateArchive archive = new ZkWorldStateArchive(new InMemoryStorageProvider());
   TrieLogLayerConverter converter = new TrieLogLayerConverter(archive.getHeadWorldStateStorage());
   ZkTrieLogFactory encoder = new ZkTrieLogFactory();
@@ -37,17 +130,17 @@ public class ZkWorldStateArchiveTests {
   @Test
   public void shouldDropWorldStatesFromHead() {
     // fill the cache:
-    for (long i = 0; i < ZkWorldStateArchive.MAX_CACHED_WORLDSTATES; i++) {
+    for (long i = 0; i < SnapshotRetentionPolicy.DEFAULT_MAX_COUNT; i++) {
       archive.cacheSnapshot(
           new TrieLogIdentifier(i, Hash.ZERO), archive.getHeadWorldStateStorage());
     }
 
     // assert cache full, start is 0 and end is 127
     assertThat(archive.getCachedWorldStates().size())
-        .isEqualTo(ZkWorldStateArchive.MAX_CACHED_WORLDSTATES);
-    assertThat(archive.getCachedWorldState(0L).isPresent()).isTrue();
-    assertThat(archive.getCachedWorldState(127L).isPresent()).isTrue();
-    assertThat(archive.getCachedWorldState(128L).isPresent()).isFalse();
+        .isEqualTo(SnapshotRetentionPolicy.DEFAULT_MAX_COUNT);
+    assertCached(archive.leaseWorldState(0L), 0L);
+    assertCached(archive.leaseWorldState(127L), 127L);
+    assertThat(archive.leaseWorldState(128L)).isEmpty();
 
     // add block 128 to cache:
     archive.cacheSnapshot(
@@ -55,10 +148,41 @@ public class ZkWorldStateArchiveTests {
 
     // assert cache is full, start is 1 and end is 128:
     assertThat(archive.getCachedWorldStates().size())
-        .isEqualTo(ZkWorldStateArchive.MAX_CACHED_WORLDSTATES);
-    assertThat(archive.getCachedWorldState(0L).isPresent()).isFalse();
-    assertThat(archive.getCachedWorldState(127L).isPresent()).isTrue();
-    assertThat(archive.getCachedWorldState(128L).isPresent()).isTrue();
+        .isEqualTo(SnapshotRetentionPolicy.DEFAULT_MAX_COUNT);
+    assertThat(archive.leaseWorldState(0L)).isEmpty();
+    assertCached(archive.leaseWorldState(127L), 127L);
+    assertCached(archive.leaseWorldState(128L), 128L);
+  }
+
+  @Test
+  public void shouldCloseDroppedWorldStateOnceReleased() {
+    final AtomicBoolean closed = new AtomicBoolean();
+    final WorldStateStorage storage =
+        new InMemoryWorldStateStorage() {
+          @Override
+          public WorldStateStorage snapshot() {
+            return new InMemoryWorldStateStorage() {
+              @Override
+              public void close() {
+                closed.set(true);
+              }
+            };
+          }
+        };
+    archive.cacheSnapshot(new TrieLogIdentifier(0L, Hash.ZERO), storage);
+    final WorldStateLease lease = archive.leaseWorldState(Hash.ZERO).orElseThrow();
+
+    // drop block 0 from the cache while it is leased
+    for (long i = 1; i <= SnapshotRetentionPolicy.DEFAULT_MAX_COUNT; i++) {
+      archive.cacheSnapshot(
+          new TrieLogIdentifier(i, Hash.wrap(Bytes32.leftPad(Bytes.ofUnsignedLong(i)))),
+          archive.getHeadWorldStateStorage());
+    }
+    assertThat(archive.leaseWorldState(0L)).isEmpty();
+    assertThat(closed).isFalse();
+
+    lease.close();
+    assertThat(closed).isTrue();
   }
 
   @Test
@@ -80,7 +204,134 @@ public class ZkWorldStateArchiveTests {
 
     archive.importBlock(new TrieLogIdentifier(0L, pluginLayer.getBlockHash()), true, true);
 
-    assertThat(archive.getCachedWorldState(0L).isPresent()).isTrue();
-    assertThat(archive.getCachedWorldState(pluginLayer.getBlockHash()).isPresent()).isTrue();
+    assertCached(archive.leaseWorldState(0L), 0L);
+    assertCached(archive.leaseWorldState(pluginLayer.getBlockHash()), 0L);
+  }
+
+  @Test
+  public void shouldPromoteSpeculativeBlocksOnceConfirmed()
+      throws MissingTrieLogException, JsonProcessingException {
+    final TrieLogIdentifier block0 = saveTrieLog(archive, BLOCK_0, BLOCK_0_TRIE_LOG);
+    final TrieLogIdentifier block1 = saveTrieLog(archive, BLOCK_1, BLOCK_1_TRIE_LOG);
+
+    archive.importSpeculativeBlock(block0, true);
+    archive.importSpeculativeBlock(block1, true);
+
+    // nothing is persisted before the confirmation
+    assertThat(archive.getSpeculativeHead()).contains(block1);
+    assertThat(archive.getCurrentBlockNumber()).isEqualTo(-1L);
+    assertThat(getAccountTrieRootNode(archive)).isEmpty();
+    assertThat(archive.getTraceManager().getZkStateRootHash(0L)).isEmpty();
+
+    assertThat(archive.promoteSpeculativeBlock(block0, true, false)).isTrue();
+    assertThat(archive.promoteSpeculativeBlock(block1, true, false)).isTrue();
+
+    final ZkWorldStateArchive imported = new ZkWorldStateArchive(new InMemoryStorageProvider());
+    importBlock(imported, BLOCK_0, BLOCK_0_TRIE_LOG);
+    importBlock(imported, BLOCK_1, BLOCK_1_TRIE_LOG);
+
+    assertThat(archive.getSpeculativeHead()).isEmpty();
+    assertThat(archive.getCurrentBlockNumber()).isEqualTo(1L);
+    assertThat(archive.getCurrentBlockHash()).isEqualTo(block1.blockHash());
+    assertSameWorldState(archive, imported);
+    assertThat(archive.getTraceManager().getZkStateRootHash(1L))
+        .isEqualTo(imported.getTraceManager().getZkStateRootHash(1L));
+    assertThat(archive.getTraceManager().getTrace(1L)).isPresent();
+  }
+
+  @Test
+  public void shouldDiscardReorgedSpeculativeBlocks()
+      throws MissingTrieLogException, JsonProcessingException {
+    final TrieLogIdentifier block0 = saveTrieLog(archive, BLOCK_0, BLOCK_0_TRIE_LOG);
+    final TrieLogIdentifier block1 = saveTrieLog(archive, BLOCK_1, BLOCK_1_TRIE_LOG);
+    archive.importSpeculativeBlock(block0, false);
+    archive.importSpeculativeBlock(block1, false);
+
+    // block 1 is replaced
+    final TrieLogIdentifier reorgedBlock1 =
+        saveTrieLog(archive, REORGED_BLOCK_1, REORGED_BLOCK_1_TRIE_LOG);
+    archive.discardReorgedSpeculativeBlocks(block0);
+    assertThat(archive.getSpeculativeHead()).contains(block1);
+    archive.discardReorgedSpeculativeBlocks(reorgedBlock1);
+    assertThat(archive.getSpeculativeHead()).contains(block0);
+
+    assertThat(archive.promoteSpeculativeBlock(block0, false, false)).isTrue();
+    // confirmed without being imported speculatively
+    assertThat(archive.promoteSpeculativeBlock(block1, false, false)).isFalse();
+    assertThat(archive.getSpeculativeHead()).isEmpty();
+    assertThat(archive.getCurrentBlockNumber()).isEqualTo(0L);
+
+    // nothing of the discarded block was persisted
+    final ZkWorldStateArchive imported = new ZkWorldStateArchive(new InMemoryStorageProvider());
+    importBlock(imported, BLOCK_0, BLOCK_0_TRIE_LOG);
+    assertSameWorldState(archive, imported);
+
+    archive.importSpeculativeBlock(reorgedBlock1, false);
+    assertThat(archive.promoteSpeculativeBlock(reorgedBlock1, false, false)).isTrue();
+    importBlock(imported, REORGED_BLOCK_1, REORGED_BLOCK_1_TRIE_LOG);
+    assertSameWorldState(archive, imported);
+  }
+
+  /** Asserts the world state of the block is cached, closing the lease taken to check it. */
+  private static void assertCached(
+      final Optional<WorldStateLease> maybeLease, final long blockNumber) {
+    assertThat(maybeLease).isPresent();
+    try (WorldStateLease lease = maybeLease.get()) {
+      assertThat(lease.getTrieLogIdentifier().blockNumber()).isEqualTo(blockNumber);
+    }
+  }
+
+  private Optional<Bytes> getAccountTrieRootNode(final ZkWorldStateArchive worldStateArchive) {
+    return ReadOnlyTrieRepositoryWrapper.forAccountTrie(
+            worldStateArchive.getHeadWorldStateStorage())
+        .getTrieNode(Bytes.EMPTY, null);
+  }
+
+  private static void assertSameWorldState(
+      final ZkWorldStateArchive worldStateArchive, final ZkWorldStateArchive expected)
+      throws JsonProcessingException {
+    assertThat(worldStateArchive.getHeadWorldState().getStateRootHash())
+        .isEqualTo(expected.getHeadWorldState().getStateRootHash());
+    assertThat(getProofs(worldStateArchive.getHeadWorldState()))
+        .isEqualTo(getProofs(expected.getHeadWorldState()));
+  }
+
+  /** The proofs read the flat leaves, a slot left behind by a wipe would show up. */
+  private static List<String> getProofs(final ZkEvmWorldState worldState)
+      throws JsonProcessingException {
+    final WorldStateProofProvider proofProvider = new WorldStateProofProvider(worldState);
+    final List<StorageSlotKey> slots =
+        List.of(
+            new StorageSlotKey(SLOT_X), new StorageSlotKey(SLOT_Y), new StorageSlotKey(SLOT_Z));
+    final List<String> proofs = new ArrayList<>();
+    for (Address address : List.of(EOA, CONTRACT, SELF_DESTRUCTED)) {
+      final MerkleAccountProof accountProof =
+          proofProvider.getAccountProof(new AccountKey(address), slots);
+      proofs.add(JSON_OBJECT_MAPPER.writeValueAsString(accountProof.getAccountProof()));
+      for (MerkleProof storageProof : accountProof.getStorageProofs()) {
+        proofs.add(JSON_OBJECT_MAPPER.writeValueAsString(storageProof));
+      }
+    }
+    return proofs;
+  }
+
+  private static void importBlock(
+      final ZkWorldStateArchive worldStateArchive,
+      final TrieLogIdentifier trieLogIdentifier,
+      final Bytes trieLog)
+      throws MissingTrieLogException {
+    worldStateArchive.importBlock(
+        saveTrieLog(worldStateArchive, trieLogIdentifier, trieLog), true, false);
+  }
+
+  private static TrieLogIdentifier saveTrieLog(
+      final ZkWorldStateArchive worldStateArchive,
+      final TrieLogIdentifier trieLogIdentifier,
+      final Bytes trieLog) {
+    final TrieLogManager.TrieLogManagerUpdater updater =
+        worldStateArchive.getTrieLogManager().updater();
+    updater.saveTrieLog(trieLogIdentifier, trieLog);
+    updater.commit();
+    return trieLogIdentifier;
   }
 }
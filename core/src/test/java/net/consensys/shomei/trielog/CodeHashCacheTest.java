@@ -0,0 +1,123 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trielog;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import net.consensys.zkevm.DefaultHashBackendProvider;
+import net.consensys.zkevm.HashProvider;
+
+import java.util.Random;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.bytes.MutableBytes;
+import org.hyperledger.besu.datatypes.Hash;
+import org.junit.Test;
+
+public class CodeHashCacheTest extends HashCacheTestBase {
+
+  // the maximum size of a deployed contract, see EIP-170
+  private static final int MAX_CODE_SIZE = 24_576;
+  private static final int CODE_CHUNK_SIZE = 16;
+
+  @Test
+  public void cachedCodeHashMatchesUncachedCodeHashOfEachBackend() {
+    final Bytes code =
+        Bytes.fromHexString("0x6080604052348015600f57600080fd5b50603f80601d6000396000f3");
+    final Hash keccakCodeHash = Hash.hash(code);
+    forEachHashBackend(
+        hashBackend -> {
+          final Hash expected = HashProvider.trieCodeHash(code);
+
+          assertThat(CodeHashCache.trieCodeHash(keccakCodeHash, code)).isEqualTo(expected);
+          assertThat(CodeHashCache.trieCodeHash(keccakCodeHash, code.copy())).isEqualTo(expected);
+        });
+  }
+
+  @Test
+  public void switchingBackendDoesNotReturnStaleCodeHash() {
+    final Bytes code = Bytes.fromHexString("0x600160020160005260206000f3");
+    final Hash keccakCodeHash = Hash.hash(code);
+    HashProvider.setTrieHashBackend(DefaultHashBackendProvider.MIMC_BLS12_377_JAVA);
+    final Hash mimcCodeHash = CodeHashCache.trieCodeHash(keccakCodeHash, code);
+
+    HashProvider.setTrieHashBackend(DefaultHashBackendProvider.MIMC_BN254_JAVA);
+    final Hash bn254CodeHash = CodeHashCache.trieCodeHash(keccakCodeHash, code);
+    assertThat(bn254CodeHash).isEqualTo(HashProvider.trieCodeHash(code));
+    assertThat(bn254CodeHash).isNotEqualTo(mimcCodeHash);
+
+    HashProvider.setTrieHashBackend(DefaultHashBackendProvider.MIMC_BLS12_377_JAVA);
+    assertThat(CodeHashCache.trieCodeHash(keccakCodeHash, code)).isEqualTo(mimcCodeHash);
+  }
+
+  @Test
+  public void emptyCodeHashesAsEmptyInput() {
+    forEachHashBackend(
+        hashBackend ->
+            assertThat(CodeHashCache.trieCodeHash(Hash.EMPTY, Bytes.EMPTY))
+                .isEqualTo(hashBackend.hash(Bytes.EMPTY)));
+  }
+
+  @Test
+  public void largestCodeHashesAsLeftPaddedChunks() {
+    // one byte short of the maximum size, so that the last chunk is partial
+    final Bytes code = randomCode(MAX_CODE_SIZE - 1);
+    final Hash keccakCodeHash = Hash.hash(code);
+    forEachHashBackend(
+        hashBackend ->
+            assertThat(CodeHashCache.trieCodeHash(keccakCodeHash, code))
+                .isEqualTo(hashBackend.hash(leftPadChunks(code))));
+  }
+
+  @Test
+  public void cachedCodeIsNotHashedAgain() {
+    HashProvider.setTrieHashBackend(DefaultHashBackendProvider.KECCAK256);
+    final Bytes code = randomCode(100);
+    final Hash keccakCodeHash = Hash.hash(code);
+    final Hash codeHash = CodeHashCache.trieCodeHash(keccakCodeHash, code);
+
+    // a hit is addressed by the keccak hash alone, the code is not read again
+    assertThat(CodeHashCache.trieCodeHash(keccakCodeHash, Bytes.EMPTY)).isEqualTo(codeHash);
+  }
+
+  @Test
+  public void cacheIsBoundedToMaxEntries() {
+    HashProvider.setTrieHashBackend(DefaultHashBackendProvider.KECCAK256);
+    for (long i = 0; i <= CodeHashCache.MAX_ENTRIES; i++) {
+      final Bytes code = Bytes.ofUnsignedLong(i);
+      CodeHashCache.trieCodeHash(Hash.hash(code), code);
+    }
+    assertThat(CodeHashCache.size()).isLessThanOrEqualTo(CodeHashCache.MAX_ENTRIES);
+  }
+
+  private static Bytes randomCode(final int size) {
+    final byte[] code = new byte[size];
+    new Random(size).nextBytes(code);
+    return Bytes.wrap(code);
+  }
+
+  /** The code split in chunks of 16 bytes, each left padded to 32 bytes. */
+  private static Bytes leftPadChunks(final Bytes code) {
+    final int chunks = (code.size() + CODE_CHUNK_SIZE - 1) / CODE_CHUNK_SIZE;
+    final MutableBytes padded = MutableBytes.create(chunks * Bytes32.SIZE);
+    for (int i = 0; i < chunks; i++) {
+      final Bytes chunk =
+          code.slice(
+              i * CODE_CHUNK_SIZE, Math.min(CODE_CHUNK_SIZE, code.size() - i * CODE_CHUNK_SIZE));
+      chunk.copyTo(padded, (i + 1) * Bytes32.SIZE - chunk.size());
+    }
+    return padded;
+  }
+}
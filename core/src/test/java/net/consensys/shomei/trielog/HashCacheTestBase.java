@@ -0,0 +1,48 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trielog;
+
+import net.consensys.zkevm.DefaultHashBackendProvider;
+import net.consensys.zkevm.HashBackend;
+import net.consensys.zkevm.HashProvider;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.After;
+
+/** Base of the hash cache tests, restoring the trie hash backend selected before each test. */
+public abstract class HashCacheTestBase {
+
+  private static final List<HashBackend> HASH_BACKENDS =
+      List.of(
+          DefaultHashBackendProvider.KECCAK256,
+          DefaultHashBackendProvider.MIMC_BLS12_377_JAVA,
+          DefaultHashBackendProvider.MIMC_BN254_JAVA);
+
+  private final HashBackend defaultHashBackend = HashProvider.getTrieHashBackend();
+
+  @After
+  public void restoreTrieHashBackend() {
+    HashProvider.setTrieHashBackend(defaultHashBackend);
+  }
+
+  /** Runs the check once per hash backend, with the backend selected as the trie one. */
+  void forEachHashBackend(final Consumer<HashBackend> check) {
+    for (HashBackend hashBackend : HASH_BACKENDS) {
+      HashProvider.setTrieHashBackend(hashBackend);
+      check.accept(hashBackend);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trielog;
+
+import static net.consensys.shomei.util.bytes.MimcSafeBytes.safeUInt256;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import net.consensys.zkevm.DefaultHashBackendProvider;
+import net.consensys.zkevm.HashProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.units.bigints.UInt256;
+import org.hyperledger.besu.datatypes.Hash;
+import org.junit.Test;
+
+public class KeyHashCacheTest extends HashCacheTestBase {
+
+  @Test
+  public void cachedHashMatchesUncachedHashOfEachBackend() {
+    final Bytes key = safeUInt256(UInt256.valueOf(14));
+    forEachHashBackend(
+        hashBackend -> {
+          final Hash expected = hashBackend.hash(key);
+
+          assertThat(KeyHashCache.trieHash(key)).isEqualTo(expected);
+          final long hits = KeyHashCache.getHits().sum();
+          assertThat(KeyHashCache.trieHash(key.copy())).isEqualTo(expected);
+          assertThat(KeyHashCache.getHits().sum()).isGreaterThan(hits);
+        });
+  }
+
+  @Test
+  public void switchingBackendDoesNotReturnStaleHash() {
+    final Bytes key = safeUInt256(UInt256.valueOf(42));
+    HashProvider.setTrieHashBackend(DefaultHashBackendProvider.MIMC_BLS12_377_JAVA);
+    final Hash mimcHash = KeyHashCache.trieHash(key);
+
+    HashProvider.setTrieHashBackend(DefaultHashBackendProvider.KECCAK256);
+    final Hash keccakHash = KeyHashCache.trieHash(key);
+    assertThat(keccakHash).isEqualTo(DefaultHashBackendProvider.KECCAK256.hash(key));
+    assertThat(keccakHash).isNotEqualTo(mimcHash);
+
+    HashProvider.setTrieHashBackend(DefaultHashBackendProvider.MIMC_BLS12_377_JAVA);
+    assertThat(KeyHashCache.trieHash(key)).isEqualTo(mimcHash);
+  }
+
+  @Test
+  public void cacheIsBoundedToMaxEntries() {
+    // keccak keeps hashing more keys than the cache holds fast
+    HashProvider.setTrieHashBackend(DefaultHashBackendProvider.KECCAK256);
+    final Bytes firstKey = safeUInt256(UInt256.valueOf(1_000_000));
+    KeyHashCache.trieHash(firstKey);
+    for (long i = 1; i <= KeyHashCache.MAX_ENTRIES; i++) {
+      KeyHashCache.trieHash(safeUInt256(UInt256.valueOf(1_000_000 + i)));
+    }
+    assertThat(KeyHashCache.size()).isLessThanOrEqualTo(KeyHashCache.MAX_ENTRIES);
+
+    // evicted or not, the key still hashes to the uncached hash
+    assertThat(KeyHashCache.trieHash(firstKey))
+        .isEqualTo(DefaultHashBackendProvider.KECCAK256.hash(firstKey));
+  }
+
+  @Test
+  public void concurrentLookupsReturnTheUncachedHash() throws Exception {
+    HashProvider.setTrieHashBackend(DefaultHashBackendProvider.MIMC_BLS12_377_JAVA);
+    final List<Bytes> keys = new ArrayList<>();
+    for (int i = 0; i < 256; i++) {
+      keys.add(safeUInt256(UInt256.valueOf(2_000_000 + i)));
+    }
+    final long lookups = KeyHashCache.getHits().sum() + KeyHashCache.getMisses().sum();
+
+    final int threads = 8;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<List<Hash>>> results = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        results.add(executor.submit(() -> keys.stream().map(KeyHashCache::trieHash).toList()));
+      }
+      final List<Hash> expected =
+          keys.stream().map(DefaultHashBackendProvider.MIMC_BLS12_377_JAVA::hash).toList();
+      for (Future<List<Hash>> result : results) {
+        assertThat(result.get()).isEqualTo(expected);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(KeyHashCache.getHits().sum() + KeyHashCache.getMisses().sum() - lookups)
+        .isEqualTo((long) threads * keys.size());
+  }
+}
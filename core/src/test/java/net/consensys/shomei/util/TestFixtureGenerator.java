@@ -15,7 +15,7 @@ package net.consensys.shomei.util;
 
 import static net.consensys.shomei.ZkAccount.EMPTY_CODE_HASH;
 import static net.consensys.shomei.ZkAccount.EMPTY_KECCAK_CODE_HASH;
-import static net.consensys.shomei.trie.ZKTrie.DEFAULT_TRIE_ROOT;
+import static net.consensys.shomei.trie.ZKTrie.getDefaultTrieRoot;
 import static net.consensys.shomei.util.bytes.MimcSafeBytes.safeByte32;
 
 import net.consensys.shomei.MutableZkAccount;
@@ -42,7 +42,7 @@ public class TestFixtureGenerator {
           ACCOUNT_KEY_1,
           65,
           Wei.of(835),
-          DEFAULT_TRIE_ROOT,
+          getDefaultTrieRoot(),
           EMPTY_CODE_HASH,
           EMPTY_KECCAK_CODE_HASH,
           0L);
@@ -52,7 +52,7 @@ public class TestFixtureGenerator {
           ACCOUNT_KEY_2,
           65,
           Wei.of(835),
-          DEFAULT_TRIE_ROOT,
+          getDefaultTrieRoot(),
           EMPTY_CODE_HASH,
           EMPTY_KECCAK_CODE_HASH,
           0L);
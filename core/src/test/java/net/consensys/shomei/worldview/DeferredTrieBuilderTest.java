@@ -0,0 +1,109 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.worldview;
+
+import static net.consensys.shomei.ZkAccount.EMPTY_CODE_HASH;
+import static net.consensys.shomei.ZkAccount.EMPTY_KECCAK_CODE_HASH;
+import static net.consensys.shomei.trie.ZKTrie.getDefaultTrieRoot;
+import static net.consensys.shomei.util.TestFixtureGenerator.createDumAddress;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import net.consensys.shomei.ZkAccount;
+import net.consensys.shomei.storage.InMemoryStorageProvider;
+import net.consensys.shomei.storage.worldstate.InMemoryWorldStateStorage;
+import net.consensys.shomei.trie.model.FlattenedLeaf;
+import net.consensys.shomei.trie.storage.TrieStorage.TrieUpdater;
+import net.consensys.shomei.trielog.AccountKey;
+import net.consensys.shomei.trielog.StorageSlotKey;
+import net.consensys.shomei.trielog.TrieLogLayer;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.units.bigints.UInt256;
+import org.hyperledger.besu.datatypes.Hash;
+import org.hyperledger.besu.datatypes.Wei;
+import org.junit.Test;
+
+public class DeferredTrieBuilderTest {
+
+  @Test
+  public void storageTriesAreCommittedInBatches() {
+    final TrieLogLayer trieLogLayer = new TrieLogLayer();
+    for (int i = 1; i <= 3; i++) {
+      final ZkAccount contract =
+          new ZkAccount(
+              new AccountKey(createDumAddress(i)),
+              0L,
+              Wei.of(i),
+              getDefaultTrieRoot(),
+              EMPTY_CODE_HASH,
+              EMPTY_KECCAK_CODE_HASH,
+              0L);
+      final AccountKey accountKey =
+          trieLogLayer.addAccountChange(contract.getAddress(), null, contract);
+      trieLogLayer.addStorageChange(
+          accountKey, new StorageSlotKey(UInt256.valueOf(1)), null, UInt256.valueOf(i));
+      trieLogLayer.addStorageChange(
+          accountKey, new StorageSlotKey(UInt256.valueOf(2)), null, UInt256.valueOf(i));
+    }
+
+    final InMemoryStorageProvider storageProvider = new InMemoryStorageProvider();
+    final ZkEvmWorldState zkEvmWorldState =
+        new ZkEvmWorldState(
+            storageProvider.getWorldStateStorage(), storageProvider.getTraceManager());
+    zkEvmWorldState.getAccumulator().rollForward(trieLogLayer);
+    zkEvmWorldState.commit(0, Hash.ZERO, false);
+
+    // each storage trie holds the head, the tail and two slots, reaching the limit on its own
+    final InMemoryWorldStateStorage storage = new InMemoryWorldStateStorage();
+    final DeferredTrieBuilder deferredTrieBuilder = new DeferredTrieBuilder(storage, false, 4);
+    final ZkEvmWorldStateUpdateAccumulator accumulator = new ZkEvmWorldStateUpdateAccumulator();
+    accumulator.rollForward(trieLogLayer);
+    deferredTrieBuilder.applyFlatLeaves(accumulator, storage);
+    final CountingUpdater updater = new CountingUpdater(storage);
+
+    assertThat(deferredTrieBuilder.buildTries(updater))
+        .isEqualTo(zkEvmWorldState.getStateRootHash());
+    assertThat(updater.commits).isEqualTo(3);
+  }
+
+  private static final class CountingUpdater implements TrieUpdater {
+    private final TrieUpdater delegate;
+    private int commits;
+
+    private CountingUpdater(final TrieUpdater delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void putFlatLeaf(final Bytes key, final FlattenedLeaf value) {
+      delegate.putFlatLeaf(key, value);
+    }
+
+    @Override
+    public void putTrieNode(final Bytes location, final Bytes nodeHash, final Bytes value) {
+      delegate.putTrieNode(location, nodeHash, value);
+    }
+
+    @Override
+    public void removeFlatLeafValue(final Bytes key) {
+      delegate.removeFlatLeafValue(key);
+    }
+
+    @Override
+    public void commit() {
+      commits++;
+      delegate.commit();
+    }
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.worldview;
+
+import static net.consensys.shomei.trie.ZKTrie.getDefaultTrieRoot;
+import static net.consensys.shomei.trie.storage.AccountTrieRepositoryWrapper.WRAP_ACCOUNT;
+import static net.consensys.shomei.util.TestFixtureGenerator.createDumAddress;
+import static net.consensys.shomei.util.TestFixtureGenerator.getAccountOne;
+import static net.consensys.shomei.util.bytes.MimcSafeBytes.safeUInt256;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import net.consensys.shomei.MutableZkAccount;
+import net.consensys.shomei.ZkAccount;
+import net.consensys.shomei.ZkValue;
+import net.consensys.shomei.storage.InMemoryStorageProvider;
+import net.consensys.shomei.storage.TraceManager;
+import net.consensys.shomei.storage.worldstate.InMemoryWorldStateStorage;
+import net.consensys.shomei.storage.worldstate.WorldStateStorage;
+import net.consensys.shomei.trie.ZKTrie;
+import net.consensys.shomei.trie.model.FlattenedLeaf;
+import net.consensys.shomei.trie.storage.InMemoryStorage;
+import net.consensys.shomei.trie.storage.StorageTrieRepositoryWrapper;
+import net.consensys.shomei.trielog.AccountKey;
+import net.consensys.shomei.trielog.StorageSlotKey;
+import net.consensys.shomei.trielog.TrieLogLayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.units.bigints.UInt256;
+import org.hyperledger.besu.datatypes.Hash;
+import org.hyperledger.besu.datatypes.Wei;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TrieHandlesTest {
+
+  private static final AccountKey CONTRACT_1 = new AccountKey(createDumAddress(1));
+  private static final AccountKey CONTRACT_2 = new AccountKey(createDumAddress(2));
+  private static final AccountKey CONTRACT_3 = new AccountKey(createDumAddress(3));
+  private static final AccountKey CONTRACT_4 = new AccountKey(createDumAddress(4));
+
+  private final InMemoryWorldStateStorage storage = new InMemoryWorldStateStorage();
+  private final TrieHandles trieHandles = new TrieHandles(storage);
+
+  @Before
+  public void setup() {
+    trieHandles.setUpdater(storage);
+  }
+
+  @Test
+  public void accountTrieIsReusedWhileItsRootIsTheStateRoot() {
+    final ZKTrie accountTrie = trieHandles.getAccountTrie(getDefaultTrieRoot());
+    assertThat(trieHandles.getAccountTrie(getDefaultTrieRoot())).isSameAs(accountTrie);
+
+    // the writes of a failed commit are discarded, the trie is loaded again from the storage
+    trieHandles.setUpdater(new InMemoryStorage());
+    final ZkAccount account = getAccountOne();
+    accountTrie.putWithTrace(account.getHkey(), account.getAddress(), account.getEncodedBytes());
+    final ZKTrie reloaded = trieHandles.getAccountTrie(getDefaultTrieRoot());
+    assertThat(reloaded).isNotSameAs(accountTrie);
+    assertThat(Hash.wrap(reloaded.getTopRootHash())).isEqualTo(getDefaultTrieRoot());
+
+    trieHandles.clear();
+    assertThat(trieHandles.getAccountTrie(getDefaultTrieRoot())).isNotSameAs(reloaded);
+  }
+
+  @Test
+  public void storageTrieIsReusedWhileItsRootIsTheStorageRoot() {
+    final ZKTrie storageTrie =
+        trieHandles.getStorageTrie(1L, withStorageRoot(getDefaultTrieRoot()));
+    putSlot(storageTrie, 1);
+    trieHandles.commitStorageTrie(storageTrie);
+    final Bytes32 storageRoot = storageTrie.getTopRootHash();
+    assertThat(trieHandles.getStorageTrie(1L, withStorageRoot(storageRoot))).isSameAs(storageTrie);
+
+    // the writes of a failed commit are discarded, the trie is loaded again from the storage
+    trieHandles.setUpdater(new InMemoryStorage());
+    putSlot(storageTrie, 2);
+    final ZKTrie reloaded = trieHandles.getStorageTrie(1L, withStorageRoot(storageRoot));
+    assertThat(reloaded).isNotSameAs(storageTrie);
+    assertThat(reloaded.getTopRootHash()).isEqualTo(storageRoot);
+  }
+
+  @Test
+  public void evictedStorageTrieIsNotReusedAfterAWipe() {
+    final ZKTrie storageTrie =
+        trieHandles.getStorageTrie(1L, withStorageRoot(getDefaultTrieRoot()));
+    putSlot(storageTrie, 1);
+    trieHandles.commitStorageTrie(storageTrie);
+    final Bytes32 storageRoot = storageTrie.getTopRootHash();
+
+    trieHandles.evictStorageTrie(1L);
+    storage.removeKeysWithPrefix(StorageTrieRepositoryWrapper.getAccountPath(1L));
+
+    // a storage created again under the same leaf index starts empty
+    final ZKTrie recreated = trieHandles.getStorageTrie(1L, withStorageRoot(storageRoot));
+    assertThat(recreated).isNotSameAs(storageTrie);
+    assertThat(Hash.wrap(recreated.getTopRootHash())).isEqualTo(getDefaultTrieRoot());
+  }
+
+  @Test
+  public void leastRecentlyUsedStorageTrieIsDroppedBeyondTheLimit() {
+    final ZkValue<ZkAccount> emptyStorage = withStorageRoot(getDefaultTrieRoot());
+    final List<ZKTrie> storageTries = new ArrayList<>();
+    for (long index = 0; index < TrieHandles.MAX_STORAGE_TRIES; index++) {
+      storageTries.add(trieHandles.getStorageTrie(index, emptyStorage));
+    }
+    // the first trie becomes the most recently used one, the second one is dropped first
+    assertThat(trieHandles.getStorageTrie(0L, emptyStorage)).isSameAs(storageTries.get(0));
+    trieHandles.getStorageTrie(TrieHandles.MAX_STORAGE_TRIES, emptyStorage);
+
+    assertThat(trieHandles.getStorageTrie(0L, emptyStorage)).isSameAs(storageTries.get(0));
+    assertThat(trieHandles.getStorageTrie(2L, emptyStorage)).isSameAs(storageTries.get(2));
+    assertThat(trieHandles.getStorageTrie(1L, emptyStorage)).isNotSameAs(storageTries.get(1));
+  }
+
+  @Test
+  public void importWithKeptTriesMatchesAFreshLoadOnEachBlock() {
+    final InMemoryStorageProvider storageProvider = new InMemoryStorageProvider();
+    final TraceManager traceManager = storageProvider.getTraceManager();
+    final TraceManager freshTraceManager = storageProvider.getTraceManager();
+    final InMemoryWorldStateStorage freshStorage = new InMemoryWorldStateStorage();
+    final ZkEvmWorldState worldState = new ZkEvmWorldState(storage, traceManager);
+
+    final List<Function<WorldStateStorage, TrieLogLayer>> blocks =
+        List.of(
+            state -> {
+              final TrieLogLayer layer = new TrieLogLayer();
+              createContract(layer, CONTRACT_1, 1, 2);
+              createContract(layer, CONTRACT_2, 1, 2);
+              createContract(layer, CONTRACT_3, 1);
+              return layer;
+            },
+            // the storage tries of the previous block are reused
+            state -> {
+              final TrieLogLayer layer = new TrieLogLayer();
+              updateSlot(layer, state, CONTRACT_1, 1, 5);
+              updateSlot(layer, state, CONTRACT_2, 3, 3);
+              return layer;
+            },
+            // the storage trie of the deleted contract is evicted
+            state -> {
+              final TrieLogLayer layer = new TrieLogLayer();
+              deleteContract(layer, state, CONTRACT_2, 1, 2, 3);
+              return layer;
+            },
+            state -> {
+              final TrieLogLayer layer = new TrieLogLayer();
+              createContract(layer, CONTRACT_2, 7);
+              createContract(layer, CONTRACT_4, 1);
+              updateSlot(layer, state, CONTRACT_1, 2, null);
+              return layer;
+            },
+            // self-destructed and recreated, the storage trie is evicted as well
+            state -> {
+              final TrieLogLayer layer = new TrieLogLayer();
+              layer.addAccountChange(
+                  CONTRACT_3, getAccount(state, CONTRACT_3), newContract(CONTRACT_3), true);
+              layer.addStorageChange(
+                  CONTRACT_3, new StorageSlotKey(UInt256.valueOf(4)), null, UInt256.ONE);
+              updateSlot(layer, state, CONTRACT_1, 1, 6);
+              return layer;
+            },
+            state -> {
+              final TrieLogLayer layer = new TrieLogLayer();
+              updateSlot(layer, state, CONTRACT_2, 1, 8);
+              updateSlot(layer, state, CONTRACT_3, 4, 2);
+              return layer;
+            });
+
+    for (int blockNumber = 0; blockNumber < blocks.size(); blockNumber++) {
+      final Function<WorldStateStorage, TrieLogLayer> block = blocks.get(blockNumber);
+      worldState.getAccumulator().rollForward(block.apply(storage));
+      worldState.commit(blockNumber, null, false);
+
+      final ZkEvmWorldState freshWorldState = new ZkEvmWorldState(freshStorage, freshTraceManager);
+      freshWorldState.getAccumulator().rollForward(block.apply(freshStorage));
+      freshWorldState.commit(blockNumber, null, false);
+
+      assertThat(worldState.getStateRootHash()).isEqualTo(freshWorldState.getStateRootHash());
+      assertThat(storage.getTrieNodeStorage()).isEqualTo(freshStorage.getTrieNodeStorage());
+    }
+  }
+
+  private static ZkValue<ZkAccount> withStorageRoot(final Bytes32 storageRoot) {
+    final MutableZkAccount account = getAccountOne();
+    account.setStorageRoot(Hash.wrap(storageRoot));
+    return new ZkValue<>(account, account);
+  }
+
+  private static void putSlot(final ZKTrie storageTrie, final int slot) {
+    final StorageSlotKey storageSlotKey = new StorageSlotKey(UInt256.valueOf(slot));
+    storageTrie.putWithTrace(
+        storageSlotKey.slotHash(), storageSlotKey.slotKey(), safeUInt256(UInt256.ONE));
+  }
+
+  private static ZkAccount newContract(final AccountKey accountKey) {
+    return new ZkAccount(
+        accountKey,
+        1,
+        Wei.ZERO,
+        getDefaultTrieRoot(),
+        ZkAccount.EMPTY_CODE_HASH,
+        ZkAccount.EMPTY_KECCAK_CODE_HASH,
+        0L);
+  }
+
+  private static void createContract(
+      final TrieLogLayer layer, final AccountKey accountKey, final int... slotValues) {
+    layer.addAccountChange(accountKey, null, newContract(accountKey), false);
+    for (int slot = 0; slot < slotValues.length; slot++) {
+      layer.addStorageChange(
+          accountKey, UInt256.valueOf(slot + 1), null, UInt256.valueOf(slotValues[slot]));
+    }
+  }
+
+  /** Changes a slot, the storage root of the account being left to compute like in a trie log. */
+  private static void updateSlot(
+      final TrieLogLayer layer,
+      final WorldStateStorage state,
+      final AccountKey accountKey,
+      final int slot,
+      final Integer value) {
+    final ZkAccount prior = getAccount(state, accountKey);
+    final MutableZkAccount updated = new MutableZkAccount(prior);
+    updated.setStorageRoot(null);
+    layer.addAccountChange(accountKey, prior, updated, false);
+    final StorageSlotKey storageSlotKey = new StorageSlotKey(UInt256.valueOf(slot));
+    layer.addStorageChange(
+        accountKey,
+        storageSlotKey,
+        getSlot(state, accountKey, storageSlotKey),
+        value == null ? null : UInt256.valueOf(value));
+  }
+
+  private static void deleteContract(
+      final TrieLogLayer layer,
+      final WorldStateStorage state,
+      final AccountKey accountKey,
+      final int... slots) {
+    layer.addAccountChange(accountKey, getAccount(state, accountKey), null, false);
+    for (int slot : slots) {
+      final StorageSlotKey storageSlotKey = new StorageSlotKey(UInt256.valueOf(slot));
+      layer.addStorageChange(
+          accountKey, storageSlotKey, getSlot(state, accountKey, storageSlotKey), null);
+    }
+  }
+
+  private static ZkAccount getAccount(final WorldStateStorage state, final AccountKey accountKey) {
+    return state
+        .getFlatLeaf(WRAP_ACCOUNT.apply(accountKey.accountHash()))
+        .map(leaf -> ZkAccount.fromEncodedBytes(accountKey, leaf.leafValue()))
+        .orElseThrow();
+  }
+
+  private static UInt256 getSlot(
+      final WorldStateStorage state,
+      final AccountKey accountKey,
+      final StorageSlotKey storageSlotKey) {
+    final long accountLeafIndex =
+        state
+            .getFlatLeaf(WRAP_ACCOUNT.apply(accountKey.accountHash()))
+            .map(FlattenedLeaf::leafIndex)
+            .orElseThrow();
+    return new StorageTrieRepositoryWrapper(accountLeafIndex, state, null)
+        .getFlatLeaf(storageSlotKey.slotHash())
+        .map(FlattenedLeaf::leafValue)
+        .map(UInt256::fromBytes)
+        .orElse(null);
+  }
+}
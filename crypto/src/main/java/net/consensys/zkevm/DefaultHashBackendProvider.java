@@ -0,0 +1,143 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.zkevm;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.hyperledger.besu.datatypes.Hash;
+
+/** Provides the hash backends shipped with shomei. */
+public class DefaultHashBackendProvider implements HashBackendProvider {
+
+  public static final HashBackend KECCAK256 =
+      new FunctionHashBackend(
+          "KECCAK256",
+          "KECCAK256",
+          EnumSet.noneOf(HashBackend.Capability.class),
+          // counted as trie hashes by HashProvider, not as keccak hashes
+          Hash::hash,
+          null,
+          () -> true);
+
+  public static final HashBackend MIMC_BLS12_377 =
+      new FunctionHashBackend(
+          "MIMC_BLS12_377",
+          "MIMC_BLS12_377",
+          EnumSet.of(HashBackend.Capability.NATIVE),
+          HashProvider::mimcBls12377,
+          null,
+          () -> HashProvider.ENABLED);
+
+  public static final HashBackend MIMC_BN254 =
+      new FunctionHashBackend(
+          "MIMC_BN254",
+          "MIMC_BN254",
+          EnumSet.of(HashBackend.Capability.NATIVE),
+          HashProvider::mimcBn254,
+          null,
+          () -> HashProvider.ENABLED);
+
+  public static final HashBackend MIMC_BLS12_377_JAVA =
+      new FunctionHashBackend(
+          "MIMC_BLS12_377_JAVA",
+          "MIMC_BLS12_377",
+          EnumSet.of(HashBackend.Capability.STREAMING),
+          Mimc.BLS12_377::hash,
+          Mimc.BLS12_377::hashChunks,
+          () -> true);
+
+  // not selectable until checked against a gnark corpus, as MIMC_BLS12_377_JAVA is
+  public static final HashBackend MIMC_BN254_JAVA =
+      new FunctionHashBackend(
+          "MIMC_BN254_JAVA",
+          "MIMC_BN254",
+          EnumSet.of(HashBackend.Capability.STREAMING),
+          Mimc.BN254::hash,
+          Mimc.BN254::hashChunks,
+          () -> true);
+
+  @Override
+  public List<HashBackend> getHashBackends() {
+    return List.of(MIMC_BLS12_377, MIMC_BN254, KECCAK256, MIMC_BLS12_377_JAVA);
+  }
+
+  /** Backend delegating to static hash functions. */
+  private static final class FunctionHashBackend implements HashBackend {
+    private final String name;
+    private final String functionName;
+    private final Set<Capability> capabilities;
+    private final Function<Bytes, Hash> hashFunction;
+    private final BiFunction<Bytes, Integer, Hash> chunksHashFunction;
+    private final BooleanSupplier available;
+
+    FunctionHashBackend(
+        final String name,
+        final String functionName,
+        final Set<Capability> capabilities,
+        final Function<Bytes, Hash> hashFunction,
+        final BiFunction<Bytes, Integer, Hash> chunksHashFunction,
+        final BooleanSupplier available) {
+      this.name = name;
+      this.functionName = functionName;
+      this.capabilities = Set.copyOf(capabilities);
+      this.hashFunction = hashFunction;
+      this.chunksHashFunction = chunksHashFunction;
+      this.available = available;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String getFunctionName() {
+      return functionName;
+    }
+
+    @Override
+    public Set<Capability> getCapabilities() {
+      return capabilities;
+    }
+
+    @Override
+    public boolean isAvailable() {
+      return available.getAsBoolean();
+    }
+
+    @Override
+    public Hash hash(final Bytes input) {
+      return hashFunction.apply(input);
+    }
+
+    @Override
+    public Hash hashChunks(final Bytes input, final int chunkSize) {
+      if (chunksHashFunction == null) {
+        return HashBackend.super.hashChunks(input, chunkSize);
+      }
+      return chunksHashFunction.apply(input, chunkSize);
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.zkevm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.bytes.MutableBytes;
+import org.hyperledger.besu.datatypes.Hash;
+
+/**
+ * An implementation of a hash function usable for the trie. Backends are discovered through the
+ * {@link HashBackendProvider} service and selected by name, see {@link HashBackends}.
+ */
+public interface HashBackend {
+
+  /** Optional features of a backend, callers may pick a faster path when a feature is present. */
+  enum Capability {
+    /** The hash is computed by a native library. */
+    NATIVE,
+    /** {@link #hashBatch(List)} is faster than hashing the inputs one by one. */
+    BATCH,
+    /** {@link #hashChunks(Bytes, int)} absorbs the chunks in place, without a padded copy. */
+    STREAMING
+  }
+
+  /** The name used to select the backend, for example on the command line. */
+  String getName();
+
+  /**
+   * The name of the hash function computed by the backend. Backends computing the same function,
+   * for example with and without a native library, return the same name.
+   */
+  default String getFunctionName() {
+    return getName();
+  }
+
+  Set<Capability> getCapabilities();
+
+  /** Whether the backend can be used in this process, for example if its library is loaded. */
+  default boolean isAvailable() {
+    return true;
+  }
+
+  Hash hash(Bytes input);
+
+  default List<Hash> hashBatch(final List<? extends Bytes> inputs) {
+    final List<Hash> hashes = new ArrayList<>(inputs.size());
+    for (Bytes input : inputs) {
+      hashes.add(hash(input));
+    }
+    return hashes;
+  }
+
+  /**
+   * Hashes the input split in chunks of {@code chunkSize} bytes, each chunk being left padded with
+   * zeros to 32 bytes.
+   */
+  default Hash hashChunks(final Bytes input, final int chunkSize) {
+    final int numChunks = (input.size() + chunkSize - 1) / chunkSize;
+    final MutableBytes padded = MutableBytes.create(numChunks * Bytes32.SIZE);
+    int offset = 0;
+    for (int i = 0; i < numChunks; i++) {
+      final int length = Math.min(chunkSize, input.size() - offset);
+      input.slice(offset, length).copyTo(padded, i * Bytes32.SIZE + (Bytes32.SIZE - length));
+      offset += length;
+    }
+    return hash(padded);
+  }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.zkevm;
+
+import java.util.List;
+
+/**
+ * Service interface used to plug hash backends. Implementations are discovered with {@link
+ * java.util.ServiceLoader} and must be declared in {@code
+ * META-INF/services/net.consensys.zkevm.HashBackendProvider}.
+ */
+public interface HashBackendProvider {
+
+  List<HashBackend> getHashBackends();
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.zkevm;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ServiceLoader;
+
+/** Registry of the hash backends discovered on the class path. */
+public final class HashBackends {
+
+  private static final Map<String, HashBackend> BACKENDS =
+      load(ServiceLoader.load(HashBackendProvider.class));
+
+  private HashBackends() {}
+
+  // visible for testing
+  static Map<String, HashBackend> load(final Iterable<HashBackendProvider> providers) {
+    final Map<String, HashBackend> backends = new LinkedHashMap<>();
+    for (HashBackendProvider provider : providers) {
+      for (HashBackend backend : provider.getHashBackends()) {
+        if (backends.putIfAbsent(backend.getName(), backend) != null) {
+          throw new IllegalStateException("duplicate hash backend " + backend.getName());
+        }
+      }
+    }
+    return backends;
+  }
+
+  public static List<HashBackend> getAll() {
+    return List.copyOf(BACKENDS.values());
+  }
+
+  public static Optional<HashBackend> find(final String name) {
+    return Optional.ofNullable(BACKENDS.get(name));
+  }
+
+  /**
+   * Returns the available backend with the given name.
+   *
+   * @throws IllegalArgumentException if no such backend exists or if it is not available
+   */
+  public static HashBackend get(final String name) {
+    final HashBackend backend =
+        find(name)
+            .orElseThrow(
+                () ->
+                    new IllegalArgumentException(
+                        "unknown hash backend " + name + ", expected one of " + BACKENDS.keySet()));
+    if (!backend.isAvailable()) {
+      throw new IllegalArgumentException("hash backend " + name + " is not available");
+    }
+    return backend;
+  }
+}
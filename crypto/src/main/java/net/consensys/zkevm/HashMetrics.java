@@ -0,0 +1,181 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.zkevm;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the hashes computed by shomei, broken down by the category of the caller. The counters
+ * are striped so that counting stays cheap on the hot paths, and only one hash every {@value
+ * #SAMPLE_RATE} of each category and thread is timed, selected by the count of the thread.
+ *
+ * <p>Besides the process-wide counters, each thread counts the hashes it computed since it last
+ * called {@link #takeThreadCounts()}, which gives the number of hashes needed by a block to the
+ * thread importing it. A task run on another thread on behalf of the current one enters the
+ * {@link #currentContext() context} of its caller, so that its hashes are counted for the caller.
+ */
+public final class HashMetrics {
+
+  /** The caller of a hash. */
+  public enum Category {
+    ACCOUNT_TRIE,
+    STORAGE_TRIE,
+    KEY,
+    CODE,
+    KECCAK,
+    OTHER
+  }
+
+  private static final int SAMPLE_RATE = 64;
+
+  private static final Category[] CATEGORIES = Category.values();
+
+  private static final Series[] SERIES =
+      Arrays.stream(CATEGORIES).map(category -> new Series()).toArray(Series[]::new);
+
+  private static final ThreadLocal<Context> CURRENT_CONTEXT =
+      ThreadLocal.withInitial(
+          () ->
+              new Context(
+                  Category.OTHER,
+                  new AtomicLongArray(CATEGORIES.length),
+                  new long[CATEGORIES.length]));
+
+  private HashMetrics() {}
+
+  /**
+   * Attributes the trie hashes computed by the current thread to the given category until the
+   * returned scope is closed.
+   */
+  public static Scope enter(final Category category) {
+    final Context current = CURRENT_CONTEXT.get();
+    return enter(new Context(category, current.threadCounts, current.takenCounts));
+  }
+
+  /** Counts the hashes computed by the current thread in the given context until closed. */
+  public static Scope enter(final Context context) {
+    final Context previous = CURRENT_CONTEXT.get();
+    CURRENT_CONTEXT.set(context);
+    return () -> CURRENT_CONTEXT.set(previous);
+  }
+
+  public static Context currentContext() {
+    return CURRENT_CONTEXT.get();
+  }
+
+  /** Number of hashes computed for the category. */
+  public static LongAdder getCount(final Category category) {
+    return SERIES[category.ordinal()].count;
+  }
+
+  /** Number of timed hashes for the category. */
+  public static LongAdder getSampledCount(final Category category) {
+    return SERIES[category.ordinal()].sampledCount;
+  }
+
+  /** Time spent by the timed hashes of the category, in nanoseconds. */
+  public static LongAdder getSampledNanos(final Category category) {
+    return SERIES[category.ordinal()].sampledNanos;
+  }
+
+  /**
+   * Returns the hashes computed by the current thread since the previous call, and resets them.
+   */
+  public static ThreadCounts takeThreadCounts() {
+    final Context context = CURRENT_CONTEXT.get();
+    final long[] counts = new long[CATEGORIES.length];
+    for (int i = 0; i < counts.length; i++) {
+      // the thread counts are never reset, they also select the hashes to time
+      final long count = context.threadCounts.get(i);
+      counts[i] = count - context.takenCounts[i];
+      context.takenCounts[i] = count;
+    }
+    return new ThreadCounts(counts);
+  }
+
+  /** The category and the counts of a thread, which tasks run on its behalf can enter. */
+  public static final class Context {
+    private final Category category;
+    private final AtomicLongArray threadCounts;
+    // the thread counts at the previous call to takeThreadCounts, only used by the owner thread
+    private final long[] takenCounts;
+
+    private Context(
+        final Category category, final AtomicLongArray threadCounts, final long[] takenCounts) {
+      this.category = category;
+      this.threadCounts = threadCounts;
+      this.takenCounts = takenCounts;
+    }
+
+    Category getCategory() {
+      return category;
+    }
+
+    /** Counts a hash of the given category, and returns whether it should be timed. */
+    boolean count(final Category category) {
+      SERIES[category.ordinal()].count.increment();
+      return threadCounts.incrementAndGet(category.ordinal()) % SAMPLE_RATE == 0;
+    }
+
+    /** Records the time spent by a hash counted and selected by {@link #count(Category)}. */
+    void sample(final Category category, final long nanos) {
+      final Series series = SERIES[category.ordinal()];
+      series.sampledCount.increment();
+      series.sampledNanos.add(nanos);
+    }
+  }
+
+  public interface Scope extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  /** Number of hashes computed by a thread, by category. */
+  public static final class ThreadCounts {
+    private final long[] counts;
+
+    private ThreadCounts(final long[] counts) {
+      this.counts = counts;
+    }
+
+    public long get(final Category category) {
+      return counts[category.ordinal()];
+    }
+
+    public long total() {
+      return Arrays.stream(counts).sum();
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder builder = new StringBuilder();
+      for (Category category : CATEGORIES) {
+        if (builder.length() > 0) {
+          builder.append(", ");
+        }
+        builder.append(category.name().toLowerCase(Locale.ROOT)).append('=').append(get(category));
+      }
+      return builder.toString();
+    }
+  }
+
+  private static final class Series {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sampledCount = new LongAdder();
+    private final LongAdder sampledNanos = new LongAdder();
+  }
+}
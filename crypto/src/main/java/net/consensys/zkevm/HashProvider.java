@@ -13,8 +13,6 @@
 
 package net.consensys.zkevm;
 
-import java.util.function.Function;
-
 import com.sun.jna.Native;
 import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
@@ -26,7 +24,10 @@ import org.slf4j.LoggerFactory;
 public class HashProvider {
   private static final Logger LOG = LoggerFactory.getLogger(HashProvider.class);
   // default to bls12-377
-  private static Function<Bytes, Hash> trieHashFunction = HashProvider::mimcBls12377;
+  private static HashBackend trieHashBackend = DefaultHashBackendProvider.MIMC_BLS12_377;
+
+  // the code is hashed in limbs of 16 bytes, each of them padded to a field element
+  private static final int CODE_CHUNK_SIZE = Bytes32.SIZE / 2;
 
   @SuppressWarnings("WeakerAccess")
   public static final boolean ENABLED;
@@ -47,15 +48,55 @@ public class HashProvider {
   }
 
   public static Hash trieHash(final Bytes bytes) {
-    return trieHashFunction.apply(bytes);
+    final HashMetrics.Context context = HashMetrics.currentContext();
+    final HashMetrics.Category category = context.getCategory();
+    if (!context.count(category)) {
+      return trieHashBackend.hash(bytes);
+    }
+    final long start = System.nanoTime();
+    final Hash hash = trieHashBackend.hash(bytes);
+    context.sample(category, System.nanoTime() - start);
+    return hash;
   }
 
-  public static void setTrieHashFunction(Function<Bytes, Hash> hashFunction) {
-    trieHashFunction = hashFunction;
+  public static HashBackend getTrieHashBackend() {
+    return trieHashBackend;
+  }
+
+  public static void setTrieHashBackend(final HashBackend hashBackend) {
+    LOG.atInfo().setMessage("Using {} trie hash backend").addArgument(hashBackend::getName).log();
+    trieHashBackend = hashBackend;
+  }
+
+  /**
+   * The MiMC hasher operates over field elements and the overall operation should be ZK friendly.
+   * Each opcode making up the code to hash fit on a single byte. Since it would be too inefficient
+   * to use one field element per opcode we group them in “limbs” of 16 bytes (so 16 opcodes per
+   * limbs).
+   *
+   * @param code bytecode
+   * @return mimc code hash
+   */
+  public static Hash trieCodeHash(final Bytes code) {
+    final HashMetrics.Context context = HashMetrics.currentContext();
+    if (!context.count(HashMetrics.Category.CODE)) {
+      return trieHashBackend.hashChunks(code, CODE_CHUNK_SIZE);
+    }
+    final long start = System.nanoTime();
+    final Hash hash = trieHashBackend.hashChunks(code, CODE_CHUNK_SIZE);
+    context.sample(HashMetrics.Category.CODE, System.nanoTime() - start);
+    return hash;
   }
 
   public static Hash keccak256(final Bytes bytes) {
-    return Hash.hash(bytes);
+    final HashMetrics.Context context = HashMetrics.currentContext();
+    if (!context.count(HashMetrics.Category.KECCAK)) {
+      return Hash.hash(bytes);
+    }
+    final long start = System.nanoTime();
+    final Hash hash = Hash.hash(bytes);
+    context.sample(HashMetrics.Category.KECCAK, System.nanoTime() - start);
+    return hash;
   }
 
   public static Hash mimcBls12377(final Bytes bytes) {
@@ -64,6 +105,16 @@ public class HashProvider {
     return Hash.wrap(Bytes32.wrap(output));
   }
 
+  /** MiMC over the BLS12-377 scalar field, computed in Java without the native library. */
+  public static Hash mimcBls12377Java(final Bytes bytes) {
+    return Mimc.BLS12_377.hash(bytes);
+  }
+
+  /** MiMC over the BN254 scalar field, computed in Java without the native library. */
+  public static Hash mimcBn254Java(final Bytes bytes) {
+    return Mimc.BN254.hash(bytes);
+  }
+
   public static Hash mimcBn254(final Bytes bytes) {
     final byte[] output = new byte[Bytes32.SIZE];
     LibGnark.computeMimcBn254(bytes.toArrayUnsafe(), bytes.size(), output);
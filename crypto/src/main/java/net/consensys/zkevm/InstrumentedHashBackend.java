@@ -0,0 +1,101 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.zkevm;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.hyperledger.besu.datatypes.Hash;
+
+/** Decorates a backend to count the hashes it computes and the time spent computing them. */
+public class InstrumentedHashBackend implements HashBackend {
+
+  private final HashBackend delegate;
+  private final LongAdder hashes = new LongAdder();
+  private final LongAdder nanos = new LongAdder();
+
+  public InstrumentedHashBackend(final HashBackend delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getName() {
+    return delegate.getName();
+  }
+
+  @Override
+  public String getFunctionName() {
+    return delegate.getFunctionName();
+  }
+
+  @Override
+  public Set<Capability> getCapabilities() {
+    return delegate.getCapabilities();
+  }
+
+  @Override
+  public boolean isAvailable() {
+    return delegate.isAvailable();
+  }
+
+  @Override
+  public Hash hash(final Bytes input) {
+    final long start = System.nanoTime();
+    final Hash hash = delegate.hash(input);
+    record(1, start);
+    return hash;
+  }
+
+  @Override
+  public List<Hash> hashBatch(final List<? extends Bytes> inputs) {
+    final long start = System.nanoTime();
+    final List<Hash> hashList = delegate.hashBatch(inputs);
+    record(inputs.size(), start);
+    return hashList;
+  }
+
+  @Override
+  public Hash hashChunks(final Bytes input, final int chunkSize) {
+    final long start = System.nanoTime();
+    final Hash hash = delegate.hashChunks(input, chunkSize);
+    record(1, start);
+    return hash;
+  }
+
+  private void record(final int count, final long start) {
+    nanos.add(System.nanoTime() - start);
+    hashes.add(count);
+  }
+
+  public HashBackend getDelegate() {
+    return delegate;
+  }
+
+  /** Number of hashes computed, a batch counts for each of its inputs. */
+  public LongAdder getHashes() {
+    return hashes;
+  }
+
+  /** Time spent computing the hashes, in nanoseconds. */
+  public LongAdder getNanos() {
+    return nanos;
+  }
+
+  @Override
+  public String toString() {
+    return "Instrumented" + delegate;
+  }
+}
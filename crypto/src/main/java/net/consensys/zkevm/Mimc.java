@@ -0,0 +1,159 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.zkevm;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.hyperledger.besu.datatypes.Hash;
+
+/**
+ * Pure Java implementation of the MiMC hash in Miyaguchi-Preneel mode, following gnark-crypto. The
+ * input is a sequence of 32 bytes big endian field elements, each of them must be canonical.
+ */
+final class Mimc {
+
+  static final Mimc BLS12_377 =
+      new Mimc(
+          new BigInteger("12ab655e9a2ca55660b44d1e5c37b00159aa76fed00000010a11800000000001", 16),
+          62,
+          4);
+
+  static final Mimc BN254 =
+      new Mimc(
+          new BigInteger("30644e72e131a029b85045b68181585d2833e84879b9709143e1f593f0000001", 16),
+          110,
+          2);
+
+  private static final String SEED = "seed";
+
+  private final MontgomeryField field;
+  private final long[][] roundConstants;
+  // the exponent of the round function is 2^squarings + 1
+  private final int squarings;
+
+  private Mimc(final BigInteger modulus, final int rounds, final int squarings) {
+    this.field = new MontgomeryField(modulus);
+    this.squarings = squarings;
+    this.roundConstants = new long[rounds][];
+    // the constants are the successive keccak256 of the seed, as derived by gnark-crypto
+    Bytes random = Hash.hash(Bytes.wrap(SEED.getBytes(StandardCharsets.UTF_8)));
+    for (int i = 0; i < rounds; i++) {
+      random = Hash.hash(random);
+      final long[] constant =
+          MontgomeryField.toLimbs(new BigInteger(1, random.toArrayUnsafe()).mod(modulus));
+      field.toMontgomery(constant, constant);
+      roundConstants[i] = constant;
+    }
+  }
+
+  Hash hash(final Bytes input) {
+    if (input.size() % Bytes32.SIZE != 0) {
+      throw new IllegalArgumentException(
+          "invalid input length " + input.size() + ", expected a list of field elements");
+    }
+    final Sponge sponge = new Sponge();
+    for (int offset = 0; offset < input.size(); offset += Bytes32.SIZE) {
+      sponge.absorb(input, offset, Bytes32.SIZE);
+    }
+    return sponge.squeeze();
+  }
+
+  /**
+   * Hashes the input split in chunks of {@code chunkSize} bytes, each chunk being left padded with
+   * zeros to a field element. This is equivalent to hashing the padded chunks but never builds
+   * the padded copy of the input.
+   */
+  Hash hashChunks(final Bytes input, final int chunkSize) {
+    if (chunkSize <= 0 || chunkSize >= Bytes32.SIZE) {
+      throw new IllegalArgumentException("invalid chunk size " + chunkSize);
+    }
+    final Sponge sponge = new Sponge();
+    for (int offset = 0; offset < input.size(); offset += chunkSize) {
+      sponge.absorb(input, offset, Math.min(chunkSize, input.size() - offset));
+    }
+    return sponge.squeeze();
+  }
+
+  /** Incremental Miyaguchi-Preneel state, absorbing one field element at a time. */
+  private final class Sponge {
+    private final long[] state = new long[MontgomeryField.LIMBS];
+    private final long[] message = new long[MontgomeryField.LIMBS];
+    private final long[] cipher = new long[MontgomeryField.LIMBS];
+    private final long[] tmp = new long[MontgomeryField.LIMBS];
+
+    /** Absorbs the element made of {@code length} bytes of the input, left padded with zeros. */
+    void absorb(final Bytes input, final int offset, final int length) {
+      readElement(input, offset, length, message);
+      encrypt(message, state, cipher, tmp);
+      // h = encrypt(m, h) + h + m
+      field.add(cipher, state, state);
+      field.add(state, message, state);
+    }
+
+    Hash squeeze() {
+      field.fromMontgomery(state, state);
+      final byte[] output = new byte[Bytes32.SIZE];
+      for (int i = 0; i < MontgomeryField.LIMBS; i++) {
+        final long limb = state[MontgomeryField.LIMBS - 1 - i];
+        for (int j = 0; j < Long.BYTES; j++) {
+          output[i * Long.BYTES + j] = (byte) (limb >>> (Long.SIZE - Byte.SIZE * (j + 1)));
+        }
+      }
+      return Hash.wrap(Bytes32.wrap(output));
+    }
+  }
+
+  private void encrypt(
+      final long[] message, final long[] key, final long[] out, final long[] tmp) {
+    System.arraycopy(message, 0, out, 0, MontgomeryField.LIMBS);
+    for (long[] roundConstant : roundConstants) {
+      // m = (m + k + c)^(2^squarings + 1)
+      field.add(out, key, tmp);
+      field.add(tmp, roundConstant, tmp);
+      field.mul(tmp, tmp, out);
+      for (int i = 1; i < squarings; i++) {
+        field.mul(out, out, out);
+      }
+      field.mul(out, tmp, out);
+    }
+    field.add(out, key, out);
+  }
+
+  private void readElement(
+      final Bytes input, final int offset, final int length, final long[] out) {
+    if (length == Bytes32.SIZE) {
+      for (int i = 0; i < MontgomeryField.LIMBS; i++) {
+        out[MontgomeryField.LIMBS - 1 - i] = input.getLong(offset + i * Long.BYTES);
+      }
+    } else {
+      Arrays.fill(out, 0L);
+      for (int i = 0; i < length; i++) {
+        // position of the byte in the big endian element
+        final int position = Bytes32.SIZE - length + i;
+        final int shift = Long.SIZE - Byte.SIZE * (position % Long.BYTES + 1);
+        out[MontgomeryField.LIMBS - 1 - position / Long.BYTES] |=
+            (input.get(offset + i) & 0xFFL) << shift;
+      }
+    }
+    if (!field.isCanonical(out)) {
+      throw new IllegalArgumentException(
+          "input element at offset " + offset + " is not a canonical field element");
+    }
+    field.toMontgomery(out, out);
+  }
+}
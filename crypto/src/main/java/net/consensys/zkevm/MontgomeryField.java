@@ -0,0 +1,188 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.zkevm;
+
+import java.math.BigInteger;
+
+/**
+ * Arithmetic in a 256 bits prime field, with the elements kept in Montgomery form as four 64 bits
+ * limbs in little endian order. The modulus must be smaller than 2^255.
+ */
+final class MontgomeryField {
+
+  static final int LIMBS = 4;
+
+  private final long[] modulus;
+  // -modulus^-1 mod 2^64
+  private final long inverse;
+  // R^2 mod modulus with R = 2^256, used to enter the Montgomery form
+  private final long[] rSquare;
+  private final long[] one = {1L, 0L, 0L, 0L};
+
+  MontgomeryField(final BigInteger modulus) {
+    if (modulus.bitLength() >= LIMBS * Long.SIZE) {
+      throw new IllegalArgumentException("modulus is too large");
+    }
+    this.modulus = toLimbs(modulus);
+    this.rSquare = toLimbs(BigInteger.ONE.shiftLeft(2 * LIMBS * Long.SIZE).mod(modulus));
+    // Newton iteration doubling the number of correct bits of the inverse at each step
+    long inv = 1L;
+    for (int i = 0; i < 6; i++) {
+      inv *= 2 - this.modulus[0] * inv;
+    }
+    this.inverse = -inv;
+  }
+
+  /** Converts a canonical element into the Montgomery form. */
+  void toMontgomery(final long[] a, final long[] out) {
+    mul(a, rSquare, out);
+  }
+
+  /** Converts an element in Montgomery form back into its canonical form. */
+  void fromMontgomery(final long[] a, final long[] out) {
+    mul(a, one, out);
+  }
+
+  /** Returns true if the limbs represent an integer smaller than the modulus. */
+  boolean isCanonical(final long[] a) {
+    return compare(a, modulus) < 0;
+  }
+
+  /** Montgomery multiplication (CIOS), {@code out} may alias the operands. */
+  void mul(final long[] a, final long[] b, final long[] out) {
+    long t0 = 0, t1 = 0, t2 = 0, t3 = 0, t4 = 0;
+    for (int i = 0; i < LIMBS; i++) {
+      final long bi = b[i];
+      // t += a * b[i]
+      long lo = a[0] * bi;
+      long hi = unsignedMultiplyHigh(a[0], bi);
+      t0 += lo;
+      long carry = hi + (Long.compareUnsigned(t0, lo) < 0 ? 1 : 0);
+
+      lo = a[1] * bi;
+      hi = unsignedMultiplyHigh(a[1], bi);
+      lo += carry;
+      hi += Long.compareUnsigned(lo, carry) < 0 ? 1 : 0;
+      t1 += lo;
+      carry = hi + (Long.compareUnsigned(t1, lo) < 0 ? 1 : 0);
+
+      lo = a[2] * bi;
+      hi = unsignedMultiplyHigh(a[2], bi);
+      lo += carry;
+      hi += Long.compareUnsigned(lo, carry) < 0 ? 1 : 0;
+      t2 += lo;
+      carry = hi + (Long.compareUnsigned(t2, lo) < 0 ? 1 : 0);
+
+      lo = a[3] * bi;
+      hi = unsignedMultiplyHigh(a[3], bi);
+      lo += carry;
+      hi += Long.compareUnsigned(lo, carry) < 0 ? 1 : 0;
+      t3 += lo;
+      carry = hi + (Long.compareUnsigned(t3, lo) < 0 ? 1 : 0);
+
+      t4 += carry;
+      final long t5 = Long.compareUnsigned(t4, carry) < 0 ? 1 : 0;
+
+      // t = (t + m * modulus) / 2^64
+      final long m = t0 * inverse;
+      lo = m * modulus[0];
+      hi = unsignedMultiplyHigh(m, modulus[0]);
+      carry = hi + (Long.compareUnsigned(t0 + lo, lo) < 0 ? 1 : 0);
+
+      lo = m * modulus[1];
+      hi = unsignedMultiplyHigh(m, modulus[1]);
+      lo += carry;
+      hi += Long.compareUnsigned(lo, carry) < 0 ? 1 : 0;
+      t0 = t1 + lo;
+      carry = hi + (Long.compareUnsigned(t0, lo) < 0 ? 1 : 0);
+
+      lo = m * modulus[2];
+      hi = unsignedMultiplyHigh(m, modulus[2]);
+      lo += carry;
+      hi += Long.compareUnsigned(lo, carry) < 0 ? 1 : 0;
+      t1 = t2 + lo;
+      carry = hi + (Long.compareUnsigned(t1, lo) < 0 ? 1 : 0);
+
+      lo = m * modulus[3];
+      hi = unsignedMultiplyHigh(m, modulus[3]);
+      lo += carry;
+      hi += Long.compareUnsigned(lo, carry) < 0 ? 1 : 0;
+      t2 = t3 + lo;
+      carry = hi + (Long.compareUnsigned(t2, lo) < 0 ? 1 : 0);
+
+      t3 = t4 + carry;
+      t4 = t5 + (Long.compareUnsigned(t3, carry) < 0 ? 1 : 0);
+    }
+    out[0] = t0;
+    out[1] = t1;
+    out[2] = t2;
+    out[3] = t3;
+    if (t4 != 0 || compare(out, modulus) >= 0) {
+      subtractModulus(out);
+    }
+  }
+
+  /** Modular addition, {@code out} may alias the operands. */
+  void add(final long[] a, final long[] b, final long[] out) {
+    long carry = 0;
+    for (int i = 0; i < LIMBS; i++) {
+      final long sum = a[i] + b[i];
+      final long carried = sum + carry;
+      carry =
+          (Long.compareUnsigned(sum, a[i]) < 0 ? 1 : 0)
+              + (Long.compareUnsigned(carried, sum) < 0 ? 1 : 0);
+      out[i] = carried;
+    }
+    // the modulus is below 2^255 so the sum of two reduced elements never overflows
+    if (compare(out, modulus) >= 0) {
+      subtractModulus(out);
+    }
+  }
+
+  private void subtractModulus(final long[] a) {
+    long borrow = 0;
+    for (int i = 0; i < LIMBS; i++) {
+      final long diff = a[i] - modulus[i];
+      final long borrowed = diff - borrow;
+      borrow =
+          (Long.compareUnsigned(a[i], modulus[i]) < 0 ? 1 : 0)
+              + (Long.compareUnsigned(diff, borrow) < 0 ? 1 : 0);
+      a[i] = borrowed;
+    }
+  }
+
+  private static int compare(final long[] a, final long[] b) {
+    for (int i = LIMBS - 1; i >= 0; i--) {
+      final int comparison = Long.compareUnsigned(a[i], b[i]);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return 0;
+  }
+
+  private static long unsignedMultiplyHigh(final long a, final long b) {
+    return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+  }
+
+  static long[] toLimbs(final BigInteger value) {
+    final long[] limbs = new long[LIMBS];
+    BigInteger remaining = value;
+    for (int i = 0; i < LIMBS; i++) {
+      limbs[i] = remaining.longValue();
+      remaining = remaining.shiftRight(Long.SIZE);
+    }
+    return limbs;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.Assume.assumeTrue;
+
+import net.consensys.zkevm.DefaultHashBackendProvider;
+import net.consensys.zkevm.HashProvider;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.bytes.MutableBytes;
+import org.junit.Test;
+
+public class MimcTest {
+
+  @Test
+  public void javaMimcBls12377MatchesCorpus() throws IOException {
+    final String corpus = getResources("mimc-bls12-377-corpus.txt");
+    for (String line : corpus.split("\n")) {
+      final String[] entry = line.split(" ");
+      assertThat(HashProvider.mimcBls12377Java(Bytes.fromHexString(entry[0])))
+          .isEqualTo(Bytes32.fromHexString(entry[1]));
+    }
+  }
+
+  @Test
+  public void javaMimcBls12377MatchesKnownVector() {
+    MutableBytes input = MutableBytes.of(new byte[Bytes32.SIZE * 16]);
+    for (int i = 0; i < 16; i++) {
+      input.set(Bytes32.SIZE * (i + 1) - 1, (byte) i);
+    }
+    assertThat(HashProvider.mimcBls12377Java(input))
+        .isEqualTo(
+            Bytes32.fromHexString(
+                "0x12900ae41a010e54e3b1ed95efa39071d357ff642aeedd30a2c4e13250409662"));
+  }
+
+  @Test
+  public void javaMimcMatchesNativeLibrary() {
+    assumeTrue(HashProvider.ENABLED);
+    final Random random = new Random(42);
+    for (int i = 0; i < 500; i++) {
+      final Bytes input = randomElements(random, i % 6);
+      assertThat(HashProvider.mimcBls12377Java(input))
+          .isEqualTo(HashProvider.mimcBls12377(input));
+      assertThat(HashProvider.mimcBn254Java(input)).isEqualTo(HashProvider.mimcBn254(input));
+    }
+  }
+
+  @Test
+  public void javaMimcCodeHashMatchesPaddedCodeHash() {
+    final Random random = new Random(7);
+    for (int size = 1; size < 300; size += 13) {
+      final byte[] code = new byte[size];
+      random.nextBytes(code);
+      final Bytes padded = padChunks(code);
+      assertThat(DefaultHashBackendProvider.MIMC_BLS12_377_JAVA.hashChunks(Bytes.wrap(code), 16))
+          .isEqualTo(HashProvider.mimcBls12377Java(padded));
+      assertThat(DefaultHashBackendProvider.MIMC_BN254_JAVA.hashChunks(Bytes.wrap(code), 16))
+          .isEqualTo(HashProvider.mimcBn254Java(padded));
+    }
+  }
+
+  @Test
+  public void javaMimcRejectsInvalidInput() {
+    assertThatThrownBy(() -> HashProvider.mimcBls12377Java(Bytes.of(1, 2, 3)))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(
+            () ->
+                HashProvider.mimcBls12377Java(
+                    Bytes32.fromHexString(
+                        "0x12ab655e9a2ca55660b44d1e5c37b00159aa76fed00000010a11800000000001")))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static Bytes randomElements(final Random random, final int count) {
+    final byte[] elements = new byte[count * Bytes32.SIZE];
+    random.nextBytes(elements);
+    for (int i = 0; i < count; i++) {
+      // keep each element below both scalar field moduli
+      elements[i * Bytes32.SIZE] &= 0x0f;
+    }
+    return Bytes.wrap(elements);
+  }
+
+  private static Bytes padChunks(final byte[] code) {
+    final int numChunks = (code.length + 15) / 16;
+    final byte[] padded = new byte[numChunks * Bytes32.SIZE];
+    for (int i = 0; i < numChunks; i++) {
+      final int length = Math.min(16, code.length - i * 16);
+      System.arraycopy(code, i * 16, padded, (i + 1) * Bytes32.SIZE - length, length);
+    }
+    return Bytes.wrap(padded);
+  }
+
+  @SuppressWarnings({"ConstantConditions", "resource"})
+  private String getResources(final String fileName) throws IOException {
+    var classLoader = MimcTest.class.getClassLoader();
+    return new String(
+        classLoader.getResourceAsStream(fileName).readAllBytes(), StandardCharsets.UTF_8);
+  }
+}
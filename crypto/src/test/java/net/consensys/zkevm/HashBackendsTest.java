@@ -0,0 +1,48 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.zkevm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class HashBackendsTest {
+
+  @Test
+  public void discoversDefaultBackendsThroughServiceLoader() {
+    assertThat(HashBackends.getAll())
+        .containsAll(new DefaultHashBackendProvider().getHashBackends());
+    assertThat(HashBackends.find("MIMC_BLS12_377_JAVA"))
+        .containsSame(DefaultHashBackendProvider.MIMC_BLS12_377_JAVA);
+    assertThat(HashBackends.get("KECCAK256")).isSameAs(DefaultHashBackendProvider.KECCAK256);
+  }
+
+  @Test
+  public void rejectsDuplicateBackendNames() {
+    final HashBackendProvider duplicate = () -> List.of(DefaultHashBackendProvider.KECCAK256);
+    assertThatThrownBy(
+            () -> HashBackends.load(List.of(new DefaultHashBackendProvider(), duplicate)))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("KECCAK256");
+  }
+
+  @Test
+  public void rejectsUnknownBackend() {
+    assertThatThrownBy(() -> HashBackends.get("UNKNOWN"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
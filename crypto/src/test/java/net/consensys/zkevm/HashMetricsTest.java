@@ -0,0 +1,103 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.zkevm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashMetricsTest {
+
+  private static final Bytes INPUT = Bytes.of(1, 2, 3);
+
+  private final HashBackend defaultHashBackend = HashProvider.getTrieHashBackend();
+
+  @Before
+  public void setup() {
+    HashProvider.setTrieHashBackend(DefaultHashBackendProvider.KECCAK256);
+    HashMetrics.takeThreadCounts();
+  }
+
+  @After
+  public void tearDown() {
+    HashProvider.setTrieHashBackend(defaultHashBackend);
+  }
+
+  @Test
+  public void countsHashesByCallerCategory() {
+    final long storageTrieCount = HashMetrics.getCount(HashMetrics.Category.STORAGE_TRIE).sum();
+    try (HashMetrics.Scope ignored = HashMetrics.enter(HashMetrics.Category.STORAGE_TRIE)) {
+      HashProvider.trieHash(INPUT);
+      HashProvider.trieHash(INPUT);
+      // the code and keccak hashes keep their own category
+      HashProvider.trieCodeHash(INPUT);
+      HashProvider.keccak256(INPUT);
+    }
+    HashProvider.trieHash(INPUT);
+
+    final HashMetrics.ThreadCounts counts = HashMetrics.takeThreadCounts();
+    assertThat(counts.get(HashMetrics.Category.STORAGE_TRIE)).isEqualTo(2);
+    assertThat(counts.get(HashMetrics.Category.CODE)).isEqualTo(1);
+    assertThat(counts.get(HashMetrics.Category.KECCAK)).isEqualTo(1);
+    assertThat(counts.get(HashMetrics.Category.OTHER)).isEqualTo(1);
+    assertThat(counts.get(HashMetrics.Category.ACCOUNT_TRIE)).isZero();
+    assertThat(counts.total()).isEqualTo(5);
+    assertThat(HashMetrics.getCount(HashMetrics.Category.STORAGE_TRIE).sum())
+        .isEqualTo(storageTrieCount + 2);
+
+    // the counts are taken once
+    assertThat(HashMetrics.takeThreadCounts().total()).isZero();
+  }
+
+  @Test
+  public void timesOneHashInSixtyFour() {
+    final long sampledCount = HashMetrics.getSampledCount(HashMetrics.Category.KEY).sum();
+    final long sampledNanos = HashMetrics.getSampledNanos(HashMetrics.Category.KEY).sum();
+    try (HashMetrics.Scope ignored = HashMetrics.enter(HashMetrics.Category.KEY)) {
+      for (int i = 0; i < 64 * 10; i++) {
+        HashProvider.trieHash(INPUT);
+      }
+    }
+    assertThat(HashMetrics.getSampledCount(HashMetrics.Category.KEY).sum())
+        .isEqualTo(sampledCount + 10);
+    assertThat(HashMetrics.getSampledNanos(HashMetrics.Category.KEY).sum())
+        .isGreaterThan(sampledNanos);
+    assertThat(HashMetrics.takeThreadCounts().get(HashMetrics.Category.KEY)).isEqualTo(64 * 10);
+  }
+
+  @Test
+  public void countsHashesOfAnotherThreadForTheEnteredContext() throws InterruptedException {
+    final HashMetrics.Context context;
+    try (HashMetrics.Scope ignored = HashMetrics.enter(HashMetrics.Category.ACCOUNT_TRIE)) {
+      context = HashMetrics.currentContext();
+    }
+    final Thread worker =
+        new Thread(
+            () -> {
+              try (HashMetrics.Scope ignored = HashMetrics.enter(context)) {
+                HashProvider.trieHash(INPUT);
+              }
+              HashProvider.trieHash(INPUT);
+            });
+    worker.start();
+    worker.join();
+
+    final HashMetrics.ThreadCounts counts = HashMetrics.takeThreadCounts();
+    assertThat(counts.get(HashMetrics.Category.ACCOUNT_TRIE)).isEqualTo(1);
+    assertThat(counts.total()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.zkevm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.junit.Test;
+
+public class InstrumentedHashBackendTest {
+
+  private static final Bytes INPUT = Bytes.of(1, 2, 3);
+
+  private final InstrumentedHashBackend hashBackend =
+      new InstrumentedHashBackend(DefaultHashBackendProvider.KECCAK256);
+
+  @Test
+  public void delegatesAndCountsEachHash() {
+    assertThat(hashBackend.getName()).isEqualTo(DefaultHashBackendProvider.KECCAK256.getName());
+    assertThat(hashBackend.hash(INPUT))
+        .isEqualTo(DefaultHashBackendProvider.KECCAK256.hash(INPUT));
+    assertThat(hashBackend.getHashes().sum()).isEqualTo(1);
+
+    // a batch counts for each of its inputs
+    assertThat(hashBackend.hashBatch(List.of(INPUT, INPUT, INPUT))).hasSize(3);
+    assertThat(hashBackend.getHashes().sum()).isEqualTo(4);
+    hashBackend.hashChunks(INPUT, 16);
+    assertThat(hashBackend.getHashes().sum()).isEqualTo(5);
+    assertThat(hashBackend.getNanos().sum()).isPositive();
+  }
+}
@@ -16,10 +16,10 @@ package net.consensys.shomei.rpc.server.method;
 import net.consensys.shomei.proof.WorldStateProofProvider;
 import net.consensys.shomei.rpc.server.ShomeiRpcMethod;
 import net.consensys.shomei.rpc.server.error.ShomeiJsonRpcErrorResponse;
+import net.consensys.shomei.storage.WorldStateLease;
 import net.consensys.shomei.storage.ZkWorldStateArchive;
 import net.consensys.shomei.trielog.AccountKey;
 import net.consensys.shomei.trielog.StorageSlotKey;
-import net.consensys.shomei.worldview.ZkEvmWorldState;
 
 import java.util.Arrays;
 import java.util.List;
@@ -56,22 +56,25 @@ public class LineaGetProof implements JsonRpcMethod {
     final BlockParameterOrBlockHash blockParameterOrBlockHash =
         getBlockParameterOrBlockHash(requestContext);
 
-    Optional<ZkEvmWorldState> worldState = Optional.empty();
+    Optional<WorldStateLease> worldState = Optional.empty();
     if (blockParameterOrBlockHash.isNumeric()) {
       worldState =
-          worldStateArchive.getCachedWorldState(blockParameterOrBlockHash.getNumber().getAsLong());
+          worldStateArchive.leaseWorldState(blockParameterOrBlockHash.getNumber().getAsLong());
     } else if (blockParameterOrBlockHash.getBlockHash()) {
       worldState =
-          worldStateArchive.getCachedWorldState(blockParameterOrBlockHash.getHash().orElseThrow());
+          worldStateArchive.leaseWorldState(blockParameterOrBlockHash.getHash().orElseThrow());
     } else if (blockParameterOrBlockHash.isLatest()) {
-      worldState = worldStateArchive.getCachedWorldState(worldStateArchive.getCurrentBlockHash());
+      worldState = worldStateArchive.leaseWorldState(worldStateArchive.getCurrentBlockHash());
     }
     if (worldState.isPresent()) {
-      final WorldStateProofProvider worldStateProofProvider =
-          new WorldStateProofProvider(worldState.get());
-      return new JsonRpcSuccessResponse(
-          requestContext.getRequest().getId(),
-          worldStateProofProvider.getAccountProof(accountAddress, slotKeys));
+      // the world state is not closed while the proof is computed, even if dropped from the cache
+      try (WorldStateLease lease = worldState.get()) {
+        final WorldStateProofProvider worldStateProofProvider =
+            new WorldStateProofProvider(lease.getWorldState());
+        return new JsonRpcSuccessResponse(
+            requestContext.getRequest().getId(),
+            worldStateProofProvider.getAccountProof(accountAddress, slotKeys));
+      }
     } else {
       return new ShomeiJsonRpcErrorResponse(
           requestContext.getRequest().getId(),
@@ -79,7 +79,7 @@ public class RollupGetZkEVMStateMerkleProofV0 implements JsonRpcMethod {
         new RollupGetZkEVMStateMerkleProofV0Response(
             traceManager
                 .getZkStateRootHash(param.getStartBlockNumber() - 1)
-                .orElse(ZKTrie.DEFAULT_TRIE_ROOT)
+                .orElse(ZKTrie.getDefaultTrieRoot())
                 .toHexString(),
             traceManager
                 .getZkStateRootHash(param.getEndBlockNumber())
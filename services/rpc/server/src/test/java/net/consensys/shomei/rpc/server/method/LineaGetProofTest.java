@@ -13,7 +13,7 @@
 
 package net.consensys.shomei.rpc.server.method;
 
-import static net.consensys.shomei.trie.ZKTrie.EMPTY_TRIE;
+import static net.consensys.shomei.trie.ZKTrie.getEmptyTrieRoot;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -21,6 +21,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import net.consensys.shomei.rpc.server.error.ShomeiJsonRpcErrorResponse;
+import net.consensys.shomei.storage.WorldStateLease;
 import net.consensys.shomei.storage.ZkWorldStateArchive;
 import net.consensys.shomei.storage.worldstate.WorldStateStorage;
 import net.consensys.shomei.trie.model.FlattenedLeaf;
@@ -54,14 +55,15 @@ public class LineaGetProofTest {
   public void setup() {
     final ZkEvmWorldState zkEvmWorldState = mock(ZkEvmWorldState.class);
     final WorldStateStorage worldStateStorage = mock(WorldStateStorage.class);
+    final WorldStateLease lease = mock(WorldStateLease.class);
     when(worldStateArchive.getCurrentBlockHash()).thenReturn(Hash.EMPTY);
-    when(worldStateArchive.getCachedWorldState(eq(1L))).thenReturn(Optional.of(zkEvmWorldState));
-    when(worldStateArchive.getCachedWorldState(eq(Hash.EMPTY)))
-        .thenReturn(Optional.of(zkEvmWorldState));
+    when(worldStateArchive.leaseWorldState(eq(1L))).thenReturn(Optional.of(lease));
+    when(worldStateArchive.leaseWorldState(eq(Hash.EMPTY))).thenReturn(Optional.of(lease));
+    when(lease.getWorldState()).thenReturn(zkEvmWorldState);
     when(zkEvmWorldState.getZkEvmWorldStateStorage()).thenReturn(worldStateStorage);
-    when(zkEvmWorldState.getStateRootHash()).thenReturn(Hash.wrap(EMPTY_TRIE.getTopRootHash()));
+    when(zkEvmWorldState.getStateRootHash()).thenReturn(Hash.wrap(getEmptyTrieRoot()));
     when(worldStateStorage.getTrieNode(any(Bytes.class), any(Bytes.class)))
-        .thenReturn(Optional.of(EMPTY_TRIE.getTopRootHash()));
+        .thenReturn(Optional.of(getEmptyTrieRoot()));
     when(worldStateStorage.getNearestKeys(any(Bytes.class)))
         .thenReturn(
             new TrieStorage.Range(
@@ -51,6 +51,20 @@ public interface KeyValueStorageTransaction {
    */
   KeyValueStorageTransaction remove(byte[] key);
 
+  /**
+   * Removes all the keys of the given range with a single range deletion. The removal is applied at
+   * commit, in order with the other operations of the transaction, but is not visible to the reads
+   * of this transaction.
+   *
+   * <p>The range must be removed before any write of the transaction to a key of the range, such a
+   * write would otherwise be removed as well. The reads of the range through the transaction keep
+   * returning the previous values until the commit, so the caller hides them itself.
+   *
+   * @param fromKey the first key of the range (inclusive).
+   * @param toKey the end of the range (exclusive).
+   */
+  KeyValueStorageTransaction removeRange(byte[] fromKey, byte[] toKey);
+
   /**
    * Performs an atomic commit of all the operations queued in the transaction.
    *
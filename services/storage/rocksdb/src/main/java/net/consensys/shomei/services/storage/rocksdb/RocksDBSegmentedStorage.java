@@ -43,6 +43,7 @@ import org.rocksdb.ColumnFamilyOptions;
 import org.rocksdb.CompressionType;
 import org.rocksdb.DBOptions;
 import org.rocksdb.Env;
+import org.rocksdb.FlushOptions;
 import org.rocksdb.LRUCache;
 import org.rocksdb.OptimisticTransactionDB;
 import org.rocksdb.ReadOptions;
@@ -183,6 +184,50 @@ public class RocksDBSegmentedStorage implements AutoCloseable {
     }
   }
 
+  /**
+   * Estimates the bytes kept alive by the snapshots: the size of the SST files of all the column
+   * families beyond the estimated size of their live data. The older versions of the overwritten
+   * and removed keys are only dropped by the compactions, and not while an open snapshot still
+   * reads them, this difference thus grows with the snapshots held across the writes.
+   *
+   * <p>This is an approximation: it also counts the older versions not compacted yet without any
+   * snapshot, and misses the ones merged with the live data in a single file by a compaction.
+   *
+   * @return the estimated pinned bytes
+   */
+  public long getPinnedBytes() {
+    throwIfClosed();
+    long pinnedBytes = 0;
+    for (RocksDBSegment segment : columnHandlesByName.values()) {
+      pinnedBytes +=
+          Math.max(
+              0,
+              getLongProperty(segment, "rocksdb.total-sst-files-size")
+                  - getLongProperty(segment, "rocksdb.estimate-live-data-size"));
+    }
+    return pinnedBytes;
+  }
+
+  // visible for testing
+  void flush() {
+    throwIfClosed();
+    try (FlushOptions flushOptions = new FlushOptions().setWaitForFlush(true)) {
+      for (RocksDBSegment segment : columnHandlesByName.values()) {
+        db.flush(flushOptions, segment.getHandle());
+      }
+    } catch (final RocksDBException e) {
+      throw new StorageException(e);
+    }
+  }
+
+  private long getLongProperty(final RocksDBSegment segment, final String property) {
+    try {
+      return db.getLongProperty(segment.getHandle(), property);
+    } catch (final RocksDBException e) {
+      throw new StorageException(e);
+    }
+  }
+
   public SnappableKeyValueStorage getKeyValueStorageForSegment(
       final RocksDBSegmentIdentifier segmentId) {
     throwIfClosed();
@@ -127,6 +127,21 @@ public class RocksDBTransaction implements KeyValueStorageTransaction, AutoClose
     }
   }
 
+  @Override
+  public RocksDBTransaction removeRange(final byte[] fromKey, final byte[] toKey) {
+    throwIfClosed();
+
+    try {
+      // transactions do not support range deletions, so the tombstone is appended directly to the
+      // batch written by the transaction commit, after the operations already queued. It bypasses
+      // the index of the batch, hence the ordering and visibility rules of the interface
+      innerTx.getWriteBatch().getWriteBatch().deleteRange(columnFamilyHandle, fromKey, toKey);
+      return this;
+    } catch (final RocksDBException e) {
+      throw new StorageException(e);
+    }
+  }
+
   /**
    * Stream.
    *
@@ -206,7 +221,9 @@ public class RocksDBTransaction implements KeyValueStorageTransaction, AutoClose
         final OptimisticTransactionDB db, final ColumnFamilyHandle columnFamilyHandle) {
       super(db, columnFamilyHandle);
       this.snapshot = db.getSnapshot();
-      this.readOptions.setSnapshot(snapshot);
+      // the snapshots serve the proofs of past blocks, their reads do not evict the blocks cached
+      // for the import of the head
+      this.readOptions.setSnapshot(snapshot).setFillCache(false);
     }
 
     @Override
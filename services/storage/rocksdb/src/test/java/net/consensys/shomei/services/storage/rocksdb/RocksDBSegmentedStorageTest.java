@@ -28,6 +28,7 @@ import net.consensys.shomei.services.storage.rocksdb.configuration.RocksDBConfig
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Random;
 
 import org.assertj.core.api.ThrowableAssert;
 import org.junit.jupiter.api.BeforeEach;
@@ -91,6 +92,31 @@ public class RocksDBSegmentedStorageTest {
     factory.close();
   }
 
+  @Test
+  public void snapshotHeldAcrossOverwritesIsCountedAsPinned() throws Exception {
+    final int keyCount = 1000;
+    final Random random = new Random(1);
+    try (RocksDBSegmentedStorage storage = new RocksDBSegmentedStorage(rocksDBConfiguration)) {
+      var trieSegment = storage.getKeyValueStorageForSegment(ZK_TRIE_NODE.getSegmentIdentifier());
+      putRandomValues(trieSegment, keyCount, random);
+      storage.flush();
+      // a single SST file, all live
+      assertThat(storage.getPinnedBytes()).isZero();
+
+      var snapshot = trieSegment.takeSnapshot();
+      final byte[] firstKey = "key0".getBytes(UTF_8);
+      final byte[] snapshotValue = snapshot.get(firstKey).orElseThrow();
+      putRandomValues(trieSegment, keyCount, random);
+      storage.flush();
+
+      // the overwritten values, incompressible, are still read through the snapshot
+      assertThat(snapshot.get(firstKey)).contains(snapshotValue);
+      assertThat(trieSegment.get(firstKey).orElseThrow()).isNotEqualTo(snapshotValue);
+      assertThat(storage.getPinnedBytes()).isGreaterThan(keyCount * 1024L / 2);
+      snapshot.close();
+    }
+  }
+
   @Test
   public void assertSnapshotAccessThrowsWhenClosed() throws IOException {
     var defaultSegment = getKeyValueStorage(DEFAULT.getSegmentIdentifier());
@@ -367,6 +393,17 @@ public class RocksDBSegmentedStorageTest {
     factory.close();
   }
 
+  private void putRandomValues(
+      final SnappableKeyValueStorage segment, final int keyCount, final Random random) {
+    var transaction = segment.startTransaction();
+    for (int i = 0; i < keyCount; i++) {
+      final byte[] randomValue = new byte[1024];
+      random.nextBytes(randomValue);
+      transaction.put(("key" + i).getBytes(UTF_8), randomValue);
+    }
+    transaction.commit();
+  }
+
   private SnappableKeyValueStorage getKeyValueStorage(RocksDBSegmentIdentifier segment) {
     return factory.create(segment, new ShomeiConfig(() -> rocksDBConfiguration.getDatabaseDir()));
   }
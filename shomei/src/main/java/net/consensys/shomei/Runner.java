@@ -18,6 +18,7 @@ import net.consensys.shomei.cli.option.HashFunctionOption;
 import net.consensys.shomei.cli.option.JsonRpcOption;
 import net.consensys.shomei.cli.option.MetricsOption;
 import net.consensys.shomei.cli.option.SyncOption;
+import net.consensys.shomei.cli.option.TrieOption;
 import net.consensys.shomei.fullsync.FullSyncDownloader;
 import net.consensys.shomei.fullsync.rules.FullSyncRules;
 import net.consensys.shomei.metrics.MetricsService;
@@ -26,13 +27,25 @@ import net.consensys.shomei.rpc.client.GetRawTrieLogClient;
 import net.consensys.shomei.rpc.server.JsonRpcService;
 import net.consensys.shomei.services.storage.rocksdb.configuration.RocksDBConfigurationBuilder;
 import net.consensys.shomei.storage.RocksDBStorageProvider;
+import net.consensys.shomei.storage.SnapshotRetentionPolicy;
 import net.consensys.shomei.storage.StorageProvider;
 import net.consensys.shomei.storage.ZkWorldStateArchive;
+import net.consensys.shomei.trie.ZKTrie;
+import net.consensys.shomei.trie.node.NodeHashCounter;
+import net.consensys.shomei.trielog.KeyHashCache;
+import net.consensys.zkevm.HashMetrics;
 import net.consensys.zkevm.HashProvider;
+import net.consensys.zkevm.InstrumentedHashBackend;
 
 import java.io.IOException;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
 import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
@@ -59,9 +72,11 @@ public class Runner {
       JsonRpcOption jsonRpcOption,
       final SyncOption syncOption,
       MetricsOption metricsOption,
-      HashFunctionOption hashFunctionOption) {
+      HashFunctionOption hashFunctionOption,
+      TrieOption trieOption) {
     this.vertx = Vertx.vertx();
     setupHashFunction(hashFunctionOption);
+    setupTrieEngine(trieOption);
     metricsService = setupMetrics(metricsOption);
 
     final StorageProvider storageProvider =
@@ -70,7 +85,17 @@ public class Runner {
                 .databaseDir(dataStorageOption.getDataStoragePath())
                 .build());
 
-    worldStateArchive = new ZkWorldStateArchive(storageProvider);
+    worldStateArchive =
+        new ZkWorldStateArchive(
+            storageProvider,
+            dataStorageOption.getWorldStateLayersMaxMemoryBytes(),
+            dataStorageOption.getHistoricalWorldStateMaxRollbackBlocks(),
+            dataStorageOption.getHistoricalWorldStateCacheSize(),
+            new SnapshotRetentionPolicy(
+                dataStorageOption.getWorldStateCacheMaxCount(),
+                dataStorageOption.getWorldStateCacheMaxAge(),
+                dataStorageOption.getWorldStateCacheMaxPinnedBytes()));
+    setupWorldStateCacheMetrics(metricsService.getRegistry());
 
     final GetRawTrieLogClient getRawTrieLog =
         new GetRawTrieLogClient(
@@ -85,7 +110,11 @@ public class Runner {
             syncOption.getMinConfirmationsBeforeImporting(),
             syncOption.isEnableFinalizedBlockLimit(),
             Optional.ofNullable(syncOption.getFinalizedBlockNumberLimit()),
-            Optional.ofNullable(syncOption.getFinalizedBlockHashLimit()).map(Hash::fromHexString));
+            Optional.ofNullable(syncOption.getFinalizedBlockHashLimit()).map(Hash::fromHexString),
+            syncOption.getCatchUpBatchSize(),
+            syncOption.isDeferredTrieBuildEnabled(),
+            dataStorageOption.getWorldStateCacheBlockInterval(),
+            syncOption.isSpeculativeImportEnabled());
 
     fullSyncDownloader = new FullSyncDownloader(worldStateArchive, getRawTrieLog, fullSyncRules);
 
@@ -99,7 +128,14 @@ public class Runner {
   }
 
   private void setupHashFunction(HashFunctionOption hashFunctionOption) {
-    HashProvider.setTrieHashFunction(hashFunctionOption.getHashFunction());
+    HashProvider.setTrieHashBackend(
+        new InstrumentedHashBackend(hashFunctionOption.getHashBackend()));
+    // fail fast if the shipped default nodes do not match the selected hash function
+    ZKTrie.verifyDefaultNodes();
+  }
+
+  private void setupTrieEngine(TrieOption trieOption) {
+    ZKTrie.setTrieEngineType(trieOption.getTrieEngine());
   }
 
   private MetricsService setupMetrics(MetricsOption metricsOption) {
@@ -114,9 +150,69 @@ public class Runner {
     new JvmMemoryMetrics().bindTo(meterRegistry);
     new JvmGcMetrics().bindTo(meterRegistry);
     new JvmThreadMetrics().bindTo(meterRegistry);
+
+    FunctionCounter.builder("trie.node.hash", NodeHashCounter.getComputed(), LongAdder::sum)
+        .description("Number of trie node hashes computed, memoised hashes excluded")
+        .register(meterRegistry);
+    FunctionCounter.builder("trie.key.hash.cache.hit", KeyHashCache.getHits(), LongAdder::sum)
+        .description("Number of account and slot key hashes served from the cache")
+        .register(meterRegistry);
+    FunctionCounter.builder("trie.key.hash.cache.miss", KeyHashCache.getMisses(), LongAdder::sum)
+        .description("Number of account and slot key hashes computed")
+        .register(meterRegistry);
+    for (HashMetrics.Category category : HashMetrics.Category.values()) {
+      final String categoryTag = category.name().toLowerCase(Locale.ROOT);
+      FunctionCounter.builder("hash.count", HashMetrics.getCount(category), LongAdder::sum)
+          .description("Number of hashes computed, by caller category")
+          .tag("category", categoryTag)
+          .register(meterRegistry);
+      FunctionTimer.builder(
+              "hash.sampled",
+              category,
+              c -> HashMetrics.getSampledCount(c).sum(),
+              c -> HashMetrics.getSampledNanos(c).sum(),
+              TimeUnit.NANOSECONDS)
+          .description("Latency of a sample of the hashes, by caller category")
+          .tag("category", categoryTag)
+          .register(meterRegistry);
+    }
+    if (HashProvider.getTrieHashBackend() instanceof InstrumentedHashBackend hashBackend) {
+      FunctionTimer.builder(
+              "trie.hash",
+              hashBackend,
+              backend -> backend.getHashes().sum(),
+              backend -> backend.getNanos().sum(),
+              TimeUnit.NANOSECONDS)
+          .description("Trie hashes computed by the hash backend")
+          .tag("backend", hashBackend.getName())
+          .register(meterRegistry);
+    }
     return metricsService;
   }
 
+  private void setupWorldStateCacheMetrics(final MeterRegistry meterRegistry) {
+    Gauge.builder(
+            "worldstate.cache.count",
+            worldStateArchive,
+            ZkWorldStateArchive::getCachedWorldStateCount)
+        .description("Number of recent world states kept to serve the proofs")
+        .register(meterRegistry);
+    Gauge.builder(
+            "worldstate.cache.oldest.age",
+            worldStateArchive,
+            archive -> archive.getOldestCachedWorldStateAge().toMillis() / 1000.0)
+        .description("Time since the oldest world state kept to serve the proofs was cached")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+    Gauge.builder(
+            "worldstate.cache.pinned",
+            worldStateArchive,
+            archive -> archive.getSnapshotPinnedBytes().orElse(0L))
+        .description("Estimated RocksDB data pinned by the world state snapshots")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
   public void start() {
     vertx.deployVerticle(
         jsonRpcService,
@@ -22,6 +22,7 @@ import net.consensys.shomei.cli.option.JsonRpcOption;
 import net.consensys.shomei.cli.option.LoggingLevelOption;
 import net.consensys.shomei.cli.option.MetricsOption;
 import net.consensys.shomei.cli.option.SyncOption;
+import net.consensys.shomei.cli.option.TrieOption;
 import net.consensys.shomei.util.logging.LoggingConfiguration;
 
 import org.apache.logging.log4j.Level;
@@ -69,6 +70,9 @@ public class StateManagerCommand implements Runnable {
   @Mixin(name = "Hash function configuration")
   private final HashFunctionOption hashFunctionOption = HashFunctionOption.create();
 
+  @Mixin(name = "Trie configuration")
+  private final TrieOption trieOption = TrieOption.create();
+
   public StateManagerCommand() {}
 
   public int parse(final String... args) {
@@ -108,6 +112,12 @@ public class StateManagerCommand implements Runnable {
           new CommandLine(this),
           "Cannot use --trace-start-block-number if trace generation is disabled");
     }
+    if (dataStorageOption.getWorldStateCacheMaxCount() <= 0
+        || dataStorageOption.getWorldStateCacheBlockInterval() <= 0) {
+      throw new ParameterException(
+          new CommandLine(this),
+          "--world-state-cache-max-count and --world-state-cache-block-interval must be positive");
+    }
   }
 
   public LoggingLevelOption getLoggingLevelOption() {
@@ -125,7 +135,12 @@ public class StateManagerCommand implements Runnable {
       configureLogging();
       final Runner runner =
           new Runner(
-              dataStorageOption, jsonRpcOption, syncOption, metricsOption, hashFunctionOption);
+              dataStorageOption,
+              jsonRpcOption,
+              syncOption,
+              metricsOption,
+              hashFunctionOption,
+              trieOption);
       addShutdownHook(runner);
       runner.start();
     } catch (final Exception e) {
@@ -16,6 +16,7 @@ package net.consensys.shomei.cli.option;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 
 import picocli.CommandLine;
 
@@ -40,6 +41,62 @@ public class DataStorageOption {
       arity = "1")
   private String dataStoragePath = DEFAULT_DATA_STORAGE_PATH;
 
+  @CommandLine.Option(
+      names = {"--world-state-layers-max-memory-mb"},
+      paramLabel = "<LONG>",
+      description =
+          "Memory budget in MiB of the in-memory diff layers serving the world states of the recent blocks, 0 caches RocksDB snapshots instead. Default: ${DEFAULT-VALUE}",
+      arity = "1")
+  private long worldStateLayersMaxMemoryMb = 0;
+
+  @CommandLine.Option(
+      names = {"--historical-world-state-max-rollback-blocks"},
+      paramLabel = "<INTEGER>",
+      description =
+          "Maximum number of blocks rolled back from a cached world state to reconstruct the world state of an older block, 0 disables the reconstruction. Default: ${DEFAULT-VALUE}",
+      arity = "1")
+  private int historicalWorldStateMaxRollbackBlocks = 0;
+
+  @CommandLine.Option(
+      names = {"--historical-world-state-cache-size"},
+      paramLabel = "<INTEGER>",
+      description =
+          "Number of reconstructed world states kept in memory, the least recently used being dropped first. Default: ${DEFAULT-VALUE}",
+      arity = "1")
+  private int historicalWorldStateCacheSize = 16;
+
+  @CommandLine.Option(
+      names = {"--world-state-cache-max-count"},
+      paramLabel = "<INTEGER>",
+      description =
+          "Maximum number of recent world states kept to serve the proofs, the lowest blocks being dropped first. Default: ${DEFAULT-VALUE}",
+      arity = "1")
+  private int worldStateCacheMaxCount = 128;
+
+  @CommandLine.Option(
+      names = {"--world-state-cache-max-age-seconds"},
+      paramLabel = "<LONG>",
+      description =
+          "Maximum time in seconds a recent world state is kept to serve the proofs, 0 for no limit. Default: ${DEFAULT-VALUE}",
+      arity = "1")
+  private long worldStateCacheMaxAgeSeconds = 0;
+
+  @CommandLine.Option(
+      names = {"--world-state-cache-block-interval"},
+      paramLabel = "<LONG>",
+      description =
+          "Number of blocks between two world states kept to serve the proofs, the finalized block limit being always kept. Default: ${DEFAULT-VALUE}",
+      arity = "1")
+  private long worldStateCacheBlockInterval = 1;
+
+  @CommandLine.Option(
+      names = {"--world-state-cache-max-pinned-mb"},
+      paramLabel = "<LONG>",
+      description =
+          "Maximum estimated size in MiB of the RocksDB data pinned by the world state snapshots, the lowest blocks being dropped while above, 0 for no limit. Default: ${DEFAULT-VALUE}",
+      arity = "1")
+  private long worldStateCacheMaxPinnedMb = 0;
+
   public Path getDataStoragePath() {
     Path path = Path.of(dataStoragePath);
     try {
@@ -49,4 +106,32 @@ public class DataStorageOption {
     }
     return path;
   }
+
+  public long getWorldStateLayersMaxMemoryBytes() {
+    return worldStateLayersMaxMemoryMb * 1024 * 1024;
+  }
+
+  public int getHistoricalWorldStateMaxRollbackBlocks() {
+    return historicalWorldStateMaxRollbackBlocks;
+  }
+
+  public int getHistoricalWorldStateCacheSize() {
+    return historicalWorldStateCacheSize;
+  }
+
+  public int getWorldStateCacheMaxCount() {
+    return worldStateCacheMaxCount;
+  }
+
+  public Duration getWorldStateCacheMaxAge() {
+    return Duration.ofSeconds(worldStateCacheMaxAgeSeconds);
+  }
+
+  public long getWorldStateCacheBlockInterval() {
+    return worldStateCacheBlockInterval;
+  }
+
+  public long getWorldStateCacheMaxPinnedBytes() {
+    return worldStateCacheMaxPinnedMb * 1024 * 1024;
+  }
 }
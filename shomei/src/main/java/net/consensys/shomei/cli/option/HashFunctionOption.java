@@ -13,28 +13,13 @@
 
 package net.consensys.shomei.cli.option;
 
-import net.consensys.zkevm.HashProvider;
+import net.consensys.zkevm.HashBackend;
+import net.consensys.zkevm.HashBackends;
 
-import java.util.function.Function;
-
-import org.apache.tuweni.bytes.Bytes;
-import org.hyperledger.besu.datatypes.Hash;
 import picocli.CommandLine;
 
 public class HashFunctionOption {
 
-  enum HashFunction {
-    KECCAK256(HashProvider::keccak256),
-    MIMC_BN254(HashProvider::mimcBn254),
-    MIMC_BLS12_377(HashProvider::mimcBls12377);
-
-    Function<Bytes, Hash> hashFunction;
-
-    HashFunction(Function<Bytes, Hash> hashFunction) {
-      this.hashFunction = hashFunction;
-    }
-  }
-
   /**
    * Create Haah Function option.
    *
@@ -44,17 +29,19 @@ public class HashFunctionOption {
     return new HashFunctionOption();
   }
 
-  public static final HashFunction DEFAULT_HASH_FUNCTION = HashFunction.MIMC_BLS12_377;
+  public static final String DEFAULT_HASH_FUNCTION = "MIMC_BLS12_377";
 
   @CommandLine.Option(
       names = {"--hash-function"},
       paramLabel = "<CURVE>",
       description =
-          "The hash function to use (MIMC_BLS12_377, MIMC_BN254, KECCAK256) (default: ${DEFAULT-VALUE})",
+          "The hash backend to use (MIMC_BLS12_377, MIMC_BN254, KECCAK256, MIMC_BLS12_377_JAVA,"
+              + " or any backend provided on the class path)"
+              + " (default: ${DEFAULT-VALUE})",
       arity = "1")
-  private HashFunction hashFunction = DEFAULT_HASH_FUNCTION;
+  private String hashFunction = DEFAULT_HASH_FUNCTION;
 
-  public Function<Bytes, Hash> getHashFunction() {
-    return hashFunction.hashFunction;
+  public HashBackend getHashBackend() {
+    return HashBackends.get(hashFunction);
   }
 }
@@ -31,6 +31,8 @@ public class SyncOption {
 
   static final long DEFAULT_MIN_CONFIRMATION = 0;
 
+  static final int DEFAULT_CATCH_UP_BATCH_SIZE = 1;
+
   @CommandLine.Option(
       names = {"--trace-start-block-number"},
       paramLabel = "<LONG>",
@@ -76,6 +78,30 @@ public class SyncOption {
       arity = "1")
   private String finalizedBlockHashLimit = null;
 
+  @CommandLine.Option(
+      names = {"--catch-up-batch-size"},
+      paramLabel = "<INTEGER>",
+      description =
+          "Number of blocks committed together while importing blocks without trace generation, 1 commits each block. Default: ${DEFAULT-VALUE}",
+      arity = "1")
+  private int catchUpBatchSize = DEFAULT_CATCH_UP_BATCH_SIZE;
+
+  @CommandLine.Option(
+      names = {"--enable-deferred-trie-build"},
+      paramLabel = "<BOOL>",
+      description =
+          "Import the blocks without trace generation into the flat leaves only and build the tries once before the first block with a trace. Default: ${DEFAULT-VALUE}",
+      arity = "1")
+  private boolean enableDeferredTrieBuild = false;
+
+  @CommandLine.Option(
+      names = {"--enable-speculative-import"},
+      paramLabel = "<BOOL>",
+      description =
+          "Import the blocks waiting for their confirmations in memory, and persist them once confirmed or drop them on a reorg. Requires --min-confirmations-before-importing. Default: ${DEFAULT-VALUE}",
+      arity = "1")
+  private boolean enableSpeculativeImport = false;
+
   public long getTraceStartBlockNumber() {
     return traceStartBlockNumber;
   }
@@ -99,4 +125,16 @@ public class SyncOption {
   public boolean isTraceGenerationEnabled() {
     return enableTraceGeneration;
   }
+
+  public int getCatchUpBatchSize() {
+    return catchUpBatchSize;
+  }
+
+  public boolean isDeferredTrieBuildEnabled() {
+    return enableDeferredTrieBuild;
+  }
+
+  public boolean isSpeculativeImportEnabled() {
+    return enableSpeculativeImport;
+  }
 }
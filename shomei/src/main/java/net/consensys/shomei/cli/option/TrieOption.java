@@ -0,0 +1,44 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.cli.option;
+
+import net.consensys.shomei.trie.engine.TrieEngineType;
+
+import picocli.CommandLine;
+
+public class TrieOption {
+
+  /**
+   * Create Trie option.
+   *
+   * @return the option
+   */
+  public static TrieOption create() {
+    return new TrieOption();
+  }
+
+  public static final TrieEngineType DEFAULT_TRIE_ENGINE = TrieEngineType.STORED_NODE;
+
+  @CommandLine.Option(
+      names = {"--trie-engine"},
+      paramLabel = "<ENGINE>",
+      description =
+          "The sparse merkle trie implementation to use (STORED_NODE, FIXED_DEPTH) (default: ${DEFAULT-VALUE})",
+      arity = "1")
+  private TrieEngineType trieEngine = DEFAULT_TRIE_ENGINE;
+
+  public TrieEngineType getTrieEngine() {
+    return trieEngine;
+  }
+}
@@ -26,13 +26,17 @@ import net.consensys.shomei.storage.ZkWorldStateArchive;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.annotations.VisibleForTesting;
 import io.vertx.core.AbstractVerticle;
+import org.hyperledger.besu.datatypes.Hash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,10 +57,19 @@ public class FullSyncDownloader extends AbstractVerticle implements TrieLogObser
 
   private final GetRawTrieLogClient getRawTrieLog;
 
+  private final TrieLogRangeFetcher trieLogRangeFetcher;
+
   private final FullSyncRules fullSyncRules;
 
   private CompletableFuture<Void> completableFuture;
   private Optional<Long> estimateBesuHeadBlockNumber = Optional.empty();
+  // the hashes of the blocks received from Besu, to detect the reorg of the speculative blocks
+  private final ConcurrentSkipListMap<Long, Hash> receivedBlockHashes =
+      new ConcurrentSkipListMap<>();
+  // the trie logs fetched for the speculative import, imported by the importing thread
+  private final ConcurrentSkipListMap<Long, TrieLogIdentifier> speculativeTrieLogs =
+      new ConcurrentSkipListMap<>();
+  private final AtomicBoolean speculativeFetchInFlight = new AtomicBoolean();
 
   public FullSyncDownloader(
       final ZkWorldStateArchive zkWorldStateArchive,
@@ -65,6 +78,7 @@ public class FullSyncDownloader extends AbstractVerticle implements TrieLogObser
     this.zkWorldStateArchive = zkWorldStateArchive;
     this.getRawTrieLog = getRawTrieLog;
     this.fullSyncRules = fullSyncRules;
+    this.trieLogRangeFetcher = createTrieLogRangeFetcher();
     this.blockQueue = createQueue();
   }
 
@@ -78,6 +92,19 @@ public class FullSyncDownloader extends AbstractVerticle implements TrieLogObser
     this.zkWorldStateArchive = zkWorldStateArchive;
     this.getRawTrieLog = getRawTrieLog;
     this.fullSyncRules = fullSyncRules;
+    this.trieLogRangeFetcher = createTrieLogRangeFetcher();
+  }
+
+  private TrieLogRangeFetcher createTrieLogRangeFetcher() {
+    return new TrieLogRangeFetcher(
+        getRawTrieLog,
+        INITIAL_SYNC_BLOCK_NUMBER_RANGE,
+        zkWorldStateArchive::getCurrentBlockNumber,
+        this::getEstimateBesuHeadBlockNumber,
+        trieLogIds -> {
+          addTrieLogs(trieLogIds);
+          onNewBesuHeadReceived(trieLogIds);
+        });
   }
 
   private TrieLogBlockingQueue createQueue() {
@@ -95,11 +122,86 @@ public class FullSyncDownloader extends AbstractVerticle implements TrieLogObser
               fullSyncRules::getFinalizedBlockNumberLimit,
               zkWorldStateArchive::getCurrentBlockNumber));
     }
+    // room for the ranges fetched ahead of the head and the trie logs shipped by Besu
     return new TrieLogBlockingQueue(
-        INITIAL_SYNC_BLOCK_NUMBER_RANGE * 2,
+        INITIAL_SYNC_BLOCK_NUMBER_RANGE * (TrieLogRangeFetcher.MAX_RANGES_IN_FLIGHT + 1),
         blockImportValidators,
         zkWorldStateArchive::getCurrentBlockNumber,
-        this::findMissingTrieLogFromBesu);
+        this::findMissingTrieLogFromBesu,
+        this::onImportDeferred);
+  }
+
+  @VisibleForTesting
+  void onImportDeferred() {
+    if (isSpeculativeImportAllowed()) {
+      importSpeculatively();
+    }
+  }
+
+  /**
+   * Imports in memory the blocks waiting for their confirmations, up to the estimated head of Besu.
+   * The speculative blocks whose hash changed since their import are dropped first, they are
+   * imported again from the new trie logs.
+   *
+   * <p>The missing trie logs are requested without waiting for them: once received, the importing
+   * thread is woken up and imports them on its next call.
+   */
+  private void importSpeculatively() {
+    for (Map.Entry<Long, Hash> received : receivedBlockHashes.entrySet()) {
+      final TrieLogIdentifier receivedTrieLogId =
+          new TrieLogIdentifier(received.getKey(), received.getValue());
+      zkWorldStateArchive.discardReorgedSpeculativeBlocks(receivedTrieLogId);
+      final TrieLogIdentifier pending = speculativeTrieLogs.get(received.getKey());
+      if (pending != null && !pending.blockHash().equals(received.getValue())) {
+        // fetched before the reorg, the descendants are not on the chain of Besu either
+        speculativeTrieLogs.tailMap(received.getKey(), true).clear();
+      }
+    }
+    long nextBlockNumber =
+        zkWorldStateArchive
+                .getSpeculativeHead()
+                .map(TrieLogIdentifier::blockNumber)
+                .orElse(zkWorldStateArchive.getCurrentBlockNumber())
+            + 1;
+    speculativeTrieLogs.headMap(nextBlockNumber).clear();
+    TrieLogIdentifier fetched;
+    while ((fetched = speculativeTrieLogs.remove(nextBlockNumber)) != null) {
+      final TrieLogIdentifier trieLogId = fetched;
+      try {
+        zkWorldStateArchive.importSpeculativeBlock(
+            trieLogId, isTraceGenerationAllowed(trieLogId.blockNumber()));
+      } catch (Exception e) {
+        LOG.atWarn()
+            .setMessage("Exception during speculative import of block {} : {}")
+            .addArgument(trieLogId::toLogString)
+            .addArgument(e.getMessage())
+            .log();
+        speculativeTrieLogs.clear();
+        return;
+      }
+      nextBlockNumber++;
+    }
+    final long endBlockNumber = estimateBesuHeadBlockNumber.orElse(-1L);
+    if (nextBlockNumber > endBlockNumber || !speculativeFetchInFlight.compareAndSet(false, true)) {
+      return;
+    }
+    final long startBlockNumber = nextBlockNumber;
+    getRawTrieLog
+        .getTrieLog(startBlockNumber, endBlockNumber)
+        .whenComplete(
+            (trieLogIds, error) -> {
+              speculativeFetchInFlight.set(false);
+              if (error != null) {
+                LOG.atWarn()
+                    .setMessage("Exception during speculative fetch from block {} : {}")
+                    .addArgument(startBlockNumber)
+                    .addArgument(error.getMessage())
+                    .log();
+                return;
+              }
+              trieLogIds.forEach(id -> speculativeTrieLogs.put(id.blockNumber(), id));
+              blockQueue.onImportConditionChanged();
+            });
   }
 
   @Override
@@ -112,9 +214,23 @@ public class FullSyncDownloader extends AbstractVerticle implements TrieLogObser
     LOG.atInfo().setMessage("Fullsync downloader service started").log();
     completableFuture = new CompletableFuture<>();
     while (!completableFuture.isDone()) {
+      if (!isNextBlockQueued()) {
+        // persist the blocks imported in batch before waiting for the next ones
+        flushBatch();
+        if (isNearBesuHead()) {
+          // the tries of the blocks imported into the flat leaves are not built during catch-up
+          buildTries();
+        }
+      }
       final TrieLogIdentifier trieLogId = blockQueue.waitForNewElement();
       if (trieLogId != null) {
+        final long start = System.nanoTime();
         importBlock(trieLogId);
+        trieLogRangeFetcher.onBlockImported(System.nanoTime() - start);
+        if (!isNearBesuHead()) {
+          // keep the next ranges in flight while the blocks already received are imported
+          trieLogRangeFetcher.fetchAhead();
+        }
       }
     }
   }
@@ -125,8 +241,22 @@ public class FullSyncDownloader extends AbstractVerticle implements TrieLogObser
         final boolean isTraceGenerationNeeded = isTraceGenerationAllowed(trieLogId.blockNumber());
         final boolean isSnapshotGenerationNeeded =
             isSnapshotGenerationAllowed(trieLogId.blockNumber());
-        zkWorldStateArchive.importBlock(
-            trieLogId, isTraceGenerationNeeded, isSnapshotGenerationNeeded);
+        if (isSpeculativeImportAllowed()
+            && zkWorldStateArchive.promoteSpeculativeBlock(
+                trieLogId, isTraceGenerationNeeded, isSnapshotGenerationNeeded)) {
+          LOG.atDebug()
+              .setMessage("Promoted speculative block {}")
+              .addArgument(trieLogId::toLogString)
+              .log();
+        } else if (isDeferredTrieBuildAllowed(
+            isTraceGenerationNeeded, isSnapshotGenerationNeeded)) {
+          zkWorldStateArchive.importBlockFlatLeavesOnly(trieLogId);
+        } else if (isBatchImportAllowed(isTraceGenerationNeeded, isSnapshotGenerationNeeded)) {
+          zkWorldStateArchive.importBlockInBatch(trieLogId, fullSyncRules.getCatchUpBatchSize());
+        } else {
+          zkWorldStateArchive.importBlock(
+              trieLogId, isTraceGenerationNeeded, isSnapshotGenerationNeeded);
+        }
         if (trieLogId.blockHash().equals(zkWorldStateArchive.getCurrentBlockHash())) {
           final boolean isFullBlockImportLogAllowed =
               isFullBlockImportLogAllowed(trieLogId.blockNumber());
@@ -160,6 +290,39 @@ public class FullSyncDownloader extends AbstractVerticle implements TrieLogObser
     }
   }
 
+  private boolean isNextBlockQueued() {
+    final TrieLogIdentifier nextTrieLogId = blockQueue.peek();
+    return nextTrieLogId != null
+        && nextTrieLogId.blockNumber() == zkWorldStateArchive.getCurrentBlockNumber() + 1;
+  }
+
+  private void flushBatch() {
+    try {
+      zkWorldStateArchive.flushBatch();
+    } catch (Exception e) {
+      LOG.atError()
+          .setMessage("Exception during commit of the blocks imported in batch : {}")
+          .addArgument(e.getMessage())
+          .log();
+    }
+  }
+
+  private void buildTries() {
+    try {
+      zkWorldStateArchive.buildTries();
+    } catch (Exception e) {
+      LOG.atError()
+          .setMessage("Exception during the build of the tries from the flat leaves : {}")
+          .addArgument(e.getMessage())
+          .log();
+    }
+  }
+
+  private boolean isNearBesuHead() {
+    final long distance = getEstimateDistanceFromTheBesuHead();
+    return distance >= 0 && distance <= INITIAL_SYNC_BLOCK_NUMBER_RANGE;
+  }
+
   @Override
   public void stop() throws Exception {
     LOG.atInfo().setMessage("Fullsync downloader service stopped").log();
@@ -196,6 +359,14 @@ public class FullSyncDownloader extends AbstractVerticle implements TrieLogObser
         .map(TrieLogIdentifier::blockNumber)
         .filter(onNewHead -> onNewHead > estimateBesuHeadBlockNumber.orElse(-1L))
         .ifPresent(aLong -> estimateBesuHeadBlockNumber = Optional.of(aLong));
+    if (isSpeculativeImportAllowed()) {
+      trieLogIds.forEach(
+          trieLogId -> receivedBlockHashes.put(trieLogId.blockNumber(), trieLogId.blockHash()));
+      // only the blocks not imported yet can replace a speculative one
+      receivedBlockHashes.headMap(zkWorldStateArchive.getCurrentBlockNumber(), true).clear();
+    }
+    // the confirmations of the next block may now be enough to import it
+    blockQueue.onImportConditionChanged();
   }
 
   public void addTrieLogs(final List<TrieLogObserver.TrieLogIdentifier> trieLogIds) {
@@ -244,10 +415,35 @@ public class FullSyncDownloader extends AbstractVerticle implements TrieLogObser
     final boolean isBlockLimitConfigured = fullSyncRules.getFinalizedBlockNumberLimit().isPresent();
     final boolean isConfiguredBlockLimitReached =
         isConfiguredBlockLimitReached(blockNumberToImport);
-    return (!isBlockLimitConfigured && isTraceGenerationAllowed(blockNumberToImport))
+    return (!isBlockLimitConfigured
+            && isTraceGenerationAllowed(blockNumberToImport)
+            && blockNumberToImport % fullSyncRules.getSnapshotBlockInterval() == 0)
         || (isBlockLimitConfigured && isConfiguredBlockLimitReached);
   }
 
+  private boolean isSpeculativeImportAllowed() {
+    // the blocks imported with a finalized block limit are never reorged
+    return fullSyncRules.isSpeculativeImportEnabled()
+        && fullSyncRules.getMinConfirmationsBeforeImporting() > 0
+        && !fullSyncRules.isEnableFinalizedBlockLimit();
+  }
+
+  private boolean isBatchImportAllowed(
+      final boolean isTraceGenerationNeeded, final boolean isSnapshotGenerationNeeded) {
+    // blocks with a trace or a snapshot need their own state root, they are never batched
+    return fullSyncRules.getCatchUpBatchSize() > 1
+        && !isTraceGenerationNeeded
+        && !isSnapshotGenerationNeeded;
+  }
+
+  private boolean isDeferredTrieBuildAllowed(
+      final boolean isTraceGenerationNeeded, final boolean isSnapshotGenerationNeeded) {
+    // the tries are built on the import of the first block with a trace or a snapshot
+    return fullSyncRules.isDeferredTrieBuildEnabled()
+        && !isTraceGenerationNeeded
+        && !isSnapshotGenerationNeeded;
+  }
+
   private boolean isFullBlockImportLogAllowed(final long blockNumberToImport) {
     return isTraceGenerationAllowed(blockNumberToImport)
         || isConfiguredBlockLimitReached(blockNumberToImport);
@@ -261,7 +457,8 @@ public class FullSyncDownloader extends AbstractVerticle implements TrieLogObser
    * range.
    *
    * <p>If Besu returns the trie logs, they are immediately imported. Otherwise, the component waits
-   * before retrying to check for the trie log availability.
+   * before retrying to check for the trie log availability. The next ranges are requested at the
+   * same time, see {@link TrieLogRangeFetcher}.
    *
    * <p>For example, suppose we have the trie log for block 6, and our current local head is block
    * 3. We can determine that trie logs 4 and 5 are missing. In this case, we will immediately
@@ -273,19 +470,6 @@ public class FullSyncDownloader extends AbstractVerticle implements TrieLogObser
    * log.
    */
   private CompletableFuture<Boolean> findMissingTrieLogFromBesu(final long missingTrieLogCount) {
-    final long startBlockNumber = zkWorldStateArchive.getCurrentBlockNumber() + 1;
-    final long endBlockNumber = zkWorldStateArchive.getCurrentBlockNumber() + missingTrieLogCount;
-    return getRawTrieLog
-        .getTrieLog(startBlockNumber, endBlockNumber)
-        .whenComplete(
-            (trieLogIdentifiers, throwable) -> {
-              if (throwable == null) {
-                if (!trieLogIdentifiers.isEmpty()) {
-                  addTrieLogs(trieLogIdentifiers);
-                  onNewBesuHeadReceived(trieLogIdentifiers);
-                }
-              }
-            })
-        .thenApply(z -> z.size() > 0);
+    return trieLogRangeFetcher.fetchMissing(missingTrieLogCount);
   }
 }
@@ -17,71 +17,128 @@ import net.consensys.shomei.fullsync.rules.BlockImportValidator;
 import net.consensys.shomei.observer.TrieLogObserver;
 
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
-public class TrieLogBlockingQueue extends PriorityBlockingQueue<TrieLogObserver.TrieLogIdentifier> {
+/**
+ * Schedules the import of the received trie logs, keyed by block number. The importing thread
+ * waits in {@link #waitForNewElement()} until the trie log of the block following the head is
+ * received and all the rules allow its import.
+ *
+ * <p>The waiting thread is woken up as soon as a trie log is received, a fetch of the missing trie
+ * logs succeeds or a rule may have changed (see {@link #onImportConditionChanged()}), instead of
+ * checking again periodically. A wait is still bounded, in case a rule changes without notice.
+ */
+@SuppressWarnings("FutureReturnValueIgnored")
+public class TrieLogBlockingQueue {
 
   public static final long INITIAL_SYNC_BLOCK_NUMBER_RANGE = 64;
 
+  private static final long MAX_WAIT_SECONDS = 5;
+
   private final long maxCapacity;
 
   private final List<BlockImportValidator> importValidators;
   private final Supplier<Long> currentShomeiHeadSupplier;
   private final Function<Long, CompletableFuture<Boolean>> onTrieLogMissing;
-  private final CompletableFuture<Object> completableFuture;
+  private final Runnable onImportDeferred;
+
+  private final ConcurrentSkipListMap<Long, TrieLogObserver.TrieLogIdentifier> trieLogs =
+      new ConcurrentSkipListMap<>();
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  // incremented on each event, so that an event received before the wait is not missed
+  private long eventCount;
+  private boolean stopped;
 
   public TrieLogBlockingQueue(
       final long capacity,
       final List<BlockImportValidator> importValidators,
       final Supplier<Long> currentShomeiHeadSupplier,
       final Function<Long, CompletableFuture<Boolean>> onTrieLogMissing) {
-    super((int) capacity, TrieLogObserver.TrieLogIdentifier::compareTo);
+    this(capacity, importValidators, currentShomeiHeadSupplier, onTrieLogMissing, () -> {});
+  }
+
+  /**
+   * Creates the queue.
+   *
+   * @param capacity the maximum number of queued trie logs
+   * @param importValidators the rules allowing the import of the next block
+   * @param currentShomeiHeadSupplier supplies the number of the head block
+   * @param onTrieLogMissing fetches the given number of missing trie logs, returns a future
+   *     completed with true if trie logs were received
+   * @param onImportDeferred called on the importing thread each time a rule defers the import
+   */
+  public TrieLogBlockingQueue(
+      final long capacity,
+      final List<BlockImportValidator> importValidators,
+      final Supplier<Long> currentShomeiHeadSupplier,
+      final Function<Long, CompletableFuture<Boolean>> onTrieLogMissing,
+      final Runnable onImportDeferred) {
     this.maxCapacity = capacity;
     this.importValidators = importValidators;
     this.currentShomeiHeadSupplier = currentShomeiHeadSupplier;
     this.onTrieLogMissing = onTrieLogMissing;
-    this.completableFuture = new CompletableFuture<>();
+    this.onImportDeferred = onImportDeferred;
   }
 
-  @Override
-  public boolean offer(final TrieLogObserver.TrieLogIdentifier e) {
-    // If the queue is already at capacity, remove the lowest priority element
-    if (size() >= maxCapacity) {
-      TrieLogObserver.TrieLogIdentifier lowestPriorityElement = peek();
-      if (comparator().compare(e, lowestPriorityElement) > 0) {
-        // Remove the lowest priority element and make space for the new element
-        poll();
-      } else {
-        // The new element has lower priority, so it is not added to the queue
-        return false;
-      }
+  /**
+   * Queues the trie log, replacing the one previously received for the same block. If the queue is
+   * full, the trie log of the farthest block is dropped.
+   *
+   * @param trieLogIdentifier the received trie log
+   * @return false if the trie log was dropped
+   */
+  public boolean offer(final TrieLogObserver.TrieLogIdentifier trieLogIdentifier) {
+    trieLogs.put(trieLogIdentifier.blockNumber(), trieLogIdentifier);
+    final boolean queued =
+        trieLogs.size() <= maxCapacity
+            || !trieLogs.pollLastEntry().getKey().equals(trieLogIdentifier.blockNumber());
+    if (queued) {
+      signal();
     }
-    return super.offer(e);
+    return queued;
+  }
+
+  /** Returns the trie log of the lowest queued block, or null if the queue is empty. */
+  public TrieLogObserver.TrieLogIdentifier peek() {
+    final Map.Entry<Long, TrieLogObserver.TrieLogIdentifier> first = trieLogs.firstEntry();
+    return first == null ? null : first.getValue();
+  }
+
+  public int size() {
+    return trieLogs.size();
+  }
+
+  public void clear() {
+    trieLogs.clear();
   }
 
-  private Optional<Long> distance(
-      final TrieLogObserver.TrieLogIdentifier trieLogIdentifier, final Long head) {
-    return isEmpty() ? Optional.empty() : Optional.of(trieLogIdentifier.blockNumber() - head);
+  /** Wakes up the importing thread to check the rules again, for example on a new Besu head. */
+  public void onImportConditionChanged() {
+    signal();
   }
 
+  /**
+   * Waits for the trie log of the block following the head, requesting it if missing.
+   *
+   * @return the trie log of the next block, or null if the queue was stopped
+   */
   public TrieLogObserver.TrieLogIdentifier waitForNewElement() {
-    long distance;
-    CompletableFuture<Boolean> foundBlockFuture;
     try {
-      do {
+      while (!isStopped()) {
+        // read first, the events received during the checks below end the wait immediately
+        final long eventCountBefore = getEventCount();
+        final long head = currentShomeiHeadSupplier.get();
         // remove deprecated trielog (already imported block)
-        iterator()
-            .forEachRemaining(
-                trieLogIdentifier -> {
-                  if (trieLogIdentifier.blockNumber() <= currentShomeiHeadSupplier.get()) {
-                    remove(trieLogIdentifier);
-                  }
-                });
+        trieLogs.headMap(head, true).clear();
 
         if (importValidators.stream()
             .anyMatch(blockImportValidator -> !blockImportValidator.canImportBlock())) {
@@ -89,31 +146,84 @@ public class TrieLogBlockingQueue extends PriorityBlockingQueue<TrieLogObserver.
            * We wait until all the rules allow us to import the block (minimum block confirmations, max limit, or others)
            */
           clear();
-          // just wait a second and check again:
-          foundBlockFuture =
-              CompletableFuture.supplyAsync(
-                  () -> false, CompletableFuture.delayedExecutor(1, TimeUnit.SECONDS));
+          onImportDeferred.run();
         } else {
-          final TrieLogObserver.TrieLogIdentifier trieLogIdentifier = peek();
-          distance =
-              distance(trieLogIdentifier, currentShomeiHeadSupplier.get())
-                  .orElse(INITIAL_SYNC_BLOCK_NUMBER_RANGE);
-          if (distance == 1) {
-            remove(trieLogIdentifier);
+          final TrieLogObserver.TrieLogIdentifier trieLogIdentifier = trieLogs.remove(head + 1);
+          if (trieLogIdentifier != null) {
             return trieLogIdentifier;
-          } else { // missing trielog we need to import them
-            foundBlockFuture = onTrieLogMissing.apply(distance);
           }
+          // missing trielog we need to import them
+          final Long nextQueued = trieLogs.isEmpty() ? null : trieLogs.firstKey();
+          final long distance =
+              nextQueued == null ? INITIAL_SYNC_BLOCK_NUMBER_RANGE : nextQueued - head;
+          onTrieLogMissing
+              .apply(distance)
+              .thenAccept(
+                  found -> {
+                    // nothing to do until Besu sends the next trie log if none was found
+                    if (found) {
+                      signal();
+                    }
+                  });
         }
-      } while (!completableFuture.isDone()
-          && !foundBlockFuture.completeOnTimeout(false, 5, TimeUnit.SECONDS).get());
+        awaitEvent(eventCountBefore);
+      }
+      return null;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
       return null;
-    } catch (Exception ex) {
+    } catch (RuntimeException ex) {
       return null;
     }
   }
 
   public void stop() {
-    completableFuture.complete(null);
+    lock.lock();
+    try {
+      stopped = true;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void signal() {
+    lock.lock();
+    try {
+      eventCount++;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private long getEventCount() {
+    lock.lock();
+    try {
+      return eventCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isStopped() {
+    lock.lock();
+    try {
+      return stopped;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void awaitEvent(final long eventCountBefore) throws InterruptedException {
+    lock.lock();
+    try {
+      long remainingNanos = TimeUnit.SECONDS.toNanos(MAX_WAIT_SECONDS);
+      while (eventCount == eventCountBefore && !stopped && remainingNanos > 0) {
+        remainingNanos = changed.awaitNanos(remainingNanos);
+      }
+    } finally {
+      lock.unlock();
+    }
   }
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.fullsync;
+
+import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+import net.consensys.shomei.rpc.client.GetRawTrieLogClient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the trie logs missing between the head of Shomei and the head of Besu with several range
+ * requests in flight, so that the download of the next blocks overlaps with the import of the
+ * current ones during the catch-up.
+ *
+ * <p>The number of ranges in flight follows the time needed to fetch a range and the time needed
+ * to import one: enough ranges are requested for the next one to be received before the import of
+ * the previous ones ends. The ranges complete in any order, their trie logs are saved by the client
+ * and their identifiers handed over to the import queue, which sorts them. A failed range is
+ * requested again a few times, then queued to be requested again by the next call, before the
+ * blocks never requested. The same goes for the blocks of a range that Besu does not have yet.
+ *
+ * <p>No block beyond {@link #MAX_RANGES_IN_FLIGHT} ranges ahead of the head is requested, which
+ * bounds the trie logs waiting for their import.
+ */
+@SuppressWarnings("FutureReturnValueIgnored")
+public class TrieLogRangeFetcher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TrieLogRangeFetcher.class);
+
+  // below the five connections per host of the client pool
+  static final int MAX_RANGES_IN_FLIGHT = 4;
+  static final int MAX_ATTEMPTS = 3;
+  private static final long RETRY_DELAY_MILLIS = 1000;
+  // the number of ranges in flight until the durations are measured
+  private static final int INITIAL_RANGES_IN_FLIGHT = 2;
+  // weight of the last measure in the smoothed durations
+  private static final double SMOOTHING = 0.2;
+
+  private final GetRawTrieLogClient getRawTrieLog;
+  private final long rangeSize;
+  private final Supplier<Long> currentShomeiHeadSupplier;
+  private final Supplier<Optional<Long>> estimateBesuHeadSupplier;
+  private final Consumer<List<TrieLogIdentifier>> onTrieLogsReceived;
+  private final Executor retryExecutor;
+
+  // the ranges in flight, by first block number
+  private final NavigableMap<Long, Range> rangesInFlight = new TreeMap<>();
+  // the last block numbers of the ranges to request again, by first block number
+  private final NavigableMap<Long, Long> rangesToRequestAgain = new TreeMap<>();
+  // the last block number requested, in flight, received or to request again
+  private long lastRequestedBlockNumber = -1;
+  // smoothed durations, negative until measured
+  private double fetchMillisPerRange = -1;
+  private double importMillisPerBlock = -1;
+
+  public TrieLogRangeFetcher(
+      final GetRawTrieLogClient getRawTrieLog,
+      final long rangeSize,
+      final Supplier<Long> currentShomeiHeadSupplier,
+      final Supplier<Optional<Long>> estimateBesuHeadSupplier,
+      final Consumer<List<TrieLogIdentifier>> onTrieLogsReceived) {
+    this(
+        getRawTrieLog,
+        rangeSize,
+        currentShomeiHeadSupplier,
+        estimateBesuHeadSupplier,
+        onTrieLogsReceived,
+        CompletableFuture.delayedExecutor(RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS));
+  }
+
+  @VisibleForTesting
+  TrieLogRangeFetcher(
+      final GetRawTrieLogClient getRawTrieLog,
+      final long rangeSize,
+      final Supplier<Long> currentShomeiHeadSupplier,
+      final Supplier<Optional<Long>> estimateBesuHeadSupplier,
+      final Consumer<List<TrieLogIdentifier>> onTrieLogsReceived,
+      final Executor retryExecutor) {
+    this.getRawTrieLog = getRawTrieLog;
+    this.rangeSize = rangeSize;
+    this.currentShomeiHeadSupplier = currentShomeiHeadSupplier;
+    this.estimateBesuHeadSupplier = estimateBesuHeadSupplier;
+    this.onTrieLogsReceived = onTrieLogsReceived;
+    this.retryExecutor = retryExecutor;
+  }
+
+  /**
+   * Requests the missing trie logs following the head, and the next ranges if the window allows
+   * it.
+   *
+   * @param missingTrieLogCount the number of blocks to fetch at least after the head
+   * @return a future completed once the range of the block following the head is received, with
+   *     true if it contained trie logs
+   */
+  public synchronized CompletableFuture<Boolean> fetchMissing(final long missingTrieLogCount) {
+    final long head = currentShomeiHeadSupplier.get();
+    if (head < lastRequestedBlockNumber && findRangeInFlight(head + 1).isEmpty()) {
+      // the trie logs received for the next block were dropped from the queue, fetch them again
+      requestAgain(head + 1, Math.min(head + rangeSize, lastRequestedBlockNumber));
+    }
+    requestRanges(head, head + missingTrieLogCount);
+    return findRangeInFlight(head + 1)
+        .map(range -> range.future.thenApply(trieLogIds -> !trieLogIds.isEmpty()))
+        .orElseGet(() -> CompletableFuture.completedFuture(false));
+  }
+
+  /** Requests the next ranges up to the estimated head of Besu, if the window allows it. */
+  public synchronized void fetchAhead() {
+    final long head = currentShomeiHeadSupplier.get();
+    requestRanges(head, head);
+  }
+
+  /**
+   * Records the time taken by the import of a block, used to size the window.
+   *
+   * @param importNanos the import duration of the block
+   */
+  public synchronized void onBlockImported(final long importNanos) {
+    importMillisPerBlock = smooth(importMillisPerBlock, importNanos / 1e6);
+  }
+
+  /** Returns the number of ranges to keep in flight. */
+  synchronized int getWindow() {
+    if (fetchMillisPerRange < 0 || importMillisPerBlock < 0) {
+      return INITIAL_RANGES_IN_FLIGHT;
+    }
+    // the ranges received while one is imported, and the one being imported
+    final double importMillisPerRange = Math.max(importMillisPerBlock * rangeSize, 1);
+    return (int)
+        Math.min(MAX_RANGES_IN_FLIGHT, 1 + Math.ceil(fetchMillisPerRange / importMillisPerRange));
+  }
+
+  private void requestRanges(final long head, final long minLastBlockNumber) {
+    final int window = getWindow();
+    final long lastBlockNumber =
+        Math.min(
+            Math.max(estimateBesuHeadSupplier.get().orElse(head), minLastBlockNumber),
+            head + window * rangeSize);
+    // the blocks to request again first, except the ones already imported
+    discardRangesToRequestAgain(head);
+    while (!rangesToRequestAgain.isEmpty()
+        && rangesToRequestAgain.firstKey() <= lastBlockNumber
+        && rangesInFlight.size() < window) {
+      final Map.Entry<Long, Long> next = rangesToRequestAgain.pollFirstEntry();
+      final long end =
+          Math.min(Math.min(next.getKey() + rangeSize - 1, next.getValue()), lastBlockNumber);
+      if (end < next.getValue()) {
+        rangesToRequestAgain.put(end + 1, next.getValue());
+      }
+      request(new Range(next.getKey(), end));
+    }
+    long start = Math.max(lastRequestedBlockNumber, head) + 1;
+    while (start <= lastBlockNumber && rangesInFlight.size() < window) {
+      final Range range = new Range(start, Math.min(start + rangeSize - 1, lastBlockNumber));
+      lastRequestedBlockNumber = range.end;
+      request(range);
+      start = range.end + 1;
+    }
+  }
+
+  private void request(final Range range) {
+    rangesInFlight.put(range.start, range);
+    send(range, 1);
+  }
+
+  /**
+   * Queues blocks below the last requested one to be requested again, up to the next range in
+   * flight.
+   */
+  private void requestAgain(final long start, final long end) {
+    long first = start;
+    long last = end;
+    final Long nextInFlight = rangesInFlight.higherKey(start);
+    if (nextInFlight != null) {
+      last = Math.min(last, nextInFlight - 1);
+    }
+    // merged with the overlapping and adjacent queued ranges, split again once requested
+    final Map.Entry<Long, Long> previous = rangesToRequestAgain.lowerEntry(first);
+    if (previous != null && previous.getValue() >= first - 1) {
+      rangesToRequestAgain.remove(previous.getKey());
+      first = previous.getKey();
+      last = Math.max(last, previous.getValue());
+    }
+    Map.Entry<Long, Long> next = rangesToRequestAgain.ceilingEntry(first);
+    while (next != null && next.getKey() <= last + 1) {
+      rangesToRequestAgain.remove(next.getKey());
+      last = Math.max(last, next.getValue());
+      next = rangesToRequestAgain.ceilingEntry(first);
+    }
+    rangesToRequestAgain.put(first, last);
+  }
+
+  private void discardRangesToRequestAgain(final long head) {
+    while (!rangesToRequestAgain.isEmpty() && rangesToRequestAgain.firstKey() <= head) {
+      final Map.Entry<Long, Long> imported = rangesToRequestAgain.pollFirstEntry();
+      if (imported.getValue() > head) {
+        rangesToRequestAgain.put(head + 1, imported.getValue());
+      }
+    }
+  }
+
+  private Optional<Range> findRangeInFlight(final long blockNumber) {
+    return Optional.ofNullable(rangesInFlight.floorEntry(blockNumber))
+        .map(Map.Entry::getValue)
+        .filter(range -> range.end >= blockNumber);
+  }
+
+  private void send(final Range range, final int attempt) {
+    LOG.atDebug()
+        .setMessage("Fetching trie logs {} to {}, attempt {}")
+        .addArgument(range.start)
+        .addArgument(range.end)
+        .addArgument(attempt)
+        .log();
+    final long start = System.nanoTime();
+    getRawTrieLog
+        .getTrieLog(range.start, range.end)
+        .whenComplete(
+            (trieLogIds, throwable) -> {
+              if (throwable == null) {
+                onRangeReceived(range, trieLogIds, System.nanoTime() - start);
+              } else if (attempt < MAX_ATTEMPTS) {
+                retryExecutor.execute(() -> send(range, attempt + 1));
+              } else {
+                onRangeFailed(range, throwable);
+              }
+            });
+  }
+
+  private void onRangeReceived(
+      final Range range, final List<TrieLogIdentifier> trieLogIds, final long fetchNanos) {
+    synchronized (this) {
+      fetchMillisPerRange = smooth(fetchMillisPerRange, fetchNanos / 1e6);
+      rangesInFlight.remove(range.start, range);
+      final long lastReceivedBlockNumber =
+          trieLogIds.stream()
+              .mapToLong(TrieLogIdentifier::blockNumber)
+              .max()
+              .orElse(range.start - 1);
+      if (lastReceivedBlockNumber < range.end) {
+        // Besu does not have the next blocks yet, they are requested again by the next calls
+        requestAgain(lastReceivedBlockNumber + 1, range.end);
+      }
+    }
+    try {
+      // queued before the completion, the importing thread looks for them once woken up
+      if (!trieLogIds.isEmpty()) {
+        onTrieLogsReceived.accept(trieLogIds);
+      }
+    } finally {
+      range.future.complete(trieLogIds);
+    }
+  }
+
+  private void onRangeFailed(final Range range, final Throwable throwable) {
+    LOG.atDebug()
+        .setMessage("Failed to fetch trie logs {} to {} : {}")
+        .addArgument(range.start)
+        .addArgument(range.end)
+        .addArgument(throwable.getMessage())
+        .log();
+    synchronized (this) {
+      rangesInFlight.remove(range.start, range);
+      // the ranges requested after this one stay in flight
+      requestAgain(range.start, range.end);
+    }
+    range.future.complete(List.of());
+  }
+
+  private static double smooth(final double smoothed, final double measure) {
+    return smoothed < 0 ? measure : smoothed + SMOOTHING * (measure - smoothed);
+  }
+
+  private static final class Range {
+    private final long start;
+    private final long end;
+    private final CompletableFuture<List<TrieLogIdentifier>> future = new CompletableFuture<>();
+
+    private Range(final long start, final long end) {
+      this.start = start;
+      this.end = end;
+    }
+  }
+}
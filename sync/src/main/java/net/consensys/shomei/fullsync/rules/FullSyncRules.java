@@ -25,6 +25,10 @@ public class FullSyncRules {
   private final boolean enableFinalizedBlockLimit;
   private Optional<Long> finalizedBlockNumberLimit;
   private Optional<Hash> finalizedBlockHashLimit;
+  private final int catchUpBatchSize;
+  private final boolean deferredTrieBuildEnabled;
+  private final long snapshotBlockInterval;
+  private final boolean speculativeImportEnabled;
 
   public FullSyncRules(
       final boolean isTraceGenerationEnabled,
@@ -32,13 +36,21 @@ public class FullSyncRules {
       final long minConfirmationsBeforeImporting,
       final boolean enableFinalizedBlockLimit,
       final Optional<Long> finalizedBlockNumberLimit,
-      final Optional<Hash> finalizedBlockHashLimit) {
+      final Optional<Hash> finalizedBlockHashLimit,
+      final int catchUpBatchSize,
+      final boolean deferredTrieBuildEnabled,
+      final long snapshotBlockInterval,
+      final boolean speculativeImportEnabled) {
     this.isTraceGenerationEnabled = isTraceGenerationEnabled;
     this.traceStartBlockNumber = traceStartBlockNumber;
     this.minConfirmationsBeforeImporting = minConfirmationsBeforeImporting;
     this.enableFinalizedBlockLimit = enableFinalizedBlockLimit;
     this.finalizedBlockNumberLimit = finalizedBlockNumberLimit;
     this.finalizedBlockHashLimit = finalizedBlockHashLimit;
+    this.catchUpBatchSize = catchUpBatchSize;
+    this.deferredTrieBuildEnabled = deferredTrieBuildEnabled;
+    this.snapshotBlockInterval = snapshotBlockInterval;
+    this.speculativeImportEnabled = speculativeImportEnabled;
   }
 
   public FullSyncRules(
@@ -51,6 +63,10 @@ public class FullSyncRules {
     this.enableFinalizedBlockLimit = false;
     this.finalizedBlockNumberLimit = Optional.empty();
     this.finalizedBlockHashLimit = Optional.empty();
+    this.catchUpBatchSize = 1;
+    this.deferredTrieBuildEnabled = false;
+    this.snapshotBlockInterval = 1;
+    this.speculativeImportEnabled = false;
   }
 
   public boolean isTraceGenerationEnabled() {
@@ -77,6 +93,35 @@ public class FullSyncRules {
     return finalizedBlockHashLimit;
   }
 
+  /** Maximum number of blocks committed together while no trace is generated, 1 to disable. */
+  public int getCatchUpBatchSize() {
+    return catchUpBatchSize;
+  }
+
+  /**
+   * Whether the blocks imported without trace are applied to the flat leaves only, the tries being
+   * built once before the first block that needs them.
+   */
+  public boolean isDeferredTrieBuildEnabled() {
+    return deferredTrieBuildEnabled;
+  }
+
+  /**
+   * Number of blocks between two blocks with a trace whose world state is cached, 1 to cache all
+   * of them. The finalized block limit is always cached.
+   */
+  public long getSnapshotBlockInterval() {
+    return snapshotBlockInterval;
+  }
+
+  /**
+   * Whether the blocks waiting for their confirmations are imported in memory, to be persisted once
+   * confirmed.
+   */
+  public boolean isSpeculativeImportEnabled() {
+    return speculativeImportEnabled;
+  }
+
   public void setTraceStartBlockNumber(final long traceStartBlockNumber) {
     this.traceStartBlockNumber = traceStartBlockNumber;
   }
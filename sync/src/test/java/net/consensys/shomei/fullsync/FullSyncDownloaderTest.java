@@ -19,6 +19,8 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import net.consensys.shomei.fullsync.rules.FullSyncRules;
 import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
@@ -27,12 +29,15 @@ import net.consensys.shomei.storage.ZkWorldStateArchive;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.hyperledger.besu.datatypes.Hash;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
@@ -111,6 +116,24 @@ public class FullSyncDownloaderTest {
         .importBlock(Mockito.any(TrieLogIdentifier.class), eq(false), eq(false));
   }
 
+  @Test
+  public void testNotTriggerSnapshotGenerationOutsideSnapshotBlockInterval() throws Exception {
+    fullSyncDownloader =
+        new FullSyncDownloader(
+            blockingQueue,
+            zkWorldStateArchive,
+            Mockito.mock(GetRawTrieLogClient.class),
+            new FullSyncRules(
+                true, 1, 0, false, Optional.empty(), Optional.empty(), 1, false, 2, false));
+    List<TrieLogIdentifier> trieLogIdentifiers =
+        List.of(new TrieLogIdentifier(1L, Hash.EMPTY, true));
+    fullSyncDownloader.addTrieLogs(trieLogIdentifiers);
+    fullSyncDownloader.onNewBesuHeadReceived(trieLogIdentifiers);
+    fullSyncDownloader.startFullSync();
+    Mockito.verify(zkWorldStateArchive, times(1))
+        .importBlock(Mockito.any(TrieLogIdentifier.class), eq(true), eq(false));
+  }
+
   @Test
   public void testTriggerImportWhenTrieLogAvailableFromTrieLogShipping() throws Exception {
     List<TrieLogIdentifier> trieLogIdentifiers =
@@ -181,4 +204,98 @@ public class FullSyncDownloaderTest {
     fullSyncDownloader.onNewBesuHeadReceived(List.of(new TrieLogIdentifier(1L, Hash.EMPTY, true)));
     assertThat(fullSyncDownloader.getEstimateBesuHeadBlockNumber()).contains(1L);
   }
+
+  @Test
+  public void deferredImportFetchesThenImportsTheBlocksSpeculatively() throws Exception {
+    final GetRawTrieLogClient getRawTrieLog = Mockito.mock(GetRawTrieLogClient.class);
+    fullSyncDownloader = createSpeculativeDownloader(getRawTrieLog);
+    final List<TrieLogIdentifier> trieLogIds =
+        List.of(trieLogId(1L, 1), trieLogId(2L, 2), trieLogId(3L, 3));
+    when(getRawTrieLog.getTrieLog(1L, 3L))
+        .thenReturn(CompletableFuture.completedFuture(trieLogIds));
+    fullSyncDownloader.onNewBesuHeadReceived(List.of(trieLogId(3L, 3)));
+
+    // the importing thread does not wait for the trie logs, it is woken up once they are received
+    fullSyncDownloader.onImportDeferred();
+    verify(zkWorldStateArchive, never())
+        .importSpeculativeBlock(Mockito.any(TrieLogIdentifier.class), Mockito.anyBoolean());
+    verify(blockingQueue, times(2)).onImportConditionChanged();
+
+    fullSyncDownloader.onImportDeferred();
+    final InOrder inOrder = Mockito.inOrder(zkWorldStateArchive);
+    for (TrieLogIdentifier trieLogId : trieLogIds) {
+      inOrder.verify(zkWorldStateArchive).importSpeculativeBlock(trieLogId, false);
+    }
+    // up to the head of Besu, nothing left to fetch
+    verify(getRawTrieLog, times(1)).getTrieLog(Mockito.anyLong(), Mockito.anyLong());
+  }
+
+  @Test
+  public void failedSpeculativeFetchIsRequestedAgain() throws Exception {
+    final GetRawTrieLogClient getRawTrieLog = Mockito.mock(GetRawTrieLogClient.class);
+    fullSyncDownloader = createSpeculativeDownloader(getRawTrieLog);
+    when(getRawTrieLog.getTrieLog(1L, 1L))
+        .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("timeout")))
+        .thenReturn(CompletableFuture.completedFuture(List.of(trieLogId(1L, 1))));
+    fullSyncDownloader.onNewBesuHeadReceived(List.of(trieLogId(1L, 1)));
+
+    fullSyncDownloader.onImportDeferred();
+    fullSyncDownloader.onImportDeferred();
+    fullSyncDownloader.onImportDeferred();
+    verify(zkWorldStateArchive).importSpeculativeBlock(trieLogId(1L, 1), false);
+    verify(getRawTrieLog, times(2)).getTrieLog(1L, 1L);
+  }
+
+  @Test
+  public void reorgedSpeculativeBlocksAreDiscardedAndFetchedAgain() throws Exception {
+    final GetRawTrieLogClient getRawTrieLog = Mockito.mock(GetRawTrieLogClient.class);
+    fullSyncDownloader = createSpeculativeDownloader(getRawTrieLog);
+    final TrieLogIdentifier reorgedTrieLogId = trieLogId(2L, 2);
+    final TrieLogIdentifier newTrieLogId = trieLogId(2L, 22);
+    when(getRawTrieLog.getTrieLog(1L, 2L))
+        .thenReturn(
+            CompletableFuture.completedFuture(List.of(trieLogId(1L, 1), reorgedTrieLogId)));
+    when(getRawTrieLog.getTrieLog(2L, 2L))
+        .thenReturn(CompletableFuture.completedFuture(List.of(newTrieLogId)));
+    fullSyncDownloader.onNewBesuHeadReceived(List.of(reorgedTrieLogId));
+    fullSyncDownloader.onImportDeferred();
+
+    // block 2 is replaced after its trie log was fetched, before its import
+    fullSyncDownloader.onNewBesuHeadReceived(List.of(newTrieLogId));
+    fullSyncDownloader.onImportDeferred();
+    verify(zkWorldStateArchive).discardReorgedSpeculativeBlocks(newTrieLogId);
+    verify(zkWorldStateArchive).importSpeculativeBlock(trieLogId(1L, 1), false);
+    verify(zkWorldStateArchive, never()).importSpeculativeBlock(reorgedTrieLogId, false);
+
+    fullSyncDownloader.onImportDeferred();
+    verify(zkWorldStateArchive).importSpeculativeBlock(newTrieLogId, false);
+  }
+
+  private FullSyncDownloader createSpeculativeDownloader(final GetRawTrieLogClient getRawTrieLog)
+      throws Exception {
+    when(zkWorldStateArchive.getCurrentBlockNumber()).thenReturn(0L);
+    // the speculative head follows the imports
+    final AtomicReference<TrieLogIdentifier> speculativeHead = new AtomicReference<>();
+    when(zkWorldStateArchive.getSpeculativeHead())
+        .thenAnswer(invocation -> Optional.ofNullable(speculativeHead.get()));
+    Mockito.lenient()
+        .doAnswer(
+            invocation -> {
+              speculativeHead.set(invocation.getArgument(0));
+              return null;
+            })
+        .when(zkWorldStateArchive)
+        .importSpeculativeBlock(Mockito.any(TrieLogIdentifier.class), Mockito.anyBoolean());
+    return new FullSyncDownloader(
+        blockingQueue,
+        zkWorldStateArchive,
+        getRawTrieLog,
+        new FullSyncRules(
+            false, 0, 2, false, Optional.empty(), Optional.empty(), 1, false, 1, true));
+  }
+
+  private static TrieLogIdentifier trieLogId(final long blockNumber, final int hashSeed) {
+    return new TrieLogIdentifier(
+        blockNumber, Hash.fromHexStringLenient(Integer.toHexString(hashSeed)));
+  }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.fullsync;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hyperledger.besu.datatypes.Hash;
+import org.junit.Test;
+
+public class TrieLogBlockingQueueTest {
+
+  private static TrieLogIdentifier trieLogId(final long blockNumber) {
+    return new TrieLogIdentifier(blockNumber, Hash.EMPTY);
+  }
+
+  @Test
+  public void wakesUpOnNextBlockReceived() throws Exception {
+    final TrieLogBlockingQueue queue =
+        new TrieLogBlockingQueue(
+            10, List.of(), () -> 0L, aLong -> CompletableFuture.completedFuture(false));
+    final CompletableFuture<TrieLogIdentifier> next =
+        CompletableFuture.supplyAsync(queue::waitForNewElement);
+    queue.offer(trieLogId(1));
+    // well before the end of the bounded wait
+    assertThat(next.get(1, TimeUnit.SECONDS)).isEqualTo(trieLogId(1));
+  }
+
+  @Test
+  public void wakesUpOnImportConditionChanged() throws Exception {
+    final AtomicBoolean canImport = new AtomicBoolean(false);
+    final CompletableFuture<Long> missingTrieLogCount = new CompletableFuture<>();
+    final TrieLogBlockingQueue queue =
+        new TrieLogBlockingQueue(
+            10,
+            List.of(canImport::get),
+            () -> 0L,
+            aLong -> {
+              missingTrieLogCount.complete(aLong);
+              return CompletableFuture.completedFuture(false);
+            });
+    final CompletableFuture<TrieLogIdentifier> next =
+        CompletableFuture.supplyAsync(queue::waitForNewElement);
+    canImport.set(true);
+    queue.onImportConditionChanged();
+    // the next block is requested once the rules allow its import
+    assertThat(missingTrieLogCount.get(1, TimeUnit.SECONDS))
+        .isEqualTo(TrieLogBlockingQueue.INITIAL_SYNC_BLOCK_NUMBER_RANGE);
+    queue.stop();
+    assertThat(next.get(1, TimeUnit.SECONDS)).isNull();
+  }
+
+  @Test
+  public void dropsFarthestBlockWhenFull() {
+    final TrieLogBlockingQueue queue =
+        new TrieLogBlockingQueue(
+            2, List.of(), () -> 0L, aLong -> CompletableFuture.completedFuture(false));
+    assertThat(queue.offer(trieLogId(3))).isTrue();
+    assertThat(queue.offer(trieLogId(2))).isTrue();
+    assertThat(queue.offer(trieLogId(4))).isFalse();
+    assertThat(queue.offer(trieLogId(1))).isTrue();
+    assertThat(queue.size()).isEqualTo(2);
+    assertThat(queue.peek()).isEqualTo(trieLogId(1));
+  }
+}
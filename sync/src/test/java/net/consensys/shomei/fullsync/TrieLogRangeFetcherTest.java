@@ -0,0 +1,137 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.fullsync;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import net.consensys.shomei.observer.TrieLogObserver.TrieLogIdentifier;
+import net.consensys.shomei.rpc.client.GetRawTrieLogClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.LongStream;
+
+import org.hyperledger.besu.datatypes.Hash;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TrieLogRangeFetcherTest {
+
+  private static final long RANGE_SIZE = 10;
+
+  @Mock GetRawTrieLogClient getRawTrieLog;
+
+  // the pending requests, by first block number
+  private final Map<Long, CompletableFuture<List<TrieLogIdentifier>>> requests = new TreeMap<>();
+  private final List<TrieLogIdentifier> received = new ArrayList<>();
+  private long head = 0;
+  private TrieLogRangeFetcher fetcher;
+
+  @Before
+  public void setup() {
+    when(getRawTrieLog.getTrieLog(anyLong(), anyLong()))
+        .thenAnswer(
+            invocation -> {
+              final CompletableFuture<List<TrieLogIdentifier>> request = new CompletableFuture<>();
+              requests.put(invocation.getArgument(0), request);
+              return request;
+            });
+    fetcher =
+        new TrieLogRangeFetcher(
+            getRawTrieLog,
+            RANGE_SIZE,
+            () -> head,
+            () -> Optional.of(100L),
+            received::addAll,
+            // the failed requests are retried at once
+            Runnable::run);
+  }
+
+  private static List<TrieLogIdentifier> trieLogIds(final long start, final long end) {
+    return LongStream.rangeClosed(start, end)
+        .mapToObj(blockNumber -> new TrieLogIdentifier(blockNumber, Hash.EMPTY))
+        .toList();
+  }
+
+  @Test
+  public void fetchesSeveralRangesCompletingOutOfOrder() {
+    final CompletableFuture<Boolean> nextBlockFound = fetcher.fetchMissing(RANGE_SIZE);
+    assertThat(requests).containsOnlyKeys(1L, 11L);
+
+    requests.get(11L).complete(trieLogIds(11, 20));
+    assertThat(received).isEqualTo(trieLogIds(11, 20));
+    assertThat(nextBlockFound).isNotDone();
+
+    requests.get(1L).complete(trieLogIds(1, 10));
+    assertThat(nextBlockFound).isCompletedWithValue(true);
+    assertThat(received).hasSize(20);
+
+    // the window is refilled from the last requested block
+    head = 20;
+    fetcher.fetchAhead();
+    assertThat(requests).containsOnlyKeys(1L, 11L, 21L, 31L);
+  }
+
+  @Test
+  public void requestsAgainTheBlocksNotReceived() {
+    fetcher.fetchMissing(RANGE_SIZE);
+    requests.get(1L).complete(trieLogIds(1, 5));
+    requests.get(11L).complete(List.of());
+    requests.clear();
+
+    head = 5;
+    fetcher.fetchAhead();
+    assertThat(requests).containsOnlyKeys(6L, 16L);
+  }
+
+  @Test
+  public void requestsAgainOnlyTheFailedRangeWhileTheNextIsInFlight() {
+    final CompletableFuture<Boolean> nextBlockFound = fetcher.fetchMissing(RANGE_SIZE);
+    final CompletableFuture<List<TrieLogIdentifier>> nextRange = requests.get(11L);
+    for (int attempt = 0; attempt < TrieLogRangeFetcher.MAX_ATTEMPTS; attempt++) {
+      requests.remove(1L).completeExceptionally(new RuntimeException("timeout"));
+    }
+    assertThat(nextBlockFound).isCompletedWithValue(false);
+    assertThat(requests).containsOnlyKeys(11L);
+
+    // the failed range is requested again, the one in flight is not replaced
+    fetcher.fetchMissing(RANGE_SIZE);
+    assertThat(requests).containsOnlyKeys(1L, 11L);
+    assertThat(requests.get(11L)).isSameAs(nextRange);
+    verify(getRawTrieLog, times(TrieLogRangeFetcher.MAX_ATTEMPTS + 1)).getTrieLog(1L, 10L);
+    verify(getRawTrieLog).getTrieLog(11L, 20L);
+
+    requests.get(1L).complete(trieLogIds(1, 10));
+    nextRange.complete(trieLogIds(11, 20));
+    assertThat(received).hasSize(20);
+
+    // the window is refilled from the last requested block
+    requests.clear();
+    head = 20;
+    fetcher.fetchAhead();
+    assertThat(requests).containsOnlyKeys(21L, 31L);
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie;
+
+import net.consensys.shomei.trie.model.LeafOpening;
+import net.consensys.shomei.trie.node.EmptyLeafNode;
+import net.consensys.zkevm.HashBackend;
+import net.consensys.zkevm.HashProvider;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.units.bigints.UInt256;
+import org.hyperledger.besu.datatypes.Hash;
+
+/**
+ * Hashes and encodings of the default nodes of a sparse Merkle trie of a given depth, for the trie
+ * hash function in use. All the nodes of a level of an empty trie are identical, so the table only
+ * holds one node per level, plus the root of the empty trie and the root of the trie only holding
+ * the head and the tail.
+ *
+ * <p>The tables of the depth 40 trie are shipped as resources for the hash functions known to be
+ * stable ({@code default-nodes/<function>.txt}), the other tables are computed on first use.
+ */
+public final class DefaultNodeTable {
+
+  static final int SHIPPED_TABLE_DEPTH = 40;
+  private static final String RESOURCE_PATH = "/default-nodes/%s.txt";
+
+  private static final Map<Key, DefaultNodeTable> TABLES = new ConcurrentHashMap<>();
+
+  private final int depth;
+  private final Bytes32[] levelHashes;
+  private final Bytes32 emptyRootHash;
+  private final Hash defaultTrieRoot;
+  // the default nodes are looked up by hash, whatever their location, one entry per level
+  private final Map<Bytes32, Bytes> encodedNodes;
+
+  private DefaultNodeTable(
+      final int depth,
+      final Bytes32[] levelHashes,
+      final Bytes32 emptyRootHash,
+      final Hash defaultTrieRoot) {
+    this.depth = depth;
+    this.levelHashes = levelHashes;
+    this.emptyRootHash = emptyRootHash;
+    this.defaultTrieRoot = defaultTrieRoot;
+    this.encodedNodes = new HashMap<>();
+    encodedNodes.put(levelHashes[depth], EmptyLeafNode.instance().getEncodedBytes());
+    for (int level = depth - 1; level >= 0; level--) {
+      encodedNodes.put(
+          levelHashes[level], Bytes.concatenate(levelHashes[level + 1], levelHashes[level + 1]));
+    }
+    encodedNodes.put(emptyRootHash, Bytes.concatenate(UInt256.ZERO, levelHashes[0]));
+  }
+
+  /**
+   * Returns the table of the trie of the given depth for the current trie hash backend.
+   *
+   * @param depth the depth of the trie
+   * @return the default nodes
+   */
+  public static DefaultNodeTable get(final int depth) {
+    final HashBackend hashBackend = HashProvider.getTrieHashBackend();
+    return TABLES.computeIfAbsent(
+        new Key(hashBackend.getName(), depth), key -> loadOrCompute(hashBackend, depth));
+  }
+
+  /**
+   * Checks a few entries of the table of the trie of the given depth in use, which may have been
+   * loaded from the shipped resources, against their children hashed with the current trie hash
+   * backend. The table of another hash function differs at every level.
+   *
+   * @param depth the depth of the trie
+   * @throws IllegalStateException if an entry does not match
+   */
+  public static void verify(final int depth) {
+    final DefaultNodeTable table = get(depth);
+    if (!table.levelHashes[depth].equals(EmptyLeafNode.instance().getHash())
+        || !table.isParentLevel(depth - 1)
+        || !table.isParentLevel(depth / 2)
+        || !table.isParentLevel(0)
+        || !table.emptyRootHash.equals(
+            HashProvider.trieHash(Bytes.concatenate(UInt256.ZERO, table.levelHashes[0])))) {
+      throw new IllegalStateException(
+          String.format(
+              "default nodes of the depth %d trie do not match the %s hash backend",
+              depth, HashProvider.getTrieHashBackend().getName()));
+    }
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  /** Returns the hash of the default node of the level, 0 for the sub trie root. */
+  public Bytes32 getLevelHash(final int level) {
+    return levelHashes[level];
+  }
+
+  /** Returns the root hash of the trie without any leaf. */
+  public Bytes32 getEmptyRootHash() {
+    return emptyRootHash;
+  }
+
+  /** Returns the root hash of the trie only holding the head and the tail. */
+  public Hash getDefaultTrieRoot() {
+    return defaultTrieRoot;
+  }
+
+  /** Returns the encoding of the default node with the given hash, if any. */
+  public Optional<Bytes> getEncodedNode(final Bytes32 hash) {
+    return Optional.ofNullable(encodedNodes.get(hash));
+  }
+
+  private boolean isParentLevel(final int level) {
+    return levelHashes[level].equals(
+        HashProvider.trieHash(Bytes.concatenate(levelHashes[level + 1], levelHashes[level + 1])));
+  }
+
+  private static DefaultNodeTable loadOrCompute(final HashBackend hashBackend, final int depth) {
+    if (depth == SHIPPED_TABLE_DEPTH) {
+      final Optional<DefaultNodeTable> shipped = load(hashBackend, depth);
+      if (shipped.isPresent()) {
+        return shipped.get();
+      }
+    }
+    return compute(depth);
+  }
+
+  private static Optional<DefaultNodeTable> load(final HashBackend hashBackend, final int depth) {
+    final String resource = String.format(RESOURCE_PATH, hashBackend.getFunctionName());
+    try (InputStream inputStream = DefaultNodeTable.class.getResourceAsStream(resource)) {
+      if (inputStream == null) {
+        return Optional.empty();
+      }
+      final List<Bytes32> hashes = new ArrayList<>();
+      final BufferedReader reader =
+          new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          hashes.add(Bytes32.fromHexString(line));
+        }
+      }
+      // the empty root, the default root, then one hash per level
+      if (hashes.size() != depth + 3) {
+        throw new IllegalStateException(
+            String.format("invalid default nodes resource %s: %d hashes", resource, hashes.size()));
+      }
+      final Bytes32[] levelHashes = hashes.subList(2, hashes.size()).toArray(new Bytes32[0]);
+      return Optional.of(
+          new DefaultNodeTable(depth, levelHashes, hashes.get(0), Hash.wrap(hashes.get(1))));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static DefaultNodeTable compute(final int depth) {
+    final Bytes32[] levelHashes = new Bytes32[depth + 1];
+    levelHashes[depth] = EmptyLeafNode.instance().getHash();
+    for (int level = depth - 1; level >= 0; level--) {
+      levelHashes[level] =
+          HashProvider.trieHash(Bytes.concatenate(levelHashes[level + 1], levelHashes[level + 1]));
+    }
+    final Bytes32 emptyRootHash =
+        HashProvider.trieHash(Bytes.concatenate(UInt256.ZERO, levelHashes[0]));
+
+    // the head and the tail are the first two leaves, all the other subtries are default ones
+    Bytes32 node =
+        HashProvider.trieHash(
+            Bytes.concatenate(
+                HashProvider.trieHash(LeafOpening.HEAD.getEncodesBytes()),
+                HashProvider.trieHash(LeafOpening.TAIL.getEncodesBytes())));
+    for (int level = depth - 2; level >= 0; level--) {
+      node = HashProvider.trieHash(Bytes.concatenate(node, levelHashes[level + 1]));
+    }
+    final Hash defaultTrieRoot =
+        HashProvider.trieHash(Bytes.concatenate(UInt256.valueOf(2), node));
+    return new DefaultNodeTable(depth, levelHashes, emptyRootHash, defaultTrieRoot);
+  }
+
+  // keyed by name, a backend may be instantiated more than once and does not define equals
+  private record Key(String hashBackendName, int depth) {}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie;
+
+import net.consensys.shomei.trie.node.BranchNode;
+import net.consensys.zkevm.HashMetrics;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.hyperledger.besu.ethereum.trie.Node;
+
+/**
+ * Hashes the dirty nodes of a trie with a fork join pool before the trie is committed. When both
+ * children of a dirty branch span at least {@value #MIN_FORK_DIRTY_LEAVES} dirty leaves, they are
+ * hashed in parallel, the smaller subtrees are hashed by the thread reaching them. The nodes
+ * memoise their hash, so the commit visitor then only has to write them, in its usual
+ * deterministic order.
+ *
+ * <p>The hashing runs on a pool of its own, so that it neither waits for nor delays the other users
+ * of the common pool.
+ */
+class ParallelSubtreeHasher extends RecursiveAction {
+
+  static final int MIN_FORK_DIRTY_LEAVES = 16;
+
+  private static final ForkJoinPool POOL =
+      new ForkJoinPool(
+          Runtime.getRuntime().availableProcessors(),
+          pool -> {
+            final ForkJoinWorkerThread thread =
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("trie-hasher-" + thread.getPoolIndex());
+            return thread;
+          },
+          null,
+          false);
+
+  private final Node<Bytes> node;
+  private final HashMetrics.Context hashContext;
+
+  private ParallelSubtreeHasher(final Node<Bytes> node, final HashMetrics.Context hashContext) {
+    this.node = node;
+    this.hashContext = hashContext;
+  }
+
+  static void hash(final Node<Bytes> root) {
+    hash(root, POOL);
+  }
+
+  // visible for testing
+  static void hash(final Node<Bytes> root, final ForkJoinPool pool) {
+    // a commit dirtying few leaves is left to the commit visitor, without any task
+    final int minDirtyLeaves = 2 * MIN_FORK_DIRTY_LEAVES;
+    if (pool.getParallelism() < 2 || countDirtyLeaves(root, minDirtyLeaves) < minDirtyLeaves) {
+      return;
+    }
+    pool.invoke(new ParallelSubtreeHasher(root, HashMetrics.currentContext()));
+  }
+
+  @Override
+  protected void compute() {
+    // count the hashes for the thread committing the trie
+    try (HashMetrics.Scope ignored = HashMetrics.enter(hashContext)) {
+      hashSubtree(node);
+    }
+  }
+
+  private void hashSubtree(final Node<Bytes> subtree) {
+    if (subtree instanceof BranchNode<Bytes> branchNode) {
+      final List<Node<Bytes>> children = branchNode.getChildren();
+      final Node<Bytes> left = children.get(0);
+      final Node<Bytes> right = children.get(1);
+      final boolean largeLeft =
+          countDirtyLeaves(left, MIN_FORK_DIRTY_LEAVES) == MIN_FORK_DIRTY_LEAVES;
+      final boolean largeRight =
+          countDirtyLeaves(right, MIN_FORK_DIRTY_LEAVES) == MIN_FORK_DIRTY_LEAVES;
+      if (largeLeft && largeRight) {
+        invokeAll(
+            new ParallelSubtreeHasher(left, hashContext),
+            new ParallelSubtreeHasher(right, hashContext));
+      } else if (largeLeft) {
+        hashSubtree(left);
+      } else if (largeRight) {
+        hashSubtree(right);
+      }
+    }
+    subtree.getHash();
+  }
+
+  /**
+   * Counts the dirty leaves of a subtree, up to the given limit.
+   *
+   * @param subtree the subtree
+   * @param limit the count at which to stop
+   * @return the number of dirty leaves, at most the limit
+   */
+  private static int countDirtyLeaves(final Node<Bytes> subtree, final int limit) {
+    if (!subtree.isDirty()) {
+      return 0;
+    }
+    if (subtree instanceof BranchNode<Bytes> branchNode) {
+      int count = 0;
+      for (Node<Bytes> child : branchNode.getChildren()) {
+        count += countDirtyLeaves(child, limit - count);
+        if (count >= limit) {
+          break;
+        }
+      }
+      return count;
+    }
+    return 1;
+  }
+}
@@ -129,37 +129,22 @@ public class StoredNodeFactory implements NodeFactory<Bytes> {
   public Optional<Node<Bytes>> retrieve(final Bytes location, final Bytes32 hash)
       throws MerkleTrieException {
 
-    /*
-     * Fill the nodes of the sparse Merkle trie by storing values by hash in the database to avoid
-     * duplicating all the nodes during initialization and to have only one instance per level.
-     * Later, we use location-based optimization for pruning.
-     *
-     * When constructing a sparse Merkle trie, it is efficient to first store the hashed values
-     * in a database instead of duplicating all the nodes. By storing the values hashed, we can
-     * reduce storage consumption and avoid unnecessary duplication of identical values in the trie.
-     *
-     * Additionally, after initializing the trie, we can optimize pruning by using a
-     * location-based approach.
-     *
-     * By combining the storage of hashed values during initialization and location-based
-     * optimization for pruning, we can achieve an efficient and compact representation of the
-     * sparse Merkle trie.
-     */
     return nodeLoader
         .getNode(location, hash)
-        .or(
-            () ->
-                ZKTrie.EMPTY_TRIE
-                    .getWorldStateStorage()
-                    .getTrieNode(location, hash)) // if not found in db try to find default nodes
         .map(
             encodedBytes ->
                 decode(
-                    location, encodedBytes, () -> format("Invalid RLP value for hash %s", hash)));
+                    location,
+                    hash,
+                    encodedBytes,
+                    () -> format("Invalid RLP value for hash %s", hash)));
   }
 
   private Node<Bytes> decode(
-      final Bytes location, final Bytes input, final Supplier<String> errMessage) {
+      final Bytes location,
+      final Bytes32 hash,
+      final Bytes input,
+      final Supplier<String> errMessage) {
 
     int type =
         input.size() == Hash.SIZE * 2
@@ -169,19 +154,19 @@ public class StoredNodeFactory implements NodeFactory<Bytes> {
     switch (type) {
       case 1 -> {
         if (location.isEmpty()) {
-          return decodeRoot(input);
+          return decodeRoot(hash, input);
         }
-        return decodeBranch(location, input);
+        return decodeBranch(location, hash, input);
       }
       case 2 -> {
-        return decodeLeaf(input);
+        return decodeLeaf(hash, input);
       }
       default -> throw new MerkleTrieException(
           errMessage.get() + format(": invalid node %s", type));
     }
   }
 
-  protected BranchNode<Bytes> decodeRoot(final Bytes input) {
+  protected BranchNode<Bytes> decodeRoot(final Bytes32 hash, final Bytes input) {
     final ArrayList<Node<Bytes>> children = new ArrayList<>(NB_CHILD);
     final Bytes32 nextFreeNode = Bytes32.wrap(input.slice(0, Bytes32.SIZE));
     children.add(
@@ -192,10 +177,12 @@ public class StoredNodeFactory implements NodeFactory<Bytes> {
             valueSerializer));
     final Bytes32 childHash = Bytes32.wrap(input.slice(Bytes32.SIZE, Hash.SIZE));
     children.add(new StoredNode<>(this, Bytes.concatenate(Bytes.of((byte) 1)), childHash));
-    return new BranchNode<>(Bytes.EMPTY, children, Optional.empty(), this, valueSerializer);
+    return new BranchNode<>(
+        Bytes.EMPTY, children, Optional.empty(), this, valueSerializer, hash, input);
   }
 
-  protected BranchNode<Bytes> decodeBranch(final Bytes location, final Bytes input) {
+  protected BranchNode<Bytes> decodeBranch(
+      final Bytes location, final Bytes32 hash, final Bytes input) {
     final ArrayList<Node<Bytes>> children = new ArrayList<>(NB_CHILD);
     final int nbChilds = input.size() / Hash.SIZE;
     for (int i = 0; i < nbChilds; i++) {
@@ -206,14 +193,15 @@ public class StoredNodeFactory implements NodeFactory<Bytes> {
               location == null ? null : Bytes.concatenate(location, Bytes.of((byte) i)),
               childHash));
     }
-    return new BranchNode<>(location, children, Optional.empty(), this, valueSerializer);
+    return new BranchNode<>(
+        location, children, Optional.empty(), this, valueSerializer, hash, input);
   }
 
-  protected Node<Bytes> decodeLeaf(final Bytes input) {
+  protected Node<Bytes> decodeLeaf(final Bytes32 hash, final Bytes input) {
     if (input.equals(Bytes32.ZERO)) {
       return EmptyLeafNode.instance();
     } else {
-      return new LeafNode<>(Bytes.EMPTY, input, this, valueSerializer);
+      return new LeafNode<>(Bytes.EMPTY, input, this, valueSerializer, hash);
     }
   }
 }
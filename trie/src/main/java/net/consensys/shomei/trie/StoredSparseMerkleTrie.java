@@ -56,6 +56,10 @@ public class StoredSparseMerkleTrie {
     return root.getHash();
   }
 
+  public Node<Bytes> getRootNode() {
+    return root;
+  }
+
   public Node<Bytes> getNode(final Bytes path) {
     checkNotNull(path);
     return root.accept(getGetVisitor(), path);
@@ -116,11 +120,14 @@ public class StoredSparseMerkleTrie {
   }
 
   public void commit(final NodeUpdater nodeUpdater, final CommitVisitor<Bytes> commitVisitor) {
+    // hash the independent dirty subtrees in parallel, the visitor then stores them in order
+    ParallelSubtreeHasher.hash(root);
     root.accept(Bytes.EMPTY, commitVisitor);
     // Make sure root node was stored
     if (root.isDirty() && root.getEncodedBytesRef().size() < 32) {
       nodeUpdater.store(Bytes.EMPTY, root.getHash(), root.getEncodedBytesRef());
     }
+    // drop the in-memory nodes, and their memoised hashes, now that they are persisted
     this.root = new StoredNode<>(nodeFactory, Bytes.EMPTY, root.getHash());
   }
 
@@ -16,14 +16,15 @@ package net.consensys.shomei.trie;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import net.consensys.shomei.trie.StoredSparseMerkleTrie.GetAndProve;
+import net.consensys.shomei.trie.engine.BottomUpTrieBuilder;
+import net.consensys.shomei.trie.engine.TrieEngine;
+import net.consensys.shomei.trie.engine.TrieEngineType;
 import net.consensys.shomei.trie.model.FlattenedLeaf;
 import net.consensys.shomei.trie.model.LeafOpening;
-import net.consensys.shomei.trie.node.EmptyLeafNode;
 import net.consensys.shomei.trie.path.PathResolver;
 import net.consensys.shomei.trie.proof.MerkleInclusionProof;
 import net.consensys.shomei.trie.proof.MerkleNonInclusionProof;
 import net.consensys.shomei.trie.proof.MerkleProof;
-import net.consensys.shomei.trie.storage.InMemoryStorage;
 import net.consensys.shomei.trie.storage.TrieStorage;
 import net.consensys.shomei.trie.storage.TrieStorage.Range;
 import net.consensys.shomei.trie.trace.EmptyTrace;
@@ -40,14 +41,15 @@ import net.consensys.zkevm.HashProvider;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.units.bigints.UInt256;
 import org.hyperledger.besu.datatypes.Hash;
 import org.hyperledger.besu.ethereum.trie.Node;
-import org.hyperledger.besu.ethereum.trie.NodeUpdater;
 import org.hyperledger.besu.ethereum.trie.Proof;
 
 /**
@@ -57,18 +59,15 @@ import org.hyperledger.besu.ethereum.trie.Proof;
  */
 public class ZKTrie {
 
-  public static final ZKTrie EMPTY_TRIE = generateEmptyTrie();
-
-  public static final Hash DEFAULT_TRIE_ROOT =
-      Hash.wrap(createTrie(new InMemoryStorage()).getTopRootHash());
+  private static TrieEngineType trieEngineType = TrieEngineType.STORED_NODE;
 
   private static final int ZK_TRIE_DEPTH = 40;
 
-  private final PathResolver pathResolver;
-  private final StoredSparseMerkleTrie state;
+  private final TrieEngine state;
   private final TrieStorage worldStateStorage;
 
-  private final TrieStorage.TrieUpdater updater;
+  // created on the first write, a trie only read may be loaded from a read only storage
+  private TrieStorage.TrieUpdater updater;
 
   public TrieStorage getWorldStateStorage() {
     return worldStateStorage;
@@ -79,101 +78,104 @@ public class ZKTrie {
    *
    * @param rootHash the root hash of the trie
    * @param worldStateStorage the storage used to store the trie
+   * @param engineType the engine backing the trie
    * @return the created ZK trie
    */
-  private ZKTrie(final Bytes32 rootHash, final TrieStorage worldStateStorage) {
+  private ZKTrie(
+      final Bytes32 rootHash,
+      final TrieStorage worldStateStorage,
+      final TrieEngineType engineType) {
     this.worldStateStorage = worldStateStorage;
-    this.updater = worldStateStorage.updater();
-    this.state = new StoredSparseMerkleTrie(worldStateStorage::getTrieNode, rootHash, b -> b);
-    this.pathResolver = new PathResolver(ZK_TRIE_DEPTH, state);
+    this.state = engineType.create(ZK_TRIE_DEPTH, worldStateStorage::getTrieNode, rootHash);
+  }
+
+  /**
+   * Selects the engine used by the tries created or loaded from now on.
+   *
+   * @param engineType the engine type
+   */
+  public static void setTrieEngineType(final TrieEngineType engineType) {
+    trieEngineType = engineType;
+  }
+
+  /** Returns the root hash of the trie only holding the head and the tail. */
+  public static Hash getDefaultTrieRoot() {
+    return DefaultNodeTable.get(ZK_TRIE_DEPTH).getDefaultTrieRoot();
   }
 
-  public static ZKTrie generateEmptyTrie() {
-    final InMemoryStorage inMemoryStorage =
-        new InMemoryStorage() {
-          @Override
-          public Optional<Bytes> getTrieNode(final Bytes location, final Bytes nodeHash) {
-            return Optional.ofNullable(super.getTrieNodeStorage().get(nodeHash));
-            // In a sparse Merkle trie, the hash value of a parent node is computed based on the
-            // hashes of its children nodes.
-            // so the hash value of a parent node at each level will be the same as long as its
-            // children remain unchanged.
-            // this ensures the consistency of the hash values within each level.
-            // for that nodes are saved by hash in order to not have to fill all the trie during
-            // the init step
-          }
-
-          @Override
-          public void putTrieNode(final Bytes location, final Bytes nodeHash, final Bytes value) {
-            super.getTrieNodeStorage().put(nodeHash, value);
-          }
-        };
-    return new ZKTrie(initWorldState(inMemoryStorage::putTrieNode).getHash(), inMemoryStorage);
+  /** Returns the root hash of the trie without any leaf, not even the head and the tail. */
+  public static Bytes32 getEmptyTrieRoot() {
+    return DefaultNodeTable.get(ZK_TRIE_DEPTH).getEmptyRootHash();
+  }
+
+  /**
+   * Checks a few of the default nodes in use, possibly loaded from the shipped tables, against the
+   * current trie hash backend.
+   *
+   * @throws IllegalStateException if they differ
+   */
+  public static void verifyDefaultNodes() {
+    DefaultNodeTable.verify(ZK_TRIE_DEPTH);
   }
 
   public static ZKTrie createTrie(final TrieStorage worldStateStorage) {
-    final ZKTrie trie = new ZKTrie(EMPTY_TRIE.getTopRootHash(), worldStateStorage);
+    final ZKTrie trie = new ZKTrie(getEmptyTrieRoot(), worldStateStorage, trieEngineType);
     trie.setHeadAndTail();
     return trie;
   }
 
   public static ZKTrie loadTrie(final Bytes32 rootHash, final TrieStorage worldStateStorage) {
-    return new ZKTrie(rootHash, worldStateStorage);
+    return new ZKTrie(rootHash, worldStateStorage, trieEngineType);
   }
 
   /**
-   * Fills the sparse Merkle trie by creating a single node on each level with two children per
-   * level. Each level is filled with branch nodes, except for the bottom level with empty leaf
-   * nodes.
+   * Builds the trie from the flat leaves of the storage, overwriting its nodes. See {@link
+   * BottomUpTrieBuilder}.
    *
-   * <p>This approach simplifies the population process by creating a balanced trie structure with a
-   * fixed number of nodes on each level. Each level (except the bottom level) has two children,
-   * which are empty branch nodes. The bottom level has empty leaf nodes.
-   *
-   * <p>Algorithm: 1. Start with an empty trie. 2. Create leaf nodes at the bottom level. 3. For
-   * each level of the trie (starting from the bottom level and moving upwards): - Create a parent
-   * node with the leaf/branch nodes of the current level as children. - Insert the parent node into
-   * the trie.
+   * @param worldStateStorage the storage holding the flat leaves of the trie
+   * @param nextFreeNode the next free leaf index of the trie
+   * @param valueHasher returns the hash of the value of a flat leaf
+   * @return the root hash of the built trie
    */
-  private static Node<Bytes> initWorldState(final NodeUpdater nodeUpdater) {
-    // if empty we need to fill the sparse trie with zero leaves
-    final StoredNodeFactory nodeFactory =
-        new StoredNodeFactory((location, hash) -> Optional.empty(), a -> a);
-    Node<Bytes> defaultNode = EmptyLeafNode.instance();
-    for (int i = 0; i < ZK_TRIE_DEPTH; i++) {
-      nodeUpdater.store(null, defaultNode.getHash(), defaultNode.getEncodedBytes());
-      defaultNode = nodeFactory.createBranch(Collections.nCopies(2, defaultNode), Optional.empty());
-    }
-    nodeUpdater.store(null, defaultNode.getHash(), defaultNode.getEncodedBytes());
-
-    // create root node
-    defaultNode =
-        nodeFactory.createBranch(List.of(EmptyLeafNode.instance(), defaultNode), Optional.empty());
-
-    nodeUpdater.store(null, defaultNode.getHash(), defaultNode.getEncodedBytes());
+  public static Bytes32 buildFromFlatLeaves(
+      final TrieStorage worldStateStorage,
+      final long nextFreeNode,
+      final Function<Bytes, Bytes32> valueHasher) {
+    return BottomUpTrieBuilder.build(
+        worldStateStorage, worldStateStorage.updater(), ZK_TRIE_DEPTH, nextFreeNode, valueHasher);
+  }
 
-    return defaultNode;
+  /**
+   * Reads the next free leaf index of the trie from its storage, without loading the trie.
+   *
+   * @param worldStateStorage the storage of the trie
+   * @return the next free leaf index, empty if the trie was never committed
+   */
+  public static Optional<Long> readNextFreeNode(final TrieStorage worldStateStorage) {
+    return worldStateStorage
+        .getTrieNode(PathResolver.NEXT_FREE_NODE_PATH, null)
+        .map(encoded -> UInt256.fromBytes(encoded).toLong());
   }
 
   public void setHeadAndTail() {
     // head
-    final Long headIndex = pathResolver.getNextFreeLeafNodeIndex();
-    updater.putFlatLeaf(LeafOpening.HEAD.getHkey(), FlattenedLeaf.HEAD);
-    state.put(pathResolver.getLeafPath(headIndex), LeafOpening.HEAD.getEncodesBytes());
-    pathResolver.incrementNextFreeLeafNodeIndex();
+    final long headIndex = state.getNextFreeLeafNodeIndex();
+    updater().putFlatLeaf(LeafOpening.HEAD.getHkey(), FlattenedLeaf.HEAD);
+    state.put(headIndex, LeafOpening.HEAD.getEncodesBytes());
+    state.incrementNextFreeLeafNodeIndex();
     // tail
-    final Long tailIndex = pathResolver.getNextFreeLeafNodeIndex();
-    updater.putFlatLeaf(LeafOpening.TAIL.getHkey(), FlattenedLeaf.TAIL);
-    state.put(pathResolver.getLeafPath(tailIndex), LeafOpening.TAIL.getEncodesBytes());
-    pathResolver.incrementNextFreeLeafNodeIndex();
+    final long tailIndex = state.getNextFreeLeafNodeIndex();
+    updater().putFlatLeaf(LeafOpening.TAIL.getHkey(), FlattenedLeaf.TAIL);
+    state.put(tailIndex, LeafOpening.TAIL.getEncodesBytes());
+    state.incrementNextFreeLeafNodeIndex();
   }
 
   public Node<Bytes> getSubRootNode() {
-    return state.getNode(pathResolver.geRootPath());
+    return state.getSubRootNode();
   }
 
   public Node<Bytes> getTopRootNode() {
-    return state.root;
+    return state.getTopRootNode();
   }
 
   public Bytes32 getSubRootHash() {
@@ -181,11 +183,11 @@ public class ZKTrie {
   }
 
   public Bytes32 getTopRootHash() {
-    return state.getRootHash();
+    return state.getTopRootHash();
   }
 
   public long getNextFreeNode() {
-    return pathResolver.getNextFreeLeafNodeIndex();
+    return state.getNextFreeLeafNodeIndex();
   }
 
   public Optional<FlattenedLeaf> getFlatLeaf(final Hash hkey) {
@@ -197,23 +199,15 @@ public class ZKTrie {
   }
 
   public Optional<Bytes> get(final Hash hkey) {
-    return worldStateStorage
-        .getFlatLeaf(hkey)
-        .map(FlattenedLeaf::leafIndex)
-        .map(pathResolver::getLeafPath)
-        .flatMap(this::get);
+    return worldStateStorage.getFlatLeaf(hkey).map(FlattenedLeaf::leafIndex).flatMap(this::get);
   }
 
   public GetAndProve getValueAndMerkleProof(final Long leafIndex) {
-    return getValueAndMerkleProof(pathResolver.getLeafPath(leafIndex));
-  }
-
-  private Optional<Bytes> get(final Bytes path) {
-    return state.get(path);
+    return state.getAndProve(leafIndex);
   }
 
-  private GetAndProve getValueAndMerkleProof(final Bytes path) {
-    return state.getAndProve(path);
+  private Optional<Bytes> get(final Long leafIndex) {
+    return state.get(leafIndex);
   }
 
   public MerkleProof getProof(final Hash hkey, final MimcSafeBytes<? extends Bytes> key) {
@@ -225,13 +219,9 @@ public class ZKTrie {
       final FlattenedLeaf leftFlatLeafValue = nearestKeys.getLeftNodeValue();
       final FlattenedLeaf rightFlatLeafValue = nearestKeys.getRightNodeValue();
 
-      // GET path of HKey-
-      final Bytes leftLeafPath = pathResolver.getLeafPath(leftFlatLeafValue.leafIndex());
-      // GET path of HKey+
-      final Bytes rightLeafPath = pathResolver.getLeafPath(rightFlatLeafValue.leafIndex());
-
-      final GetAndProve leftData = getValueAndMerkleProof(leftLeafPath);
-      final GetAndProve rightData = getValueAndMerkleProof(rightLeafPath);
+      // READ HKey- and HKey+
+      final GetAndProve leftData = getValueAndMerkleProof(leftFlatLeafValue.leafIndex());
+      final GetAndProve rightData = getValueAndMerkleProof(rightFlatLeafValue.leafIndex());
 
       return new MerkleNonInclusionProof(
           key.getOriginalUnsafeValue(),
@@ -242,7 +232,7 @@ public class ZKTrie {
               Stream.of(
                       List.of(leftData.leaf().orElseThrow()),
                       leftData.subProof(),
-                      List.of(state.root))
+                      List.of(state.getTopRootNode()))
                   .flatMap(List::stream)
                   .map(Node::getEncodedBytes)
                   .collect(
@@ -257,7 +247,7 @@ public class ZKTrie {
               Stream.of(
                       List.of(rightData.leaf().orElseThrow()),
                       rightData.subProof(),
-                      List.of(state.root))
+                      List.of(state.getTopRootNode()))
                   .flatMap(List::stream)
                   .map(Node::getEncodedBytes)
                   .collect(
@@ -272,17 +262,18 @@ public class ZKTrie {
 
       final FlattenedLeaf currentFlatLeafValue = nearestKeys.getCenterNodeValue().orElseThrow();
 
-      // GET path of hash(k)
-      final Bytes leafPath = pathResolver.getLeafPath(currentFlatLeafValue.leafIndex());
       // READ hash(k)
-      final GetAndProve data = getValueAndMerkleProof(leafPath);
+      final GetAndProve data = getValueAndMerkleProof(currentFlatLeafValue.leafIndex());
 
       return new MerkleInclusionProof(
           key.getOriginalUnsafeValue(),
           currentFlatLeafValue.leafIndex(),
           new Proof<>(
               Optional.of(currentFlatLeafValue.leafValue()),
-              Stream.of(List.of(data.leaf().orElseThrow()), data.subProof(), List.of(state.root))
+              Stream.of(
+                      List.of(data.leaf().orElseThrow()),
+                      data.subProof(),
+                      List.of(state.getTopRootNode()))
                   .flatMap(List::stream)
                   .map(Node::getEncodedBytes)
                   .collect(
@@ -304,19 +295,15 @@ public class ZKTrie {
       final ReadZeroTraceBuilder readZeroTrace =
           ReadZeroTraceBuilder.aReadZeroTrace().withSubRoot(getSubRootNode());
 
-      // GET path of HKey-
-      final Bytes leftLeafPath =
-          pathResolver.getLeafPath(nearestKeys.getLeftNodeValue().leafIndex());
-      // GET path of HKey+
-      final Bytes rightLeafPath =
-          pathResolver.getLeafPath(nearestKeys.getRightNodeValue().leafIndex());
-
-      final GetAndProve leftData = getValueAndMerkleProof(leftLeafPath);
-      final GetAndProve rightData = getValueAndMerkleProof(rightLeafPath);
+      // READ HKey- and HKey+
+      final GetAndProve leftData =
+          getValueAndMerkleProof(nearestKeys.getLeftNodeValue().leafIndex());
+      final GetAndProve rightData =
+          getValueAndMerkleProof(nearestKeys.getRightNodeValue().leafIndex());
 
       return readZeroTrace
           .withKey(key.getOriginalUnsafeValue())
-          .withNextFreeNode(pathResolver.getNextFreeLeafNodeIndex())
+          .withNextFreeNode(state.getNextFreeLeafNodeIndex())
           .withLeftLeaf(leftData.nodeValue().map(LeafOpening::readFrom).orElseThrow())
           .withRightLeaf(rightData.nodeValue().map(LeafOpening::readFrom).orElseThrow())
           .withLeftProof(
@@ -332,14 +319,12 @@ public class ZKTrie {
 
       final FlattenedLeaf currentFlatLeafValue = nearestKeys.getCenterNodeValue().orElseThrow();
 
-      // GET path of hash(k)
-      final Bytes leafPath = pathResolver.getLeafPath(currentFlatLeafValue.leafIndex());
       // READ hash(k)
-      final GetAndProve data = getValueAndMerkleProof(leafPath);
+      final GetAndProve data = getValueAndMerkleProof(currentFlatLeafValue.leafIndex());
 
       return readTrace
           .withKey(key.getOriginalUnsafeValue())
-          .withNextFreeNode(pathResolver.getNextFreeLeafNodeIndex())
+          .withNextFreeNode(state.getNextFreeLeafNodeIndex())
           .withValue(currentFlatLeafValue.leafValue())
           .withLeaf(data.nodeValue().map(LeafOpening::readFrom).orElseThrow())
           .withProof(new TraceProof(currentFlatLeafValue.leafIndex(), data.subProof()))
@@ -363,28 +348,27 @@ public class ZKTrie {
       final InsertionTraceBuilder insertionTrace =
           InsertionTraceBuilder.anInsertionTrace().withOldSubRoot(getSubRootNode());
 
-      // GET path of HKey-
-      final Bytes leftLeafPath =
-          pathResolver.getLeafPath(nearestKeys.getLeftNodeValue().leafIndex());
-      // GET path of HKey+
-      final Bytes rightLeafPath =
-          pathResolver.getLeafPath(nearestKeys.getRightNodeValue().leafIndex());
+      // GET index of HKey-
+      final Long leftLeafIndex = nearestKeys.getLeftNodeValue().leafIndex();
+      // GET index of HKey+
+      final Long rightLeafIndex = nearestKeys.getRightNodeValue().leafIndex();
 
       // FIND next free node
-      final long nextFreeNode = pathResolver.getNextFreeLeafNodeIndex();
+      final long nextFreeNode = state.getNextFreeLeafNodeIndex();
 
       // UPDATE HKey- with hash(k) for next
-      final LeafOpening priorLeftLeaf = get(leftLeafPath).map(LeafOpening::readFrom).orElseThrow();
+      final LeafOpening priorLeftLeaf = get(leftLeafIndex).map(LeafOpening::readFrom).orElseThrow();
 
       final LeafOpening newLeftLeaf = new LeafOpening(priorLeftLeaf);
       newLeftLeaf.setNextLeaf(nextFreeNode);
 
       final List<Node<Bytes>> leftSiblings =
-          state.putAndProve(leftLeafPath, newLeftLeaf.getEncodesBytes());
+          state.putAndProve(leftLeafIndex, newLeftLeaf.getEncodesBytes());
 
       // PUT hash(k) with HKey- for Prev and HKey+ for next
-      final Bytes leafPathToAdd = pathResolver.getLeafPath(nextFreeNode);
-      updater.putFlatLeaf(hKey, new FlattenedLeaf(nextFreeNode, newValue.getOriginalUnsafeValue()));
+      final FlattenedLeaf newFlatLeaf =
+          new FlattenedLeaf(nextFreeNode, newValue.getOriginalUnsafeValue());
+      updater().putFlatLeaf(hKey, newFlatLeaf);
       final LeafOpening newLeafValue =
           new LeafOpening(
               nearestKeys.getLeftNodeValue().leafIndex(),
@@ -393,19 +377,19 @@ public class ZKTrie {
               HashProvider.trieHash(newValue));
 
       final List<Node<Bytes>> centerSiblings =
-          state.putAndProve(leafPathToAdd, newLeafValue.getEncodesBytes());
+          state.putAndProve(nextFreeNode, newLeafValue.getEncodesBytes());
 
       // UPDATE HKey+ with hash(k) for prev
       final LeafOpening priorRightLeaf =
-          get(rightLeafPath).map(LeafOpening::readFrom).orElseThrow();
+          get(rightLeafIndex).map(LeafOpening::readFrom).orElseThrow();
       final LeafOpening newRightLeaf = new LeafOpening(priorRightLeaf);
       newRightLeaf.setPrevLeaf(nextFreeNode);
 
       final List<Node<Bytes>> rightSiblings =
-          state.putAndProve(rightLeafPath, newRightLeaf.getEncodesBytes());
+          state.putAndProve(rightLeafIndex, newRightLeaf.getEncodesBytes());
 
       // UPDATE next free node
-      pathResolver.incrementNextFreeLeafNodeIndex();
+      state.incrementNextFreeLeafNodeIndex();
 
       return insertionTrace
           .withKey(key.getOriginalUnsafeValue())
@@ -416,7 +400,7 @@ public class ZKTrie {
           .withNewProof(new TraceProof(nextFreeNode, centerSiblings))
           .withRightProof(
               new TraceProof(nearestKeys.getRightNodeValue().leafIndex(), rightSiblings))
-          .withNewNextFreeNode(pathResolver.getNextFreeLeafNodeIndex())
+          .withNewNextFreeNode(state.getNextFreeLeafNodeIndex())
           .withNewSubRoot(getSubRootNode())
           .build();
 
@@ -428,19 +412,19 @@ public class ZKTrie {
 
       final FlattenedLeaf currentFlatLeafValue = nearestKeys.getCenterNodeValue().orElseThrow();
 
-      final Bytes leafPathToUpdate = pathResolver.getLeafPath(currentFlatLeafValue.leafIndex());
-      updater.putFlatLeaf(
-          hKey,
-          new FlattenedLeaf(currentFlatLeafValue.leafIndex(), newValue.getOriginalUnsafeValue()));
+      final Long leafIndexToUpdate = currentFlatLeafValue.leafIndex();
+      final FlattenedLeaf updatedFlatLeaf =
+          new FlattenedLeaf(currentFlatLeafValue.leafIndex(), newValue.getOriginalUnsafeValue());
+      updater().putFlatLeaf(hKey, updatedFlatLeaf);
 
       // RETRIEVE OLD VALUE
       final LeafOpening priorUpdatedLeaf =
-          get(leafPathToUpdate).map(LeafOpening::readFrom).orElseThrow();
+          get(leafIndexToUpdate).map(LeafOpening::readFrom).orElseThrow();
       final LeafOpening newUpdatedLeaf = new LeafOpening(priorUpdatedLeaf);
       newUpdatedLeaf.setHval(HashProvider.trieHash(newValue));
 
       final List<Node<Bytes>> siblings =
-          state.putAndProve(leafPathToUpdate, newUpdatedLeaf.getEncodesBytes());
+          state.putAndProve(leafIndexToUpdate, newUpdatedLeaf.getEncodesBytes());
 
       return updateTrace
           .withKey(key.getOriginalUnsafeValue())
@@ -448,7 +432,7 @@ public class ZKTrie {
           .withNewValue(newValue.getOriginalUnsafeValue())
           .withPriorUpdatedLeaf(priorUpdatedLeaf)
           .withProof(new TraceProof(currentFlatLeafValue.leafIndex(), siblings))
-          .withNewNextFreeNode(pathResolver.getNextFreeLeafNodeIndex())
+          .withNewNextFreeNode(state.getNextFreeLeafNodeIndex())
           .withNewSubRoot(getSubRootNode())
           .build();
     }
@@ -471,31 +455,29 @@ public class ZKTrie {
       final Long rightLeafIndex = nearestKeys.getRightNodeValue().leafIndex();
 
       // UPDATE HKey- with HKey+ for next
-      final Bytes leftLeafPath = pathResolver.getLeafPath(leftLeafIndex);
-      final LeafOpening priorLeftLeaf = get(leftLeafPath).map(LeafOpening::readFrom).orElseThrow();
+      final LeafOpening priorLeftLeaf = get(leftLeafIndex).map(LeafOpening::readFrom).orElseThrow();
       final LeafOpening newLeftLeaf = new LeafOpening(priorLeftLeaf);
       newLeftLeaf.setNextLeaf(rightLeafIndex);
 
       final List<Node<Bytes>> leftSiblings =
-          state.putAndProve(leftLeafPath, newLeftLeaf.getEncodesBytes());
+          state.putAndProve(leftLeafIndex, newLeftLeaf.getEncodesBytes());
 
       // REMOVE hash(k)
       final FlattenedLeaf currentFlatLeafValue = nearestKeys.getCenterNodeValue().orElseThrow();
-      final Bytes leafPathToDelete = pathResolver.getLeafPath(currentFlatLeafValue.leafIndex());
+      final Long leafIndexToDelete = currentFlatLeafValue.leafIndex();
       final LeafOpening priorDeletedLeaf =
-          get(leafPathToDelete).map(LeafOpening::readFrom).orElseThrow();
-      updater.removeFlatLeafValue(hkey);
-      final List<Node<Bytes>> centerSiblings = state.removeAndProve(leafPathToDelete);
+          get(leafIndexToDelete).map(LeafOpening::readFrom).orElseThrow();
+      updater().removeFlatLeafValue(hkey);
+      final List<Node<Bytes>> centerSiblings = state.removeAndProve(leafIndexToDelete);
 
       // UPDATE HKey+ with HKey- for prev
-      final Bytes rightLeafPath = pathResolver.getLeafPath(rightLeafIndex);
       final LeafOpening priorRightLeaf =
-          get(rightLeafPath).map(LeafOpening::readFrom).orElseThrow();
+          get(rightLeafIndex).map(LeafOpening::readFrom).orElseThrow();
       final LeafOpening newRightLeaf = new LeafOpening(priorRightLeaf);
       newRightLeaf.setPrevLeaf(leftLeafIndex);
 
       final List<Node<Bytes>> rightSiblings =
-          state.putAndProve(rightLeafPath, newRightLeaf.getEncodesBytes());
+          state.putAndProve(rightLeafIndex, newRightLeaf.getEncodesBytes());
 
       return deleteTrace
           .withKey(key.getOriginalUnsafeValue())
@@ -509,7 +491,7 @@ public class ZKTrie {
                   nearestKeys.getCenterNodeValue().orElseThrow().leafIndex(), centerSiblings))
           .withRightProof(
               new TraceProof(nearestKeys.getRightNodeValue().leafIndex(), rightSiblings))
-          .withNewNextFreeNode(pathResolver.getNextFreeLeafNodeIndex())
+          .withNewNextFreeNode(state.getNextFreeLeafNodeIndex())
           .withNewSubRoot(getSubRootNode())
           .build();
     }
@@ -517,11 +499,29 @@ public class ZKTrie {
     return new EmptyTrace();
   }
 
+  private TrieStorage.TrieUpdater updater() {
+    if (updater == null) {
+      updater = worldStateStorage.updater();
+    }
+    return updater;
+  }
+
   public void decrementNextFreeNode() {
-    pathResolver.decrementNextFreeLeafNodeIndex();
+    state.decrementNextFreeLeafNodeIndex();
   }
 
   public void commit() {
-    state.commit(updater::putTrieNode);
+    state.commit(updater()::putTrieNode);
+  }
+
+  /**
+   * Drops from memory the trie nodes loaded below the given level, the sub trie root being at level
+   * 0. Used to bound the memory of a trie kept loaded between commits.
+   *
+   * @param level the deepest level whose nodes are kept
+   * @throws IllegalStateException if the trie was modified since its last commit
+   */
+  public void releaseNodesBelow(final int level) {
+    state.releaseNodesBelow(level);
   }
 }
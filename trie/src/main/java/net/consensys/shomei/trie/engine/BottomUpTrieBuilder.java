@@ -0,0 +1,216 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import net.consensys.shomei.trie.DefaultNodeTable;
+import net.consensys.shomei.trie.model.FlattenedLeaf;
+import net.consensys.shomei.trie.model.LeafOpening;
+import net.consensys.shomei.trie.node.EmptyLeafNode;
+import net.consensys.shomei.trie.node.NodeHashCounter;
+import net.consensys.shomei.trie.path.PathResolver;
+import net.consensys.shomei.trie.storage.TrieStorage;
+import net.consensys.zkevm.HashMetrics;
+import net.consensys.zkevm.HashProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.units.bigints.UInt256;
+import org.hyperledger.besu.datatypes.Hash;
+
+/**
+ * Builds a sparse Merkle trie bottom up from its flat leaves, without reading any of its nodes.
+ *
+ * <p>The leaves are read in key order, the opening of each leaf being rebuilt from the indexes of
+ * its neighbours. Every node covering a leaf index lower than the next free one is then written
+ * level by level, holes and default nodes included, so the nodes left by a previous version of
+ * the trie are all overwritten. The nodes of a level are hashed in parallel chunks.
+ *
+ * <p>The nodes are written at the same locations and with the same encodings as the {@link
+ * FixedDepthTrieEngine}, so the built trie can be loaded by both engines.
+ */
+public final class BottomUpTrieBuilder {
+
+  private static final int CHUNK_SIZE = 4096;
+
+  private BottomUpTrieBuilder() {}
+
+  /**
+   * Builds the trie.
+   *
+   * @param storage the storage of the trie, read for the flat leaves
+   * @param updater the updater receiving the trie nodes, called from several threads
+   * @param depth the depth of the trie
+   * @param nextFreeNode the next free leaf index of the trie
+   * @param valueHasher returns the hash of the value of a flat leaf, head and tail excluded
+   * @return the root hash of the trie
+   */
+  public static Bytes32 build(
+      final TrieStorage storage,
+      final TrieStorage.TrieUpdater updater,
+      final int depth,
+      final long nextFreeNode,
+      final Function<Bytes, Bytes32> valueHasher) {
+    checkArgument(
+        nextFreeNode >= 2 && nextFreeNode < Integer.MAX_VALUE,
+        "unsupported next free node %s",
+        nextFreeNode);
+    final DefaultNodeTable defaultNodes = DefaultNodeTable.get(depth);
+    final HashMetrics.Context hashContext = HashMetrics.currentContext();
+    final List<Map.Entry<Bytes, FlattenedLeaf>> leaves = readFlatLeaves(storage);
+
+    // leaves, the indexes never used by a leaf or freed by a removal are empty leaves
+    final Bytes32[] leafHashes = new Bytes32[(int) nextFreeNode];
+    forEachChunk(
+        leaves.size(),
+        hashContext,
+        i -> {
+          final LeafOpening opening = openLeaf(leaves, i, valueHasher);
+          final Bytes encodedLeaf = opening.getEncodesBytes();
+          final long leafIndex = leaves.get(i).getValue().leafIndex();
+          final Bytes32 leafHash = HashProvider.trieHash(encodedLeaf);
+          NodeHashCounter.increment();
+          updater.putTrieNode(
+              FixedDepthTrieEngine.location(depth, leafIndex), leafHash, encodedLeaf);
+          leafHashes[(int) leafIndex] = leafHash;
+        });
+    forEachChunk(
+        leafHashes.length,
+        hashContext,
+        i -> {
+          if (leafHashes[i] == null) {
+            leafHashes[i] = EmptyLeafNode.instance().getHash();
+            updater.putTrieNode(
+                FixedDepthTrieEngine.location(depth, i),
+                leafHashes[i],
+                EmptyLeafNode.instance().getEncodedBytes());
+          }
+        });
+
+    // branches, the right child of the last node of a level may be a default node
+    Bytes32[] childHashes = leafHashes;
+    for (int level = depth - 1; level >= 0; level--) {
+      final Bytes32[] children = childHashes;
+      final Bytes32 defaultChildHash = defaultNodes.getLevelHash(level + 1);
+      final Bytes32[] hashes = new Bytes32[(children.length + 1) / 2];
+      final int nodeLevel = level;
+      forEachChunk(
+          hashes.length,
+          hashContext,
+          i -> {
+            final int rightChild = 2 * i + 1;
+            final Bytes encodedNode =
+                Bytes.concatenate(
+                    children[2 * i],
+                    rightChild < children.length ? children[rightChild] : defaultChildHash);
+            final Bytes32 hash = HashProvider.trieHash(encodedNode);
+            NodeHashCounter.increment();
+            updater.putTrieNode(FixedDepthTrieEngine.location(nodeLevel, i), hash, encodedNode);
+            hashes[i] = hash;
+          });
+      childHashes = hashes;
+    }
+
+    final Bytes encodedNextFreeNode = UInt256.valueOf(nextFreeNode);
+    updater.putTrieNode(
+        PathResolver.NEXT_FREE_NODE_PATH,
+        HashProvider.trieHash(encodedNextFreeNode),
+        encodedNextFreeNode);
+    NodeHashCounter.increment();
+    final Bytes encodedRoot = Bytes.concatenate(encodedNextFreeNode, childHashes[0]);
+    final Bytes32 rootHash = HashProvider.trieHash(encodedRoot);
+    NodeHashCounter.increment();
+    updater.putTrieNode(Bytes.EMPTY, rootHash, encodedRoot);
+    return rootHash;
+  }
+
+  /**
+   * Returns the flat leaves of the trie in key order, from the head to the tail.
+   *
+   * @param storage the storage of the trie
+   * @return the flat leaves with their keys
+   */
+  public static List<Map.Entry<Bytes, FlattenedLeaf>> readFlatLeaves(final TrieStorage storage) {
+    final List<Map.Entry<Bytes, FlattenedLeaf>> leaves = new ArrayList<>();
+    final Bytes headKey = LeafOpening.HEAD.getHkey();
+    final Bytes tailKey = LeafOpening.TAIL.getHkey();
+    Map.Entry<Bytes, FlattenedLeaf> leaf =
+        Map.entry(
+            headKey,
+            storage
+                .getFlatLeaf(headKey)
+                .orElseThrow(() -> new IllegalStateException("missing head of the trie")));
+    leaves.add(leaf);
+    while (!leaf.getKey().equals(tailKey)) {
+      final TrieStorage.Range range = storage.getNearestKeys(leaf.getKey());
+      // the storage wrappers may return the keys with a part of their prefix
+      final Bytes rightKey = range.getRightNodeKey();
+      leaf = Map.entry(rightKey.slice(rightKey.size() - Bytes32.SIZE), range.getRightNodeValue());
+      leaves.add(leaf);
+    }
+    return leaves;
+  }
+
+  private static LeafOpening openLeaf(
+      final List<Map.Entry<Bytes, FlattenedLeaf>> leaves,
+      final int position,
+      final Function<Bytes, Bytes32> valueHasher) {
+    if (position == 0) {
+      final LeafOpening head = new LeafOpening(LeafOpening.HEAD);
+      head.setNextLeaf(leaves.get(1).getValue().leafIndex());
+      return head;
+    }
+    final long prevLeaf = leaves.get(position - 1).getValue().leafIndex();
+    if (position == leaves.size() - 1) {
+      final LeafOpening tail = new LeafOpening(LeafOpening.TAIL);
+      tail.setPrevLeaf(prevLeaf);
+      return tail;
+    }
+    final Map.Entry<Bytes, FlattenedLeaf> leaf = leaves.get(position);
+    return new LeafOpening(
+        prevLeaf,
+        leaves.get(position + 1).getValue().leafIndex(),
+        Hash.wrap(Bytes32.wrap(leaf.getKey())),
+        valueHasher.apply(leaf.getValue().leafValue()));
+  }
+
+  /** Runs the action on the indexes in parallel chunks, counting the hashes for the caller. */
+  private static void forEachChunk(
+      final int size, final HashMetrics.Context hashContext, final IndexAction action) {
+    final int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    IntStream.range(0, chunks)
+        .parallel()
+        .forEach(
+            chunk -> {
+              try (HashMetrics.Scope ignored = HashMetrics.enter(hashContext)) {
+                final int end = Math.min(size, (chunk + 1) * CHUNK_SIZE);
+                for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                  action.apply(i);
+                }
+              }
+            });
+  }
+
+  @FunctionalInterface
+  private interface IndexAction {
+    void apply(int index);
+  }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie.engine;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import net.consensys.shomei.trie.DefaultNodeTable;
+import net.consensys.shomei.trie.StoredNodeFactory;
+import net.consensys.shomei.trie.StoredSparseMerkleTrie.GetAndProve;
+import net.consensys.shomei.trie.node.EmptyLeafNode;
+import net.consensys.shomei.trie.node.LeafNode;
+import net.consensys.shomei.trie.node.NodeHashCounter;
+import net.consensys.shomei.trie.path.PathResolver;
+import net.consensys.zkevm.HashProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.bytes.MutableBytes;
+import org.apache.tuweni.units.bigints.UInt256;
+import org.hyperledger.besu.ethereum.trie.MerkleTrieException;
+import org.hyperledger.besu.ethereum.trie.Node;
+import org.hyperledger.besu.ethereum.trie.NodeFactory;
+import org.hyperledger.besu.ethereum.trie.NodeLoader;
+import org.hyperledger.besu.ethereum.trie.NodeUpdater;
+import org.hyperledger.besu.ethereum.trie.StoredNode;
+
+/**
+ * Sparse Merkle trie engine specialised for a fixed depth binary tree.
+ *
+ * <p>Nodes are addressed by their level (0 for the sub trie root, depth for the leaves) and by
+ * their index inside the level, the index of a node being the leaf index shifted by the remaining
+ * depth. Each level keeps the hashes of the nodes loaded or modified so far in a {@link NodeTable},
+ * the dirty and stale flags of the table acting as the dirty set of the engine. Hashes of the
+ * modified nodes are only recomputed when they are needed (proof, root hash or commit).
+ *
+ * <p>The engine reads and writes the same node encodings at the same locations as the {@link
+ * StoredNodeTrieEngine}, so both engines can be used on the same storage. Nodes returned in the
+ * proofs are {@link StoredNode} only carrying the hash, their encoding being resolved from this
+ * engine on demand.
+ */
+public class FixedDepthTrieEngine implements TrieEngine {
+
+  private static final Bytes ROOT_LOCATION = Bytes.EMPTY;
+  private static final Bytes NEXT_FREE_NODE_LOCATION = PathResolver.NEXT_FREE_NODE_PATH;
+  private static final byte SUB_TRIE_ROOT_LOCATION = 1;
+
+  private final int depth;
+  private final NodeLoader nodeLoader;
+  private final NodeFactory<Bytes> proofNodeFactory;
+  private final DefaultNodeTable defaultNodes;
+  private final NodeTable[] levels;
+
+  private Bytes32 rootHash;
+  private long nextFreeNode;
+  private boolean rootLoaded;
+  private boolean rootDirty;
+  private boolean nextFreeNodeDirty;
+
+  public FixedDepthTrieEngine(
+      final int depth, final NodeLoader nodeLoader, final Bytes32 rootHash) {
+    checkArgument(depth > 0 && depth < Long.SIZE - 1, "unsupported trie depth %s", depth);
+    this.depth = depth;
+    this.nodeLoader = nodeLoader;
+    this.rootHash = rootHash;
+    this.defaultNodes = DefaultNodeTable.get(depth);
+    this.levels = new NodeTable[depth + 1];
+    for (int level = 0; level <= depth; level++) {
+      levels[level] = new NodeTable();
+    }
+    this.proofNodeFactory = new StoredNodeFactory(this::getEncodedNode, Function.identity());
+  }
+
+  @Override
+  public Bytes32 getTopRootHash() {
+    if (rootHash == null) {
+      rootHash = HashProvider.trieHash(encodeRoot());
+      NodeHashCounter.increment();
+    }
+    return rootHash;
+  }
+
+  @Override
+  public Node<Bytes> getTopRootNode() {
+    return new StoredNode<>(proofNodeFactory, ROOT_LOCATION, getTopRootHash());
+  }
+
+  @Override
+  public Node<Bytes> getSubRootNode() {
+    loadRoot();
+    return new StoredNode<>(proofNodeFactory, location(0, 0), hash(0, 0));
+  }
+
+  @Override
+  public long getNextFreeLeafNodeIndex() {
+    loadRoot();
+    return nextFreeNode;
+  }
+
+  @Override
+  public long incrementNextFreeLeafNodeIndex() {
+    final long foundFreeNode = getNextFreeLeafNodeIndex();
+    nextFreeNode = foundFreeNode + 1;
+    nextFreeNodeDirty = true;
+    markRootDirty();
+    return foundFreeNode;
+  }
+
+  @Override
+  public long decrementNextFreeLeafNodeIndex() {
+    final long foundFreeNode = getNextFreeLeafNodeIndex();
+    nextFreeNode = foundFreeNode - 1;
+    nextFreeNodeDirty = true;
+    markRootDirty();
+    return foundFreeNode;
+  }
+
+  @Override
+  public Optional<Bytes> get(final long leafIndex) {
+    return Optional.ofNullable(getLeafValue(leafIndex));
+  }
+
+  @Override
+  public GetAndProve getAndProve(final long leafIndex) {
+    final Optional<Bytes> value = get(leafIndex);
+    final Optional<Node<Bytes>> leaf =
+        value.map(v -> new LeafNode<>(Bytes.EMPTY, v, proofNodeFactory, Function.identity()));
+    return new GetAndProve(value, getSiblings(leafIndex), leaf);
+  }
+
+  @Override
+  public void put(final long leafIndex, final Bytes value) {
+    setLeafValue(leafIndex, value);
+  }
+
+  @Override
+  public List<Node<Bytes>> putAndProve(final long leafIndex, final Bytes value) {
+    loadPath(depth, leafIndex);
+    final List<Node<Bytes>> siblings = getSiblings(leafIndex);
+    setLeafValue(leafIndex, value);
+    return siblings;
+  }
+
+  @Override
+  public List<Node<Bytes>> removeAndProve(final long leafIndex) {
+    loadPath(depth, leafIndex);
+    final List<Node<Bytes>> siblings = getSiblings(leafIndex);
+    setLeafValue(leafIndex, null);
+    return siblings;
+  }
+
+  @Override
+  public void commit(final NodeUpdater nodeUpdater) {
+    if (!rootDirty) {
+      return;
+    }
+    // children first, so the hash of a branch is computed from up to date child hashes
+    for (int level = depth; level >= 0; level--) {
+      final NodeTable table = levels[level];
+      for (int slot = 0; slot < table.capacity(); slot++) {
+        if (table.hasFlags(slot, NodeTable.DIRTY)) {
+          final long index = table.key(slot);
+          nodeUpdater.store(location(level, index), hash(level, index), encodeNode(level, index));
+          table.clearFlags(slot, NodeTable.DIRTY);
+        }
+      }
+    }
+    if (nextFreeNodeDirty) {
+      final Bytes encodedNextFreeNode = UInt256.valueOf(nextFreeNode);
+      nodeUpdater.store(
+          NEXT_FREE_NODE_LOCATION, HashProvider.trieHash(encodedNextFreeNode), encodedNextFreeNode);
+      NodeHashCounter.increment();
+      nextFreeNodeDirty = false;
+    }
+    nodeUpdater.store(ROOT_LOCATION, getTopRootHash(), encodeRoot());
+    rootDirty = false;
+  }
+
+  @Override
+  public void releaseNodesBelow(final int level) {
+    if (rootDirty) {
+      throw new IllegalStateException("cannot release the nodes of a trie not committed");
+    }
+    // the kept nodes have up to date hashes, their children are loaded again from them
+    for (int released = Math.max(level + 1, 1); released <= depth; released++) {
+      levels[released].clear();
+    }
+  }
+
+  private void markRootDirty() {
+    rootDirty = true;
+    rootHash = null;
+  }
+
+  private void loadRoot() {
+    if (rootLoaded) {
+      return;
+    }
+    final Bytes32 subRootHash;
+    if (rootHash.equals(defaultNodes.getEmptyRootHash())) {
+      nextFreeNode = 0;
+      subRootHash = defaultNodes.getLevelHash(0);
+    } else {
+      final Bytes encodedRoot = loadNode(ROOT_LOCATION, rootHash);
+      nextFreeNode = UInt256.fromBytes(encodedRoot.slice(0, Bytes32.SIZE)).toLong();
+      subRootHash = Bytes32.wrap(encodedRoot.slice(Bytes32.SIZE, Bytes32.SIZE));
+    }
+    levels[0].insert(0, subRootHash);
+    rootLoaded = true;
+  }
+
+  /**
+   * Makes sure the given node and its ancestors are present in the tables. Nodes are loaded top
+   * down, so a node present in its table implies that the whole path up to the root is loaded.
+   */
+  private void loadPath(final int level, final long index) {
+    checkArgument(
+        index >= 0 && index < (1L << level),
+        "node index %s out of range for level %s",
+        index,
+        level);
+    loadRoot();
+    if (levels[level].find(index) >= 0) {
+      return;
+    }
+    for (int parentLevel = 0; parentLevel < level; parentLevel++) {
+      loadChildren(parentLevel, index >>> (level - parentLevel));
+    }
+  }
+
+  private void loadChildren(final int level, final long index) {
+    final NodeTable children = levels[level + 1];
+    final long leftIndex = index << 1;
+    if (children.find(leftIndex) >= 0) {
+      return;
+    }
+    final Bytes32 nodeHash = hash(level, index);
+    final Bytes32 leftHash;
+    final Bytes32 rightHash;
+    if (nodeHash.equals(defaultNodes.getLevelHash(level))) {
+      // default subtrie, no need to hit the storage
+      leftHash = defaultNodes.getLevelHash(level + 1);
+      rightHash = leftHash;
+    } else {
+      final Bytes encodedNode = loadNode(location(level, index), nodeHash);
+      if (encodedNode.size() != Bytes32.SIZE * 2) {
+        throw new MerkleTrieException(
+            "Invalid branch node at level " + level + " for hash " + nodeHash);
+      }
+      leftHash = Bytes32.wrap(encodedNode.slice(0, Bytes32.SIZE));
+      rightHash = Bytes32.wrap(encodedNode.slice(Bytes32.SIZE, Bytes32.SIZE));
+    }
+    children.insert(leftIndex, leftHash);
+    children.insert(leftIndex | 1, rightHash);
+  }
+
+  private Bytes loadNode(final Bytes location, final Bytes32 hash) {
+    return nodeLoader
+        .getNode(location, hash)
+        .or(() -> defaultNodes.getEncodedNode(hash)) // default nodes are never stored
+        .orElseThrow(
+            () -> new MerkleTrieException("Unable to load trie node value for hash " + hash));
+  }
+
+  /** Returns the hash of a loaded node, recomputing it if one of its descendants was modified. */
+  private Bytes32 hash(final int level, final long index) {
+    final NodeTable table = levels[level];
+    final int slot = table.find(index);
+    if (slot < 0) {
+      throw new IllegalStateException("node " + index + " at level " + level + " is not loaded");
+    }
+    if (!table.hasFlags(slot, NodeTable.STALE)) {
+      return table.hash(slot);
+    }
+    final Bytes32 hash;
+    if (level == depth) {
+      hash = HashProvider.trieHash(table.value(slot));
+    } else {
+      hash =
+          HashProvider.trieHash(
+              Bytes.concatenate(hash(level + 1, index << 1), hash(level + 1, (index << 1) | 1)));
+    }
+    NodeHashCounter.increment();
+    // computing the children only touches the tables of the deeper levels, the slot is still valid
+    table.setHash(slot, hash);
+    table.clearFlags(slot, NodeTable.STALE);
+    return hash;
+  }
+
+  private Bytes getLeafValue(final long leafIndex) {
+    loadPath(depth, leafIndex);
+    final NodeTable leaves = levels[depth];
+    final int slot = leaves.find(leafIndex);
+    if (!leaves.hasFlags(slot, NodeTable.LOADED)) {
+      final Bytes32 leafHash = leaves.hash(slot);
+      Bytes value = null;
+      if (!leafHash.equals(EmptyLeafNode.instance().getHash())) {
+        value = loadNode(location(depth, leafIndex), leafHash);
+        if (value.equals(Bytes32.ZERO)) {
+          value = null;
+        }
+      }
+      leaves.setValue(slot, value);
+      leaves.addFlags(slot, NodeTable.LOADED);
+    }
+    return leaves.value(slot);
+  }
+
+  private void setLeafValue(final long leafIndex, final Bytes value) {
+    loadPath(depth, leafIndex);
+    final NodeTable leaves = levels[depth];
+    final int slot = leaves.find(leafIndex);
+    leaves.setValue(slot, value);
+    if (value == null) {
+      leaves.setHash(slot, EmptyLeafNode.instance().getHash());
+      leaves.clearFlags(slot, NodeTable.STALE);
+      leaves.addFlags(slot, (byte) (NodeTable.LOADED | NodeTable.DIRTY));
+    } else {
+      leaves.addFlags(slot, (byte) (NodeTable.LOADED | NodeTable.DIRTY | NodeTable.STALE));
+    }
+    final byte staleAndDirty = NodeTable.STALE | NodeTable.DIRTY;
+    for (int level = depth - 1; level >= 0; level--) {
+      final NodeTable table = levels[level];
+      final int ancestorSlot = table.find(leafIndex >>> (depth - level));
+      if (table.hasFlags(ancestorSlot, staleAndDirty)) {
+        // a stale node always has stale ancestors, nothing left to mark
+        break;
+      }
+      table.addFlags(ancestorSlot, staleAndDirty);
+    }
+    markRootDirty();
+  }
+
+  /** Returns the siblings of the path of the leaf, from the leaf level up to the sub trie root. */
+  private List<Node<Bytes>> getSiblings(final long leafIndex) {
+    loadPath(depth, leafIndex);
+    final List<Node<Bytes>> siblings = new ArrayList<>(depth);
+    for (int level = depth; level > 0; level--) {
+      final long siblingIndex = (leafIndex >>> (depth - level)) ^ 1;
+      siblings.add(
+          new StoredNode<>(
+              proofNodeFactory, location(level, siblingIndex), hash(level, siblingIndex)));
+    }
+    return siblings;
+  }
+
+  private Bytes encodeRoot() {
+    loadRoot();
+    return Bytes.concatenate(UInt256.valueOf(nextFreeNode), hash(0, 0));
+  }
+
+  private Bytes encodeNode(final int level, final long index) {
+    if (level == depth) {
+      final Bytes value = getLeafValue(index);
+      return value == null ? EmptyLeafNode.instance().getEncodedBytes() : value;
+    }
+    loadPath(level, index);
+    loadChildren(level, index);
+    return Bytes.concatenate(hash(level + 1, index << 1), hash(level + 1, (index << 1) | 1));
+  }
+
+  /** Resolves the encoding of the nodes handed out in the proofs. */
+  private Optional<Bytes> getEncodedNode(final Bytes location, final Bytes32 hash) {
+    if (location.isEmpty()) {
+      return Optional.of(encodeRoot());
+    }
+    if (location.get(0) != SUB_TRIE_ROOT_LOCATION) {
+      loadRoot();
+      return Optional.of(UInt256.valueOf(nextFreeNode));
+    }
+    long index = 0;
+    for (int i = 1; i < location.size(); i++) {
+      index = (index << 1) | location.get(i);
+    }
+    return Optional.of(encodeNode(location.size() - 1, index));
+  }
+
+  /** The location of a node is the sub trie root location followed by one byte per bit. */
+  static Bytes location(final int level, final long index) {
+    final MutableBytes location = MutableBytes.create(level + 1);
+    location.set(0, SUB_TRIE_ROOT_LOCATION);
+    for (int i = 1; i <= level; i++) {
+      location.set(i, (byte) ((index >>> (level - i)) & 1));
+    }
+    return location;
+  }
+}
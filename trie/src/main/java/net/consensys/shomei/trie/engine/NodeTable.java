@@ -0,0 +1,172 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie.engine;
+
+import java.util.Arrays;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+
+/**
+ * Open addressing table holding the nodes of a single level of a {@link FixedDepthTrieEngine}.
+ * Nodes are keyed by their index inside the level, and for each of them the table keeps the hash,
+ * the value (leaf level only) and a set of flags. Keys, hashes, values and flags are stored in
+ * parallel arrays to avoid allocating an entry object per node.
+ *
+ * <p>Slots returned by {@link #find(long)} and {@link #insert(long, Bytes32)} are only valid until
+ * the next insertion, which may resize the table.
+ */
+final class NodeTable {
+
+  /** The hash of the node needs to be recomputed from its children (or its value). */
+  static final byte STALE = 1;
+
+  /** The node was modified since the last commit and needs to be persisted. */
+  static final byte DIRTY = 1 << 1;
+
+  /** The value of the leaf was resolved (from the storage or from an update). */
+  static final byte LOADED = 1 << 2;
+
+  private static final long FREE = -1L;
+  private static final long MIX = 0x9E3779B97F4A7C15L;
+  private static final int INITIAL_CAPACITY = 8;
+
+  private long[] keys;
+  private Bytes32[] hashes;
+  private Bytes[] values;
+  private byte[] flags;
+  private int shift;
+  private int size;
+
+  NodeTable() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Returns the slot of the given node index.
+   *
+   * @param key the node index
+   * @return the slot of the node, or -1 if the node is not present
+   */
+  int find(final long key) {
+    final int mask = keys.length - 1;
+    int slot = slotOf(key);
+    while (keys[slot] != FREE) {
+      if (keys[slot] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Adds a clean node to the table if it is not already present.
+   *
+   * @param key the node index
+   * @param hash the hash of the node
+   * @return the slot of the node
+   */
+  int insert(final long key, final Bytes32 hash) {
+    if ((size + 1) << 1 > keys.length) {
+      resize(keys.length << 1);
+    }
+    final int mask = keys.length - 1;
+    int slot = slotOf(key);
+    while (keys[slot] != FREE) {
+      if (keys[slot] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    hashes[slot] = hash;
+    size++;
+    return slot;
+  }
+
+  /** Removes all the nodes, shrinking the table back to its initial capacity. */
+  void clear() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  int capacity() {
+    return keys.length;
+  }
+
+  int size() {
+    return size;
+  }
+
+  long key(final int slot) {
+    return keys[slot];
+  }
+
+  Bytes32 hash(final int slot) {
+    return hashes[slot];
+  }
+
+  void setHash(final int slot, final Bytes32 hash) {
+    hashes[slot] = hash;
+  }
+
+  Bytes value(final int slot) {
+    return values[slot];
+  }
+
+  void setValue(final int slot, final Bytes value) {
+    values[slot] = value;
+  }
+
+  boolean hasFlags(final int slot, final byte mask) {
+    return (flags[slot] & mask) == mask;
+  }
+
+  void addFlags(final int slot, final byte mask) {
+    flags[slot] |= mask;
+  }
+
+  void clearFlags(final int slot, final byte mask) {
+    flags[slot] &= (byte) ~mask;
+  }
+
+  private int slotOf(final long key) {
+    return (int) ((key * MIX) >>> shift);
+  }
+
+  private void allocate(final int capacity) {
+    keys = new long[capacity];
+    Arrays.fill(keys, FREE);
+    hashes = new Bytes32[capacity];
+    values = new Bytes[capacity];
+    flags = new byte[capacity];
+    shift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+    size = 0;
+  }
+
+  private void resize(final int capacity) {
+    final long[] oldKeys = keys;
+    final Bytes32[] oldHashes = hashes;
+    final Bytes[] oldValues = values;
+    final byte[] oldFlags = flags;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != FREE) {
+        final int slot = insert(oldKeys[i], oldHashes[i]);
+        values[slot] = oldValues[i];
+        flags[slot] = oldFlags[i];
+      }
+    }
+  }
+}
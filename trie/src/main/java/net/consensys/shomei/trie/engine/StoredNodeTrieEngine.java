@@ -0,0 +1,109 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie.engine;
+
+import net.consensys.shomei.trie.DefaultNodeTable;
+import net.consensys.shomei.trie.StoredSparseMerkleTrie;
+import net.consensys.shomei.trie.StoredSparseMerkleTrie.GetAndProve;
+import net.consensys.shomei.trie.path.PathResolver;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.hyperledger.besu.ethereum.trie.Node;
+import org.hyperledger.besu.ethereum.trie.NodeLoader;
+import org.hyperledger.besu.ethereum.trie.NodeUpdater;
+
+/**
+ * Engine based on the generic node and visitor abstractions of {@link StoredSparseMerkleTrie}. The
+ * leaf index is converted into a nibble path by the {@link PathResolver}.
+ */
+public class StoredNodeTrieEngine implements TrieEngine {
+
+  private final StoredSparseMerkleTrie state;
+  private final PathResolver pathResolver;
+
+  public StoredNodeTrieEngine(
+      final int trieDepth, final NodeLoader nodeLoader, final Bytes32 rootHash) {
+    final DefaultNodeTable defaultNodes = DefaultNodeTable.get(trieDepth);
+    // the default nodes are never stored, they are resolved by hash whatever their location
+    final NodeLoader withDefaultNodes =
+        (location, hash) ->
+            nodeLoader.getNode(location, hash).or(() -> defaultNodes.getEncodedNode(hash));
+    this.state = new StoredSparseMerkleTrie(withDefaultNodes, rootHash, b -> b);
+    this.pathResolver = new PathResolver(trieDepth, state);
+  }
+
+  @Override
+  public Bytes32 getTopRootHash() {
+    return state.getRootHash();
+  }
+
+  @Override
+  public Node<Bytes> getTopRootNode() {
+    return state.getRootNode();
+  }
+
+  @Override
+  public Node<Bytes> getSubRootNode() {
+    return state.getNode(pathResolver.geRootPath());
+  }
+
+  @Override
+  public long getNextFreeLeafNodeIndex() {
+    return pathResolver.getNextFreeLeafNodeIndex();
+  }
+
+  @Override
+  public long incrementNextFreeLeafNodeIndex() {
+    return pathResolver.incrementNextFreeLeafNodeIndex();
+  }
+
+  @Override
+  public long decrementNextFreeLeafNodeIndex() {
+    return pathResolver.decrementNextFreeLeafNodeIndex();
+  }
+
+  @Override
+  public Optional<Bytes> get(final long leafIndex) {
+    return state.get(pathResolver.getLeafPath(leafIndex));
+  }
+
+  @Override
+  public GetAndProve getAndProve(final long leafIndex) {
+    return state.getAndProve(pathResolver.getLeafPath(leafIndex));
+  }
+
+  @Override
+  public void put(final long leafIndex, final Bytes value) {
+    state.put(pathResolver.getLeafPath(leafIndex), value);
+  }
+
+  @Override
+  public List<Node<Bytes>> putAndProve(final long leafIndex, final Bytes value) {
+    return state.putAndProve(pathResolver.getLeafPath(leafIndex), value);
+  }
+
+  @Override
+  public List<Node<Bytes>> removeAndProve(final long leafIndex) {
+    return state.removeAndProve(pathResolver.getLeafPath(leafIndex));
+  }
+
+  @Override
+  public void commit(final NodeUpdater nodeUpdater) {
+    state.commit(nodeUpdater);
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie.engine;
+
+import net.consensys.shomei.trie.StoredSparseMerkleTrie.GetAndProve;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.hyperledger.besu.ethereum.trie.Node;
+import org.hyperledger.besu.ethereum.trie.NodeUpdater;
+
+/**
+ * The TrieEngine is the sparse Merkle trie backing a {@link net.consensys.shomei.trie.ZKTrie}.
+ * Leaves are addressed by their index, the engine is in charge of the layout of the nodes in the
+ * storage, of the hashing and of the generation of the sibling proofs.
+ *
+ * <p>Siblings are returned from the leaf level up to the sub trie root, without the next free node.
+ */
+public interface TrieEngine {
+
+  Bytes32 getTopRootHash();
+
+  Node<Bytes> getTopRootNode();
+
+  Node<Bytes> getSubRootNode();
+
+  long getNextFreeLeafNodeIndex();
+
+  /**
+   * Increments the next free leaf index.
+   *
+   * @return the next free leaf index before the increment
+   */
+  long incrementNextFreeLeafNodeIndex();
+
+  /**
+   * Decrements the next free leaf index.
+   *
+   * @return the next free leaf index before the decrement
+   */
+  long decrementNextFreeLeafNodeIndex();
+
+  Optional<Bytes> get(long leafIndex);
+
+  GetAndProve getAndProve(long leafIndex);
+
+  void put(long leafIndex, Bytes value);
+
+  List<Node<Bytes>> putAndProve(long leafIndex, Bytes value);
+
+  List<Node<Bytes>> removeAndProve(long leafIndex);
+
+  void commit(NodeUpdater nodeUpdater);
+
+  /**
+   * Drops from memory the nodes loaded below the given level, 0 being the sub trie root, they are
+   * read again from the storage when needed. Only allowed right after a commit. Does nothing for
+   * the engines keeping no node in memory after a commit.
+   *
+   * @param level the deepest level whose nodes are kept
+   */
+  default void releaseNodesBelow(final int level) {
+    // no-op
+  }
+}
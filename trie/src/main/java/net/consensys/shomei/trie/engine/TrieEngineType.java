@@ -0,0 +1,32 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie.engine;
+
+import org.apache.tuweni.bytes.Bytes32;
+import org.hyperledger.besu.ethereum.trie.NodeLoader;
+
+public enum TrieEngineType {
+  /** Engine based on the generic node and visitor abstractions. */
+  STORED_NODE,
+  /** Engine specialised for the fixed depth binary trie, addressed by leaf index. */
+  FIXED_DEPTH;
+
+  public TrieEngine create(
+      final int trieDepth, final NodeLoader nodeLoader, final Bytes32 rootHash) {
+    return switch (this) {
+      case STORED_NODE -> new StoredNodeTrieEngine(trieDepth, nodeLoader, rootHash);
+      case FIXED_DEPTH -> new FixedDepthTrieEngine(trieDepth, nodeLoader, rootHash);
+    };
+  }
+}
@@ -43,4 +43,53 @@ public record FlattenedLeaf(Long leafIndex, Bytes leafValue) {
     in.leaveList();
     return new FlattenedLeaf(nonce, value);
   }
+
+  /**
+   * Decodes a flattened leaf directly from its RLP encoding, without going through an {@link
+   * RLPInput}. The leaf value is a view on the encoded bytes.
+   */
+  public static FlattenedLeaf readFrom(final Bytes encoded) {
+    final RlpItem list = readItem(encoded, 0);
+    final RlpItem leafIndex = readItem(encoded, list.offset());
+    final RlpItem leafValue = readItem(encoded, leafIndex.end());
+    if (leafIndex.length() > Long.BYTES || leafValue.end() != list.end()) {
+      throw new IllegalArgumentException("invalid flattened leaf " + encoded.toHexString());
+    }
+    long index = 0;
+    for (int i = leafIndex.offset(); i < leafIndex.end(); i++) {
+      index = (index << 8) | (encoded.get(i) & 0xff);
+    }
+    return new FlattenedLeaf(index, encoded.slice(leafValue.offset(), leafValue.length()));
+  }
+
+  /** Position of the payload of a RLP item in the encoded bytes. */
+  private record RlpItem(int offset, int length) {
+    int end() {
+      return offset + length;
+    }
+  }
+
+  private static RlpItem readItem(final Bytes encoded, final int offset) {
+    final int prefix = encoded.get(offset) & 0xff;
+    if (prefix < 0x80) { // single byte
+      return new RlpItem(offset, 1);
+    } else if (prefix <= 0xb7) { // short string
+      return new RlpItem(offset + 1, prefix - 0x80);
+    } else if (prefix < 0xc0) { // long string
+      return readLongItem(encoded, offset, prefix - 0xb7);
+    } else if (prefix <= 0xf7) { // short list
+      return new RlpItem(offset + 1, prefix - 0xc0);
+    } else { // long list
+      return readLongItem(encoded, offset, prefix - 0xf7);
+    }
+  }
+
+  private static RlpItem readLongItem(
+      final Bytes encoded, final int offset, final int sizeOfLength) {
+    int length = 0;
+    for (int i = offset + 1; i <= offset + sizeOfLength; i++) {
+      length = (length << 8) | (encoded.get(i) & 0xff);
+    }
+    return new RlpItem(offset + 1 + sizeOfLength, length);
+  }
 }
@@ -13,18 +13,21 @@
 
 package net.consensys.shomei.trie.model;
 
-import net.consensys.shomei.util.bytes.BytesBuffer;
+import static com.google.common.base.Preconditions.checkArgument;
 
 import java.util.Objects;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.bytes.MutableBytes;
 import org.apache.tuweni.units.bigints.UInt256;
 import org.hyperledger.besu.datatypes.Hash;
 
 public class LeafOpening {
 
+  private static final int ENCODED_SIZE = 2 * UInt256.SIZE + 2 * Bytes32.SIZE;
+
   public static final LeafOpening HEAD =
       new LeafOpening(0, 1, Hash.wrap(Bytes32.ZERO), Bytes32.ZERO);
 
@@ -112,24 +115,41 @@ public class LeafOpening {
     return Objects.hash(hkey, hval, prevLeaf, nextLeaf);
   }
 
+  /**
+   * Decodes a leaf opening from its fixed width encoding. The fields are read in place, the hkey
+   * and the hval are views on the encoded bytes.
+   */
   public static LeafOpening readFrom(final Bytes encodedBytes) {
-    return BytesBuffer.readBytes(
-        encodedBytes,
-        bytesInput ->
-            new LeafOpening(
-                bytesInput.readUInt256().toLong(),
-                bytesInput.readUInt256().toLong(),
-                Hash.wrap(bytesInput.readBytes32()),
-                bytesInput.readBytes32()));
+    checkArgument(
+        encodedBytes.size() == ENCODED_SIZE,
+        "invalid leaf opening size %s",
+        encodedBytes.size());
+    return new LeafOpening(
+        readLeafIndex(encodedBytes, 0),
+        readLeafIndex(encodedBytes, UInt256.SIZE),
+        Hash.wrap(Bytes32.wrap(encodedBytes, 2 * UInt256.SIZE)),
+        Bytes32.wrap(encodedBytes, 2 * UInt256.SIZE + Bytes32.SIZE));
+  }
+
+  private static long readLeafIndex(final Bytes encodedBytes, final int offset) {
+    // the leaf index is a 256 bits word whose value always fits in the last 8 bytes
+    for (int i = offset; i < offset + UInt256.SIZE - Long.BYTES; i++) {
+      if (encodedBytes.get(i) != 0) {
+        throw new ArithmeticException("leaf index is too large to fit in a long");
+      }
+    }
+    return encodedBytes.getLong(offset + UInt256.SIZE - Long.BYTES);
   }
 
   @JsonIgnore
   public Bytes getEncodesBytes() {
-    return Bytes.concatenate(
-        UInt256.valueOf(prevLeaf), // Prev
-        UInt256.valueOf(nextLeaf), // Next ,
-        hkey, // HKEY
-        hval); // HVALUE
+    // Prev, Next, HKEY and HVALUE written once into the final buffer
+    final MutableBytes encoded = MutableBytes.create(2 * UInt256.SIZE + hkey.size() + hval.size());
+    encoded.setLong(UInt256.SIZE - Long.BYTES, prevLeaf);
+    encoded.setLong(2 * UInt256.SIZE - Long.BYTES, nextLeaf);
+    hkey.copyTo(encoded, 2 * UInt256.SIZE);
+    hval.copyTo(encoded, 2 * UInt256.SIZE + hkey.size());
+    return encoded;
   }
 
   @Override
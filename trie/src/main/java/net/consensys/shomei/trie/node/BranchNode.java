@@ -16,8 +16,6 @@ package net.consensys.shomei.trie.node;
 import net.consensys.zkevm.HashProvider;
 
 import java.io.ByteArrayOutputStream;
-import java.lang.ref.SoftReference;
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -31,7 +29,9 @@ import org.hyperledger.besu.ethereum.trie.NodeFactory;
 public class BranchNode<V> extends org.hyperledger.besu.ethereum.trie.patricia.BranchNode<V>
     implements Node<V> {
 
-  private SoftReference<Bytes32> hash;
+  // held strongly, the node is released by the trie once committed
+  private Bytes32 hash;
+  private Bytes encoded;
 
   public BranchNode(
       final Bytes location,
@@ -42,6 +42,20 @@ public class BranchNode<V> extends org.hyperledger.besu.ethereum.trie.patricia.B
     super(location, children, value, nodeFactory, valueSerializer);
   }
 
+  /** Creates a branch decoded from the storage, whose hash and encoding are already known. */
+  public BranchNode(
+      final Bytes location,
+      final ArrayList<Node<V>> children,
+      final Optional<V> value,
+      final NodeFactory<V> nodeFactory,
+      final Function<V, Bytes> valueSerializer,
+      final Bytes32 hash,
+      final Bytes encoded) {
+    super(location, children, value, nodeFactory, valueSerializer);
+    this.hash = hash;
+    this.encoded = encoded;
+  }
+
   public BranchNode(
       final List<Node<V>> children,
       final Optional<V> value,
@@ -57,11 +71,8 @@ public class BranchNode<V> extends org.hyperledger.besu.ethereum.trie.patricia.B
 
   @Override
   public Bytes getEncodedBytes() {
-    if (encodedBytes != null) {
-      final Bytes encoded = encodedBytes.get();
-      if (encoded != null) {
-        return encoded;
-      }
+    if (encoded != null) {
+      return encoded;
     }
     final ByteArrayOutputStream out = new ByteArrayOutputStream();
     getChildren()
@@ -73,22 +84,17 @@ public class BranchNode<V> extends org.hyperledger.besu.ethereum.trie.patricia.B
                 out.writeBytes(vNode.getHash().toArrayUnsafe());
               }
             });
-    final Bytes encoded = Bytes.wrap(out.toByteArray());
-    encodedBytes = new WeakReference<>(encoded);
+    encoded = Bytes.wrap(out.toByteArray());
     return encoded;
   }
 
   @Override
   public Bytes32 getHash() {
-    if (hash != null) {
-      final Bytes32 hashed = hash.get();
-      if (hashed != null) {
-        return hashed;
-      }
+    if (hash == null) {
+      hash = HashProvider.trieHash(getEncodedBytes());
+      NodeHashCounter.increment();
     }
-    final Bytes32 hashed = HashProvider.trieHash(getEncodedBytes());
-    hash = new SoftReference<>(hashed);
-    return hashed;
+    return hash;
   }
 
   @Override
@@ -16,8 +16,6 @@ package net.consensys.shomei.trie.node;
 import net.consensys.zkevm.HashProvider;
 
 import java.io.ByteArrayOutputStream;
-import java.lang.ref.SoftReference;
-import java.lang.ref.WeakReference;
 import java.util.function.Function;
 
 import org.apache.tuweni.bytes.Bytes;
@@ -30,7 +28,9 @@ import org.hyperledger.besu.ethereum.trie.NodeFactory;
  */
 public class NextFreeNode<V> extends org.hyperledger.besu.ethereum.trie.patricia.LeafNode<V> {
 
-  private SoftReference<Bytes32> hash;
+  // held strongly, the node is released by the trie once committed
+  private Bytes32 hash;
+  private Bytes encoded;
 
   public NextFreeNode(
       final Bytes path,
@@ -42,31 +42,22 @@ public class NextFreeNode<V> extends org.hyperledger.besu.ethereum.trie.patricia
 
   @Override
   public Bytes getEncodedBytes() {
-    if (encodedBytes != null) {
-      final Bytes encoded = encodedBytes.get();
-      if (encoded != null) {
-        return encoded;
-      }
+    if (encoded != null) {
+      return encoded;
     }
-
     final ByteArrayOutputStream out = new ByteArrayOutputStream();
     out.writeBytes(valueSerializer.apply(value).toArrayUnsafe());
-    final Bytes encoded = Bytes.wrap(out.toByteArray());
-    encodedBytes = new WeakReference<>(encoded);
+    encoded = Bytes.wrap(out.toByteArray());
     return encoded;
   }
 
   @Override
   public Bytes32 getHash() {
-    if (hash != null) {
-      final Bytes32 hashed = hash.get();
-      if (hashed != null) {
-        return hashed;
-      }
+    if (hash == null) {
+      hash = HashProvider.trieHash(getEncodedBytes());
+      NodeHashCounter.increment();
     }
-    final Bytes32 hashed = HashProvider.trieHash(getEncodedBytes());
-    hash = new SoftReference<>(hashed);
-    return hashed;
+    return hash;
   }
 
   @Override
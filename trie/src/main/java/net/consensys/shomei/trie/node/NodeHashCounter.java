@@ -0,0 +1,38 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie.node;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the hashes computed for the trie nodes, by the nodes themselves or by the engines hashing
+ * them directly. A node memoises its hash for as long as it is alive, and a node decoded from the
+ * storage reuses the hash of its parent reference, so this counter should only move for nodes
+ * created or modified since the last commit. A growing gap between this counter and the number of
+ * nodes written indicates hash recomputations.
+ */
+public final class NodeHashCounter {
+
+  private static final LongAdder COMPUTED = new LongAdder();
+
+  private NodeHashCounter() {}
+
+  public static void increment() {
+    COMPUTED.increment();
+  }
+
+  public static LongAdder getComputed() {
+    return COMPUTED;
+  }
+}
@@ -27,7 +27,7 @@ import org.apache.tuweni.bytes.Bytes;
  * and abstraction for interacting with the account trie data.
  */
 public class AccountTrieRepositoryWrapper implements TrieStorage {
-  private static final Bytes ACCOUNT_TRIE_PREFIX = Bytes.wrap(Longs.toByteArray(Long.MAX_VALUE));
+  static final Bytes ACCOUNT_TRIE_PREFIX = Bytes.wrap(Longs.toByteArray(Long.MAX_VALUE));
   public static final Function<Bytes, Bytes> WRAP_ACCOUNT =
       hkey -> Bytes.concatenate(ACCOUNT_TRIE_PREFIX, hkey);
   public static final Function<Bytes, Bytes> UNWRAP_ACCOUNT =
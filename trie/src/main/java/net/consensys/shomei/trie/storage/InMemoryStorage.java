@@ -91,6 +91,16 @@ public class InMemoryStorage implements TrieStorage, TrieStorage.TrieUpdater {
     flatLeafStorage.remove(key);
   }
 
+  /**
+   * Removes all the flat leaves and trie nodes whose key starts with the given prefix.
+   *
+   * @param prefix the prefix of the keys to remove.
+   */
+  public void removeKeysWithPrefix(final Bytes prefix) {
+    flatLeafStorage.keySet().removeIf(key -> key.commonPrefixLength(prefix) == prefix.size());
+    trieNodeStorage.keySet().removeIf(key -> key.commonPrefixLength(prefix) == prefix.size());
+  }
+
   @Override
   public void commit() {
     // no-op
@@ -0,0 +1,101 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie.storage;
+
+import net.consensys.shomei.trie.model.FlattenedLeaf;
+
+import java.util.Map;
+import java.util.Optional;
+
+import com.google.common.primitives.Longs;
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.MutableBytes;
+
+/**
+ * Read only view of the account trie or of the storage trie of an account, for the proofs. It
+ * reads the same keys as {@link AccountTrieRepositoryWrapper} and {@link
+ * StorageTrieRepositoryWrapper} but never creates an updater of the underlying storage, and writes
+ * each prefixed key once into its own array instead of concatenating it lazily.
+ */
+public class ReadOnlyTrieRepositoryWrapper implements TrieStorage {
+
+  private static final byte[] ACCOUNT_TRIE_PREFIX =
+      AccountTrieRepositoryWrapper.ACCOUNT_TRIE_PREFIX.toArray();
+
+  private final TrieStorage trieStorage;
+  private final byte[] prefix;
+  // the account trie nodes are not prefixed, the storage trie nodes are
+  private final boolean isTrieNodePrefixed;
+
+  private ReadOnlyTrieRepositoryWrapper(
+      final TrieStorage trieStorage, final byte[] prefix, final boolean isTrieNodePrefixed) {
+    this.trieStorage = trieStorage;
+    this.prefix = prefix;
+    this.isTrieNodePrefixed = isTrieNodePrefixed;
+  }
+
+  public static ReadOnlyTrieRepositoryWrapper forAccountTrie(final TrieStorage trieStorage) {
+    return new ReadOnlyTrieRepositoryWrapper(trieStorage, ACCOUNT_TRIE_PREFIX, false);
+  }
+
+  public static ReadOnlyTrieRepositoryWrapper forStorageTrie(
+      final long accountLeafIndex, final TrieStorage trieStorage) {
+    return new ReadOnlyTrieRepositoryWrapper(
+        trieStorage, Longs.toByteArray(accountLeafIndex), true);
+  }
+
+  @Override
+  public Optional<FlattenedLeaf> getFlatLeaf(final Bytes hkey) {
+    return trieStorage.getFlatLeaf(prefix(hkey));
+  }
+
+  @Override
+  public Range getNearestKeys(final Bytes hkey) {
+    final Range nearestKeys = trieStorage.getNearestKeys(prefix(hkey));
+    return new Range(
+        unprefix(nearestKeys.getLeftNodeKey(), nearestKeys.getLeftNodeValue()),
+        nearestKeys
+            .getCenterNode()
+            .map(centerNode -> unprefix(centerNode.getKey(), centerNode.getValue())),
+        unprefix(nearestKeys.getRightNodeKey(), nearestKeys.getRightNodeValue()));
+  }
+
+  @Override
+  public Optional<Bytes> getTrieNode(final Bytes location, final Bytes nodeHash) {
+    if (isTrieNodePrefixed) {
+      return trieStorage.getTrieNode(prefix(location), prefix(nodeHash));
+    }
+    return trieStorage.getTrieNode(location, nodeHash);
+  }
+
+  @Override
+  public TrieUpdater updater() {
+    throw new UnsupportedOperationException("cannot update a read only trie storage");
+  }
+
+  private Bytes prefix(final Bytes key) {
+    if (key == null) {
+      return null;
+    }
+    final MutableBytes prefixedKey = MutableBytes.create(prefix.length + key.size());
+    prefixedKey.set(0, Bytes.wrap(prefix));
+    prefixedKey.set(prefix.length, key);
+    return prefixedKey;
+  }
+
+  private Map.Entry<Bytes, FlattenedLeaf> unprefix(final Bytes key, final FlattenedLeaf value) {
+    // the wrappers keep the last byte of the prefix in the returned keys
+    return Map.entry(key.slice(prefix.length - 1), value);
+  }
+}
@@ -35,17 +35,27 @@ public class StorageTrieRepositoryWrapper implements TrieStorage {
 
   public StorageTrieRepositoryWrapper(
       final long accountLeafIndex, final TrieStorage trieStorage, final TrieUpdater updater) {
-    this.accountPath = Bytes.wrap(Longs.toByteArray(accountLeafIndex));
+    this.accountPath = getAccountPath(accountLeafIndex);
     this.trieStorage = trieStorage;
     this.updater = updater;
   }
 
   public StorageTrieRepositoryWrapper(final long accountLeafIndex, final TrieStorage trieStorage) {
-    this.accountPath = Bytes.wrap(Longs.toByteArray(accountLeafIndex));
+    this.accountPath = getAccountPath(accountLeafIndex);
     this.trieStorage = trieStorage;
     this.updater = trieStorage.updater();
   }
 
+  /**
+   * Returns the prefix of the keys of all the flat leaves and trie nodes of an account storage.
+   *
+   * @param accountLeafIndex the leaf index of the account in the account trie
+   * @return the prefix of the storage keys of the account
+   */
+  public static Bytes getAccountPath(final long accountLeafIndex) {
+    return Bytes.wrap(Longs.toByteArray(accountLeafIndex));
+  }
+
   @Override
   public Optional<FlattenedLeaf> getFlatLeaf(final Bytes hkey) {
     return trieStorage.getFlatLeaf(getStorageKeyForAccount(hkey));
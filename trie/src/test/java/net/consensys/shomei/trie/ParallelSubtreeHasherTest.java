@@ -0,0 +1,95 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie;
+
+import static net.consensys.shomei.trie.DigestGenerator.createDumDigest;
+import static net.consensys.shomei.trie.ParallelSubtreeHasher.MIN_FORK_DIRTY_LEAVES;
+import static net.consensys.shomei.util.bytes.MimcSafeBytes.unsafeFromBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import net.consensys.shomei.trie.storage.InMemoryStorage;
+import net.consensys.shomei.util.bytes.MimcSafeBytes;
+import net.consensys.zkevm.HashProvider;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.junit.After;
+import org.junit.Test;
+
+public class ParallelSubtreeHasherTest {
+
+  private final ForkJoinPool pool = new ForkJoinPool(4);
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void parallelHashingCommitsTheSameNodesAsSequentialHashing() {
+    final InMemoryStorage parallelStorage = new InMemoryStorage();
+    final ZKTrie parallelTrie = ZKTrie.createTrie(parallelStorage);
+    final InMemoryStorage sequentialStorage = new InMemoryStorage();
+    final ZKTrie sequentialTrie = ZKTrie.createTrie(sequentialStorage);
+    for (int i = 0; i < 256; i++) {
+      put(parallelTrie, i, i);
+      put(sequentialTrie, i, i);
+    }
+    assertSameCommit(parallelTrie, parallelStorage, sequentialTrie, sequentialStorage);
+
+    // update the leaves spread over the trie, the dirty nodes span several levels
+    for (int i = 0; i < 256; i += 4) {
+      put(parallelTrie, i, 1000 + i);
+      put(sequentialTrie, i, 1000 + i);
+    }
+    assertSameCommit(parallelTrie, parallelStorage, sequentialTrie, sequentialStorage);
+  }
+
+  @Test
+  public void fewDirtyLeavesAreNotHashedInParallel() {
+    final ZKTrie trie = ZKTrie.createTrie(new InMemoryStorage());
+    for (int i = 0; i < MIN_FORK_DIRTY_LEAVES; i++) {
+      put(trie, i, i);
+    }
+
+    ParallelSubtreeHasher.hash(trie.getTopRootNode(), pool);
+
+    assertThat(pool.getPoolSize()).isZero();
+  }
+
+  private void assertSameCommit(
+      final ZKTrie parallelTrie,
+      final InMemoryStorage parallelStorage,
+      final ZKTrie sequentialTrie,
+      final InMemoryStorage sequentialStorage) {
+    ParallelSubtreeHasher.hash(parallelTrie.getTopRootNode(), pool);
+    assertThat(pool.getPoolSize()).isPositive();
+    // hashed by the calling thread alone, the commit then finds the hashes memoised
+    sequentialTrie.getTopRootHash();
+
+    parallelTrie.commit();
+    sequentialTrie.commit();
+
+    assertThat(parallelTrie.getTopRootHash()).isEqualTo(sequentialTrie.getTopRootHash());
+    assertThat(parallelStorage.getTrieNodeStorage())
+        .isEqualTo(sequentialStorage.getTrieNodeStorage());
+  }
+
+  private static void put(final ZKTrie trie, final int key, final int value) {
+    final MimcSafeBytes<Bytes> safeKey = unsafeFromBytes(createDumDigest(key));
+    trie.putWithTrace(
+        HashProvider.trieHash(safeKey), safeKey, unsafeFromBytes(createDumDigest(value)));
+  }
+}
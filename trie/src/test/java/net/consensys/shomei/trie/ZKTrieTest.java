@@ -17,17 +17,43 @@ import static net.consensys.shomei.trie.DigestGenerator.createDumDigest;
 import static net.consensys.shomei.util.bytes.MimcSafeBytes.unsafeFromBytes;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import net.consensys.shomei.trie.engine.TrieEngineType;
 import net.consensys.shomei.trie.model.LeafOpening;
+import net.consensys.shomei.trie.node.NodeHashCounter;
 import net.consensys.shomei.trie.storage.InMemoryStorage;
 import net.consensys.shomei.util.bytes.MimcSafeBytes;
+import net.consensys.zkevm.HashMetrics;
 import net.consensys.zkevm.HashProvider;
 
 import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
 import org.hyperledger.besu.datatypes.Hash;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
+@RunWith(Parameterized.class)
 public class ZKTrieTest {
 
+  @Parameterized.Parameter public TrieEngineType trieEngineType;
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Object[] trieEngineTypes() {
+    return TrieEngineType.values();
+  }
+
+  @Before
+  public void setup() {
+    ZKTrie.setTrieEngineType(trieEngineType);
+  }
+
+  @After
+  public void tearDown() {
+    ZKTrie.setTrieEngineType(TrieEngineType.STORED_NODE);
+  }
+
   @Test
   public void testWorldStateHead() {
     assertThat(HashProvider.trieHash(LeafOpening.HEAD.getEncodesBytes()))
@@ -60,6 +86,14 @@ public class ZKTrieTest {
         .isEqualTo(
             Bytes.fromHexString(
                 "0x07977874126658098c066972282d4c85f230520af3847e297fe7524f976873e5"));
+    assertThat(ZKTrie.getDefaultTrieRoot()).isEqualTo(zkTrie.getTopRootHash());
+  }
+
+  @Test
+  public void shippedDefaultNodesMatchComputedOnes() {
+    ZKTrie.verifyDefaultNodes();
+    assertThat(ZKTrie.loadTrie(ZKTrie.getEmptyTrieRoot(), new InMemoryStorage()).getSubRootHash())
+        .isEqualTo(DefaultNodeTable.get(40).getLevelHash(0));
   }
 
   @Test
@@ -153,4 +187,36 @@ public class ZKTrieTest {
             Bytes.fromHexString(
                 "0x0bcb88342825fa7a079a5cf5f77d07b1590a140c311a35acd765080eea120329"));
   }
+
+  @Test
+  public void committedNodesAreNotHashedAgain() {
+    final InMemoryStorage storage = new InMemoryStorage();
+    ZKTrie zkTrie = ZKTrie.createTrie(storage);
+    for (int i = 0; i < 16; i++) {
+      final MimcSafeBytes<Bytes> key = unsafeFromBytes(createDumDigest(100 + i));
+      zkTrie.putWithTrace(HashProvider.trieHash(key), key, unsafeFromBytes(createDumDigest(i)));
+    }
+    zkTrie.commit();
+    final Bytes32 rootHash = zkTrie.getTopRootHash();
+    final MimcSafeBytes<Bytes> updatedKey = unsafeFromBytes(createDumDigest(100));
+    final Hash updatedHkey = HashProvider.trieHash(updatedKey);
+    HashMetrics.takeThreadCounts();
+    final long nodeHashes = NodeHashCounter.getComputed().sum();
+
+    // the hashes are memoised, nothing is hashed again without a change
+    zkTrie.commit();
+    assertThat(zkTrie.getTopRootHash()).isEqualTo(rootHash);
+    assertThat(HashMetrics.takeThreadCounts().total()).isZero();
+
+    // a trie loaded from the storage reuses the hashes of the node references
+    assertThat(ZKTrie.loadTrie(rootHash, storage).getTopRootHash()).isEqualTo(rootHash);
+    assertThat(HashMetrics.takeThreadCounts().total()).isZero();
+    assertThat(NodeHashCounter.getComputed().sum()).isEqualTo(nodeHashes);
+
+    // an update only hashes the nodes of its path again, not the whole trie
+    zkTrie.putWithTrace(updatedHkey, updatedKey, unsafeFromBytes(createDumDigest(99)));
+    zkTrie.commit();
+    assertThat(HashMetrics.takeThreadCounts().total()).isPositive().isLessThan(100);
+    assertThat(NodeHashCounter.getComputed().sum() - nodeHashes).isPositive().isLessThan(100);
+  }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie.engine;
+
+import static net.consensys.shomei.trie.DigestGenerator.createDumDigest;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import net.consensys.shomei.trie.ZKTrie;
+import net.consensys.shomei.trie.model.LeafOpening;
+import net.consensys.shomei.trie.storage.InMemoryStorage;
+
+import java.util.List;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.hyperledger.besu.datatypes.Hash;
+import org.hyperledger.besu.ethereum.trie.Node;
+import org.junit.Test;
+
+public class FixedDepthTrieEngineTest {
+
+  private static final int DEPTH = 40;
+
+  private TrieEngine createEngine(final TrieEngineType type, final InMemoryStorage storage) {
+    return type.create(DEPTH, storage::getTrieNode, ZKTrie.getEmptyTrieRoot());
+  }
+
+  private static Bytes leaf(final int value) {
+    return new LeafOpening(0, 1, Hash.wrap(createDumDigest(value)), createDumDigest(value + 1))
+        .getEncodesBytes();
+  }
+
+  private static List<Bytes32> hashes(final List<Node<Bytes>> nodes) {
+    return nodes.stream().map(Node::getHash).toList();
+  }
+
+  @Test
+  public void testSameHashesAndProofsAsStoredNodeEngine() {
+    final TrieEngine storedNode = createEngine(TrieEngineType.STORED_NODE, new InMemoryStorage());
+    final TrieEngine fixedDepth = createEngine(TrieEngineType.FIXED_DEPTH, new InMemoryStorage());
+
+    assertThat(fixedDepth.getTopRootHash()).isEqualTo(storedNode.getTopRootHash());
+    assertThat(fixedDepth.getSubRootNode().getHash())
+        .isEqualTo(storedNode.getSubRootNode().getHash());
+
+    for (int i = 0; i < 5; i++) {
+      final long leafIndex = storedNode.incrementNextFreeLeafNodeIndex();
+      assertThat(fixedDepth.incrementNextFreeLeafNodeIndex()).isEqualTo(leafIndex);
+      assertThat(hashes(fixedDepth.putAndProve(leafIndex, leaf(i))))
+          .isEqualTo(hashes(storedNode.putAndProve(leafIndex, leaf(i))));
+    }
+
+    assertThat(hashes(fixedDepth.putAndProve(2, leaf(42))))
+        .isEqualTo(hashes(storedNode.putAndProve(2, leaf(42))));
+    assertThat(hashes(fixedDepth.removeAndProve(3)))
+        .isEqualTo(hashes(storedNode.removeAndProve(3)));
+
+    assertThat(fixedDepth.getAndProve(2).nodeValue()).contains(leaf(42));
+    assertThat(fixedDepth.getAndProve(3).nodeValue()).isEmpty();
+    assertThat(hashes(fixedDepth.getAndProve(4).subProof()))
+        .isEqualTo(hashes(storedNode.getAndProve(4).subProof()));
+
+    assertThat(fixedDepth.getSubRootNode().getHash())
+        .isEqualTo(storedNode.getSubRootNode().getHash());
+    assertThat(fixedDepth.getTopRootHash()).isEqualTo(storedNode.getTopRootHash());
+  }
+
+  @Test
+  public void testCommittedTrieCanBeLoadedByStoredNodeEngine() {
+    final InMemoryStorage storage = new InMemoryStorage();
+    final TrieEngine fixedDepth = createEngine(TrieEngineType.FIXED_DEPTH, storage);
+    for (int i = 0; i < 3; i++) {
+      fixedDepth.put(fixedDepth.incrementNextFreeLeafNodeIndex(), leaf(i));
+    }
+    fixedDepth.removeAndProve(1);
+    fixedDepth.commit(storage::putTrieNode);
+
+    final TrieEngine storedNode =
+        TrieEngineType.STORED_NODE.create(DEPTH, storage::getTrieNode, fixedDepth.getTopRootHash());
+    assertThat(storedNode.getTopRootHash()).isEqualTo(fixedDepth.getTopRootHash());
+    assertThat(storedNode.getNextFreeLeafNodeIndex()).isEqualTo(3);
+    assertThat(storedNode.get(0)).contains(leaf(0));
+    assertThat(storedNode.get(1)).isEmpty();
+    assertThat(storedNode.get(2)).contains(leaf(2));
+
+    // and reloaded by the fixed depth engine itself
+    final TrieEngine reloaded =
+        TrieEngineType.FIXED_DEPTH.create(DEPTH, storage::getTrieNode, fixedDepth.getTopRootHash());
+    assertThat(reloaded.getNextFreeLeafNodeIndex()).isEqualTo(3);
+    assertThat(reloaded.get(2)).contains(leaf(2));
+    assertThat(reloaded.getSubRootNode().getHash())
+        .isEqualTo(storedNode.getSubRootNode().getHash());
+  }
+
+  @Test
+  public void testReleasedNodesAreLoadedAgain() {
+    final InMemoryStorage storage = new InMemoryStorage();
+    final TrieEngine released = createEngine(TrieEngineType.FIXED_DEPTH, storage);
+    final TrieEngine kept = createEngine(TrieEngineType.FIXED_DEPTH, new InMemoryStorage());
+    for (int i = 0; i < 4; i++) {
+      kept.put(kept.incrementNextFreeLeafNodeIndex(), leaf(i));
+      released.put(released.incrementNextFreeLeafNodeIndex(), leaf(i));
+    }
+    released.commit(storage::putTrieNode);
+    released.releaseNodesBelow(8);
+
+    assertThat(released.get(1)).contains(leaf(1));
+    assertThat(hashes(released.putAndProve(2, leaf(42))))
+        .isEqualTo(hashes(kept.putAndProve(2, leaf(42))));
+    assertThat(hashes(released.removeAndProve(3))).isEqualTo(hashes(kept.removeAndProve(3)));
+    assertThat(released.getTopRootHash()).isEqualTo(kept.getTopRootHash());
+  }
+
+  @Test
+  public void testCannotReleaseNodesOfModifiedTrie() {
+    final TrieEngine fixedDepth = createEngine(TrieEngineType.FIXED_DEPTH, new InMemoryStorage());
+    fixedDepth.put(fixedDepth.incrementNextFreeLeafNodeIndex(), leaf(0));
+    assertThatThrownBy(() -> fixedDepth.releaseNodesBelow(8))
+        .isInstanceOf(IllegalStateException.class);
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie.model;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.apache.tuweni.units.bigints.UInt256;
+import org.hyperledger.besu.datatypes.Hash;
+import org.hyperledger.besu.ethereum.rlp.RLP;
+import org.junit.Test;
+
+public class FlattenedLeafTest {
+
+  @Test
+  public void readFromBytesMatchesRlpDecoding() {
+    final long[] leafIndexes = {0L, 1L, 127L, 128L, 0xffffL, Long.MAX_VALUE};
+    final Bytes[] leafValues = {
+      Bytes.EMPTY,
+      Bytes.of(0x01),
+      Bytes.of(0x80),
+      Bytes32.fromHexStringLenient("0x1234"),
+      Bytes.random(56),
+      Bytes.random(300)
+    };
+    for (long leafIndex : leafIndexes) {
+      for (Bytes leafValue : leafValues) {
+        final FlattenedLeaf leaf = new FlattenedLeaf(leafIndex, leafValue);
+        final Bytes encoded = RLP.encode(leaf::writeTo);
+        assertThat(FlattenedLeaf.readFrom(encoded)).isEqualTo(leaf);
+        assertThat(FlattenedLeaf.readFrom(encoded))
+            .isEqualTo(FlattenedLeaf.readFrom(RLP.input(encoded)));
+      }
+    }
+  }
+
+  @Test
+  public void readLeafOpeningFromEncodedBytes() {
+    final LeafOpening leafOpening =
+        new LeafOpening(
+            12L, Long.MAX_VALUE, Hash.hash(Bytes.of(1)), Bytes32.fromHexStringLenient("0x42"));
+    assertThat(leafOpening.getEncodesBytes())
+        .isEqualTo(
+            Bytes.concatenate(
+                UInt256.valueOf(12L),
+                UInt256.valueOf(Long.MAX_VALUE),
+                leafOpening.getHkey(),
+                leafOpening.getHval()));
+    assertThat(LeafOpening.readFrom(leafOpening.getEncodesBytes())).isEqualTo(leafOpening);
+    assertThat(LeafOpening.readFrom(LeafOpening.TAIL.getEncodesBytes()))
+        .isEqualTo(LeafOpening.TAIL);
+  }
+}
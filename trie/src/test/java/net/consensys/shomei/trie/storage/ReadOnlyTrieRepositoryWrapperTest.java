@@ -0,0 +1,82 @@
+/*
+ * Copyright ConsenSys Software Inc., 2023
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package net.consensys.shomei.trie.storage;
+
+import static net.consensys.shomei.trie.DigestGenerator.createDumDigest;
+import static net.consensys.shomei.util.bytes.MimcSafeBytes.unsafeFromBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import net.consensys.shomei.trie.ZKTrie;
+import net.consensys.shomei.trie.proof.MerkleInclusionProof;
+import net.consensys.shomei.trie.proof.MerkleNonInclusionProof;
+import net.consensys.shomei.util.bytes.MimcSafeBytes;
+import net.consensys.zkevm.HashProvider;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.hyperledger.besu.datatypes.Hash;
+import org.junit.Test;
+
+public class ReadOnlyTrieRepositoryWrapperTest {
+
+  private final InMemoryStorage storage = new InMemoryStorage();
+
+  @Test
+  public void readsTheSameStorageTrieAsTheWrapper() {
+    final ZKTrie trie = ZKTrie.createTrie(new StorageTrieRepositoryWrapper(3L, storage, storage));
+    final MimcSafeBytes<Bytes> key = unsafeFromBytes(createDumDigest(58));
+    final Hash hkey = HashProvider.trieHash(key);
+    trie.putWithTrace(hkey, key, unsafeFromBytes(createDumDigest(42)));
+    trie.commit();
+
+    final TrieStorage readOnlyStorage = ReadOnlyTrieRepositoryWrapper.forStorageTrie(3L, storage);
+    final ZKTrie readOnlyTrie = ZKTrie.loadTrie(trie.getTopRootHash(), readOnlyStorage);
+    assertThat(readOnlyTrie.getSubRootHash()).isEqualTo(trie.getSubRootHash());
+    assertThat(readOnlyTrie.get(hkey)).isEqualTo(trie.get(hkey));
+    assertThat(readOnlyTrie.getProof(hkey, key))
+        .isInstanceOfSatisfying(
+            MerkleInclusionProof.class,
+            proof -> assertThat(proof.getLeafIndex()).isEqualTo(trie.getLeafIndex(hkey).get()));
+
+    final MimcSafeBytes<Bytes> missingKey = unsafeFromBytes(createDumDigest(12));
+    assertThat(readOnlyTrie.getProof(HashProvider.trieHash(missingKey), missingKey))
+        .isInstanceOf(MerkleNonInclusionProof.class);
+    assertThat(readOnlyStorage.getNearestKeys(hkey).toString())
+        .isEqualTo(
+            new StorageTrieRepositoryWrapper(3L, storage, storage).getNearestKeys(hkey).toString());
+
+    // the storage trie of another account is empty
+    assertThat(ReadOnlyTrieRepositoryWrapper.forStorageTrie(4L, storage).getFlatLeaf(hkey))
+        .isEmpty();
+  }
+
+  @Test
+  public void readsTheSameAccountTrieAsTheWrapper() {
+    final AccountTrieRepositoryWrapper wrapper = new AccountTrieRepositoryWrapper(storage, storage);
+    final ZKTrie trie = ZKTrie.createTrie(wrapper);
+    final MimcSafeBytes<Bytes> key = unsafeFromBytes(createDumDigest(58));
+    final Hash hkey = HashProvider.trieHash(key);
+    trie.putWithTrace(hkey, key, unsafeFromBytes(createDumDigest(42)));
+    trie.commit();
+
+    final TrieStorage readOnlyStorage = ReadOnlyTrieRepositoryWrapper.forAccountTrie(storage);
+    assertThat(readOnlyStorage.getFlatLeaf(hkey)).isPresent().isEqualTo(wrapper.getFlatLeaf(hkey));
+    assertThat(readOnlyStorage.getNearestKeys(hkey).toString())
+        .isEqualTo(wrapper.getNearestKeys(hkey).toString());
+    assertThat(ZKTrie.loadTrie(trie.getTopRootHash(), readOnlyStorage).get(hkey))
+        .isEqualTo(trie.get(hkey));
+    assertThatThrownBy(readOnlyStorage::updater)
+        .isInstanceOf(UnsupportedOperationException.class);
+  }
+}
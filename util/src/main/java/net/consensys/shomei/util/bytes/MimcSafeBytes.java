@@ -13,8 +13,6 @@
 
 package net.consensys.shomei.util.bytes;
 
-import java.util.Arrays;
-
 import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
 import org.apache.tuweni.bytes.DelegatingBytes;
@@ -52,8 +50,34 @@ public class MimcSafeBytes<T extends Bytes> extends DelegatingBytes implements B
     return new MimcSafeBytes<>(delegate, delegate);
   }
 
+  /**
+   * Concatenates the given elements. The safe and the unsafe encodings are each written once into
+   * a buffer of their final size, so that the hasher reads the safe encoding without any copy.
+   */
   public static MimcSafeBytes<Bytes> concatenateSafeElements(final Bytes... values) {
-    return new MimcSafeBytes<>(Bytes.concatenate(values), concatenateUnSafe(values));
+    int safeSize = 0;
+    int unsafeSize = 0;
+    try {
+      for (Bytes value : values) {
+        safeSize = Math.addExact(safeSize, value.size());
+        unsafeSize = Math.addExact(unsafeSize, unsafeValue(value).size());
+      }
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException(
+          "Combined length of values is too long (> Integer.MAX_VALUE)");
+    }
+    final MutableBytes safe = MutableBytes.create(safeSize);
+    final MutableBytes unsafe = MutableBytes.create(unsafeSize);
+    int safeOffset = 0;
+    int unsafeOffset = 0;
+    for (Bytes value : values) {
+      value.copyTo(safe, safeOffset);
+      safeOffset += value.size();
+      final Bytes unsafeValue = unsafeValue(value);
+      unsafeValue.copyTo(unsafe, unsafeOffset);
+      unsafeOffset += unsafeValue.size();
+    }
+    return new MimcSafeBytes<>(safe, unsafe);
   }
 
   @Override
@@ -65,42 +89,17 @@ public class MimcSafeBytes<T extends Bytes> extends DelegatingBytes implements B
     return originalUnsafeValue;
   }
 
-  private static Bytes concatenateUnSafe(Bytes... values) {
-    if (values.length == 0) {
-      return EMPTY;
-    }
-
-    int size;
-    try {
-      size =
-          Arrays.stream(values)
-              .mapToInt(
-                  value ->
-                      (value instanceof MimcSafeBytes<?>)
-                          ? ((MimcSafeBytes<?>) value).getOriginalUnsafeValue().size()
-                          : value.size())
-              .reduce(0, Math::addExact);
-    } catch (ArithmeticException e) {
-      throw new IllegalArgumentException(
-          "Combined length of values is too long (> Integer.MAX_VALUE)");
-    }
-
-    MutableBytes result = MutableBytes.create(size);
-    int offset = 0;
-    for (Bytes value : values) {
-      Bytes unsafeValue =
-          (value instanceof MimcSafeBytes<?>)
-              ? ((MimcSafeBytes<?>) value).getOriginalUnsafeValue()
-              : value;
-      unsafeValue.copyTo(result, offset);
-      offset += unsafeValue.size();
-    }
-    return result;
+  private static Bytes unsafeValue(final Bytes value) {
+    return (value instanceof MimcSafeBytes<?>)
+        ? ((MimcSafeBytes<?>) value).getOriginalUnsafeValue()
+        : value;
   }
 
   private static Bytes convertToSafeFieldElementsSize(final Bytes32 value) {
-    Bytes32 lsb = Bytes32.leftPad(value.slice(16, 16));
-    Bytes32 msb = Bytes32.leftPad(value.slice(0, 16));
-    return Bytes.concatenate(lsb, msb);
+    // the least significant half comes first, each half is left padded to a field element
+    final MutableBytes safe = MutableBytes.create(2 * Bytes32.SIZE);
+    value.slice(16, 16).copyTo(safe, 16);
+    value.slice(0, 16).copyTo(safe, Bytes32.SIZE + 16);
+    return safe;
   }
 }